@@ -12,7 +12,6 @@ import android.support.test.filters.LargeTest;
 import android.support.test.rule.GrantPermissionRule;
 import android.support.test.runner.AndroidJUnit4;
 import android.support.test.uiautomator.UiDevice;
-import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Spinner;
 import org.junit.Before;
@@ -143,7 +142,7 @@ public class CsvTest {
     onView(withClassName(is(EditText.class.getName()))).perform(typeText(VALID_QUALIFIER));
 
     //Click Export
-    onView(withClassName(is(Button.class.getName()))).perform(click());
+    onView(withId(R.id.EXPORTBUTTON_ID)).perform(click());
 
     //Make sure export is successful
     onView(withId(android.R.id.message)).check(matches(withText(R.string.export_success)));
@@ -178,7 +177,7 @@ public class CsvTest {
     onView(withClassName(is(EditText.class.getName()))).perform(typeText(INVALID_QUALIFIER));
 
     //Click Export
-    onView(withClassName(is(Button.class.getName()))).perform(click());
+    onView(withId(R.id.EXPORTBUTTON_ID)).perform(click());
 
     try {
       //Check that error message is shown
@@ -0,0 +1,199 @@
+package org.opendatakit.tables.tasks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes tables in the compressed and columnar export formats and checks that reading them back
+ * gives exactly the values that went in.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExportFormatRoundTripTest {
+  private static final List<String> COLUMNS = Arrays
+      .asList("_id", "count", "weight", "location", "note", "when");
+  // more than one page, so several blocks are written
+  private static final int NUM_ROWS = TableCsvExporter.PAGE_SIZE * 2 + 17;
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "roundtrip");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void columnarKeepsAwkwardValues() throws Exception {
+    List<String[]> rows = new ArrayList<>();
+    rows.add(new String[] { "a", "0", "0.0", "", null, "-0.0" });
+    rows.add(new String[] { "b", "-9223372036854775808", "NaN", "1.50", "ünïcødé ✓", "Infinity" });
+    rows.add(new String[] { "c", "9223372036854775807", "1.0E300", "007", "a,\"quoted\"\nvalue",
+        "-Infinity" });
+    rows.add(new String[] { "d", null, null, null, null, null });
+    rows.add(new String[] { "e", "12", "4.9E-324", "47.6,-122.3", "", "2018-01-01T00:00:00" });
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ColumnarTableCodec.Writer writer = new ColumnarTableCodec.Writer(out);
+    writer.writeHeader(COLUMNS);
+    writer.writeBlock(rows.subList(0, 2));
+    writer.writeBlock(rows.subList(2, rows.size()));
+    writer.close();
+
+    ColumnarTableCodec.Reader reader = new ColumnarTableCodec.Reader(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertArrayEquals(COLUMNS.toArray(), reader.getHeader());
+    List<String[]> read = new ArrayList<>();
+    List<String[]> block;
+    while ((block = reader.readBlock()) != null) {
+      read.addAll(block);
+    }
+    assertRowsEqual(rows, read);
+  }
+
+  @Test
+  public void columnarEmptyFileHasNoRows() throws Exception {
+    ColumnarTableCodec.Reader reader = new ColumnarTableCodec.Reader(
+        new ByteArrayInputStream(new byte[0]));
+    assertNull(reader.getHeader());
+    assertNull(reader.readBlock());
+    assertEquals(0, reader.importRows(new RowBatchSource.BatchSink() {
+      @Override
+      public void insertBatch(List<Map<String, String>> rows) {
+        throw new AssertionError("an empty file has no rows");
+      }
+    }, 100, null));
+  }
+
+  @Test
+  public void columnarExportRoundTrip() throws Exception {
+    TableCsvExporter
+        .writeRows(new StandInSource(), "standin", file, ExportFormat.COLUMNAR, null);
+
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      ColumnarTableCodec.Reader reader = new ColumnarTableCodec.Reader(in);
+      assertArrayEquals(COLUMNS.toArray(), reader.getHeader());
+      List<String[]> read = new ArrayList<>();
+      List<String[]> block;
+      while ((block = reader.readBlock()) != null) {
+        read.addAll(block);
+      }
+      assertRowsEqual(StandInSource.rows(0, NUM_ROWS), read);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void gzipExportRoundTrip() throws Exception {
+    TableCsvExporter
+        .writeRows(new StandInSource(), "standin", file, ExportFormat.CSV_GZIP, null);
+
+    InputStream in = new GZIPInputStream(new FileInputStream(file));
+    try {
+      CsvBatchImporter importer = new CsvBatchImporter(new InputStreamReader(in, "UTF-8"));
+      assertArrayEquals(COLUMNS.toArray(), importer.getHeader());
+      final List<String[]> read = new ArrayList<>();
+      importer.importRows(new RowBatchSource.BatchSink() {
+        @Override
+        public void insertBatch(List<Map<String, String>> batch) {
+          for (Map<String, String> row : batch) {
+            String[] line = new String[COLUMNS.size()];
+            for (int i = 0; i < line.length; i++) {
+              line[i] = row.get(COLUMNS.get(i));
+            }
+            read.add(line);
+          }
+        }
+      }, 100, null);
+      assertRowsEqual(StandInSource.rows(0, NUM_ROWS), read);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void columnarIsSmallerThanCsv() throws Exception {
+    TableCsvExporter.writeRows(new StandInSource(), "standin", file, ExportFormat.CSV, null);
+    long csvBytes = file.length();
+    TableCsvExporter
+        .writeRows(new StandInSource(), "standin", file, ExportFormat.COLUMNAR, null);
+    assertTrue(file.length() < csvBytes);
+  }
+
+  private static void assertRowsEqual(List<String[]> expected, List<String[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      String[] e = expected.get(i);
+      String[] a = actual.get(i);
+      for (int j = 0; j < e.length; j++) {
+        if (e[j] == null) {
+          assertNull(a[j]);
+        } else {
+          // compare the bytes, not just equals, to prove nothing was normalized
+          assertArrayEquals(e[j].getBytes(), a[j].getBytes());
+        }
+      }
+    }
+  }
+
+  /**
+   * A table whose columns suit each of the columnar encodings
+   */
+  private static class StandInSource implements TableCsvExporter.PageSource {
+    @Override
+    public List<String> getColumns() {
+      return COLUMNS;
+    }
+
+    @Override
+    public int countRows() {
+      return NUM_ROWS;
+    }
+
+    @Override
+    public List<String[]> getPage(String afterRowId, int limit) {
+      int first = afterRowId == null ? 0 : Integer.parseInt(afterRowId.substring(5)) + 1;
+      return rows(first, Math.min(NUM_ROWS, first + limit));
+    }
+
+    static List<String[]> rows(int first, int end) {
+      List<String[]> rows = new ArrayList<>();
+      for (int i = first; i < end; i++) {
+        rows.add(new String[] { String.format("uuid:%08d", i),
+            i % 11 == 0 ? null : Integer.toString(i * 37 - 5000),
+            Double.toString(i / 3.0),
+            (47.0 + i / 1000.0) + "," + (-122.0 - i / 1000.0),
+            i % 3 == 0 ? "visited" : "pending",
+            "2018-03-" + (10 + i % 20) + "T08:15:00.000000000" });
+      }
+      return rows;
+    }
+  }
+}
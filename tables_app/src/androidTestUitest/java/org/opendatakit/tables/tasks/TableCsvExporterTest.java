@@ -0,0 +1,117 @@
+package org.opendatakit.tables.tasks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports a 1M row stand-in table with only a few megabytes of heap left free. Holding the whole
+ * table in memory the way CsvUtil.exportSeparable does would run out of memory here.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TableCsvExporterTest {
+  private static final int NUM_ROWS = 1000000;
+  private static final List<String> COLUMNS = Arrays
+      .asList("_id", "name", "age", "weight", "_savepoint_timestamp");
+  // how much heap the export gets to work with
+  private static final long HEAP_CAP_BYTES = 16L * 1024 * 1024;
+
+  private File file;
+  private List<byte[]> ballast;
+
+  @Before
+  public void setUp() {
+    file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "standin.csv");
+    ballast = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    ballast = null;
+    file.delete();
+  }
+
+  @Test
+  public void exportMillionRowsUnderHeapCap() throws Exception {
+    fillHeapLeaving(HEAP_CAP_BYTES);
+    int written = TableCsvExporter
+        .writeRows(new StandInSource(), "standin", file, ExportFormat.CSV, null);
+    ballast.clear();
+
+    assertEquals(NUM_ROWS, written);
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      assertEquals("_id,name,age,weight,_savepoint_timestamp", reader.readLine());
+      int lines = 0;
+      String last = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        last = line;
+        lines++;
+      }
+      assertEquals(NUM_ROWS, lines);
+      assertTrue(last.startsWith(rowId(NUM_ROWS - 1) + ","));
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Allocates ballast until only about the given number of bytes of heap are left
+   */
+  private void fillHeapLeaving(long bytes) {
+    Runtime runtime = Runtime.getRuntime();
+    runtime.gc();
+    long chunk = 1024 * 1024;
+    while (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()) > bytes + chunk) {
+      ballast.add(new byte[(int) chunk]);
+    }
+  }
+
+  private static String rowId(int i) {
+    // zero padded so the string order matches the numeric order
+    return String.format("uuid:%010d", i);
+  }
+
+  /**
+   * Generates rows on demand, honouring the keyset contract of PageSource
+   */
+  private static class StandInSource implements TableCsvExporter.PageSource {
+    @Override
+    public List<String> getColumns() {
+      return COLUMNS;
+    }
+
+    @Override
+    public int countRows() {
+      return NUM_ROWS;
+    }
+
+    @Override
+    public List<String[]> getPage(String afterRowId, int limit) {
+      int first = afterRowId == null ? 0 : Integer.parseInt(afterRowId.substring(5)) + 1;
+      int end = Math.min(NUM_ROWS, first + limit);
+      List<String[]> page = new ArrayList<>(Math.max(0, end - first));
+      for (int i = first; i < end; i++) {
+        page.add(new String[] { rowId(i), "name " + i, Integer.toString(i % 100),
+            Double.toString(i / 7.0), "2018-01-01T00:00:00.000000000" });
+      }
+      return page;
+    }
+  }
+}
@@ -38,6 +38,7 @@ import org.opendatakit.properties.CommonToolProperties;
 import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.TableFileUtils;
 
 import java.util.Iterator;
@@ -118,9 +119,17 @@ public abstract class AbsBaseActivity extends BaseActivity {
   @Override
   protected void onResume() {
     super.onResume();
+    // the calls made while the activity is shown share one database handle
+    DbSessionManager.beginScope(mAppName, TAG);
     ((CommonApplication) getApplication()).establishDoNotFireDatabaseConnectionListener(this);
   }
 
+  @Override
+  protected void onPause() {
+    DbSessionManager.endScope(mAppName, TAG);
+    super.onPause();
+  }
+
   @Override
   public void onPostResume() {
     super.onPostResume();
@@ -152,7 +161,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
     }
 
     try {
-      db = app.getDatabase().openDatabase(mAppName);
+      db = DbSessionManager.openDatabase(mAppName);
       List<TableHealthInfo> tableHealthList = app.getDatabase()
           .getTableHealthStatuses(mAppName, db);
 
@@ -179,7 +188,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
     } finally {
       if (db != null) {
         try {
-          app.getDatabase().closeDatabase(mAppName, db);
+          DbSessionManager.closeDatabase(mAppName, db);
         } catch (ServicesAvailabilityException e) {
           handleError(e);
         }
@@ -300,6 +309,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
    */
   @Override
   public void databaseUnavailable() {
+    DbSessionManager.databaseUnavailable();
     FragmentManager mgr = this.getFragmentManager();
     int idxLast = mgr.getBackStackEntryCount() - 1;
     if (idxLast >= 0) {
@@ -4,6 +4,8 @@ import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.json.JSONObject;
 import org.opendatakit.consts.RequestCodeConsts;
 import org.opendatakit.database.service.UserDbInterface;
@@ -15,6 +17,10 @@ import org.opendatakit.properties.DynamicPropertiesCallback;
 import org.opendatakit.properties.PropertyManager;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.PerfMetrics;
+import org.opendatakit.tables.views.webkits.CompactResponseSession;
+import org.opendatakit.tables.views.webkits.OdkTablesWebView;
+import org.opendatakit.tables.views.webkits.OdkTablesWebViewPool;
 import org.opendatakit.tables.views.webkits.TableDataExecutorProcessor;
 import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.views.ExecutorContext;
@@ -23,8 +29,17 @@ import org.opendatakit.views.ODKWebView;
 import org.opendatakit.webkitserver.utilities.DoActionUtils;
 import org.opendatakit.webkitserver.utilities.UrlUtils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author mitchellsundt@gmail.com
@@ -51,6 +66,15 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
   private static final String RESPONSE_JSON_MAIN = "responseJSON_main";
   private static final String RESPONSE_JSON_SUBLIST = "responseJSON_sublist";
 
+  /**
+   * The error a cancelled request is answered with, in place of its data
+   */
+  public static final String CANCELLED_ERROR = "cancelled";
+  // the most cancelled requests remembered per web view while waiting for their responses
+  private static final int MAX_CANCELLED_REQUESTS = 64;
+  // the field of a response naming the request it answers
+  private static final String CALLBACK_JSON = "callbackJSON";
+
   /**
    * With the advent of the split screen detail-with-sublist view, we need to
    * guard access to the data and result queues and session variable data structures.
@@ -69,6 +93,22 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
   private final Object guardCachedContent = new Object();
   private LinkedList<String> guardedQueueResponseJSON_main = new LinkedList<>();
   private LinkedList<String> guardedQueueResponseJSON_sublist = new LinkedList<>();
+  // the callbackJSON of cancelled requests whose responses haven't come back yet
+  private Set<String> guardedCancelledCallbacks_main = new HashSet<>();
+  private Set<String> guardedCancelledCallbacks_sublist = new HashSet<>();
+  // decides which web view gets its response first when several are waiting
+  private final ResponseScheduler responseScheduler = new ResponseScheduler(
+      new ResponseScheduler.Queue() {
+        @Override
+        public void queueResponse(String responseJSON, String fragmentID) {
+          AbsBaseWebActivity.this.queueResponse(responseJSON, fragmentID);
+        }
+
+        @Override
+        public boolean isAttached(String fragmentID) {
+          return getWebKitView(fragmentID) != null;
+        }
+      });
   private String guardedDispatchStringWaitingForData = null;
   private String guardedActionWaitingForData = null;
   private LinkedList<String> guardedQueuedActions = new LinkedList<>();
@@ -359,6 +399,26 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
 
   @Override
   public void signalResponseAvailable(String responseJSON, String fragmentID) {
+    long timer = PerfMetrics.startTimer();
+    try {
+      queueForScheduler(responseJSON, fragmentID);
+    } finally {
+      PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "signalResponseAvailable", timer);
+    }
+  }
+
+  /**
+   * Encodes a response the way its page asked for and hands it to the response scheduler
+   *
+   * @param responseJSON the response, may be null
+   * @param fragmentID   the id of the web view it is for
+   */
+  private void queueForScheduler(String responseJSON, String fragmentID) {
+    if (OdkTablesWebViewPool.IDLE_FRAGMENT_ID.equals(fragmentID)) {
+      // made by a page sitting idle in the web view pool, which nothing shows
+      WebLogger.getLogger(getAppName()).i(TAG, "signalResponseAvailable -- dropped, idle view");
+      return;
+    }
     if (responseJSON == null) {
       WebLogger.getLogger(getAppName()).e(TAG, "signalResponseAvailable -- got null responseJSON!");
     } else {
@@ -367,39 +427,308 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
     }
 
     if (responseJSON != null) {
-      synchronized (guardCachedContent) {
-        if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
-          this.guardedQueueResponseJSON_sublist.push(responseJSON);
-        } else {
-          this.guardedQueueResponseJSON_main.push(responseJSON);
+      // before it is encoded, so a response the page cancelled isn't parsed again for that
+      responseJSON = replaceIfCancelled(responseJSON, fragmentID);
+      CompactResponseSession compactResponses = getCompactResponses(fragmentID);
+      if (compactResponses != null) {
+        long timer = PerfMetrics.startTimer();
+        try {
+          responseJSON = compactResponses.encode(responseJSON);
+        } catch (IOException e) {
+          // the page still gets it, as plain JSON
+          WebLogger.getLogger(getAppName()).printStackTrace(e);
         }
+        PerfMetrics.stopTimer(PerfMetrics.COMPACT_RESPONSES, timer);
       }
-      final ODKWebView webView = getWebKitView(fragmentID);
-      if (webView != null) {
-        runOnUiThread(new Runnable() {
-          @Override
-          public void run() {
-            webView.signalResponseAvailable();
-          }
-        });
+      responseScheduler.add(responseJSON, fragmentID, getResponseQueueKey(fragmentID),
+          getResponsePriority(fragmentID));
+    }
+  }
+
+  /**
+   * Queues a response the response scheduler has let through, and tells its web view
+   *
+   * @param responseJSON the response
+   * @param fragmentID   the id of the web view it is for
+   */
+  private void queueResponse(String responseJSON, String fragmentID) {
+    synchronized (guardCachedContent) {
+      // the page may have cancelled it while the scheduler held it
+      responseJSON = replaceIfCancelled(responseJSON, fragmentID);
+      if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
+        this.guardedQueueResponseJSON_sublist.push(responseJSON);
+      } else {
+        this.guardedQueueResponseJSON_main.push(responseJSON);
       }
     }
+    final ODKWebView webView = getWebKitView(fragmentID);
+    if (webView != null) {
+      runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          webView.signalResponseAvailable();
+        }
+      });
+    }
   }
 
   @Override
   public String getResponseJSON(String fragmentID) {
+    long timer = PerfMetrics.startTimer();
+    try {
+      return takeResponseJSON(fragmentID);
+    } finally {
+      PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "getResponseJSON", timer);
+    }
+  }
+
+  /**
+   * Takes the next response for a web view off its queue
+   *
+   * @param fragmentID the id of the web view
+   * @return the response, or null if none is waiting
+   */
+  private String takeResponseJSON(String fragmentID) {
+    String responseJSON;
     synchronized (guardCachedContent) {
       if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
         if (guardedQueueResponseJSON_sublist.isEmpty()) {
           return null;
         }
-        return guardedQueueResponseJSON_sublist.removeFirst();
+        responseJSON = guardedQueueResponseJSON_sublist.removeFirst();
       } else {
         if (guardedQueueResponseJSON_main.isEmpty()) {
           return null;
         }
-        return guardedQueueResponseJSON_main.removeFirst();
+        responseJSON = guardedQueueResponseJSON_main.removeFirst();
+      }
+    }
+    // outside the guard, the scheduler calls queueResponse while holding its own lock
+    responseScheduler.fetched(getResponseQueueKey(fragmentID));
+    CompactResponseSession compactResponses = getCompactResponses(fragmentID);
+    if (compactResponses != null) {
+      compactResponses.fetched(responseJSON);
+    }
+    return responseJSON;
+  }
+
+  /**
+   * @param fragmentID the id of a web view
+   * @return what encodes the responses of the page in it, or null if they are plain JSON
+   */
+  private CompactResponseSession getCompactResponses(String fragmentID) {
+    ODKWebView webView = getWebKitView(fragmentID);
+    if (webView instanceof OdkTablesWebView) {
+      return ((OdkTablesWebView) webView).getCompactResponses();
+    }
+    return null;
+  }
+
+  /**
+   * @param fragmentID the id of a web view
+   * @return which of the two response queues its responses go in
+   */
+  private static String getResponseQueueKey(String fragmentID) {
+    if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
+      return RESPONSE_JSON_SUBLIST;
+    }
+    return RESPONSE_JSON_MAIN;
+  }
+
+  /**
+   * Web views that show a single row first, so a detail page isn't kept waiting while another
+   * web view parses a list, then the main web view, then the sublist and web views that aren't
+   * shown
+   *
+   * @param fragmentID the id of the web view the response is for
+   * @return when it should be handed over
+   */
+  private ResponseScheduler.Priority getResponsePriority(String fragmentID) {
+    if (showsSingleRow(fragmentID)) {
+      return ResponseScheduler.Priority.ROW;
+    }
+    ODKWebView webView = getWebKitView(fragmentID);
+    if (RESPONSE_JSON_SUBLIST.equals(getResponseQueueKey(fragmentID)) || webView == null
+        || !webView.isShown()) {
+      return ResponseScheduler.Priority.BULK;
+    }
+    return ResponseScheduler.Priority.FOREGROUND;
+  }
+
+  /**
+   * @param fragmentID the id of a web view
+   * @return whether the web view shows a single row, so its requests are lookups of that row
+   */
+  boolean showsSingleRow(String fragmentID) {
+    return false;
+  }
+
+  /**
+   * Cancels requests a page has superseded, a query it re-issued with a new filter for example.
+   * Responses to them that are still queued are replaced by a short {@link #CANCELLED_ERROR}
+   * error, and so are the responses that come back later, so the page's callbacks are still
+   * called but it never gets, or parses, the data it no longer wants. A response that comes back
+   * later is replaced before it is re-encoded for the page.
+   * <p>
+   * This only saves the handover. The executor that runs the requests is in the shared ODK
+   * library, and Tables only sees a request once its response is serialized, so a cancelled
+   * request still runs its query and has its response built. For the same reason identical
+   * requests in flight are each run; they aren't collapsed into one.
+   *
+   * @param callbackJSONs the callbackJSON the page sent with each of the requests
+   * @param fragmentID    the id of the web view the page is in
+   */
+  public void cancelRequests(Collection<String> callbackJSONs, String fragmentID) {
+    Set<String> remaining = new HashSet<>(callbackJSONs);
+    synchronized (guardCachedContent) {
+      LinkedList<String> queue =
+          fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID) ?
+              guardedQueueResponseJSON_sublist :
+              guardedQueueResponseJSON_main;
+      ListIterator<String> responses = queue.listIterator();
+      while (responses.hasNext() && !remaining.isEmpty()) {
+        String callbackJSON = getCallbackJSON(responses.next());
+        if (callbackJSON != null && remaining.remove(callbackJSON)) {
+          responses.set(getCancelledResponseJSON(callbackJSON));
+          PerfMetrics.increment(PerfMetrics.CANCELLED_RESPONSES, 1);
+        }
+      }
+      Set<String> cancelled = getCancelledCallbacks(fragmentID);
+      if (cancelled.size() + remaining.size() > MAX_CANCELLED_REQUESTS) {
+        // their responses were lost, or came back before they were cancelled
+        cancelled.clear();
+      }
+      cancelled.addAll(remaining);
+    }
+  }
+
+  /**
+   * @param responseJSON a response
+   * @param fragmentID   the id of the web view it is for
+   * @return a short {@link #CANCELLED_ERROR} error if it answers a request the page cancelled,
+   * the response itself otherwise
+   */
+  private String replaceIfCancelled(String responseJSON, String fragmentID) {
+    synchronized (guardCachedContent) {
+      Set<String> cancelled = getCancelledCallbacks(fragmentID);
+      if (cancelled.isEmpty()) {
+        return responseJSON;
+      }
+      String callbackJSON = getCallbackJSON(responseJSON);
+      if (callbackJSON == null || !cancelled.remove(callbackJSON)) {
+        return responseJSON;
+      }
+      // the page isn't waiting for the data, don't hand it megabytes to parse
+      PerfMetrics.increment(PerfMetrics.CANCELLED_RESPONSES, 1);
+      return getCancelledResponseJSON(callbackJSON);
+    }
+  }
+
+  /**
+   * Must be called while holding guardCachedContent
+   *
+   * @param fragmentID the id of a web view
+   * @return the callbackJSON of the web view's cancelled requests that haven't been answered
+   */
+  private Set<String> getCancelledCallbacks(String fragmentID) {
+    if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
+      return guardedCancelledCallbacks_sublist;
+    }
+    return guardedCancelledCallbacks_main;
+  }
+
+  /**
+   * Reads the callbackJSON of a response without tokenizing the data and metadata that may come
+   * before it: the characters are scanned for the top level callbackJSON field, keeping track of
+   * nesting and skipping over strings, and only its value is parsed.
+   *
+   * @param responseJSON a response from the executor, plain or compact
+   * @return its callbackJSON, or null if it doesn't have one that is a string
+   */
+  static String getCallbackJSON(String responseJSON) {
+    int length = responseJSON.length();
+    int depth = 0;
+    for (int i = 0; i < length; i++) {
+      char c = responseJSON.charAt(i);
+      if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+      } else if (c == '"') {
+        int end = skipString(responseJSON, i);
+        if (end < 0) {
+          return null;
+        }
+        if (depth == 1 && end - i - 1 == CALLBACK_JSON.length() && responseJSON
+            .regionMatches(i + 1, CALLBACK_JSON, 0, CALLBACK_JSON.length())) {
+          int colon = skipWhitespace(responseJSON, end + 1);
+          if (colon < length && responseJSON.charAt(colon) == ':') {
+            return readString(responseJSON, colon + 1);
+          }
+        }
+        i = end;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the index of the quote that ends the string starting at start, or -1 if it doesn't
+   * end
+   */
+  private static int skipString(String json, int start) {
+    int length = json.length();
+    for (int i = start + 1; i < length; i++) {
+      char c = json.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '"') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(String json, int start) {
+    int i = start;
+    while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * @return the JSON string value starting at start, unescaped, or null if the value there isn't
+   * a string
+   */
+  private static String readString(String json, int start) {
+    try {
+      Reader reader = new StringReader(json);
+      reader.skip(start);
+      JsonParser parser = ODKFileUtils.mapper.getFactory().createParser(reader);
+      try {
+        return parser.nextToken() == JsonToken.VALUE_STRING ? parser.getText() : null;
+      } finally {
+        parser.close();
       }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param callbackJSON the callbackJSON of a cancelled request
+   * @return the response it gets in place of its data
+   */
+  private String getCancelledResponseJSON(String callbackJSON) {
+    Map<String, Object> response = new HashMap<>();
+    response.put(CALLBACK_JSON, callbackJSON);
+    response.put("error", CANCELLED_ERROR);
+    try {
+      return ODKFileUtils.mapper.writeValueAsString(response);
+    } catch (IOException e) {
+      // a map of two strings always serializes
+      throw new IllegalStateException(e);
     }
   }
 
@@ -23,6 +23,7 @@ import org.opendatakit.database.service.DbHandle;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.DbSessionManager;
 
 /**
  * This class is the base for any Activity that will display information about
@@ -67,7 +68,7 @@ public abstract class AbsTableActivity extends AbsBaseActivity {
       if (app.getDatabase() != null) {
         DbHandle db = null;
         try {
-          db = app.getDatabase().openDatabase(getAppName());
+          db = DbSessionManager.openDatabase(getAppName());
           mColumnDefinitions = app.getDatabase()
               .getUserDefinedColumns(getAppName(), db, getTableId());
         } catch (ServicesAvailabilityException e) {
@@ -77,7 +78,7 @@ public abstract class AbsTableActivity extends AbsBaseActivity {
         } finally {
           if (db != null) {
             try {
-              app.getDatabase().closeDatabase(getAppName(), db);
+              DbSessionManager.closeDatabase(getAppName(), db);
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(getAppName()).e(TAG, "[onCreate] unable to close database.");
               WebLogger.getLogger(getAppName()).printStackTrace(e);
@@ -88,4 +89,16 @@ public abstract class AbsTableActivity extends AbsBaseActivity {
     }
     return this.mColumnDefinitions;
   }
+
+  /**
+   * Supplies column definitions that were already read elsewhere, such as by a prefetch, so
+   * getColumnDefinitions doesn't have to read them again
+   *
+   * @param columnDefinitions the columns of this activity's table
+   */
+  protected synchronized void setColumnDefinitions(OrderedColumns columnDefinitions) {
+    if (this.mColumnDefinitions == null) {
+      this.mColumnDefinitions = columnDefinitions;
+    }
+  }
 }
@@ -25,8 +25,11 @@ import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
 import android.widget.ScrollView;
 import android.widget.Spinner;
 import android.widget.TextView;
@@ -43,13 +46,18 @@ import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.ImportExportDialogFragment;
+import org.opendatakit.tables.tasks.BulkExportRequest;
+import org.opendatakit.tables.tasks.BulkExportTask;
+import org.opendatakit.tables.tasks.ExportFormat;
 import org.opendatakit.tables.tasks.ExportRequest;
 import org.opendatakit.tables.tasks.ExportTask;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.TableFileUtils;
 import org.opendatakit.utilities.ODKFileUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -85,6 +93,10 @@ public class ExportCSVActivity extends AbsBaseActivity {
   private Spinner tableSpin;
   // the text field where the user enters the qualifier
   private EditText qualifierTextBox;
+  // the choice of format for the data file
+  private RadioGroup formatGroup;
+  // whether to export only the rows changed since the last delta export
+  private CheckBox deltaCheckBox;
 
   /**
    * Called when the user navigates to this screen. Sets the app name and sets up the view
@@ -141,6 +153,21 @@ public class ExportCSVActivity extends AbsBaseActivity {
     qualifierTextBox = new EditText(this);
     qualifierTextBox.setId(R.id.FILENAMEVAL_ID);
     v.addView(qualifierTextBox);
+    // adding the format choice
+    TextView formatLabel = new TextView(this);
+    formatLabel.setText(getString(R.string.export_format));
+    v.addView(formatLabel);
+    formatGroup = new RadioGroup(this);
+    formatGroup.setId(R.id.EXPORTFORMAT_ID);
+    addFormatButton(R.id.EXPORTFORMAT_CSV_ID, R.string.export_format_csv);
+    addFormatButton(R.id.EXPORTFORMAT_CSV_GZIP_ID, R.string.export_format_csv_gzip);
+    addFormatButton(R.id.EXPORTFORMAT_COLUMNAR_ID, R.string.export_format_columnar);
+    formatGroup.check(R.id.EXPORTFORMAT_CSV_ID);
+    v.addView(formatGroup);
+    deltaCheckBox = new CheckBox(this);
+    deltaCheckBox.setId(R.id.EXPORTDELTA_ID);
+    deltaCheckBox.setText(getString(R.string.export_delta));
+    v.addView(deltaCheckBox);
     // Horizontal divider
     View ruler3 = new View(this);
     ruler3.setBackgroundColor(ContextCompat.getColor(getApplicationContext(), R.color.black));
@@ -151,12 +178,47 @@ public class ExportCSVActivity extends AbsBaseActivity {
     button.setText(getString(R.string.export_button));
     button.setOnClickListener(new ExportButtonListener());
     v.addView(button);
+    // adding the export all button
+    TextView allButton = new Button(this);
+    allButton.setId(R.id.EXPORTALLBUTTON_ID);
+    allButton.setText(getString(R.string.export_all_button));
+    allButton.setOnClickListener(new ExportAllButtonListener());
+    v.addView(allButton);
     // wrapping in a scroll view
     ViewGroup scroll = new ScrollView(this);
     scroll.addView(v);
     return scroll;
   }
 
+  /**
+   * Adds one choice to the format radio group
+   *
+   * @param id       the id of the radio button
+   * @param stringId the label of the radio button
+   */
+  private void addFormatButton(int id, int stringId) {
+    RadioButton button = new RadioButton(this);
+    button.setId(id);
+    button.setText(getString(stringId));
+    formatGroup.addView(button);
+  }
+
+  /**
+   * Works out which format the user picked
+   *
+   * @return the format of the data file to export
+   */
+  private ExportFormat getSelectedFormat() {
+    switch (formatGroup.getCheckedRadioButtonId()) {
+    case R.id.EXPORTFORMAT_CSV_GZIP_ID:
+      return ExportFormat.CSV_GZIP;
+    case R.id.EXPORTFORMAT_COLUMNAR_ID:
+      return ExportFormat.COLUMNAR;
+    default:
+      return ExportFormat.CSV;
+    }
+  }
+
   /**
    * Attempts to export a table.
    */
@@ -173,7 +235,27 @@ public class ExportCSVActivity extends AbsBaseActivity {
     ImportExportDialogFragment
         .newInstance(ImportExportDialogFragment.EXPORT_IN_PROGRESS_DIALOG, this);
     AsyncTask<ExportRequest, Integer, Boolean> task = new ExportTask(appName, this);
-    task.execute(new ExportRequest(appName, tableId, qualifierTextBox.getText().toString().trim()));
+    task.execute(new ExportRequest(appName, tableId, qualifierTextBox.getText().toString().trim(),
+        getSelectedFormat(), deltaCheckBox.isChecked()));
+  }
+
+  /**
+   * Exports the data of every table at once.
+   */
+  private void exportAllSubmission() {
+    if (tableIds == null || tableIds.length == 0) {
+      Toast
+          .makeText(this, R.string.export_no_table, Toast.LENGTH_LONG)
+          .show();
+
+      return;
+    }
+
+    ImportExportDialogFragment
+        .newInstance(ImportExportDialogFragment.EXPORT_IN_PROGRESS_DIALOG, this);
+    AsyncTask<BulkExportRequest, Integer, Boolean> task = new BulkExportTask(appName, this);
+    task.execute(new BulkExportRequest(appName, Arrays.asList(tableIds),
+        qualifierTextBox.getText().toString().trim(), getSelectedFormat()));
   }
 
   /**
@@ -209,7 +291,7 @@ public class ExportCSVActivity extends AbsBaseActivity {
       DbHandle db = null;
       try {
         ArrayList<String> localizedNames = new ArrayList<>();
-        db = dbInterface.openDatabase(appName);
+        db = DbSessionManager.openDatabase(appName);
         List<String> rawTableIds = dbInterface.getAllTableIds(appName, db);
         for (String tableId : rawTableIds) {
           String localizedDisplayName;
@@ -225,7 +307,7 @@ public class ExportCSVActivity extends AbsBaseActivity {
       } finally {
         if (db != null) {
           try {
-            dbInterface.closeDatabase(appName, db);
+            DbSessionManager.closeDatabase(appName, db);
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(appName).printStackTrace(e);
           }
@@ -257,4 +339,14 @@ public class ExportCSVActivity extends AbsBaseActivity {
     }
   }
 
+  /**
+   * Used in the view, passed to the export all button
+   */
+  private class ExportAllButtonListener implements OnClickListener {
+    @Override
+    public void onClick(View v) {
+      exportAllSubmission();
+    }
+  }
+
 }
@@ -35,6 +35,7 @@ import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.ImportExportDialogFragment;
+import org.opendatakit.tables.tasks.ExportFormat;
 import org.opendatakit.tables.tasks.ImportRequest;
 import org.opendatakit.tables.tasks.ImportTask;
 import org.opendatakit.tables.utils.TableFileUtils;
@@ -129,6 +130,7 @@ public class ImportCSVActivity extends AbsBaseActivity {
    * assets csv folder, it's stripped off. So (assets csv folder)/test.csv becomes test.csv, but
    * ../../test.csv stays the same.
    * Then we split it by \. and try to parse the tableId and fileQualifier out of the filename.
+   * Files ending in .delta.csv are merged into the table instead of appended.
    * If it had too many dots (or not enough), we display a Toast notification that the filename
    * was invalid and return.
    * Then we make an ImportTask and pass it a new ImportExportDialogFragment. The ImportTask will tell
@@ -144,11 +146,22 @@ public class ImportCSVActivity extends AbsBaseActivity {
             .asRelativePath(appName, new File(ODKFileUtils.getAssetsCsvFolder(appName)));
     if (filenamePath.startsWith(assetsCsvRelativePath)) {
       String remainingPath = filenamePath.substring(assetsCsvRelativePath.length() + 1);
-      String[] terms = remainingPath.split("\\.");
+      ExportFormat format = ExportFormat.forFileName(remainingPath);
+      String[] terms = format.toCsvFileName(remainingPath).split("\\.");
       if (terms.length == 2 && terms[1].equals("csv")) {
         String tableId = terms[0];
         String fileQualifier = null;
-        request = new ImportRequest(tableId, fileQualifier);
+        request = new ImportRequest(tableId, fileQualifier, format);
+      } else if (format == ExportFormat.CSV && terms.length == 3 && terms[1].equals("delta")
+          && terms[2].equals("csv")) {
+        String tableId = terms[0];
+        String fileQualifier = null;
+        request = new ImportRequest(tableId, fileQualifier, true);
+      } else if (format == ExportFormat.CSV && terms.length == 4 && terms[2].equals("delta")
+          && terms[3].equals("csv")) {
+        String tableId = terms[0];
+        String fileQualifier = terms[1];
+        request = new ImportRequest(tableId, fileQualifier, true);
       } else if (terms.length == 3 && (terms[1].equals("properties") || terms[1]
               .equals("definition")) && terms[2].equals("csv")) {
         String tableId = terms[0];
@@ -157,7 +170,7 @@ public class ImportCSVActivity extends AbsBaseActivity {
       } else if (terms.length == 3 && terms[2].equals("csv")) {
         String tableId = terms[0];
         String fileQualifier = terms[1];
-        request = new ImportRequest(tableId, fileQualifier);
+        request = new ImportRequest(tableId, fileQualifier, format);
       } else if (terms.length == 4 && (terms[2].equals("properties") || terms[2]
               .equals("definition")) && terms[3].equals("csv")) {
         String tableId = terms[0];
@@ -213,7 +226,7 @@ public class ImportCSVActivity extends AbsBaseActivity {
     File assetCsv = new File(ODKFileUtils.getAssetsCsvFolder(appName));
     String assetRelativePath = ODKFileUtils.asRelativePath(appName, assetCsv);
     if (relativePath.startsWith(assetRelativePath)) {
-      String name = csvFile.getName();
+      String name = ExportFormat.forFileName(csvFile.getName()).toCsvFileName(csvFile.getName());
       String[] terms = name.split("\\.");
       if (terms.length < 2 || terms.length > 4) {
         Toast.makeText(this,
@@ -222,13 +235,14 @@ public class ImportCSVActivity extends AbsBaseActivity {
         return;
       } else {
         if (!"csv".equals(terms[terms.length - 1])) {
-          Toast.makeText(this, "Import filename must end in .csv", Toast.LENGTH_LONG).show();
+          Toast.makeText(this, "Import filename must end in .csv, .csv.gz or .odkc",
+              Toast.LENGTH_LONG).show();
           return;
         }
         if (terms.length == 4 && !("properties".equals(terms[2]) || "definition"
-            .equals(terms[2]))) {
+            .equals(terms[2]) || "delta".equals(terms[2]))) {
           Toast.makeText(this,
-              "Import filename must be of the form tableId.qualifier.properties.csv or tableId.qualifier.definition.csv",
+              "Import filename must be of the form tableId.qualifier.properties.csv, tableId.qualifier.definition.csv or tableId.qualifier.delta.csv",
               Toast.LENGTH_LONG).show();
           return;
         }
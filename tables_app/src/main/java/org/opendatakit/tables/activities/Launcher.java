@@ -22,9 +22,10 @@ import android.widget.Toast;
 import org.opendatakit.activities.BaseLauncherActivity;
 import org.opendatakit.consts.IntentConsts;
 import org.opendatakit.provider.TablesProviderAPI;
+import org.opendatakit.tables.application.StartupPipeline;
+import org.opendatakit.tables.application.StartupTrace;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.utils.TableFileUtils;
-import org.opendatakit.utilities.ODKFileUtils;
 
 import java.util.List;
 
@@ -64,6 +65,7 @@ public class Launcher extends BaseLauncherActivity {
    */
   @Override
   public void onCreateWithPermission(Bundle savedInstanceState) {
+    StartupTrace.begin(StartupTrace.LAUNCHER);
     Intent intent = this.getIntent();
     Bundle extras = intent.getExtras();
 
@@ -90,9 +92,8 @@ public class Launcher extends BaseLauncherActivity {
       }
     }
 
-    // ensuring directories exist
-    ODKFileUtils.verifyExternalStorageAvailability();
-    ODKFileUtils.assertDirectoryStructure(this.mAppName);
+    // ensuring directories exist, in the background while MainActivity starts
+    StartupPipeline.checkDirectories(this.mAppName);
 
     // Launch the TableManager.
 
@@ -105,6 +106,7 @@ public class Launcher extends BaseLauncherActivity {
     }
     i.putExtra(IntentConsts.INTENT_KEY_APP_NAME, this.mAppName);
     startActivity(i);
+    StartupTrace.end(StartupTrace.LAUNCHER);
     finish();
   }
 
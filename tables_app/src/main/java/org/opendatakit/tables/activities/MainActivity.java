@@ -30,6 +30,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.Toast;
 import org.opendatakit.activities.IInitResumeActivity;
+import org.opendatakit.application.CommonApplication;
 import org.opendatakit.consts.IntentConsts;
 import org.opendatakit.consts.RequestCodeConsts;
 import org.opendatakit.database.queries.ResumableQuery;
@@ -40,13 +41,18 @@ import org.opendatakit.listener.DatabaseConnectionListener;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.properties.CommonToolProperties;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.application.StartupPipeline;
+import org.opendatakit.tables.application.StartupTrace;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.IWebFragment;
 import org.opendatakit.tables.fragments.InitializationFragment;
 import org.opendatakit.tables.fragments.TableManagerFragment;
 import org.opendatakit.tables.fragments.WebFragment;
 import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.tables.utils.RowAccessCache;
 import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.tables.utils.TableNameListLoader;
+import org.opendatakit.tables.utils.TableStatsCache;
 import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.views.ODKWebView;
 import org.opendatakit.views.OdkData;
@@ -77,6 +83,18 @@ public class MainActivity extends AbsBaseWebActivity
    * active fragment.
    */
   private ScreenType lastMenuType = null;
+  /**
+   * whether the app's directories have been checked and the screen to show chosen
+   */
+  private boolean screenChosen = false;
+  /**
+   * the state the activity was created with, kept until the screen is chosen
+   */
+  private Bundle restoredState = null;
+  /**
+   * whether the activity is between onResume and onPause
+   */
+  private boolean resumed = false;
 
   private static String[] checkForQueryParameter(File webFile) {
     String webFileToDisplayPath = webFile.getPath();
@@ -156,21 +174,66 @@ public class MainActivity extends AbsBaseWebActivity
    */
   @Override
   protected void onCreate(Bundle savedInstanceState) {
+    StartupTrace.begin(StartupTrace.MAIN_ACTIVITY_CREATE);
     super.onCreate(savedInstanceState);
+    // start binding to the database service now rather than in onResume, so the bind overlaps
+    // with inflating the layout
+    StartupTrace.begin(StartupTrace.DATABASE_BIND);
+    ((CommonApplication) getApplication()).establishDoNotFireDatabaseConnectionListener(this);
+    if (Tables.getInstance().getDatabase() != null) {
+      // already bound, the process was warm
+      StartupTrace.end(StartupTrace.DATABASE_BIND);
+      TableNameListLoader.prefetch(getAppName(), mProps.getUserSelectedDefaultLocale());
+    }
     this.setContentView(R.layout.activity_main_activity);
 
-    webFileToDisplay = getHomeScreen(savedInstanceState);
+    // the home screen lives in the app's directories, which may still be being checked. The
+    // layout is shown now and the screen chosen once the check finishes
+    restoredState = savedInstanceState;
+    StartupPipeline.whenDirectoriesReady(getAppName(),
+        new StartupPipeline.DirectoryCheckListener() {
+          @Override
+          public void directoriesReady() {
+            if (!isFinishing()) {
+              chooseScreen();
+            }
+          }
+
+          @Override
+          public void directoriesUnavailable(RuntimeException e) {
+            if (!isFinishing()) {
+              Toast.makeText(MainActivity.this,
+                  getString(R.string.app_directories_unavailable, e.getMessage()),
+                  Toast.LENGTH_LONG).show();
+              finish();
+            }
+          }
+        });
+    StartupTrace.end(StartupTrace.MAIN_ACTIVITY_CREATE);
+  }
+
+  /**
+   * Picks the screen to show from the home screen setting and the restored state, and shows it if
+   * the activity is already resumed. Called once the app's directories have been checked.
+   */
+  private void chooseScreen() {
+    webFileToDisplay = getHomeScreen(restoredState);
 
     if (webFileToDisplay != null) {
       activeScreenType = ScreenType.WEBVIEW_SCREEN;
     }
 
-    if (savedInstanceState != null) {
+    if (restoredState != null) {
       // if we are restoring, assume that initialization has already occurred.
-      activeScreenType = ScreenType.valueOf(savedInstanceState.containsKey(CURRENT_FRAGMENT) ?
-          savedInstanceState.getString(CURRENT_FRAGMENT) :
+      activeScreenType = ScreenType.valueOf(restoredState.containsKey(CURRENT_FRAGMENT) ?
+          restoredState.getString(CURRENT_FRAGMENT) :
           activeScreenType.name());
     }
+    restoredState = null;
+    screenChosen = true;
+    if (resumed) {
+      swapScreens(activeScreenType);
+    }
   }
 
   @Override
@@ -193,6 +256,19 @@ public class MainActivity extends AbsBaseWebActivity
   protected void onSaveInstanceState(Bundle outState) {
     super.onSaveInstanceState(outState);
 
+    if (!screenChosen) {
+      // nothing was shown yet, keep what the activity was restored with
+      if (restoredState != null) {
+        if (restoredState.containsKey(CURRENT_FRAGMENT)) {
+          outState.putString(CURRENT_FRAGMENT, restoredState.getString(CURRENT_FRAGMENT));
+        }
+        if (restoredState.containsKey(OdkData.IntentKeys.FILE_NAME)) {
+          outState.putString(OdkData.IntentKeys.FILE_NAME,
+              restoredState.getString(OdkData.IntentKeys.FILE_NAME));
+        }
+      }
+      return;
+    }
     outState.putString(CURRENT_FRAGMENT, activeScreenType.name());
     if (webFileToDisplay != null) {
       outState.putString(OdkData.IntentKeys.FILE_NAME,
@@ -203,8 +279,17 @@ public class MainActivity extends AbsBaseWebActivity
   @Override
   protected void onResume() {
     super.onResume();
+    resumed = true;
 
-    swapScreens(activeScreenType);
+    if (screenChosen) {
+      swapScreens(activeScreenType);
+    }
+  }
+
+  @Override
+  protected void onPause() {
+    resumed = false;
+    super.onPause();
   }
 
   /**
@@ -434,6 +519,11 @@ public class MainActivity extends AbsBaseWebActivity
       exportIntent.putExtras(bundle);
       this.startActivityForResult(exportIntent, RequestCodeConsts.RequestCodes.LAUNCH_EXPORT);
       return true;
+    case R.id.menu_table_manager_metrics:
+      Intent metricsIntent = new Intent(this, PerfMetricsActivity.class);
+      metricsIntent.putExtras(bundle);
+      this.startActivity(metricsIntent);
+      return true;
     case R.id.menu_table_manager_sync:
       try {
         Intent syncIntent = new Intent();
@@ -457,6 +547,11 @@ public class MainActivity extends AbsBaseWebActivity
    */
   @Override
   protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+    if (requestCode == RequestCodeConsts.RequestCodes.LAUNCH_SYNC) {
+      // a sync can change the rows of any table
+      TableStatsCache.markChanged(getAppName(), null);
+      RowAccessCache.invalidate(getAppName(), null);
+    }
     String tableId = this.getActionTableId();
     if (tableId != null) {
       switch (requestCode) {
@@ -468,6 +563,8 @@ public class MainActivity extends AbsBaseWebActivity
       // changed.
       case RequestCodeConsts.RequestCodes.ADD_ROW_SURVEY:
       case RequestCodeConsts.RequestCodes.EDIT_ROW_SURVEY:
+        TableStatsCache.markChanged(getAppName(), tableId);
+        RowAccessCache.invalidate(getAppName(), tableId);
         if (resultCode == Activity.RESULT_OK) {
           WebLogger.getLogger(getAppName())
               .d(TAG, "[onActivityResult] result ok, refreshing backing table");
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.activities;
+
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+import org.opendatakit.tables.R;
+import org.opendatakit.tables.utils.DbAccessMonitor;
+import org.opendatakit.tables.utils.PerfMetrics;
+
+/**
+ * A debug screen showing the counters and latency histograms in PerfMetrics, and the database
+ * calls by call site from DbAccessMonitor, with a switch to turn recording on and off and buttons
+ * to reset them or write them to the metrics file.
+ */
+public class PerfMetricsActivity extends AbsBaseActivity {
+
+  // the text view showing the current values
+  private TextView metricsText;
+
+  /**
+   * Sets up the view
+   *
+   * @param savedInstanceState unused
+   */
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setContentView(getView());
+  }
+
+  @Override
+  protected void onResume() {
+    super.onResume();
+    refresh();
+  }
+
+  /**
+   * Builds the checkbox, the row of buttons and the text view
+   *
+   * @return the view
+   */
+  private View getView() {
+    LinearLayout v = new LinearLayout(this);
+    v.setOrientation(LinearLayout.VERTICAL);
+    CheckBox enabled = new CheckBox(this);
+    enabled.setId(R.id.METRICS_ENABLED_ID);
+    enabled.setText(getString(R.string.metrics_enabled));
+    enabled.setChecked(PerfMetrics.isEnabled());
+    enabled.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+      @Override
+      public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+        PerfMetrics.setEnabled(getAppName(), isChecked);
+        refresh();
+      }
+    });
+    v.addView(enabled);
+    LinearLayout buttons = new LinearLayout(this);
+    buttons.setOrientation(LinearLayout.HORIZONTAL);
+    Button refresh = new Button(this);
+    refresh.setText(getString(R.string.metrics_refresh));
+    refresh.setOnClickListener(new OnClickListener() {
+      @Override
+      public void onClick(View view) {
+        refresh();
+      }
+    });
+    buttons.addView(refresh);
+    Button reset = new Button(this);
+    reset.setText(getString(R.string.metrics_reset));
+    reset.setOnClickListener(new OnClickListener() {
+      @Override
+      public void onClick(View view) {
+        PerfMetrics.reset();
+        DbAccessMonitor.reset();
+        refresh();
+      }
+    });
+    buttons.addView(reset);
+    Button write = new Button(this);
+    write.setText(getString(R.string.metrics_write));
+    write.setOnClickListener(new OnClickListener() {
+      @Override
+      public void onClick(View view) {
+        if (PerfMetrics.writeDump(getAppName())) {
+          Toast.makeText(PerfMetricsActivity.this, getString(R.string.metrics_written,
+              PerfMetrics.getDumpFile(getAppName()).getPath()), Toast.LENGTH_LONG).show();
+        } else {
+          Toast.makeText(PerfMetricsActivity.this, R.string.metrics_write_failed,
+              Toast.LENGTH_LONG).show();
+        }
+      }
+    });
+    buttons.addView(write);
+    v.addView(buttons);
+    metricsText = new TextView(this);
+    metricsText.setId(R.id.METRICS_TEXT_ID);
+    metricsText.setTypeface(Typeface.MONOSPACE);
+    ScrollView scroll = new ScrollView(this);
+    scroll.addView(metricsText);
+    v.addView(scroll);
+    return v;
+  }
+
+  /**
+   * Shows the current values
+   */
+  private void refresh() {
+    String dump = PerfMetrics.dump();
+    String report = DbAccessMonitor.getReport();
+    if (!report.isEmpty()) {
+      dump = dump.isEmpty() ? report : dump + "\n" + report;
+    }
+    metricsText.setText(dump.isEmpty() ? getString(R.string.metrics_none) : dump);
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.activities;
+
+import android.os.Handler;
+import android.os.Looper;
+import org.opendatakit.tables.utils.PerfMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides when the responses of the executor are handed to the web views of an activity. The web
+ * views of an activity share one javascript thread, so while the sublist of a detail with list
+ * view parses a few megabytes of rows, the detail page waits for its single row behind it.
+ * <p>
+ * A response is held back for exactly as long as a response of a higher priority for another web
+ * view is pending: handed over and not fetched yet by a web view that is still there, or held
+ * itself. The requests of a web view that shows a single row come first, then the main web view,
+ * then the sublist and web views that aren't shown. A web view that goes away stops holding the
+ * others back the next time the held responses are checked, every {@link #RECHECK_MILLIS}. The
+ * responses of one web view are never reordered.
+ * <p>
+ * Only the handover is scheduled. The executor that runs the requests is in the shared ODK
+ * library, so the database work behind a bulk response isn't deprioritized; the response is
+ * already built when it gets here.
+ * <p>
+ * How long responses were held, by priority, is recorded in the {@link PerfMetrics} histograms
+ * {@link #WAIT}priority, and how many are held now in the counters {@link #HELD}priority.
+ */
+final class ResponseScheduler {
+
+  /**
+   * The priorities, highest first
+   */
+  enum Priority {
+    // a request from a web view that shows a single row, like a detail page
+    ROW,
+    // a list from the activity's main web view
+    FOREGROUND,
+    // a list from the sublist, or from a web view that isn't shown
+    BULK
+  }
+
+  /**
+   * Where the responses go once they're let through
+   */
+  interface Queue {
+    /**
+     * Queues a response for a web view and tells it there is one
+     *
+     * @param responseJSON the response
+     * @param fragmentID   the id of the web view
+     */
+    void queueResponse(String responseJSON, String fragmentID);
+
+    /**
+     * @param fragmentID the id of a web view
+     * @return whether the web view is still there to fetch the responses handed to it
+     */
+    boolean isAttached(String fragmentID);
+  }
+
+  /**
+   * How often the held responses are checked while nothing is added or fetched
+   */
+  static final long RECHECK_MILLIS = 100;
+  // the most responses remembered as not fetched, per queue
+  private static final int MAX_OUTSTANDING = 32;
+  /**
+   * The prefix of the histograms of how long responses were held
+   */
+  static final String WAIT = "responses.wait.";
+  /**
+   * The prefix of the counters of how many responses are held
+   */
+  static final String HELD = "responses.held.";
+
+  /**
+   * A response on its way to a web view
+   */
+  private static final class Response {
+    // dropped once it is handed over, only its priority is remembered after that
+    String responseJSON;
+    final String fragmentID;
+    final String queueKey;
+    final Priority priority;
+    final long timer = PerfMetrics.startTimer();
+
+    Response(String responseJSON, String fragmentID, String queueKey, Priority priority) {
+      this.responseJSON = responseJSON;
+      this.fragmentID = fragmentID;
+      this.queueKey = queueKey;
+      this.priority = priority;
+    }
+  }
+
+  private final Queue queue;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // the responses handed to each queue and not fetched yet, in order, the queues hand out the
+  // newest first
+  private final Map<String, List<Response>> outstanding = new HashMap<>();
+  // the responses held back, in the order they arrived
+  private final List<Response> held = new ArrayList<>();
+
+  private final Runnable releaseHeld = new Runnable() {
+    @Override
+    public void run() {
+      release();
+    }
+  };
+
+  /**
+   * @param queue where the responses go
+   */
+  ResponseScheduler(Queue queue) {
+    this.queue = queue;
+  }
+
+  /**
+   * Lets a response through now, or holds it until the responses before it of a higher priority
+   * have been fetched
+   *
+   * @param responseJSON the response
+   * @param fragmentID   the id of the web view it is for
+   * @param queueKey     which of the activity's queues that web view's responses go in
+   * @param priority     its priority
+   */
+  synchronized void add(String responseJSON, String fragmentID, String queueKey,
+      Priority priority) {
+    Response response = new Response(responseJSON, fragmentID, queueKey, priority);
+    if (mustWait(response)) {
+      held.add(response);
+      PerfMetrics.increment(HELD + getName(priority), 1);
+      if (held.size() == 1) {
+        // otherwise a recheck is already on its way, and putting it off could starve them
+        scheduleRelease();
+      }
+    } else {
+      deliver(response);
+    }
+  }
+
+  /**
+   * Call it whenever a response is taken out of a queue
+   *
+   * @param queueKey the queue it was taken out of
+   */
+  synchronized void fetched(String queueKey) {
+    List<Response> responses = outstanding.get(queueKey);
+    if (responses != null && !responses.isEmpty()) {
+      responses.remove(responses.size() - 1);
+    }
+    release();
+  }
+
+  /**
+   * Lets through the held responses that needn't wait any longer, highest priority first
+   */
+  private synchronized void release() {
+    boolean released = true;
+    while (released && !held.isEmpty()) {
+      released = false;
+      for (Priority priority : Priority.values()) {
+        Iterator<Response> responses = held.iterator();
+        while (responses.hasNext()) {
+          Response response = responses.next();
+          if (response.priority == priority && !mustWait(response)) {
+            responses.remove();
+            PerfMetrics.increment(HELD + getName(priority), -1);
+            deliver(response);
+            released = true;
+          }
+        }
+      }
+    }
+    scheduleRelease();
+  }
+
+  /**
+   * Makes sure release runs again while responses are held, in case the web view they wait for
+   * goes away without fetching its response
+   */
+  private void scheduleRelease() {
+    handler.removeCallbacks(releaseHeld);
+    if (!held.isEmpty()) {
+      handler.postDelayed(releaseHeld, RECHECK_MILLIS);
+    }
+  }
+
+  /**
+   * @param response a response
+   * @return whether it waits for a response of a higher priority for another web view, or for an
+   * earlier one for the same web view. A response handed to a web view that is gone doesn't hold
+   * anything back, it will never be fetched.
+   */
+  private boolean mustWait(Response response) {
+    if (waitsForSameQueue(response)) {
+      return true;
+    }
+    for (Response other : held) {
+      if (other == response) {
+        // only the ones before it
+        break;
+      }
+      if (other.priority.ordinal() < response.priority.ordinal()) {
+        return true;
+      }
+    }
+    for (Map.Entry<String, List<Response>> entry : outstanding.entrySet()) {
+      if (entry.getKey().equals(response.queueKey)) {
+        continue;
+      }
+      for (Response other : entry.getValue()) {
+        if (other.priority.ordinal() < response.priority.ordinal()
+            && queue.isAttached(other.fragmentID)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param response a response
+   * @return whether a response for the same queue that arrived before it is still held
+   */
+  private boolean waitsForSameQueue(Response response) {
+    for (Response other : held) {
+      if (other == response) {
+        return false;
+      }
+      if (other.queueKey.equals(response.queueKey)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void deliver(Response response) {
+    List<Response> responses = outstanding.get(response.queueKey);
+    if (responses == null) {
+      responses = new ArrayList<>();
+      outstanding.put(response.queueKey, responses);
+    } else if (responses.size() >= MAX_OUTSTANDING) {
+      // never fetched, the page was reloaded before it got them
+      responses.remove(0);
+    }
+    responses.add(response);
+    PerfMetrics.stopTimer(WAIT + getName(response.priority), response.timer);
+    String responseJSON = response.responseJSON;
+    response.responseJSON = null;
+    queue.queueResponse(responseJSON, response.fragmentID);
+  }
+
+  private static String getName(Priority priority) {
+    return priority.name().toLowerCase(Locale.US);
+  }
+}
@@ -28,6 +28,7 @@ import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.v13.app.ActivityCompat;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -49,7 +50,9 @@ import org.opendatakit.listener.DatabaseConnectionListener;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.data.PossibleTableViewTypes;
+import org.opendatakit.tables.data.TablePrefetcher;
 import org.opendatakit.tables.data.ViewFragmentType;
+import org.opendatakit.tables.fragments.AbsWebTableFragment;
 import org.opendatakit.tables.fragments.DetailViewFragment;
 import org.opendatakit.tables.fragments.DetailWithListDetailViewFragment;
 import org.opendatakit.tables.fragments.DetailWithListListViewFragment;
@@ -62,15 +65,22 @@ import org.opendatakit.tables.fragments.TableMapInnerFragment;
 import org.opendatakit.tables.fragments.TableMapInnerFragment.TableMapInnerFragmentListener;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.tables.utils.PerfMetrics;
+import org.opendatakit.tables.utils.RowAccessCache;
 import org.opendatakit.tables.utils.SQLQueryStruct;
 import org.opendatakit.tables.views.SpreadsheetProps;
+import org.opendatakit.tables.views.webkits.OdkTablesWebView;
+import org.opendatakit.tables.views.webkits.OdkTablesWebViewPool;
+import org.opendatakit.tables.views.webkits.WebAssetCache;
 import org.opendatakit.utilities.RuntimePermissionUtils;
 import org.opendatakit.views.ODKWebView;
 import org.opendatakit.views.OdkData;
 import org.opendatakit.webkitserver.utilities.UrlUtils;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -150,12 +160,26 @@ public class TableDisplayActivity extends AbsBaseWebActivity
    * Cached data from database
    */
   private PossibleTableViewTypes mPossibleTableViewTypes = null;
+  // the view types whose files were last preloaded into the web asset cache
+  private PossibleTableViewTypes mPreloadedViewTypes = null;
   /**
    * The {@link UserTable} that is being displayed in this activity.
    */
   private UserTable mUserTable = null;
+  /**
+   * The rows read by a prefetch from the table list, used once by getUserTable if its query
+   * matches
+   */
+  private TablePrefetcher.Result mPrefetched = null;
+  private boolean prefetchTaken;
+  // whether databaseAvailable is waiting for a prefetch that was still running when taken
+  private boolean waitingForPrefetch = false;
   private boolean pullFromDatabase;
   private String mDefaultRowId;
+  /**
+   * The web views of the web fragments, kept when the fragments are recreated
+   */
+  private OdkTablesWebViewPool mWebViewPool = null;
 
   /**
    * Casts an array of objects from Parcelable to a given class that extends Parcelable..
@@ -206,6 +230,8 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     removeAllFragments();
     props = null;
     pullFromDatabase = false;
+    // a prefetch only describes the table as it was stored, not a restored state
+    prefetchTaken = savedInstanceState != null;
     if (savedInstanceState != null) {
       if (savedInstanceState.containsKey("props")) {
         props = savedInstanceState.getParcelable("props");
@@ -409,23 +435,57 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   }
 
   /**
-   * Do nothing if the database goes away
+   * Only forget the database handles if the database goes away
    */
   @Override
   public void databaseUnavailable() {
+    DbSessionManager.databaseUnavailable();
   }
 
   /**
-   * Handles pulling properties out of the database if they weren't in the saved instance state
-   * or the intent, recreates the current fragment.
+   * The first time, takes what the table list prefetched for this table, waiting for a prefetch
+   * that is still running without blocking the UI thread. Then handles pulling properties out of
+   * the database if they weren't in the saved instance state or the intent, and recreates the
+   * current fragment, unless its pages can be sent a databaseAvailable event instead.
    */
   @Override
   public void databaseAvailable() {
     WebLogger.getLogger(getAppName()).i(TAG, "databaseAvailable called");
+    if (waitingForPrefetch) {
+      // carried on when the prefetch arrives
+      return;
+    }
+    if (!prefetchTaken) {
+      prefetchTaken = true;
+      waitingForPrefetch = true;
+      TablePrefetcher.take(getAppName(), getTableId(), new TablePrefetcher.Callback() {
+        @Override
+        public void onPrefetchTaken(TablePrefetcher.Result result) {
+          waitingForPrefetch = false;
+          if (destroyed) {
+            return;
+          }
+          usePrefetch(result);
+          if (getDatabase() != null) {
+            showTable();
+          }
+        }
+      });
+      return;
+    }
+    showTable();
+  }
+
+  /**
+   * Reads the default sort and group by if nothing else supplied them, then recreates the
+   * current fragment, unless its pages can be sent a databaseAvailable event instead
+   */
+  private void showTable() {
     if (pullFromDatabase) {
+      DbHandle db = null;
       try {
         UserDbInterface dbInt = getDatabase();
-        DbHandle db = dbInt.openDatabase(mAppName);
+        db = DbSessionManager.openDatabase(mAppName);
         props.setSortOrder(TableUtil.get().getSortOrder(dbInt, mAppName, db, getTableId()));
         props.setSort(TableUtil.get().getSortColumn(dbInt, mAppName, db, getTableId()));
         List<String> temp = TableUtil.get().getGroupByColumns(dbInt, mAppName, db, getTableId());
@@ -434,11 +494,96 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       } catch (ServicesAvailabilityException e) {
         Toast.makeText(this, R.string.database_unavailable, Toast.LENGTH_LONG).show();
         WebLogger.getLogger(getAppName()).printStackTrace(e);
+      } finally {
+        if (db != null) {
+          try {
+            DbSessionManager.closeDatabase(mAppName, db);
+          } catch (ServicesAvailabilityException e) {
+            WebLogger.getLogger(getAppName()).printStackTrace(e);
+          }
+        }
       }
     }
+    if (reconnectWebFragments()) {
+      WebLogger.getLogger(getAppName()).i(TAG, "databaseAvailable: pages kept, event sent");
+      return;
+    }
     showCurrentDisplayFragment(true);
   }
 
+  /**
+   * If everything shown is a web page that asked for databaseAvailable events, sends them the
+   * event instead of recreating the fragments, so that a services reconnect doesn't reload and
+   * re-query the pages
+   *
+   * @return whether the event was sent, false if the fragments have to be recreated
+   */
+  private boolean reconnectWebFragments() {
+    if (mCurrentFragmentType == null) {
+      return false;
+    }
+    String[] tags;
+    switch (mCurrentFragmentType) {
+    case LIST:
+    case DETAIL:
+      tags = new String[] { mCurrentFragmentType.name() };
+      break;
+    case MAP:
+      tags = new String[] { Constants.FragmentTags.MAP_LIST };
+      break;
+    case DETAIL_WITH_LIST:
+    case SUB_LIST:
+      tags = new String[] { Constants.FragmentTags.DETAIL_WITH_LIST_DETAIL,
+          Constants.FragmentTags.DETAIL_WITH_LIST_LIST };
+      break;
+    default:
+      // not web pages
+      return false;
+    }
+    FragmentManager fragmentManager = getFragmentManager();
+    AbsWebTableFragment[] fragments = new AbsWebTableFragment[tags.length];
+    for (int i = 0; i < tags.length; i++) {
+      Fragment fragment = fragmentManager.findFragmentByTag(tags[i]);
+      if (!(fragment instanceof AbsWebTableFragment) || fragment.isHidden()) {
+        return false;
+      }
+      fragments[i] = (AbsWebTableFragment) fragment;
+      OdkTablesWebView webKit = fragments[i].getWebKit();
+      if (webKit == null || !webKit.handlesEvent(OdkTablesWebView.EVENT_DATABASE_AVAILABLE)) {
+        return false;
+      }
+    }
+    for (AbsWebTableFragment fragment : fragments) {
+      fragment.databaseAvailable();
+    }
+    return true;
+  }
+
+  /**
+   * Uses what the table list prefetched for this table when the user touched it in place of
+   * reading the column definitions, the possible view types and the default sort and group by
+   *
+   * @param prefetched what the prefetch read, or null if there was nothing to use
+   */
+  private void usePrefetch(TablePrefetcher.Result prefetched) {
+    mPrefetched = prefetched;
+    if (mPrefetched == null) {
+      return;
+    }
+    if (mPrefetched.columnDefinitions != null) {
+      setColumnDefinitions(mPrefetched.columnDefinitions);
+    }
+    if (mPossibleTableViewTypes == null) {
+      mPossibleTableViewTypes = mPrefetched.possibleTableViewTypes;
+    }
+    if (pullFromDatabase) {
+      props.setSortOrder(mPrefetched.sortOrder);
+      props.setSort(mPrefetched.sortColumn);
+      props.setGroupBy(mPrefetched.groupBy);
+      pullFromDatabase = false;
+    }
+  }
+
   /**
    * Gets the default filename based on the passed fragment type
    *
@@ -479,7 +624,6 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     if (mUserTable == null) {
       DbHandle db = null;
       try {
-        db = getDatabase().openDatabase(getAppName());
         SQLQueryStruct sqlQueryStruct = IntentUtil
             .getSQLQueryStructFromBundle(this.getIntent().getExtras());
 
@@ -492,6 +636,22 @@ public class TableDisplayActivity extends AbsBaseWebActivity
         sqlQueryStruct.orderByElementKey = props.getSort();
         sqlQueryStruct.orderByDirection = props.getSortOrder();
 
+        TablePrefetcher.Result prefetched = mPrefetched;
+        mPrefetched = null;
+        if (prefetched != null && prefetched.userTable != null
+            && sqlQueryStruct.whereClause == null && Arrays
+            .equals(sqlQueryStruct.groupBy == null ? emptyArray : sqlQueryStruct.groupBy,
+                prefetched.groupBy) && TextUtils
+            .equals(sqlQueryStruct.orderByElementKey, prefetched.sortColumn) && TextUtils
+            .equals(sqlQueryStruct.orderByDirection, prefetched.sortOrder)) {
+          // the prefetch ran exactly this query a moment ago
+          mUserTable = prefetched.userTable;
+          RowAccessCache.remember(getAppName(), getTableId(), mUserTable);
+          return mUserTable;
+        }
+
+        long timer = PerfMetrics.startTimer();
+        db = DbSessionManager.openDatabase(getAppName());
         mUserTable = getDatabase()
             .simpleQuery(this.getAppName(), db, this.getTableId(), getColumnDefinitions(),
                 sqlQueryStruct.whereClause, sqlQueryStruct.selectionArgs,
@@ -500,12 +660,15 @@ public class TableDisplayActivity extends AbsBaseWebActivity
                 QueryUtil.convertStringToArray(sqlQueryStruct.orderByElementKey),
                 QueryUtil.convertStringToArray(sqlQueryStruct.orderByDirection),
                 null, null);
+        PerfMetrics.stopTimer(PerfMetrics.GET_USER_TABLE, timer);
+        // so a detail view opened from these rows needn't read its row's access
+        RowAccessCache.remember(getAppName(), getTableId(), mUserTable);
       } catch (ServicesAvailabilityException e) {
         WebLogger.getLogger(getAppName()).printStackTrace(e);
       } finally {
         if (db != null) {
           try {
-            getDatabase().closeDatabase(getAppName(), db);
+            DbSessionManager.closeDatabase(getAppName(), db);
           } catch (ServicesAvailabilityException e) {
             Toast.makeText(this, R.string.database_unavailable, Toast.LENGTH_LONG).show();
             WebLogger.getLogger(getAppName()).printStackTrace(e);
@@ -587,12 +750,25 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   }
 
   /**
-   * Log the destroy event
+   * @return the pool the web fragments of this activity get their web views from
+   */
+  public OdkTablesWebViewPool getWebViewPool() {
+    if (mWebViewPool == null) {
+      mWebViewPool = new OdkTablesWebViewPool(this);
+    }
+    return mWebViewPool;
+  }
+
+  /**
+   * Log the destroy event and destroy the web views nothing is using
    */
   @Override
   protected void onDestroy() {
     super.onDestroy();
     this.destroyed = true;
+    if (mWebViewPool != null) {
+      mWebViewPool.destroy();
+    }
     WebLogger.getLogger(getAppName()).d(TAG, "[onDestroy]");
   }
   private boolean destroyed = false;
@@ -658,6 +834,21 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     return null;
   }
 
+  /**
+   * @param fragmentID the id of a web view
+   * @return whether the web view is the detail view, or the detail half of a detail with list
+   * view
+   */
+  @Override
+  boolean showsSingleRow(String fragmentID) {
+    if (mCurrentFragmentType == ViewFragmentType.DETAIL) {
+      return true;
+    }
+    return (mCurrentFragmentType == ViewFragmentType.DETAIL_WITH_LIST
+        || mCurrentFragmentType == ViewFragmentType.SUB_LIST) && (fragmentID == null
+        || Constants.FragmentTags.DETAIL_WITH_LIST_DETAIL.equals(fragmentID));
+  }
+
   /**
    * Called when the user clicks the icon with the four horizontal lines in the bar on the top.
    * Populates the list of available view types (Spreadsheet, List and Map for most tables) and
@@ -696,6 +887,7 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       switch (mCurrentFragmentType) {
       case SPREADSHEET:
         spreadsheetItem.setChecked(true);
+        menu.findItem(R.id.top_level_table_menu_find).setVisible(true);
         break;
       case LIST:
         listItem.setChecked(true);
@@ -763,6 +955,13 @@ public class TableDisplayActivity extends AbsBaseWebActivity
         Toast.makeText(this, "Unable to access database", Toast.LENGTH_LONG).show();
       }
       return true;
+    case R.id.top_level_table_menu_find:
+      SpreadsheetFragment spreadsheetFragment = (SpreadsheetFragment) this.getFragmentManager()
+          .findFragmentByTag(ViewFragmentType.SPREADSHEET.name());
+      if (spreadsheetFragment != null) {
+        spreadsheetFragment.showFindBar();
+      }
+      return true;
     case R.id.top_level_table_menu_table_properties:
       ActivityUtil.launchTableLevelPreferencesActivity(this, this.getAppName(), this.getTableId(),
           TableLevelPreferencesActivity.FragmentType.TABLE_PREFERENCE);
@@ -825,16 +1024,24 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     // for most returns, we just refresh the data set and redraw the page
     // for others, we need to take more intensive action
+    if (requestCode == RequestCodeConsts.RequestCodes.LAUNCH_SYNC) {
+      // a sync can change who may edit any row
+      RowAccessCache.invalidate(getAppName(), null);
+    }
     switch (requestCode) {
     case RequestCodeConsts.RequestCodes.LAUNCH_VIEW:
       // if data is null then they never changed anything in the subactivity anyways
       if (data != null && data.hasExtra("props")) {
-        props = data.getParcelableExtra("props");
+        SpreadsheetProps returned = data.getParcelableExtra("props");
+        // the subactivity showed other rows, stay where we were
+        returned.setViewport(props);
+        props = returned;
         props.setActivity(this);
       }
       // This fallthrough is on purpose, we need to refresh because props (may have) changed
     case RequestCodeConsts.RequestCodes.ADD_ROW_SURVEY:
     case RequestCodeConsts.RequestCodes.EDIT_ROW_SURVEY:
+      RowAccessCache.invalidate(getAppName(), getTableId());
       try {
         // verify that the data table doesn't contain checkpoints...
         // always refresh, as table properties may have done something
@@ -880,6 +1087,21 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     showCurrentDisplayFragment(false);
   }
 
+  /**
+   * Starts reading the table's list, detail and map list files, and the files they include, into
+   * the web asset cache, once for each time the possible table view types are read
+   */
+  private void preloadWebAssets() {
+    if (mPossibleTableViewTypes == null || mPossibleTableViewTypes == mPreloadedViewTypes) {
+      return;
+    }
+    mPreloadedViewTypes = mPossibleTableViewTypes;
+    WebAssetCache.preload(getAppName(), Arrays
+        .asList(mPossibleTableViewTypes.getDefaultListViewFileName(),
+            mPossibleTableViewTypes.getDefaultDetailFileName(),
+            mPossibleTableViewTypes.getDefaultMapListViewFileName()));
+  }
+
   /**
    * Used in showCurrentDisplayFragment, tries to pull the possible table view types from the
    * database and set up the default filename and sub-filename if possible
@@ -890,7 +1112,7 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       UserDbInterface dbInterface = getDatabase();
       DbHandle db = null;
       try {
-        db = dbInterface.openDatabase(getAppName());
+        db = DbSessionManager.openDatabase(getAppName());
         mPossibleTableViewTypes = new PossibleTableViewTypes(dbInterface, getAppName(), db,
             getTableId(), getColumnDefinitions());
       } catch (ServicesAvailabilityException e) {
@@ -901,7 +1123,7 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       } finally {
         if (db != null) {
           try {
-            getDatabase().closeDatabase(getAppName(), db);
+            DbSessionManager.closeDatabase(getAppName(), db);
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(getAppName()).printStackTrace(e);
             WebLogger.getLogger(getAppName())
@@ -913,6 +1135,8 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       }
     }
 
+    preloadWebAssets();
+
     if (mOriginalFragmentType == null && mPossibleTableViewTypes != null) {
       // recover the default view for this table from the database...
       mOriginalFragmentType = mPossibleTableViewTypes.getDefaultViewType();
@@ -45,6 +45,7 @@ import org.opendatakit.properties.CommonToolProperties;
 import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.TableFileUtils;
 import org.opendatakit.utilities.LocalizationUtils;
 import org.opendatakit.utilities.ODKFileUtils;
@@ -116,7 +117,7 @@ public class TablePropertiesManager extends BasePreferenceActivity
     String localizedDisplayName;
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(appName);
+      db = DbSessionManager.openDatabase(appName);
       localizedDisplayName = TableUtil.get()
           .getLocalizedDisplayName(userSelectedDefaultLocale, dbInterface, appName, db, tableId);
     } catch (ServicesAvailabilityException e) {
@@ -129,7 +130,7 @@ public class TablePropertiesManager extends BasePreferenceActivity
     } finally {
       if (db != null) {
         try {
-          dbInterface.closeDatabase(appName, db);
+          DbSessionManager.closeDatabase(appName, db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(appName).printStackTrace(e);
           Toast.makeText(this, "Unable to close database", Toast.LENGTH_LONG).show();
@@ -157,7 +158,7 @@ public class TablePropertiesManager extends BasePreferenceActivity
     String rawDisplayName;
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(appName);
+      db = DbSessionManager.openDatabase(appName);
       rawDisplayName = TableUtil.get().getRawDisplayName(dbInterface, appName, db, tableId);
     } catch (ServicesAvailabilityException e) {
       WebLogger.getLogger(appName).printStackTrace(e);
@@ -168,7 +169,7 @@ public class TablePropertiesManager extends BasePreferenceActivity
     } finally {
       if (db != null) {
         try {
-          dbInterface.closeDatabase(appName, db);
+          DbSessionManager.closeDatabase(appName, db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(appName).printStackTrace(e);
           Toast.makeText(this, "Unable to close database", Toast.LENGTH_LONG).show();
@@ -237,7 +238,7 @@ public class TablePropertiesManager extends BasePreferenceActivity
     TableViewType type;
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(appName);
+      db = DbSessionManager.openDatabase(appName);
       type = TableUtil.get().getDefaultViewType(dbInterface, appName, db, tableId);
 
       viewTypePref.setValue(type.name());
@@ -368,7 +369,7 @@ public class TablePropertiesManager extends BasePreferenceActivity
     } finally {
       if (db != null) {
         try {
-          dbInterface.closeDatabase(appName, db);
+          DbSessionManager.closeDatabase(appName, db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(appName).printStackTrace(e);
           Toast.makeText(this, "Unable to close database", Toast.LENGTH_LONG).show();
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.application;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.firebase.analytics.FirebaseAnalytics;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.utilities.ODKFileUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The work done while Tables starts that doesn't have to be on the main thread. Firebase
+ * analytics and the directory checks run here, overlapping with the launcher and with
+ * MainActivity inflating its layout. Nothing waits for them on the main thread: MainActivity is
+ * told when the directory check of its app finishes and only then picks the screen to show.
+ */
+public final class StartupPipeline {
+
+  private static final String TAG = StartupPipeline.class.getSimpleName();
+
+  /**
+   * Told on the main thread when the directory check of an app finishes
+   */
+  public interface DirectoryCheckListener {
+    /**
+     * External storage is available and the app's directories exist
+     */
+    void directoriesReady();
+
+    /**
+     * @param e why the check failed
+     */
+    void directoriesUnavailable(RuntimeException e);
+  }
+
+  // two threads so the slow analytics init doesn't hold up the directory check
+  private static final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // the directory check for each app name, so it only runs once per process. Guarded by itself
+  private static final Map<String, DirectoryCheck> directoryChecks = new HashMap<>();
+
+  /**
+   * Do not instantiate this class
+   */
+  private StartupPipeline() {
+  }
+
+  /**
+   * Starts Firebase analytics in the background. Nothing in Tables uses the instance, getting it
+   * is what starts the analytics session.
+   *
+   * @param application the application
+   */
+  static void initAnalytics(final Context application) {
+    StartupTrace.begin(StartupTrace.ANALYTICS_INIT);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          FirebaseAnalytics.getInstance(application);
+        } finally {
+          StartupTrace.end(StartupTrace.ANALYTICS_INIT);
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts verifying that external storage is available and that the app's directories exist,
+   * unless that has already been started for this app
+   *
+   * @param appName the app name
+   */
+  public static void checkDirectories(final String appName) {
+    synchronized (directoryChecks) {
+      if (directoryChecks.containsKey(appName)) {
+        return;
+      }
+      final DirectoryCheck check = new DirectoryCheck();
+      directoryChecks.put(appName, check);
+      StartupTrace.begin(StartupTrace.DIRECTORY_CHECK);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          RuntimeException failure = null;
+          try {
+            ODKFileUtils.verifyExternalStorageAvailability();
+            ODKFileUtils.assertDirectoryStructure(appName);
+          } catch (RuntimeException e) {
+            WebLogger.getLogger(appName).e(TAG, "directory check failed");
+            WebLogger.getLogger(appName).printStackTrace(e);
+            failure = e;
+          } finally {
+            StartupTrace.end(StartupTrace.DIRECTORY_CHECK);
+          }
+          finish(appName, check, failure);
+        }
+      });
+    }
+  }
+
+  /**
+   * Tells the listener when the directory check of an app finishes, starting the check if
+   * needed. If the check already finished the listener is told straight away, on the calling
+   * thread, otherwise it is told on the main thread. A failed check is forgotten once the
+   * listeners have been told, so the next call tries again.
+   *
+   * @param appName  the app name
+   * @param listener told how the check went
+   */
+  public static void whenDirectoriesReady(String appName, DirectoryCheckListener listener) {
+    DirectoryCheck check;
+    synchronized (directoryChecks) {
+      checkDirectories(appName);
+      check = directoryChecks.get(appName);
+      if (!check.done) {
+        check.listeners.add(listener);
+        return;
+      }
+    }
+    tell(listener, check.failure);
+  }
+
+  /**
+   * Records the outcome of a check and tells the listeners waiting for it on the main thread
+   */
+  private static void finish(String appName, DirectoryCheck check, RuntimeException failure) {
+    final List<DirectoryCheckListener> listeners;
+    synchronized (directoryChecks) {
+      check.done = true;
+      check.failure = failure;
+      listeners = new ArrayList<>(check.listeners);
+      check.listeners.clear();
+      if (failure != null) {
+        // let the next caller try again
+        directoryChecks.remove(appName);
+      }
+    }
+    final RuntimeException result = failure;
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (DirectoryCheckListener listener : listeners) {
+          tell(listener, result);
+        }
+      }
+    });
+  }
+
+  private static void tell(DirectoryCheckListener listener, RuntimeException failure) {
+    if (failure == null) {
+      listener.directoriesReady();
+    } else {
+      listener.directoriesUnavailable(failure);
+    }
+  }
+
+  /**
+   * A directory check and who is waiting for it. Guarded by directoryChecks
+   */
+  private static final class DirectoryCheck {
+    boolean done = false;
+    RuntimeException failure = null;
+    final List<DirectoryCheckListener> listeners = new ArrayList<>();
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.application;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import org.opendatakit.logging.WebLogger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long the named phases of a cold start take, measured from the start of the
+ * process, and logs them once the table list has been drawn for the first time.
+ * <p>
+ * Phases may overlap and may run on any thread. Only the first begin and the first end of each
+ * phase count, so a phase that can happen again later (the database bind after a reconnect) is
+ * only timed during startup.
+ */
+public final class StartupTrace {
+
+  private static final String TAG = StartupTrace.class.getSimpleName();
+
+  /**
+   * Tables.onCreate
+   */
+  public static final String APPLICATION_CREATE = "application_create";
+  /**
+   * Firebase analytics initialization, in the background
+   */
+  public static final String ANALYTICS_INIT = "analytics_init";
+  /**
+   * The launcher activity, from onCreate until MainActivity is started
+   */
+  public static final String LAUNCHER = "launcher";
+  /**
+   * Verifying external storage and the app's directory structure, in the background
+   */
+  public static final String DIRECTORY_CHECK = "directory_check";
+  /**
+   * MainActivity.onCreate
+   */
+  public static final String MAIN_ACTIVITY_CREATE = "main_activity_create";
+  /**
+   * From asking for the database service until it is available
+   */
+  public static final String DATABASE_BIND = "database_bind";
+  /**
+   * Reading the table list and its stats, in the background
+   */
+  public static final String TABLE_LIST_LOAD = "table_list_load";
+  /**
+   * From the start of the process until the table list is first drawn with real data
+   */
+  public static final String FIRST_LIST = "time_to_first_list";
+
+  // when the process started, in the elapsedRealtime time base
+  private static final long origin = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ?
+      Process.getStartElapsedRealtime() :
+      SystemClock.elapsedRealtime();
+  // start and end of each phase relative to origin, -1 while not yet ended, in begin order
+  private static final Map<String, long[]> phases = new LinkedHashMap<>();
+  // whether the trace has been logged
+  private static boolean reported = false;
+
+  /**
+   * Do not instantiate this class
+   */
+  private StartupTrace() {
+  }
+
+  /**
+   * Marks the start of a phase
+   *
+   * @param phase the name of the phase
+   */
+  public static synchronized void begin(String phase) {
+    if (!reported && !phases.containsKey(phase)) {
+      phases.put(phase, new long[] { now(), -1 });
+    }
+  }
+
+  /**
+   * Marks the end of a phase. A phase that never began is taken to have started with the
+   * process.
+   *
+   * @param phase the name of the phase
+   */
+  public static synchronized void end(String phase) {
+    if (reported) {
+      return;
+    }
+    long[] times = phases.get(phase);
+    if (times == null) {
+      phases.put(phase, new long[] { 0, now() });
+    } else if (times[1] < 0) {
+      times[1] = now();
+    }
+  }
+
+  /**
+   * Ends the time to first list phase and logs every phase, the first time it's called
+   *
+   * @param appName the app name, used to find the logger
+   */
+  public static void firstListDrawn(String appName) {
+    String report;
+    synchronized (StartupTrace.class) {
+      if (reported) {
+        return;
+      }
+      end(FIRST_LIST);
+      reported = true;
+      StringBuilder sb = new StringBuilder("startup trace:");
+      for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+        long[] times = phase.getValue();
+        sb.append(' ').append(phase.getKey()).append('=').append(times[0]).append('-')
+            .append(times[1] < 0 ? "?" : Long.toString(times[1])).append("ms");
+      }
+      report = sb.toString();
+    }
+    WebLogger.getLogger(appName).i(TAG, report);
+  }
+
+  private static long now() {
+    return SystemClock.elapsedRealtime() - origin;
+  }
+}
@@ -15,10 +15,12 @@
 package org.opendatakit.tables.application;
 
 import com.crashlytics.android.Crashlytics;
-import com.google.firebase.analytics.FirebaseAnalytics;
 import io.fabric.sdk.android.Fabric;
 import org.opendatakit.application.CommonApplication;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.tables.BuildConfig;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.utils.DbAccessMonitor;
 
 import java.lang.ref.WeakReference;
 
@@ -35,8 +37,6 @@ public class Tables extends CommonApplication {
 
   private static WeakReference<Tables> ref = null;
 
-  private FirebaseAnalytics analytics;
-
   public static Tables getInstance() {
     if (ref == null)
       // shut the IDE up
@@ -44,6 +44,15 @@ public class Tables extends CommonApplication {
     return ref.get();
   }
 
+  /**
+   * @return the interface to ODK Services, watched by the {@link DbAccessMonitor} when it is
+   * enabled
+   */
+  @Override
+  public UserDbInterface getDatabase() {
+    return DbAccessMonitor.wrap(super.getDatabase());
+  }
+
   @Override
   public int getApkDisplayNameResourceId() {
     return R.string.app_name;
@@ -64,12 +73,25 @@ public class Tables extends CommonApplication {
     return getString(R.string.app_name) + versionDetail;
   }
 
+  /**
+   * Starts Crashlytics, on the calling thread
+   */
+  protected void initCrashReporting() {
+    Fabric.with(this, new Crashlytics());
+  }
+
   @Override
   public void onCreate() {
+    StartupTrace.begin(StartupTrace.APPLICATION_CREATE);
     ref = new WeakReference<>(this);
+    // find the database calls made on the UI thread while developing
+    DbAccessMonitor.setEnabled(BuildConfig.DEBUG);
     super.onCreate();
 
-    Fabric.with(this, new Crashlytics());
-    analytics = FirebaseAnalytics.getInstance(this);
+    // crash reporting has to be in place before anything else can crash, so it stays here
+    initCrashReporting();
+    // nothing on the way to the table list needs analytics, so don't make it wait for them
+    StartupPipeline.initAnalytics(this);
+    StartupTrace.end(StartupTrace.APPLICATION_CREATE);
   }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import org.opendatakit.data.utilities.TableUtil;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.QueryUtil;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.DbSessionManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Starts reading what TableDisplayActivity needs to show a table as soon as the user touches the
+ * table in the table list, before the tap is even recognized and the activity started. The
+ * activity takes the result out of this in-process cache instead of reading it itself.
+ * <p>
+ * A prefetch is used at most once and is thrown away if it isn't taken within
+ * {@link #MAX_AGE_MILLIS}, so the activity never shows data that is noticeably stale. Touching
+ * another table drops the prefetches still waiting, since only the last table touched can be
+ * about to open. The rows are only read up to a screenful, and kept only if that is the whole
+ * table, so a touch that never becomes a tap costs little. A prefetch that hasn't finished when
+ * it is taken is handed over when it does, without blocking the UI thread, rather than dropped
+ * and read again by the activity.
+ */
+public final class TablePrefetcher {
+
+  private static final String TAG = TablePrefetcher.class.getSimpleName();
+
+  // a touch that doesn't become a tap leaves a prefetch behind, so don't keep them long
+  private static final long MAX_AGE_MILLIS = 5000;
+  // about how many rows fit on a screen, a longer table is left for the activity to read
+  private static final int SCREEN_ROWS = 50;
+
+  // one thread, so touching several tables in a row doesn't flood the database service
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+  // the outstanding prefetches, by app name and table id
+  private static final Map<String, Pending> pending = new HashMap<>();
+
+  /**
+   * What was read for a table. Any of the fields may be null if that part couldn't be read.
+   */
+  public static final class Result {
+    public final OrderedColumns columnDefinitions;
+    public final PossibleTableViewTypes possibleTableViewTypes;
+    public final String sortColumn;
+    public final String sortOrder;
+    public final String[] groupBy;
+    // the whole table, with its default sort and group by, only read when the table opens in a
+    // spreadsheet and has no more than a screenful of rows
+    public final UserTable userTable;
+
+    Result(OrderedColumns columnDefinitions, PossibleTableViewTypes possibleTableViewTypes,
+        String sortColumn, String sortOrder, String[] groupBy, UserTable userTable) {
+      this.columnDefinitions = columnDefinitions;
+      this.possibleTableViewTypes = possibleTableViewTypes;
+      this.sortColumn = sortColumn;
+      this.sortOrder = sortOrder;
+      this.groupBy = groupBy;
+      this.userTable = userTable;
+    }
+  }
+
+  /**
+   * Told on the UI thread what a prefetch read
+   */
+  public interface Callback {
+    /**
+     * @param result what was read, or null if there was no recent prefetch or it failed
+     */
+    void onPrefetchTaken(Result result);
+  }
+
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  /**
+   * Do not instantiate this class
+   */
+  private TablePrefetcher() {
+  }
+
+  /**
+   * Starts reading a table in the background, unless a recent prefetch of it is still waiting.
+   * The prefetches of other tables are dropped.
+   *
+   * @param appName the app name
+   * @param tableId the table the user touched
+   */
+  public static void prefetch(final String appName, final String tableId) {
+    final UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    if (dbInterface == null) {
+      return;
+    }
+    String key = appName + "/" + tableId;
+    synchronized (pending) {
+      sweep();
+      if (pending.containsKey(key)) {
+        return;
+      }
+      // the ones still queued are cancelled before they read anything
+      for (Pending other : pending.values()) {
+        other.future.cancel(false);
+      }
+      pending.clear();
+      pending.put(key, new Pending(executor.submit(new Callable<Result>() {
+        @Override
+        public Result call() {
+          return read(dbInterface, appName, tableId);
+        }
+      })));
+    }
+  }
+
+  /**
+   * Takes the prefetch of a table out of the cache. If there is none, or it has finished, the
+   * callback is called straight away. Otherwise it is called on the UI thread once the prefetch
+   * finishes; the wait is queued behind the prefetch on the prefetch thread, so the UI thread
+   * never blocks.
+   *
+   * @param appName  the app name
+   * @param tableId  the table being displayed
+   * @param callback told what was read
+   */
+  public static void take(final String appName, final String tableId, final Callback callback) {
+    final Pending taken;
+    synchronized (pending) {
+      sweep();
+      taken = pending.remove(appName + "/" + tableId);
+    }
+    if (taken == null) {
+      callback.onPrefetchTaken(null);
+      return;
+    }
+    if (taken.future.isDone()) {
+      callback.onPrefetchTaken(getResult(appName, taken.future));
+      return;
+    }
+    WebLogger.getLogger(appName).i(TAG, "prefetch of " + tableId + " not ready, waiting");
+    // one thread, so this only runs once the prefetch has
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Result result = getResult(appName, taken.future);
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            callback.onPrefetchTaken(result);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * @return the result of a finished prefetch, or null if it failed or was cancelled
+   */
+  private static Result getResult(String appName, Future<Result> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (CancellationException e) {
+      return null;
+    } catch (ExecutionException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      return null;
+    }
+  }
+
+  /**
+   * Reads the columns, view types, default sort and group by, and for a spreadsheet a screenful
+   * of rows, with one database handle
+   */
+  private static Result read(UserDbInterface dbInterface, String appName, String tableId) {
+    long start = SystemClock.elapsedRealtime();
+    DbHandle db = null;
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      OrderedColumns columnDefinitions = dbInterface.getUserDefinedColumns(appName, db, tableId);
+      PossibleTableViewTypes viewTypes = new PossibleTableViewTypes(dbInterface, appName, db,
+          tableId, columnDefinitions);
+      String sortColumn = TableUtil.get().getSortColumn(dbInterface, appName, db, tableId);
+      String sortOrder = TableUtil.get().getSortOrder(dbInterface, appName, db, tableId);
+      List<String> groupByList = TableUtil.get()
+          .getGroupByColumns(dbInterface, appName, db, tableId);
+      String[] groupBy = groupByList.toArray(new String[groupByList.size()]);
+      UserTable userTable = null;
+      ViewFragmentType defaultViewType = viewTypes.getDefaultViewType();
+      if (defaultViewType == null || defaultViewType == ViewFragmentType.SPREADSHEET) {
+        userTable = dbInterface
+            .simpleQuery(appName, db, tableId, columnDefinitions, null, null, groupBy, null,
+                QueryUtil.convertStringToArray(sortColumn),
+                QueryUtil.convertStringToArray(sortOrder), SCREEN_ROWS + 1, 0);
+        if (userTable.getNumberOfRows() > SCREEN_ROWS) {
+          // only part of the table, the activity reads all of it
+          userTable = null;
+        }
+      }
+      WebLogger.getLogger(appName).i(TAG,
+          "prefetched " + tableId + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+      return new Result(columnDefinitions, viewTypes, sortColumn, sortOrder, groupBy, userTable);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "unable to prefetch " + tableId);
+      return null;
+    } finally {
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the prefetches that weren't taken in time, must be called while holding the pending
+   * lock
+   */
+  private static void sweep() {
+    Iterator<Pending> iterator = pending.values().iterator();
+    while (iterator.hasNext()) {
+      Pending entry = iterator.next();
+      if (entry.isExpired()) {
+        entry.future.cancel(false);
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * A prefetch and when it was started
+   */
+  private static final class Pending {
+    final Future<Result> future;
+    final long started = SystemClock.elapsedRealtime();
+
+    Pending(Future<Result> future) {
+      this.future = future;
+    }
+
+    boolean isExpired() {
+      return SystemClock.elapsedRealtime() - started > MAX_AGE_MILLIS;
+    }
+  }
+}
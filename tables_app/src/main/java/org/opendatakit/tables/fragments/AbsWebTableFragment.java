@@ -20,9 +20,11 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.LinearLayout;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.IOdkTablesActivity;
+import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.views.webkits.OdkTablesWebView;
 
@@ -36,12 +38,48 @@ public abstract class AbsWebTableFragment extends AbsTableDisplayFragment implem
 
   private static final String TAG = AbsWebTableFragment.class.getSimpleName();
 
+  /**
+   * @return the container fragment id of the fragment's web view, null unless the activity
+   * shows more than one web view
+   */
+  protected String getContainerFragmentID() {
+    return null;
+  }
+
+  /**
+   * Inflates the container of the web view. In a TableDisplayActivity the web view comes from
+   * the activity's pool, so that recreating the fragment doesn't construct a new one, nor load
+   * the page again if the view still shows it.
+   */
   @Override
   public View onCreateView(LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
     WebLogger.getLogger(getAppName()).d(TAG, "[onCreateView]");
 
-    return inflater.inflate(R.layout.web_view_container, container, false);
+    if (!(getActivity() instanceof TableDisplayActivity)) {
+      return inflater.inflate(R.layout.web_view_container, container, false);
+    }
+    ViewGroup newView = (ViewGroup) inflater
+        .inflate(R.layout.pooled_web_view_container, container, false);
+    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    String containerFragmentID = getContainerFragmentID();
+    OdkTablesWebView webView = activity.getWebViewPool()
+        .acquire(activity.getUrlBaseLocation(false, containerFragmentID), containerFragmentID);
+    newView.addView(webView, 0, new LinearLayout.LayoutParams(
+        LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.MATCH_PARENT));
+    return newView;
+  }
+
+  /**
+   * Gives a pooled web view back to the activity's pool
+   */
+  @Override
+  public void onDestroyView() {
+    OdkTablesWebView view = getWebKit();
+    if (view != null && getActivity() instanceof TableDisplayActivity) {
+      ((TableDisplayActivity) getActivity()).getWebViewPool().release(view);
+    }
+    super.onDestroyView();
   }
 
   public void onResume() {
@@ -88,11 +126,20 @@ public abstract class AbsWebTableFragment extends AbsTableDisplayFragment implem
     }
   }
 
+  /**
+   * Sends the page a databaseAvailable event if it asked for one, so that it can re-issue its
+   * queries without being reloaded, and reloads it otherwise
+   */
   @Override
   public void databaseAvailable() {
 
     if (getView() != null) {
       setWebKitVisibility();
+      if (getWebKit().dispatchEvent(OdkTablesWebView.EVENT_DATABASE_AVAILABLE, null)) {
+        WebLogger.getLogger(((IOdkTablesActivity) getActivity()).getAppName())
+            .d(TAG, "databaseAvailable event sent " + getWebKit().getContainerFragmentID());
+        return;
+      }
       WebLogger.getLogger(((IOdkTablesActivity) getActivity()).getAppName())
           .d(TAG, "reloadPage " + getWebKit().getContainerFragmentID());
       getWebKit().reloadPage();
@@ -34,6 +34,7 @@ import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.DbSessionManager;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -106,7 +107,7 @@ public class ColumnListFragment extends ListFragment {
     TableUtil.TableColumns tc;
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(appName);
+      db = DbSessionManager.openDatabase(appName);
       tc = TableUtil.get().getTableColumns(userSelectedDefaultLocale, dbInterface, appName, db,
           activity.getTableId());
 
@@ -122,7 +123,7 @@ public class ColumnListFragment extends ListFragment {
       this.mDisplayNames = displayNames;
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(appName, db);
+        DbSessionManager.closeDatabase(appName, db);
       }
     }
   }
@@ -37,6 +37,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.PreferenceUtil;
 
 /**
@@ -167,7 +168,7 @@ public class ColumnPreferenceFragment extends AbsTableLevelPreferenceFragment {
     UserDbInterface dbInterface = Tables.getInstance().getDatabase();
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(getAppName());
+      db = DbSessionManager.openDatabase(getAppName());
       PropertiesSingleton props = CommonToolProperties
           .get(getActivity().getApplication(), getAppName());
       String userSelectedDefaultLocale = props.getUserSelectedDefaultLocale();
@@ -177,7 +178,7 @@ public class ColumnPreferenceFragment extends AbsTableLevelPreferenceFragment {
       pref.setSummary(localizedDisplayName);
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(getAppName(), db);
+        DbSessionManager.closeDatabase(getAppName(), db);
       }
     }
   }
@@ -18,13 +18,9 @@ package org.opendatakit.tables.fragments;
 import android.app.Fragment;
 import android.view.View;
 import org.opendatakit.activities.IOdkCommonActivity;
-import org.opendatakit.database.data.BaseTable;
-import org.opendatakit.database.queries.BindArgs;
-import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
-import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
-import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.RowAccessCache;
+
 /**
  * {@link Fragment} for displaying a detail view.
  *
@@ -49,31 +45,25 @@ public class DetailViewFragment extends AbsWebTableFragment {
       });
     }
   }
+
+  /**
+   * Hides the edit button if the user can't edit the row. The row's access comes from the
+   * {@link RowAccessCache}, or is read in the background, so it never holds up the UI thread.
+   */
   private void checkAccess() {
     String tableId = ((IOdkCommonActivity) getActivity()).getTableId();
     String rowId = ((IOdkCommonActivity) getActivity()).getInstanceId();
-    UserDbInterface dbInt = Tables.getInstance().getDatabase();
-    boolean can_edit = true;
-    try {
-      DbHandle db = dbInt.openDatabase(getAppName());
-
-      BaseTable result = dbInt
-              // we know it's safe to dump the table id in there because we got it from the TDA
-              .arbitrarySqlQuery(getAppName(), db,tableId, "SELECT * FROM "+tableId+" WHERE _id = ?",
-                      new BindArgs(new String[] {rowId}), 1, 0);
-      String access = result.getRowAtIndex(0).getDataByKey("_effective_access");
-      if (access != null) {
-        can_edit = access.contains("w");
-      }
-      dbInt.closeDatabase(getAppName(), db);
-    } catch (Exception e) {
-      WebLogger.getLogger(getAppName()).printStackTrace(e);
-    }
-    if (!can_edit) {
-      View edit_button = getActivity().findViewById(R.id.menu_edit_row);
-      if (edit_button != null) {
-        edit_button.setVisibility(View.GONE);
+    RowAccessCache.load(getAppName(), tableId, rowId, new RowAccessCache.Callback() {
+      @Override
+      public void onAccessLoaded(String effectiveAccess) {
+        if (effectiveAccess == null || effectiveAccess.contains("w") || getActivity() == null) {
+          return;
+        }
+        View edit_button = getActivity().findViewById(R.id.menu_edit_row);
+        if (edit_button != null) {
+          edit_button.setVisibility(View.GONE);
+        }
       }
-    }
+    });
   }
 }
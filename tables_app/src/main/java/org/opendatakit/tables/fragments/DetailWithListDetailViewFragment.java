@@ -32,6 +32,11 @@ public class DetailWithListDetailViewFragment extends AbsWebTableFragment {
 
   private static final String TAG = DetailWithListDetailViewFragment.class.getSimpleName();
 
+  @Override
+  protected String getContainerFragmentID() {
+    return Constants.FragmentTags.DETAIL_WITH_LIST_DETAIL;
+  }
+
   @Override
   public View onCreateView(LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
@@ -47,7 +52,7 @@ public class DetailWithListDetailViewFragment extends AbsWebTableFragment {
       WebLogger.getLogger(getAppName()).e(TAG, "[onCreateView] web view was null");
       return newView;
     }
-    webView.setContainerFragmentID(Constants.FragmentTags.DETAIL_WITH_LIST_DETAIL);
+    webView.setContainerFragmentID(getContainerFragmentID());
     return newView;
   }
 }
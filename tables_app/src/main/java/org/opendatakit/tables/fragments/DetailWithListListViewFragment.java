@@ -32,6 +32,11 @@ public class DetailWithListListViewFragment extends AbsWebTableFragment {
 
   private static final String TAG = DetailWithListListViewFragment.class.getSimpleName();
 
+  @Override
+  protected String getContainerFragmentID() {
+    return Constants.FragmentTags.DETAIL_WITH_LIST_LIST;
+  }
+
   @Override
   public View onCreateView(LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
@@ -46,7 +51,7 @@ public class DetailWithListListViewFragment extends AbsWebTableFragment {
       WebLogger.getLogger(getAppName()).e(TAG, "[onCreateView] web view was null");
       return newView;
     }
-    webView.setContainerFragmentID(Constants.FragmentTags.DETAIL_WITH_LIST_LIST);
+    webView.setContainerFragmentID(getContainerFragmentID());
     return newView;
   }
 }
\ No newline at end of file
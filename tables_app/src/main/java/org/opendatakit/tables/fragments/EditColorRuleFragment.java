@@ -34,6 +34,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.preferences.EditColorPreference;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.views.ColorPickerDialog.OnColorChangedListener;
 
@@ -136,7 +137,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment
     super.onResume();
     DbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+      db = DbSessionManager.openDatabase(getAppName());
       this.initializeStateRequiringContext(db);
       this.initializeAllPreferences(db);
     } catch (ServicesAvailabilityException e) {
@@ -145,7 +146,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment
     } finally {
       if (db != null) {
         try {
-          Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+          DbSessionManager.closeDatabase(getAppName(), db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(getAppName()).printStackTrace(e);
           Toast.makeText(getActivity(), "Error releasing database", Toast.LENGTH_LONG).show();
@@ -283,7 +284,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment
         String localizedDisplayName = null;
         DbHandle db = null;
         try {
-          db = dbInterface.openDatabase(getAppName());
+          db = DbSessionManager.openDatabase(getAppName());
           localizedDisplayName = ColumnUtil.get()
               .getLocalizedDisplayName(userSelectedDefaultLocale, dbInterface, getAppName(), db,
                   getTableId(), mElementKey);
@@ -292,7 +293,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment
         } finally {
           if (db != null) {
             try {
-              dbInterface.closeDatabase(getAppName(), db);
+              DbSessionManager.closeDatabase(getAppName(), db);
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(getAppName()).printStackTrace(e);
             }
@@ -22,6 +22,8 @@ import org.opendatakit.activities.IOdkDataActivity;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.views.webkits.OdkTablesWebView;
 
+import java.util.Collections;
+
 /**
  * The list view that is displayed in a map.
  *
@@ -90,6 +92,20 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     currentView.reloadPage();
   }
 
+  /**
+   * Tells the page which item is selected now, if it asked to be told, and resets the view
+   * otherwise
+   */
+  private void selectionChanged() {
+    OdkTablesWebView currentView = getView() == null ? null : getWebKit();
+    if (currentView != null && currentView.dispatchEvent(
+        OdkTablesWebView.EVENT_SELECTED_INDEX_CHANGED,
+        Collections.<String, Object>singletonMap("index", mSelectedItemIndex))) {
+      return;
+    }
+    this.resetView();
+  }
+
   @Override
   public void onResume() {
     super.onResume();
@@ -117,7 +133,7 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     this.mSelectedItemIndex = INVALID_INDEX;
     // TODO: Make map index work with async API
     //this.mTableDataReference.setNoItemSelected();
-    this.resetView();
+    this.selectionChanged();
   }
 
   public int getIndexOfSelectedItem() {
@@ -133,7 +149,7 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     this.mSelectedItemIndex = index;
     // TODO: Make map index work with async API
     //this.mTableDataReference.setSelectedMapIndex(index);
-    this.resetView();
+    this.selectionChanged();
   }
 
 }
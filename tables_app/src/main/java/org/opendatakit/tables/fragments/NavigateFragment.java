@@ -21,13 +21,13 @@ import org.opendatakit.database.data.OrderedColumns;
 import org.opendatakit.database.data.Row;
 import org.opendatakit.database.data.UserTable;
 import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.providers.GeoProvider;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.DistanceUtil;
 import org.opendatakit.tables.views.CompassView;
 
@@ -144,16 +144,24 @@ public class NavigateFragment extends Fragment implements IMapListViewCallbacks,
     mTable = activity.getUserTable();
     OrderedColumns orderedDefns = activity.getColumnDefinitions();
 
-    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
-
+    DbHandle db = null;
     try {
-      DbHandle db = dbInterface.openDatabase(activity.getAppName());
+      db = DbSessionManager.openDatabase(activity.getAppName());
 
       mLatitudeColumn = orderedDefns.find(getLatitudeElementKey(db));
       mLongitudeColumn = orderedDefns.find(getLongitudeElementKey(db));
     } catch (ServicesAvailabilityException e) {
       WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
       WebLogger.getLogger(activity.getAppName()).e(TAG, "Unable to access database");
+    } finally {
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(activity.getAppName(), db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
+          WebLogger.getLogger(activity.getAppName()).e(TAG, "Unable to close database");
+        }
+      }
     }
 
     // Check for a passed in rowId to default to. Only use it if we haven't already restored a
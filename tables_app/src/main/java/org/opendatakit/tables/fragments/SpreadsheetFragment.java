@@ -17,14 +17,22 @@ package org.opendatakit.tables.fragments;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
+import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -47,9 +55,12 @@ import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.data.ViewFragmentType;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.tables.utils.TableStatsCache;
 import org.opendatakit.tables.views.CellInfo;
+import org.opendatakit.tables.views.SpreadsheetFindIndex;
 import org.opendatakit.tables.views.SpreadsheetProps;
 import org.opendatakit.tables.views.SpreadsheetUserTable;
 import org.opendatakit.tables.views.SpreadsheetUserTable.SpreadsheetCell;
@@ -57,6 +68,7 @@ import org.opendatakit.tables.views.SpreadsheetView;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * Fragment responsible for displaying a spreadsheet view. This class is a hideous monstrosity
@@ -99,17 +111,37 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
    * (before databaseAvailable) is called, it holds a text view with a database error message.
    */
   private LinearLayout theView;
+  /**
+   * The spreadsheet in theView, or null if theView holds a message instead
+   */
+  private SpreadsheetView spreadsheetView = null;
   /**
    * used to post actions until all the lifecycle events have happened on them.
    */
   private View container;
+  /**
+   * The find bar above theView, hidden until the Find menu item is picked
+   */
+  private View findBar;
+  private EditText findText;
+  // says which match is shown and how many there are
+  private TextView findCount;
+  /**
+   * The index the find bar searches, null until it has been built for spreadsheetTable
+   */
+  private SpreadsheetFindIndex findIndex = null;
+  private BuildFindIndexTask findIndexTask = null;
+  // the result of the last search, null if there wasn't one
+  private SpreadsheetFindIndex.Matches findMatches = null;
+  // the matching cell being shown, -1 if none
+  private int currentMatch = -1;
 
   /**
    * Called when the view needs to be displayed to the user. Since it might called before the
    * database is up, it just displays an error message that will be replaced when
-   * databaseAvailable is called.
+   * databaseAvailable is called. The hidden find bar goes above it.
    *
-   * @param inflater           unused
+   * @param inflater           used to inflate the find bar
    * @param container          unused
    * @param savedInstanceState unused
    * @return A view with an error message
@@ -117,12 +149,18 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
   @Override
   public View onCreateView(android.view.LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
+    LinearLayout root = new LinearLayout(getActivity());
+    root.setOrientation(LinearLayout.VERTICAL);
+    findBar = inflater.inflate(R.layout.spreadsheet_find_bar, root, false);
+    root.addView(findBar);
+    initFindBar();
     theView = new LinearLayout(getActivity());
     TextView textView = new TextView(getActivity());
     textView.setText(getString(R.string.error_accessing_database));
     theView.addView(textView);
+    root.addView(theView);
     this.container = container;
-    return theView;
+    return root;
   }
 
   /**
@@ -147,9 +185,15 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
   @Override
   public void databaseAvailable() {
     WebLogger.getLogger(getAppName()).i(TAG, "SpreadsheetFragment databaseAvailable called");
+    if (getActivity() == null) {
+      // the recently-destroyed fragment described above, its replacement builds the view
+      return;
+    }
     try {
 
       spreadsheetTable = new SpreadsheetUserTable(this);
+      spreadsheetView = null;
+      discardFindIndex();
       if (!spreadsheetTable.hasData()) {
         TextView textView = new TextView(getActivity());
         textView.setText(getString(R.string.no_data));
@@ -158,8 +202,13 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       } else {
         theView.removeAllViews();
         final SpreadsheetView theSpreadsheetView = buildSpreadsheetView();
-        theView.addView(theSpreadsheetView);
         final SpreadsheetProps props = getProps();
+        theSpreadsheetView.restoreViewport(props);
+        theView.addView(theSpreadsheetView);
+        spreadsheetView = theSpreadsheetView;
+        if (findBar.getVisibility() == View.VISIBLE) {
+          buildFindIndex();
+        }
         container.post(new Runnable() {
           @Override
           public void run() {
@@ -189,6 +238,209 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     }
   }
 
+  /**
+   * Remembers what part of the table is on screen, so that it can be scrolled back to when the
+   * view is rebuilt after a rotation or after coming back from Survey or a collection view
+   */
+  @Override
+  public void onPause() {
+    super.onPause();
+    if (spreadsheetView != null && getActivity() != null) {
+      spreadsheetView.saveViewport(getProps());
+    }
+  }
+
+  /**
+   * Stops building the find index, nothing will be around to search it
+   */
+  @Override
+  public void onDestroy() {
+    discardFindIndex();
+    super.onDestroy();
+  }
+
+  /**
+   * Shows the find bar, focused and with the keyboard up, and starts indexing the table if it
+   * hasn't been indexed yet. Called from the Find menu item.
+   */
+  public void showFindBar() {
+    findBar.setVisibility(View.VISIBLE);
+    findText.requestFocus();
+    InputMethodManager imm = (InputMethodManager) getActivity()
+        .getSystemService(Context.INPUT_METHOD_SERVICE);
+    imm.showSoftInput(findText, InputMethodManager.SHOW_IMPLICIT);
+    buildFindIndex();
+    find();
+  }
+
+  /**
+   * Hides the find bar and the keyboard
+   */
+  private void hideFindBar() {
+    InputMethodManager imm = (InputMethodManager) getActivity()
+        .getSystemService(Context.INPUT_METHOD_SERVICE);
+    imm.hideSoftInputFromWindow(findText.getWindowToken(), 0);
+    findBar.setVisibility(View.GONE);
+  }
+
+  /**
+   * Searches as the user types, moves between matches with the buttons and the keyboard's search
+   * key, and closes the bar
+   */
+  private void initFindBar() {
+    findText = (EditText) findBar.findViewById(R.id.spreadsheet_find_text);
+    findCount = (TextView) findBar.findViewById(R.id.spreadsheet_find_count);
+    findText.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+      }
+
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {
+      }
+
+      @Override
+      public void afterTextChanged(Editable s) {
+        find();
+      }
+    });
+    findText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+      @Override
+      public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+        if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+          moveToMatch(true);
+          return true;
+        }
+        return false;
+      }
+    });
+    findBar.findViewById(R.id.spreadsheet_find_next).setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View v) {
+            moveToMatch(true);
+          }
+        });
+    findBar.findViewById(R.id.spreadsheet_find_previous).setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View v) {
+            moveToMatch(false);
+          }
+        });
+    findBar.findViewById(R.id.spreadsheet_find_close).setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View v) {
+            hideFindBar();
+          }
+        });
+  }
+
+  /**
+   * Starts indexing the table in the background, unless it has been or is being indexed
+   */
+  private void buildFindIndex() {
+    if (findIndex == null && findIndexTask == null && spreadsheetView != null) {
+      findIndexTask = new BuildFindIndexTask(spreadsheetTable);
+      findIndexTask.execute();
+    }
+  }
+
+  /**
+   * Forgets the index and the matches, because the table they were made from is gone
+   */
+  private void discardFindIndex() {
+    if (findIndexTask != null) {
+      findIndexTask.cancel(false);
+      findIndexTask = null;
+    }
+    findIndex = null;
+    findMatches = null;
+    currentMatch = -1;
+  }
+
+  /**
+   * Searches for what is in the find bar and shows the first match, staying on the match already
+   * shown if it still matches so that typing more of a word doesn't jump around. A # followed by
+   * a number jumps to that row instead.
+   */
+  private void find() {
+    String query = findText.getText().toString().trim();
+    if (spreadsheetView == null || query.isEmpty()) {
+      findMatches = null;
+      currentMatch = -1;
+      findCount.setText(null);
+      return;
+    }
+    if (query.startsWith("#")) {
+      jumpToRow(query.substring(1).trim());
+      return;
+    }
+    if (findIndex == null) {
+      // searched again when the index is ready
+      findCount.setText(R.string.find_indexing);
+      return;
+    }
+    findMatches = findIndex.find(query);
+    if (findMatches.size() == 0) {
+      currentMatch = -1;
+      findCount.setText(R.string.find_no_matches);
+      return;
+    }
+    if (!findMatches.contains(currentMatch)) {
+      currentMatch = findMatches.next(currentMatch);
+    }
+    showMatch();
+  }
+
+  /**
+   * Shows the row with that number, counting from one
+   *
+   * @param number what the user typed after the #
+   */
+  private void jumpToRow(String number) {
+    findMatches = null;
+    currentMatch = -1;
+    int numberOfRows = getUserTable() == null ? 0 : getUserTable().getNumberOfRows();
+    int row;
+    try {
+      row = Integer.parseInt(number);
+    } catch (NumberFormatException e) {
+      findCount.setText(null);
+      return;
+    }
+    if (numberOfRows == 0) {
+      findCount.setText(R.string.find_no_matches);
+      return;
+    }
+    row = Math.max(1, Math.min(row, numberOfRows));
+    spreadsheetView.showCell(row - 1, 0);
+    findCount.setText(getString(R.string.find_row, row, numberOfRows));
+  }
+
+  /**
+   * Moves to the next or previous match, wrapping around at the ends of the table
+   *
+   * @param forward whether to move down the table
+   */
+  private void moveToMatch(boolean forward) {
+    if (findMatches == null || findMatches.size() == 0) {
+      return;
+    }
+    currentMatch = forward ? findMatches.next(currentMatch) : findMatches.previous(currentMatch);
+    showMatch();
+  }
+
+  /**
+   * Scrolls the current match into view and says which match it is
+   */
+  private void showMatch() {
+    spreadsheetView.showCell(findIndex.getRow(currentMatch), findIndex.getColumn(currentMatch));
+    findCount.setText(getString(R.string.find_match_count, findMatches.indexOf(currentMatch) + 1,
+        findMatches.size()));
+  }
+
   /**
    * Does nothing when the database goes away
    */
@@ -332,12 +584,13 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       throws ServicesAvailabilityException, ActionNotAuthorizedException {
     DbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+      db = DbSessionManager.openDatabase(getAppName());
       Tables.getInstance().getDatabase()
           .deleteRowWithId(getAppName(), db, getTableId(), getColumnDefinitions(), rowId);
+      TableStatsCache.markChanged(getAppName(), getTableId());
     } finally {
       if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+        DbSessionManager.closeDatabase(getAppName(), db);
       }
     }
   }
@@ -416,7 +669,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       ArrayList<JoinColumn> joinColumns;
       DbHandle db = null;
       try {
-        db = dbInterface.openDatabase(getAppName());
+        db = DbSessionManager.openDatabase(getAppName());
         joinColumns = ColumnUtil.get()
             .getJoins(dbInterface, getAppName(), db, getTableId(), cd.getElementKey());
 
@@ -454,7 +707,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
           } else {
             db = null;
             try {
-              db = dbInterface.openDatabase(getAppName());
+              db = DbSessionManager.openDatabase(getAppName());
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
               WebLogger.getLogger(activity.getAppName()).e(TAG, "Error while accessing database");
@@ -462,7 +715,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
             } finally {
               if (db != null) {
                 try {
-                  dbInterface.closeDatabase(getAppName(), db);
+                  DbSessionManager.closeDatabase(getAppName(), db);
                 } catch (ServicesAvailabilityException e) {
                   WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
                   WebLogger.getLogger(activity.getAppName()).e(TAG, "Error closing database");
@@ -494,7 +747,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       } finally {
         if (db != null) {
           try {
-            dbInterface.closeDatabase(getAppName(), db);
+            DbSessionManager.closeDatabase(getAppName(), db);
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
             WebLogger.getLogger(activity.getAppName()).e(TAG, "Error closing database");
@@ -621,12 +874,12 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     UserDbInterface dbInterface = Tables.getInstance().getDatabase();
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(getAppName());
+      db = DbSessionManager.openDatabase(getAppName());
       joinColumns = ColumnUtil.get()
           .getJoins(dbInterface, getAppName(), db, getTableId(), cellInfo.elementKey);
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(getAppName(), db);
+        DbSessionManager.closeDatabase(getAppName(), db);
       }
     }
 
@@ -802,4 +1055,31 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     confirmDeleteAlert.show();
   }
 
+  /**
+   * Builds the find index off the ui thread, then runs the search the user typed while it was
+   * being built
+   */
+  private class BuildFindIndexTask extends AsyncTask<Void, Void, SpreadsheetFindIndex> {
+
+    private final SpreadsheetUserTable table;
+
+    BuildFindIndexTask(SpreadsheetUserTable table) {
+      this.table = table;
+    }
+
+    @Override
+    protected SpreadsheetFindIndex doInBackground(Void... params) {
+      return table.buildFindIndex(Locale.getDefault());
+    }
+
+    @Override
+    protected void onPostExecute(SpreadsheetFindIndex index) {
+      findIndexTask = null;
+      findIndex = index;
+      if (getActivity() != null && findBar.getVisibility() == View.VISIBLE) {
+        find();
+      }
+    }
+  }
+
 }
@@ -35,6 +35,7 @@ import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.views.components.ColorRuleAdapter;
 
@@ -97,7 +98,7 @@ public class StatusColorRuleListFragment extends ListFragment {
     TableUtil.TableColumns tc = null;
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(getAppName());
+      db = DbSessionManager.openDatabase(getAppName());
 
       tc = TableUtil.get()
           .getTableColumns(userSelectedDefaultLocale, dbInterface, getAppName(), db, getTableId());
@@ -108,7 +109,7 @@ public class StatusColorRuleListFragment extends ListFragment {
     } finally {
       if (db != null) {
         try {
-          dbInterface.closeDatabase(getAppName(), db);
+          DbSessionManager.closeDatabase(getAppName(), db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(getAppName()).printStackTrace(e);
           WebLogger.getLogger(getAppName()).e(TAG, "Error while initializing color rule list");
@@ -25,6 +25,7 @@ import android.view.ContextMenu;
 import android.view.LayoutInflater;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
@@ -34,9 +35,7 @@ import android.widget.Toast;
 import org.opendatakit.activities.IAppAwareActivity;
 import org.opendatakit.consts.IntentConsts;
 import org.opendatakit.consts.RequestCodeConsts;
-import org.opendatakit.data.utilities.TableUtil;
 import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.listener.DatabaseConnectionListener;
 import org.opendatakit.logging.WebLogger;
@@ -46,9 +45,15 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
+import org.opendatakit.tables.application.StartupTrace;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.TablePrefetcher;
 import org.opendatakit.tables.utils.ActivityUtil;
+import org.opendatakit.tables.utils.DbSessionManager;
+import org.opendatakit.tables.utils.RowAccessCache;
+import org.opendatakit.tables.utils.TableNameListLoader;
 import org.opendatakit.tables.utils.TableNameStruct;
+import org.opendatakit.tables.utils.TableStatsCache;
 import org.opendatakit.tables.views.components.TableNameStructAdapter;
 
 import java.util.ArrayList;
@@ -65,6 +70,8 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
   private static final int ID = R.layout.fragment_table_list;
 
   private TableNameStructAdapter mTpAdapter = null;
+  // the table whose display activity was last opened from the list
+  private String mDisplayedTableId = null;
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
@@ -89,10 +96,43 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
     super.onActivityCreated(savedInstanceState);
     this.setHasOptionsMenu(true);
     this.registerForContextMenu(this.getListView());
+    this.getListView().setOnTouchListener(new View.OnTouchListener() {
+      @Override
+      public boolean onTouch(View v, MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+          prefetchTableAt(event);
+        }
+        // let the list view handle the tap as usual
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Starts reading the table under a touch so that TableDisplayActivity has it ready if the touch
+   * turns out to be a tap. A touch on the preferences icon or a scroll just leaves a prefetch
+   * that expires unused, or is dropped when the next table is touched.
+   *
+   * @param event the touch that went down
+   */
+  private void prefetchTableAt(MotionEvent event) {
+    AbsBaseActivity baseActivity = (AbsBaseActivity) getActivity();
+    if (baseActivity == null || mTpAdapter == null) {
+      return;
+    }
+    int position = getListView().pointToPosition((int) event.getX(), (int) event.getY());
+    if (position == AdapterView.INVALID_POSITION) {
+      return;
+    }
+    Object item = getListView().getItemAtPosition(position);
+    if (item instanceof TableNameStruct) {
+      TablePrefetcher.prefetch(baseActivity.getAppName(), ((TableNameStruct) item).getTableId());
+    }
   }
 
   /**
-   * Refresh the list of tables that is being displayed by the fragment.
+   * Refresh the list of tables that is being displayed by the fragment. The last list loaded is
+   * shown straight away and the tables are read again in the background.
    */
   protected void updateTableIdList() {
     AbsBaseActivity baseActivity = (AbsBaseActivity) getActivity();
@@ -100,55 +140,63 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
       return;
     }
 
-    String appName = baseActivity.getAppName();
-
-    PropertiesSingleton props = CommonToolProperties.get(getActivity().getApplication(), appName);
-    String userSelectedDefaultLocale = props.getUserSelectedDefaultLocale();
-
-    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
-    DbHandle db = null;
-
-    List<TableNameStruct> tableNameStructs = new ArrayList<>();
-
-    if (Tables.getInstance().getDatabase() != null) {
-
-      try {
-        db = dbInterface.openDatabase(appName);
+    final String appName = baseActivity.getAppName();
 
-        List<String> tableIds = dbInterface.getAllTableIds(appName, db);
+    if (mTpAdapter == null) {
+      List<TableNameStruct> cached = TableNameListLoader.getCached(appName);
+      if (cached != null) {
+        showTableList(cached);
+      } else {
+        this.mTpAdapter = new TableNameStructAdapter(baseActivity,
+            new ArrayList<TableNameStruct>());
+        this.setListAdapter(this.mTpAdapter);
+      }
+    }
 
-        for (String tableId : tableIds) {
-          String localizedDisplayName = TableUtil.get()
-              .getLocalizedDisplayName(userSelectedDefaultLocale, dbInterface, appName, db,
-                  tableId);
+    if (Tables.getInstance().getDatabase() == null) {
+      TableNameListLoader.invalidate(appName);
+      showTableList(new ArrayList<TableNameStruct>());
+      return;
+    }
 
-          TableNameStruct tableNameStruct = new TableNameStruct(tableId, localizedDisplayName);
+    PropertiesSingleton props = CommonToolProperties.get(getActivity().getApplication(), appName);
+    String userSelectedDefaultLocale = props.getUserSelectedDefaultLocale();
 
-          tableNameStructs.add(tableNameStruct);
-        }
-        WebLogger.getLogger(baseActivity.getAppName())
-            .e(TAG, "got tableId list of size: " + tableNameStructs.size());
-      } catch (ServicesAvailabilityException e) {
-        WebLogger.getLogger(baseActivity.getAppName()).e(TAG, "error while fetching tableId list");
-        WebLogger.getLogger(baseActivity.getAppName()).printStackTrace(e);
-      } finally {
-        if (db != null) {
-          try {
-            dbInterface.closeDatabase(appName, db);
-          } catch (ServicesAvailabilityException e) {
-            WebLogger.getLogger(baseActivity.getAppName()).e(TAG, "error while closing database");
-            WebLogger.getLogger(baseActivity.getAppName()).printStackTrace(e);
+    TableNameListLoader.load(appName, userSelectedDefaultLocale, this,
+        new TableNameListLoader.Callback() {
+          @Override
+          public void onTableListLoaded(List<TableNameStruct> tableNameStructs,
+              boolean changed) {
+            if (getActivity() == null) {
+              return;
+            }
+            // an unchanged list still goes through showTableList, where it is a no-op, so the
+            // empty message is right the first time round
+            showTableList(tableNameStructs);
+            getListView().post(new Runnable() {
+              @Override
+              public void run() {
+                StartupTrace.firstListDrawn(appName);
+              }
+            });
           }
-        }
-      }
-    }
+        });
+  }
 
+  /**
+   * Updates the adapter in place and shows either the list or the message saying why it's empty
+   *
+   * @param tableNameStructs the tables to show
+   */
+  private void showTableList(List<TableNameStruct> tableNameStructs) {
+    AbsBaseActivity baseActivity = (AbsBaseActivity) getActivity();
     if (mTpAdapter == null) {
       this.mTpAdapter = new TableNameStructAdapter(baseActivity, tableNameStructs);
       this.setListAdapter(this.mTpAdapter);
     } else {
-      this.mTpAdapter.clear();
-      this.mTpAdapter.addAll(tableNameStructs);
+      int changes = this.mTpAdapter.update(tableNameStructs);
+      WebLogger.getLogger(baseActivity.getAppName())
+          .d(TAG, "table list updated with " + changes + " changes");
     }
     // and set visibility of the no data vs. list
     if (this.getView() != null) {
@@ -167,7 +215,6 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
         none.setVisibility(View.GONE);
       }
     }
-    this.mTpAdapter.notifyDataSetChanged();
   }
 
   @Override
@@ -183,12 +230,26 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
       TableNameStruct nameStruct = (TableNameStruct) this.getListView().getItemAtPosition(position);
       String tableId = nameStruct.getTableId();
       intent.putExtra(IntentConsts.INTENT_KEY_TABLE_ID, tableId);
+      mDisplayedTableId = tableId;
       ComponentName componentName = new ComponentName(baseActivity, TableDisplayActivity.class);
       intent.setComponent(componentName);
       startActivityForResult(intent, RequestCodeConsts.RequestCodes.DISPLAY_VIEW);
     }
   }
 
+  @Override
+  public void onActivityResult(int requestCode, int resultCode, Intent data) {
+    if (requestCode == RequestCodeConsts.RequestCodes.DISPLAY_VIEW && mDisplayedTableId != null
+        && getActivity() != null) {
+      // rows may have been added, edited or deleted while the table was open; onResume will
+      // reload the list and read the stats of this table again
+      TableStatsCache
+          .markChanged(((IAppAwareActivity) getActivity()).getAppName(), mDisplayedTableId);
+      mDisplayedTableId = null;
+    }
+    super.onActivityResult(requestCode, resultCode, data);
+  }
+
   @Override
   public void onCreateContextMenu(ContextMenu menu, View v, ContextMenu.ContextMenuInfo menuInfo) {
     MenuInflater menuInflater = this.getActivity().getMenuInflater();
@@ -224,15 +285,17 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
           DbHandle db = null;
           try {
             try {
-              db = Tables.getInstance().getDatabase().openDatabase(appName);
+              db = DbSessionManager.openDatabase(appName);
               Tables.getInstance().getDatabase()
                   .deleteTableAndAllData(appName, db, tableIdOfSelectedItem);
             } finally {
               if (db != null) {
-                Tables.getInstance().getDatabase().closeDatabase(appName, db);
+                DbSessionManager.closeDatabase(appName, db);
               }
             }
             // Now update the list.
+            TableStatsCache.markChanged(appName, tableIdOfSelectedItem);
+            TableNameListLoader.invalidate(appName);
             updateTableIdList();
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(((IAppAwareActivity) getActivity()).getAppName())
@@ -264,6 +327,13 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
 
   @Override
   public void databaseAvailable() {
+    if (getActivity() != null) {
+      // anything could have changed while we were disconnected
+      String appName = ((IAppAwareActivity) getActivity()).getAppName();
+      TableStatsCache.markChanged(appName, null);
+      RowAccessCache.invalidate(appName, null);
+    }
+    StartupTrace.end(StartupTrace.DATABASE_BIND);
     this.updateTableIdList();
   }
 
@@ -57,6 +57,8 @@ import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
+import org.opendatakit.tables.utils.PerfMetrics;
 import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.utilities.RuntimePermissionUtils;
 
@@ -283,7 +285,7 @@ public class TableMapInnerFragment extends MapFragment implements OnMapReadyCall
     UserDbInterface dbInterface = Tables.getInstance().getDatabase();
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(activity.getAppName());
+      db = DbSessionManager.openDatabase(activity.getAppName());
 
       // get the elementKey for the latitude and longitude columns
       mLatitudeElementKey = getLatitudeElementKey(db);
@@ -317,7 +319,7 @@ public class TableMapInnerFragment extends MapFragment implements OnMapReadyCall
       }
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(activity.getAppName(), db);
+        DbSessionManager.closeDatabase(activity.getAppName(), db);
       }
     }
   }
@@ -327,6 +329,18 @@ public class TableMapInnerFragment extends MapFragment implements OnMapReadyCall
    * properties.
    */
   private void setMarkers() {
+    long timer = PerfMetrics.startTimer();
+    try {
+      addMarkers();
+    } finally {
+      PerfMetrics.stopTimer(PerfMetrics.SET_MARKERS, timer);
+    }
+  }
+
+  /**
+   * Queries the rows and adds a marker for each row with a location
+   */
+  private void addMarkers() {
     TableDisplayActivity activity = (TableDisplayActivity) getActivity();
 
     if (mMarkerIds != null) {
@@ -345,16 +359,16 @@ public class TableMapInnerFragment extends MapFragment implements OnMapReadyCall
     ResumableQuery resumableQuery = activity.getViewQuery(Constants.FragmentTags.MAP_INNER_MAP);
 
     UserTable table;
+    DbHandle db = null;
     try {
+      db = DbSessionManager.openDatabase(activity.getAppName());
       if (resumableQuery instanceof ArbitraryQuery) {
         ArbitraryQuery query = (ArbitraryQuery) resumableQuery;
-        table = Tables.getInstance().getDatabase().arbitrarySqlQuery(activity.getAppName(),
-            Tables.getInstance().getDatabase().openDatabase(activity.getAppName()),
+        table = Tables.getInstance().getDatabase().arbitrarySqlQuery(activity.getAppName(), db,
             query.getTableId(), orderedDefns, query.getSqlCommand(), query.getSqlBindArgs(), -1, 0);
       } else if (resumableQuery instanceof SimpleQuery || resumableQuery instanceof SingleRowQuery) {
         SimpleQuery query = (SimpleQuery) resumableQuery;
-        table = Tables.getInstance().getDatabase().simpleQuery(activity.getAppName(),
-            Tables.getInstance().getDatabase().openDatabase(activity.getAppName()),
+        table = Tables.getInstance().getDatabase().simpleQuery(activity.getAppName(), db,
             query.getTableId(), orderedDefns, query.getWhereClause(), query.getSqlBindArgs(),
             query.getGroupByArgs(), query.getHavingClause(), query.getOrderByColNames(),
             query.getOrderByDirections(), -1, 0);
@@ -368,6 +382,15 @@ public class TableMapInnerFragment extends MapFragment implements OnMapReadyCall
       WebLogger.getLogger(appName).e(TAG, "simpleQuery failed");
       WebLogger.getLogger(appName).printStackTrace(sae);
       return;
+    } finally {
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(activity.getAppName(), db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(activity.getAppName()).e(TAG, "error while closing database");
+          WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
+        }
+      }
     }
 
     if (table != null && orderedDefns != null) {
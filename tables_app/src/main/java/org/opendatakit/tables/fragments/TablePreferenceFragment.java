@@ -44,6 +44,7 @@ import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.preferences.DefaultViewTypePreference;
 import org.opendatakit.tables.preferences.FileSelectorPreference;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.utils.PreferenceUtil;
 import org.opendatakit.utilities.ODKFileUtils;
 
@@ -303,7 +304,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
         t.start();
         return;
       }
-      db = temp.openDatabase(getAppName());
+      db = DbSessionManager.openDatabase(getAppName());
 
       this.initializeDisplayNamePreference(db);
       this.initializeTableIdPreference();
@@ -318,7 +319,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
       this.initializeColumns();
     } finally {
       if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+        DbSessionManager.closeDatabase(getAppName(), db);
       }
     }
   }
@@ -533,7 +534,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
             colorRuleType = LocalKeyValueStoreConstants.Map.COLOR_TYPE_NONE;
           }
 
-          db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+          db = DbSessionManager.openDatabase(getAppName());
           TableUtil.MapViewColorRuleInfo mvcri = new TableUtil.MapViewColorRuleInfo(colorRuleType,
               null);
           TableUtil.get().setMapListViewColorRuleInfo(Tables.getInstance().getDatabase(),
@@ -548,7 +549,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
         } finally {
           if (db != null) {
             try {
-              Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+              DbSessionManager.closeDatabase(getAppName(), db);
             } catch (ServicesAvailabilityException re) {
               WebLogger.getLogger(getAppName()).e(TAG,
                   "[onPreferenceChange] for map color rule preference. "
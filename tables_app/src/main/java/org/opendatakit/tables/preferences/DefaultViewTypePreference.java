@@ -33,6 +33,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.data.PossibleTableViewTypes;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.tables.views.components.TableViewTypeAdapter;
 
 import java.util.Arrays;
@@ -87,14 +88,14 @@ public class DefaultViewTypePreference extends ListPreference {
     UserDbInterface dbInterface = Tables.getInstance().getDatabase();
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(mAppName);
+      db = DbSessionManager.openDatabase(mAppName);
       mPossibleViewTypes = new PossibleTableViewTypes(dbInterface, mAppName, db, tableId,
           orderedDefns);
       // Let's set the currently selected one.
       defaultViewType = TableUtil.get().getDefaultViewType(dbInterface, mAppName, db, tableId);
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(mAppName, db);
+        DbSessionManager.closeDatabase(mAppName, db);
       }
     }
 
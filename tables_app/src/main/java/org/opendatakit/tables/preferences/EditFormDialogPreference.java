@@ -33,6 +33,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.types.FormType;
+import org.opendatakit.tables.utils.DbSessionManager;
 import org.opendatakit.utilities.ODKFileUtils;
 
 import java.io.File;
@@ -141,7 +142,7 @@ public class EditFormDialogPreference extends DialogPreference {
       UserDbInterface dbInt = Tables.getInstance().getDatabase();
       DbHandle db = null;
       try {
-        db = dbInt.openDatabase(tableActivity.getAppName());
+        db = DbSessionManager.openDatabase(tableActivity.getAppName());
         this.mFormType.persist(dbInt, tableActivity.getAppName(), db, tableActivity.getTableId());
       } catch (ServicesAvailabilityException e) {
         WebLogger.getLogger(tableActivity.getAppName()).printStackTrace(e);
@@ -150,7 +151,7 @@ public class EditFormDialogPreference extends DialogPreference {
       } finally {
         if (db != null) {
           try {
-            dbInt.closeDatabase(tableActivity.getAppName(), db);
+            DbSessionManager.closeDatabase(tableActivity.getAppName(), db);
           } catch (ServicesAvailabilityException e) {
             Toast.makeText(tableActivity, R.string.unable_to_save_db_changes, Toast.LENGTH_LONG)
                 .show();
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a request to export the data of several tables to csv files in one go
+ */
+public class BulkExportRequest {
+
+  // the app name
+  private final String appName;
+  // the ids of the tables to export
+  private final List<String> tableIds;
+  // the qualifier for the filenames of the exported csv files
+  private final String fileQualifier;
+  // the format of the exported data files
+  private final ExportFormat format;
+
+  /**
+   * Exports plain csv files
+   *
+   * @param appName       the app name
+   * @param tableIds      the ids of the tables to export
+   * @param fileQualifier the qualifier for the filenames of the exported csv files
+   */
+  public BulkExportRequest(String appName, List<String> tableIds, String fileQualifier) {
+    this(appName, tableIds, fileQualifier, ExportFormat.CSV);
+  }
+
+  /**
+   * simple constructor that stores its arguments
+   *
+   * @param appName       the app name
+   * @param tableIds      the ids of the tables to export
+   * @param fileQualifier the qualifier for the filenames of the exported csv files
+   * @param format        the format of the exported data files
+   */
+  public BulkExportRequest(String appName, List<String> tableIds, String fileQualifier,
+      ExportFormat format) {
+    this.appName = appName;
+    this.tableIds = Collections.unmodifiableList(new ArrayList<>(tableIds));
+    this.fileQualifier = fileQualifier;
+    this.format = format;
+  }
+
+  /**
+   * standard getter for the app name
+   *
+   * @return the app name
+   */
+  public String getAppName() {
+    return appName;
+  }
+
+  /**
+   * standard getter for the table ids
+   *
+   * @return the ids of the tables to export
+   */
+  public List<String> getTableIds() {
+    return tableIds;
+  }
+
+  /**
+   * standard getter for the file qualifier
+   *
+   * @return the qualifier for the csv filenames
+   */
+  String getFileQualifier() {
+    return fileQualifier;
+  }
+
+  /**
+   * standard getter for the format
+   *
+   * @return the format of the exported data files
+   */
+  ExportFormat getFormat() {
+    return format;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.os.AsyncTask;
+import org.opendatakit.aggregate.odktables.rest.RFC4180CsvWriter;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.R;
+import org.opendatakit.tables.activities.AbsBaseActivity;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.fragments.ImportExportDialogFragment;
+import org.opendatakit.utilities.ODKFileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the data of several tables at once on a small thread pool. Progress is reported as the
+ * number of rows written across all tables, and a summary of every table (rows, bytes, time) is
+ * written next to the exported files when everything is done.
+ */
+public class BulkExportTask extends AsyncTask<BulkExportRequest, Integer, Boolean>
+    implements TableCsvExporter.ProgressListener {
+
+  // Used for logging
+  private static final String TAG = BulkExportTask.class.getSimpleName();
+  // ODK Services serializes access to the database file, so more threads than this just queue up
+  private static final int MAX_EXPORT_THREADS = 3;
+
+  // The app name
+  private final String appName;
+  // The context the progress dialog needs
+  private AbsBaseActivity context;
+  // rows written so far and row count for each table that has started, guarded by itself
+  private final Map<String, int[]> progress = new HashMap<>();
+
+  /**
+   * Constructor that stores off its arguments
+   *
+   * @param appName the app name
+   * @param context the activity that the progress dialog is running in
+   */
+  public BulkExportTask(String appName, AbsBaseActivity context) {
+    super();
+    this.appName = appName;
+    this.context = context;
+  }
+
+  /**
+   * Exports every table in the request, a few at a time
+   *
+   * @param requests what request to act on
+   * @return whether every table was exported
+   */
+  @Override
+  protected Boolean doInBackground(BulkExportRequest... requests) {
+    BulkExportRequest request = requests[0];
+    final String fileQualifier = request.getFileQualifier();
+    final ExportFormat format = request.getFormat();
+    final TableCsvExporter exporter = new TableCsvExporter(appName,
+        Tables.getInstance().getDatabase());
+    int threads = Math.max(1, Math.min(MAX_EXPORT_THREADS, request.getTableIds().size()));
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<TableCsvExporter.Summary> summaries = new ArrayList<>();
+    boolean success = true;
+    try {
+      List<Future<TableCsvExporter.Summary>> futures = new ArrayList<>();
+      for (final String tableId : request.getTableIds()) {
+        futures.add(pool.submit(new Callable<TableCsvExporter.Summary>() {
+          @Override
+          public TableCsvExporter.Summary call() {
+            return exporter.export(tableId, fileQualifier, format, BulkExportTask.this);
+          }
+        }));
+      }
+      boolean interrupted = false;
+      for (int i = 0; i < futures.size(); i++) {
+        String tableId = request.getTableIds().get(i);
+        TableCsvExporter.Summary summary;
+        if (interrupted) {
+          summary = failed(tableId);
+        } else {
+          try {
+            summary = futures.get(i).get();
+          } catch (ExecutionException e) {
+            // one table failing doesn't stop the others from being summed up
+            WebLogger.getLogger(appName).printStackTrace(e);
+            WebLogger.getLogger(appName).e(TAG, "Unable to export " + tableId);
+            summary = failed(tableId);
+          } catch (InterruptedException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+            WebLogger.getLogger(appName).e(TAG, "Bulk export did not finish");
+            Thread.currentThread().interrupt();
+            interrupted = true;
+            summary = failed(tableId);
+          }
+        }
+        summaries.add(summary);
+        success &= summary.success;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    writeSummary(summaries, fileQualifier);
+    return success;
+  }
+
+  /**
+   * @param tableId the table whose export threw or was never waited for
+   * @return the summary of a table that wasn't exported
+   */
+  private static TableCsvExporter.Summary failed(String tableId) {
+    return new TableCsvExporter.Summary(tableId, 0, 0, 0, false);
+  }
+
+  /**
+   * Records the progress of one table and publishes the total across all tables
+   */
+  @Override
+  public void rowsWritten(String tableId, int rows, int total) {
+    int allRows = 0;
+    int allTotal = 0;
+    synchronized (progress) {
+      progress.put(tableId, new int[] { rows, total });
+      for (int[] tableProgress : progress.values()) {
+        allRows += tableProgress[0];
+        allTotal += tableProgress[1];
+      }
+    }
+    publishProgress(allRows, allTotal);
+  }
+
+  /**
+   * Writes one line per table to bulk_export[.qualifier].summary.csv in the output csv folder,
+   * and logs the same
+   */
+  private void writeSummary(List<TableCsvExporter.Summary> summaries, String fileQualifier) {
+    String name = "bulk_export";
+    if (fileQualifier != null && !fileQualifier.isEmpty()) {
+      name += "." + fileQualifier;
+    }
+    File file = new File(ODKFileUtils.getOutputCsvFolder(appName), name + ".summary.csv");
+    RFC4180CsvWriter cw = null;
+    try {
+      cw = new RFC4180CsvWriter(new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)));
+      cw.writeNext(new String[] { "table_id", "rows", "bytes", "ms", "success" });
+      for (TableCsvExporter.Summary summary : summaries) {
+        WebLogger.getLogger(appName).i(TAG,
+            summary.tableId + ": " + summary.rows + " rows, " + summary.bytes + " bytes, "
+                + summary.millis + "ms" + (summary.success ? "" : " (failed)"));
+        cw.writeNext(new String[] { summary.tableId, Integer.toString(summary.rows),
+            Long.toString(summary.bytes), Long.toString(summary.millis),
+            Boolean.toString(summary.success) });
+      }
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to write " + file.getPath());
+    } finally {
+      if (cw != null) {
+        try {
+          cw.close();
+        } catch (IOException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the open progress dialog with the rows written across all tables
+   *
+   * @param progress the rows written so far and the total number of rows
+   */
+  @Override
+  protected void onProgressUpdate(Integer... progress) {
+    if (ImportExportDialogFragment.activeDialogFragment != null) {
+      ImportExportDialogFragment.activeDialogFragment
+          .updateProgressDialogStatusString(context, R.string.bulk_export_in_progress_row,
+              progress[0], progress[1]);
+    }
+  }
+
+  /**
+   * Called when the export is done. Dismisses the progress dialog and displays either the
+   * success or the failure alert dialog
+   *
+   * @param result Whether every table was exported
+   */
+  @Override
+  protected void onPostExecute(Boolean result) {
+    ImportExportDialogFragment.activeDialogFragment.dismiss();
+    if (result) {
+      ImportExportDialogFragment
+          .newInstance(ImportExportDialogFragment.CSVEXPORT_SUCCESS_DIALOG, context);
+    } else {
+      ImportExportDialogFragment
+          .newInstance(ImportExportDialogFragment.CSVEXPORT_FAIL_DIALOG, context);
+    }
+  }
+}
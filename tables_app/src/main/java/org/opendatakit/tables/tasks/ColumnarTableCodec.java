@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.exception.ActionNotAuthorizedException;
+import org.opendatakit.exception.ServicesAvailabilityException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for moving table data between devices.
+ * <p>
+ * The file starts with a header naming the columns, followed by blocks of rows. Within a block
+ * each column is stored on its own: a bitmap marking the null cells, then the non-null values,
+ * encoded as the smallest of
+ * <ul>
+ * <li>zigzag varints, if every value is an integer written the way Long.toString writes it</li>
+ * <li>8 byte doubles, if every value is written the way Double.toString writes it</li>
+ * <li>a dictionary of the distinct strings followed by a varint index per value</li>
+ * </ul>
+ * A value only gets a numeric encoding if printing the number gives back exactly the original
+ * string, so decoding always reproduces the exported text bit for bit.
+ * <p>
+ * A block with no rows ends the file.
+ */
+public final class ColumnarTableCodec {
+
+  // "ODKC"
+  private static final int MAGIC = 0x4F444B43;
+  private static final int VERSION = 1;
+
+  private static final int ENCODING_DICTIONARY = 0;
+  private static final int ENCODING_LONG = 1;
+  private static final int ENCODING_DOUBLE = 2;
+
+  private ColumnarTableCodec() {
+    // This class should not be instantiated
+  }
+
+  /**
+   * Writes a header and then one block per call to writeBlock
+   */
+  public static class Writer {
+    private final DataOutputStream out;
+    private int columnCount = -1;
+
+    /**
+     * @param out where to write, closed by close()
+     */
+    public Writer(OutputStream out) {
+      this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * Writes the file header. Must be called once, before any blocks.
+     *
+     * @param columns the column names
+     * @throws IOException if the stream couldn't be written
+     */
+    public void writeHeader(List<String> columns) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      writeVarint(out, columns.size());
+      for (String column : columns) {
+        writeString(out, column);
+      }
+      columnCount = columns.size();
+    }
+
+    /**
+     * Writes a block of rows. Empty blocks are skipped, since an empty block ends the file.
+     *
+     * @param rows the rows, each with one value per column in header order, nulls allowed
+     * @throws IOException if the stream couldn't be written
+     */
+    public void writeBlock(List<String[]> rows) throws IOException {
+      if (columnCount < 0) {
+        throw new IllegalStateException("writeHeader must be called first");
+      }
+      if (rows.isEmpty()) {
+        return;
+      }
+      writeVarint(out, rows.size());
+      String[] values = new String[rows.size()];
+      for (int col = 0; col < columnCount; col++) {
+        for (int row = 0; row < values.length; row++) {
+          String[] line = rows.get(row);
+          values[row] = col < line.length ? line[col] : null;
+        }
+        writeColumn(values);
+      }
+    }
+
+    /**
+     * Writes the end marker and closes the stream
+     *
+     * @throws IOException if the stream couldn't be written
+     */
+    public void close() throws IOException {
+      try {
+        writeVarint(out, 0);
+        out.flush();
+      } finally {
+        out.close();
+      }
+    }
+
+    private void writeColumn(String[] values) throws IOException {
+      byte[] nulls = new byte[(values.length + 7) / 8];
+      boolean allLongs = true;
+      boolean allDoubles = true;
+      for (int i = 0; i < values.length; i++) {
+        String value = values[i];
+        if (value == null) {
+          nulls[i / 8] |= 1 << (i % 8);
+          continue;
+        }
+        if (allLongs && !isCanonicalLong(value)) {
+          allLongs = false;
+        }
+        if (allDoubles && !isCanonicalDouble(value)) {
+          allDoubles = false;
+        }
+      }
+
+      if (allLongs) {
+        out.writeByte(ENCODING_LONG);
+        out.write(nulls);
+        for (String value : values) {
+          if (value != null) {
+            long l = Long.parseLong(value);
+            writeVarLong(out, (l << 1) ^ (l >> 63));
+          }
+        }
+      } else if (allDoubles) {
+        out.writeByte(ENCODING_DOUBLE);
+        out.write(nulls);
+        for (String value : values) {
+          if (value != null) {
+            out.writeLong(Double.doubleToRawLongBits(Double.parseDouble(value)));
+          }
+        }
+      } else {
+        out.writeByte(ENCODING_DICTIONARY);
+        out.write(nulls);
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        int[] indexes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+          if (values[i] != null) {
+            Integer index = dictionary.get(values[i]);
+            if (index == null) {
+              index = entries.size();
+              dictionary.put(values[i], index);
+              entries.add(values[i]);
+            }
+            indexes[i] = index;
+          }
+        }
+        writeVarint(out, entries.size());
+        for (String entry : entries) {
+          writeString(out, entry);
+        }
+        for (int i = 0; i < values.length; i++) {
+          if (values[i] != null) {
+            writeVarint(out, indexes[i]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a file written by Writer, one block at a time
+   */
+  public static class Reader implements RowBatchSource {
+    private final DataInputStream in;
+    private String[] header = null;
+    private boolean finished = false;
+
+    /**
+     * @param in the file contents. The caller is responsible for closing it.
+     */
+    public Reader(InputStream in) {
+      this.in = new DataInputStream(in);
+    }
+
+    @Override
+    public String[] getHeader() throws IOException {
+      if (header == null && !finished) {
+        int first = in.read();
+        if (first < 0) {
+          // an empty file has no header and no rows, like an empty csv file
+          finished = true;
+          return null;
+        }
+        int magic = (first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+        if (magic != MAGIC) {
+          throw new IOException("Not a columnar table file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+          throw new IOException("Unsupported columnar table file version " + version);
+        }
+        header = new String[readVarint(in)];
+        for (int i = 0; i < header.length; i++) {
+          header[i] = readString(in);
+        }
+      }
+      return header;
+    }
+
+    /**
+     * Reads the next block
+     *
+     * @return the rows of the block in the order they were written, or null at the end
+     * @throws IOException if the file couldn't be read or is corrupt
+     */
+    public List<String[]> readBlock() throws IOException {
+      String[] columns = getHeader();
+      if (finished) {
+        return null;
+      }
+      int rowCount = readVarint(in);
+      if (rowCount == 0) {
+        finished = true;
+        return null;
+      }
+      List<String[]> rows = new ArrayList<>(rowCount);
+      for (int row = 0; row < rowCount; row++) {
+        rows.add(new String[columns.length]);
+      }
+      for (int col = 0; col < columns.length; col++) {
+        readColumn(rows, col);
+      }
+      return rows;
+    }
+
+    /**
+     * Passes every block to the sink as one batch. The batch size was fixed when the file was
+     * written, so batchSize is ignored.
+     */
+    @Override
+    public int importRows(BatchSink sink, int batchSize, BatchListener listener)
+        throws IOException, ServicesAvailabilityException, ActionNotAuthorizedException {
+      String[] columns = getHeader();
+      int imported = 0;
+      List<String[]> block;
+      while ((block = readBlock()) != null) {
+        List<Map<String, String>> batch = new ArrayList<>(block.size());
+        for (String[] line : block) {
+          Map<String, String> row = new HashMap<>(columns.length * 2);
+          for (int i = 0; i < columns.length; i++) {
+            row.put(columns[i], line[i]);
+          }
+          batch.add(row);
+        }
+        imported = CsvBatchImporter.flush(sink, batch, imported, listener);
+      }
+      return imported;
+    }
+
+    private void readColumn(List<String[]> rows, int col) throws IOException {
+      int encoding = in.readUnsignedByte();
+      byte[] nulls = new byte[(rows.size() + 7) / 8];
+      in.readFully(nulls);
+      String[] dictionary = null;
+      if (encoding == ENCODING_DICTIONARY) {
+        dictionary = new String[readVarint(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+          dictionary[i] = readString(in);
+        }
+      } else if (encoding != ENCODING_LONG && encoding != ENCODING_DOUBLE) {
+        throw new IOException("Unknown column encoding " + encoding);
+      }
+      for (int row = 0; row < rows.size(); row++) {
+        if ((nulls[row / 8] & (1 << (row % 8))) != 0) {
+          continue;
+        }
+        String value;
+        if (encoding == ENCODING_LONG) {
+          long zigzag = readVarLong(in);
+          value = Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+        } else if (encoding == ENCODING_DOUBLE) {
+          value = Double.toString(Double.longBitsToDouble(in.readLong()));
+        } else {
+          int index = readVarint(in);
+          if (index >= dictionary.length) {
+            throw new IOException("Dictionary index out of range");
+          }
+          value = dictionary[index];
+        }
+        rows.get(row)[col] = value;
+      }
+    }
+  }
+
+  static boolean isCanonicalLong(String value) {
+    if (value.isEmpty() || value.length() > 20) {
+      return false;
+    }
+    try {
+      return Long.toString(Long.parseLong(value)).equals(value);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  static boolean isCanonicalDouble(String value) {
+    if (value.isEmpty() || value.length() > 32) {
+      return false;
+    }
+    char first = value.charAt(0);
+    if (first != '-' && first != 'N' && first != 'I' && (first < '0' || first > '9')) {
+      // cheap rejection of most strings before paying for an exception
+      return false;
+    }
+    try {
+      return Double.toString(Double.parseDouble(value)).equals(value);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static void writeVarint(DataOutputStream out, int value) throws IOException {
+    writeVarLong(out, value & 0xFFFFFFFFL);
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException {
+    long value = readVarLong(in);
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Varint out of range");
+    }
+    return (int) value;
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[readVarint(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.aggregate.odktables.rest.RFC4180CsvReader;
+import org.opendatakit.exception.ActionNotAuthorizedException;
+import org.opendatakit.exception.ServicesAvailabilityException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the rows of a data csv file and hands them to a {@link RowBatchSource.BatchSink} in
+ * groups, so that the progress dialog is updated once per batch instead of once per row. The
+ * sink still makes its service calls row by row, see {@link RowUpsertSink}.
+ * <p>
+ * Plain csv files are only imported this way if their header lists user defined element keys
+ * alone; files that carry the metadata columns written by a full export are still handled by
+ * CsvUtil.
+ */
+public class CsvBatchImporter implements RowBatchSource {
+
+  /**
+   * Roughly how many cells we want in flight per batch. Wide tables get smaller batches so the
+   * memory held by one batch stays about the same regardless of the table's shape.
+   */
+  static final int TARGET_CELLS_PER_BATCH = 8000;
+  // never make batches smaller than this, or the per-batch overhead dominates again
+  static final int MIN_BATCH_SIZE = 16;
+  // never make batches larger than this, or a single failure throws away too much work
+  static final int MAX_BATCH_SIZE = 500;
+
+  // the csv reader over the data file
+  private final RFC4180CsvReader reader;
+  // the element keys in the order they appear in the csv file
+  private String[] header = null;
+
+  /**
+   * Wraps the reader. The caller is responsible for closing it.
+   *
+   * @param in the contents of the csv file, header row first
+   */
+  public CsvBatchImporter(Reader in) {
+    this.reader = new RFC4180CsvReader(in);
+  }
+
+  /**
+   * Picks a batch size for a table with the given number of columns
+   *
+   * @param columnCount the number of columns in each row
+   * @return the number of rows to put in each batch
+   */
+  public static int batchSizeFor(int columnCount) {
+    int size = TARGET_CELLS_PER_BATCH / Math.max(1, columnCount);
+    return Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, size));
+  }
+
+  @Override
+  public String[] getHeader() throws IOException {
+    if (header == null) {
+      header = reader.readNext();
+    }
+    return header;
+  }
+
+  /**
+   * Whether every column in the csv header is one of the given element keys. Only then can the
+   * rows be inserted as-is.
+   *
+   * @param elementKeys the retention columns of the destination table
+   * @return true if this importer can handle the file
+   * @throws IOException if the file couldn't be read
+   */
+  public boolean headerMatches(Collection<String> elementKeys) throws IOException {
+    String[] columns = getHeader();
+    if (columns == null || columns.length == 0) {
+      return false;
+    }
+    for (String column : columns) {
+      if (!elementKeys.contains(column)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int importRows(BatchSink sink, int batchSize, BatchListener listener)
+      throws IOException, ServicesAvailabilityException, ActionNotAuthorizedException {
+    String[] columns = getHeader();
+    if (columns == null) {
+      return 0;
+    }
+    int imported = 0;
+    List<Map<String, String>> batch = new ArrayList<>(batchSize);
+    String[] line;
+    while ((line = reader.readNext()) != null) {
+      if (line.length == 1 && line[0].isEmpty()) {
+        // blank line, most likely a trailing newline
+        continue;
+      }
+      Map<String, String> row = new HashMap<>(columns.length * 2);
+      for (int i = 0; i < columns.length; i++) {
+        String value = i < line.length ? line[i] : null;
+        row.put(columns[i], value == null || value.isEmpty() ? null : value);
+      }
+      batch.add(row);
+      if (batch.size() >= batchSize) {
+        imported = flush(sink, batch, imported, listener);
+      }
+    }
+    if (!batch.isEmpty()) {
+      imported = flush(sink, batch, imported, listener);
+    }
+    return imported;
+  }
+
+  /**
+   * Hands one batch to the sink, times it and clears it
+   */
+  static int flush(BatchSink sink, List<Map<String, String>> batch, int imported,
+      BatchListener listener) throws ServicesAvailabilityException, ActionNotAuthorizedException {
+    long start = System.nanoTime();
+    sink.insertBatch(batch);
+    long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+    int batchRows = batch.size();
+    imported += batchRows;
+    batch.clear();
+    if (listener != null) {
+      listener.batchComplete(imported, batchRows, elapsedMillis);
+    }
+    return imported;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.content.ContentValues;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ActionNotAuthorizedException;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.provider.DataTableColumns;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the rows of a delta file written by TableDeltaExporter to a table, in the order they
+ * come. Upserted rows are inserted, or overwrite the local row, and deleted rows are removed.
+ * <p>
+ * A local row that was changed on this device since the last import into the table is kept
+ * instead, and counted in {@link #getKept}. The incoming rows' _savepoint_timestamp can't tell
+ * that: only the user defined columns are written, so the database stamps every merged row with
+ * the time of the merge, which is later than any edit made at the source. What is compared is
+ * the local row's _savepoint_timestamp with the time of the last import, see
+ * {@link TableDeltaExporter#getLastImport}, both from this device's clock. If no import was
+ * recorded every row is applied.
+ */
+class DeltaMergeSink implements RowBatchSource.BatchSink {
+
+  // the app name
+  private final String appName;
+  // the database to write to
+  private final UserDbInterface dbInterface;
+  // an open handle
+  private final DbHandle db;
+  // the table to merge into
+  private final String tableId;
+  private final OrderedColumns orderedDefns;
+  // the columns copied from the delta file
+  private final Set<String> elementKeys;
+  // when rows were last imported, or null if never
+  private final String lastImport;
+  // the local rows kept because they were changed since the last import
+  private int kept = 0;
+
+  /**
+   * simple constructor that stores its arguments
+   *
+   * @param appName      the app name
+   * @param dbInterface  the database to write to
+   * @param db           an open handle
+   * @param tableId      the table to merge into
+   * @param orderedDefns the table's columns
+   * @param lastImport   when rows were last imported into the table, or null if never
+   */
+  DeltaMergeSink(String appName, UserDbInterface dbInterface, DbHandle db, String tableId,
+      OrderedColumns orderedDefns, String lastImport) {
+    this.appName = appName;
+    this.dbInterface = dbInterface;
+    this.db = db;
+    this.tableId = tableId;
+    this.orderedDefns = orderedDefns;
+    this.elementKeys = new HashSet<>(orderedDefns.getRetentionColumnNames());
+    this.lastImport = lastImport;
+  }
+
+  /**
+   * @return the number of local rows kept because they were changed since the last import
+   */
+  int getKept() {
+    return kept;
+  }
+
+  @Override
+  public void insertBatch(List<Map<String, String>> rows)
+      throws ServicesAvailabilityException, ActionNotAuthorizedException {
+    for (Map<String, String> row : rows) {
+      String rowId = row.get(DataTableColumns.ID);
+      UserTable existing = dbInterface.getRowsWithId(appName, db, tableId, orderedDefns, rowId);
+      boolean exists = existing.getNumberOfRows() != 0;
+      if (exists && isChangedLocally(
+          existing.getRowAtIndex(0).getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP))) {
+        kept++;
+        continue;
+      }
+      if (TableDeltaExporter.OP_DELETE.equals(row.get(TableDeltaExporter.OP_COLUMN))) {
+        if (exists) {
+          dbInterface.deleteRowWithId(appName, db, tableId, orderedDefns, rowId);
+        }
+        continue;
+      }
+      ContentValues cv = new ContentValues();
+      for (String elementKey : elementKeys) {
+        String value = row.get(elementKey);
+        if (value == null) {
+          cv.putNull(elementKey);
+        } else {
+          cv.put(elementKey, value);
+        }
+      }
+      if (exists) {
+        dbInterface.updateRowWithId(appName, db, tableId, orderedDefns, cv, rowId);
+      } else {
+        dbInterface.insertRowWithId(appName, db, tableId, orderedDefns, cv, rowId);
+      }
+    }
+  }
+
+  /**
+   * @param savepoint the _savepoint_timestamp of a local row
+   * @return whether the row was saved on this device after the last import
+   */
+  private boolean isChangedLocally(String savepoint) {
+    return lastImport != null && savepoint != null && savepoint.compareTo(lastImport) > 0;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+/**
+ * The formats a table's data file can be exported to and imported from. The definition and
+ * properties files are always plain csv.
+ */
+public enum ExportFormat {
+  /**
+   * Plain csv, readable by CsvUtil and spreadsheet programs
+   */
+  CSV(".csv"),
+  /**
+   * The same csv, gzip compressed
+   */
+  CSV_GZIP(".csv.gz"),
+  /**
+   * The binary format written by ColumnarTableCodec
+   */
+  COLUMNAR(".odkc");
+
+  // the file extension, including the leading dot
+  private final String extension;
+
+  ExportFormat(String extension) {
+    this.extension = extension;
+  }
+
+  /**
+   * standard getter for the extension
+   *
+   * @return the file extension of the data file, including the leading dot
+   */
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * Works out the format of a data file from its name
+   *
+   * @param fileName the name of the file
+   * @return the format, CSV if the extension isn't recognized
+   */
+  public static ExportFormat forFileName(String fileName) {
+    if (fileName.endsWith(CSV_GZIP.extension)) {
+      return CSV_GZIP;
+    } else if (fileName.endsWith(COLUMNAR.extension)) {
+      return COLUMNAR;
+    }
+    return CSV;
+  }
+
+  /**
+   * Gives the name the file would have if it were plain csv, so the tableId.qualifier.csv
+   * naming rules can be checked the same way for every format
+   *
+   * @param fileName the name of a file in this format
+   * @return the name with the extension replaced by .csv
+   */
+  public String toCsvFileName(String fileName) {
+    return fileName.substring(0, fileName.length() - extension.length()) + CSV.extension;
+  }
+}
@@ -26,18 +26,52 @@ public class ExportRequest {
   private final String tableId;
   // the prefix for the filename of the exported csv files
   private final String fileQualifier;
+  // the format of the exported data file
+  private final ExportFormat format;
+  // whether to export only the rows changed since the last delta export
+  private final boolean delta;
 
   /**
-   * All the actual exporting is handled by androidlibrary/builder/CsvUtil
+   * All the actual exporting is handled by TableCsvExporter
    *
    * @param appName       the app name
    * @param tableId       the id of the table to export
    * @param fileQualifier the prefix for the filename of the exported csv files
    */
   public ExportRequest(String appName, String tableId, String fileQualifier) {
+    this(appName, tableId, fileQualifier, ExportFormat.CSV);
+  }
+
+  /**
+   * simple constructor that stores its four arguments
+   *
+   * @param appName       the app name
+   * @param tableId       the id of the table to export
+   * @param fileQualifier the prefix for the filename of the exported csv files
+   * @param format        the format of the exported data file
+   */
+  public ExportRequest(String appName, String tableId, String fileQualifier,
+      ExportFormat format) {
+    this(appName, tableId, fileQualifier, format, false);
+  }
+
+  /**
+   * simple constructor that stores its five arguments
+   *
+   * @param appName       the app name
+   * @param tableId       the id of the table to export
+   * @param fileQualifier the prefix for the filename of the exported csv files
+   * @param format        the format of the exported data file, ignored for deltas which are
+   *                      always csv
+   * @param delta         whether to export only the rows changed since the last delta export
+   */
+  public ExportRequest(String appName, String tableId, String fileQualifier, ExportFormat format,
+      boolean delta) {
     this.appName = appName;
     this.tableId = tableId;
     this.fileQualifier = fileQualifier;
+    this.format = format;
+    this.delta = delta;
   }
 
   /**
@@ -66,4 +100,22 @@ public class ExportRequest {
   String getFileQualifier() {
     return fileQualifier;
   }
-}
\ No newline at end of file
+
+  /**
+   * standard getter for the format
+   *
+   * @return the format of the exported data file
+   */
+  ExportFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * standard getter for whether this is a delta export
+   *
+   * @return whether to export only the rows changed since the last delta export
+   */
+  boolean getDelta() {
+    return delta;
+  }
+}
@@ -16,24 +16,18 @@
 package org.opendatakit.tables.tasks;
 
 import android.os.AsyncTask;
-import org.opendatakit.builder.CsvUtil;
-import org.opendatakit.builder.CsvUtilSupervisor;
-import org.opendatakit.database.data.OrderedColumns;
-import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
-import org.opendatakit.exception.ServicesAvailabilityException;
-import org.opendatakit.listener.ExportListener;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.ImportExportDialogFragment;
+import org.opendatakit.tables.utils.PerfMetrics;
 
 /**
- * Represents a task to export a table to some csv files using CsvUtil
+ * Represents a task to export a table to some csv files using TableCsvExporter
  */
 public class ExportTask extends AsyncTask<ExportRequest, Integer, Boolean>
-    implements ExportListener {
+    implements TableCsvExporter.ProgressListener {
 
   // Used for logging
   private static final String TAG = ExportTask.class.getSimpleName();
@@ -62,33 +56,24 @@ public class ExportTask extends AsyncTask<ExportRequest, Integer, Boolean>
    */
   protected Boolean doInBackground(ExportRequest... exportRequests) {
     ExportRequest request = exportRequests[0];
-    CsvUtil cu = new CsvUtil(new CsvUtilSupervisor() {
-      @Override
-      public UserDbInterface getDatabase() {
-        return Tables.getInstance().getDatabase();
-      }
-    }, appName);
-    DbHandle db = null;
-    try {
-      String tableId = request.getTableId();
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
-      OrderedColumns orderedDefinitions = Tables.getInstance().getDatabase()
-              .getUserDefinedColumns(appName, db, tableId); // export goes to output/csv directory...
-      return cu.exportSeparable(this, db, tableId, orderedDefinitions, request.getFileQualifier());
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(appName).e(TAG, "Unable to access database");
-      WebLogger.getLogger(appName).printStackTrace(e);
-      return false;
-    } finally {
-      if (db != null) {
-        try {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
-        } catch (ServicesAvailabilityException e) {
-          WebLogger.getLogger(appName).printStackTrace(e);
-          WebLogger.getLogger(appName).e(TAG, "Unable to close database");
-        }
-      }
+    TableCsvExporter.Summary summary;
+    long timer = PerfMetrics.startTimer();
+    if (request.getDelta()) {
+      TableDeltaExporter exporter = new TableDeltaExporter(appName,
+          Tables.getInstance().getDatabase());
+      summary = exporter.export(request.getTableId(), request.getFileQualifier(), this);
+    } else {
+      TableCsvExporter exporter = new TableCsvExporter(appName,
+          Tables.getInstance().getDatabase());
+      summary = exporter
+          .export(request.getTableId(), request.getFileQualifier(), request.getFormat(), this);
     }
+    PerfMetrics.stopTimer(PerfMetrics.EXPORT, timer);
+    PerfMetrics.increment(PerfMetrics.EXPORT_ROWS, summary.rows);
+    WebLogger.getLogger(appName).i(TAG,
+        summary.tableId + ": " + summary.rows + " rows, " + summary.bytes + " bytes, "
+            + summary.millis + "ms");
+    return summary.success;
   }
 
   /**
@@ -121,10 +106,12 @@ public class ExportTask extends AsyncTask<ExportRequest, Integer, Boolean>
    * Updates the open progress dialog with the new status
    * just passes along the request to ImportExportDialogFragment
    *
-   * @param row the string to set in the window, like "Exporting row 10"
+   * @param tableId the table being exported
+   * @param row     the number of rows written so far
+   * @param total   the number of rows in the table
    */
   @Override
-  public void updateProgressDetail(int row, int total) {
+  public void rowsWritten(String tableId, int row, int total) {
     ImportExportDialogFragment.activeDialogFragment
             .updateProgressDialogStatusString(context, R.string.export_in_progress_row, row, total);
   }
@@ -26,6 +26,10 @@ public class ImportRequest {
   private final boolean createTable;
   // the id of the table to import
   private final String tableId;
+  // the format of the data file
+  private final ExportFormat format;
+  // whether the file is a delta to merge into the table rather than rows to append
+  private final boolean merge;
 
   /**
    * forwards request to the three argument constructor
@@ -34,20 +38,48 @@ public class ImportRequest {
    * @param fileQualifier filename prefix
    */
   public ImportRequest(String tableId, String fileQualifier) {
-    this(true, tableId, fileQualifier);
+    this(true, tableId, fileQualifier, ExportFormat.CSV, false);
   }
 
   /**
-   * simple constructor that stores its three arguments
+   * forwards request to the four argument constructor
+   *
+   * @param tableId       table id
+   * @param fileQualifier filename prefix
+   * @param format        the format of the data file
+   */
+  public ImportRequest(String tableId, String fileQualifier, ExportFormat format) {
+    this(true, tableId, fileQualifier, format, false);
+  }
+
+  /**
+   * forwards request to the five argument constructor. Used for delta files, which are always
+   * plain csv and are merged into a table that must already exist
+   *
+   * @param tableId       table id
+   * @param fileQualifier filename prefix
+   * @param merge         whether the file is a delta written by TableDeltaExporter
+   */
+  public ImportRequest(String tableId, String fileQualifier, boolean merge) {
+    this(!merge, tableId, fileQualifier, ExportFormat.CSV, merge);
+  }
+
+  /**
+   * simple constructor that stores its five arguments
    *
    * @param createTable   whether to create the table if it doesn't exist
    * @param tableId       the id of the table
    * @param fileQualifier the prefix for the csv file to import
+   * @param format        the format of the data file
+   * @param merge         whether the file is a delta to merge into the table
    */
-  private ImportRequest(boolean createTable, String tableId, String fileQualifier) {
+  private ImportRequest(boolean createTable, String tableId, String fileQualifier,
+      ExportFormat format, boolean merge) {
     this.createTable = createTable;
     this.tableId = tableId;
     this.fileQualifier = fileQualifier;
+    this.format = format;
+    this.merge = merge;
   }
 
   /**
@@ -76,4 +108,22 @@ public class ImportRequest {
   String getFileQualifier() {
     return fileQualifier;
   }
-}
\ No newline at end of file
+
+  /**
+   * standard getter for the format
+   *
+   * @return the format of the data file
+   */
+  ExportFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * standard getter for whether the file is a delta to merge into the table
+   *
+   * @return whether the file is a delta to merge into the table
+   */
+  boolean getMerge() {
+    return merge;
+  }
+}
@@ -16,9 +16,13 @@
 package org.opendatakit.tables.tasks;
 
 import android.os.AsyncTask;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
 import org.opendatakit.builder.CsvUtil;
 import org.opendatakit.builder.CsvUtilSupervisor;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.service.DbHandle;
 import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ActionNotAuthorizedException;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.listener.ImportListener;
 import org.opendatakit.logging.WebLogger;
@@ -26,6 +30,23 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.ImportExportDialogFragment;
+import org.opendatakit.tables.utils.DbSessionManager;
+import org.opendatakit.tables.utils.PerfMetrics;
+import org.opendatakit.tables.utils.TableStatsCache;
+import org.opendatakit.utilities.ODKFileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 /**
  * A task that imports csv files
@@ -64,6 +85,63 @@ public class ImportTask extends AsyncTask<ImportRequest, Integer, Boolean>
   @Override
   protected Boolean doInBackground(ImportRequest... importRequests) {
     ImportRequest request = importRequests[0];
+    long timer = PerfMetrics.startTimer();
+    try {
+      Boolean success = importRequest(request);
+      if (success != null && success) {
+        PerfMetrics.increment(PerfMetrics.IMPORT_SUCCEEDED, 1);
+        recordImport(request.getTableId());
+      }
+      return success;
+    } finally {
+      PerfMetrics.stopTimer(PerfMetrics.IMPORT, timer);
+      // however the import went, the table's rows may have changed
+      TableStatsCache.markChanged(appName, request.getTableId());
+    }
+  }
+
+  /**
+   * Records the time an import into a table finished, which a later merge into it compares the
+   * rows' _savepoint_timestamp with to find the ones changed since, see {@link DeltaMergeSink}
+   *
+   * @param tableId the table the rows were imported into
+   */
+  private void recordImport(String tableId) {
+    String now = TableConstants.nanoSecondsFromMillis(System.currentTimeMillis());
+    DbHandle db = null;
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      TableDeltaExporter
+          .recordImport(appName, Tables.getInstance().getDatabase(), db, tableId, now);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to record the import into " + tableId);
+    } finally {
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+          WebLogger.getLogger(appName).e(TAG, "Unable to close database");
+        }
+      }
+    }
+  }
+
+  /**
+   * Picks the way to import the file and runs it
+   *
+   * @param request the import request
+   * @return whether successful or not
+   */
+  private Boolean importRequest(ImportRequest request) {
+    if (request.getMerge()) {
+      return importDelta(request);
+    }
+    Boolean batched = importBatched(request);
+    if (batched != null) {
+      return batched;
+    }
     CsvUtil cu = new CsvUtil(new CsvUtilSupervisor() {
       @Override
       public UserDbInterface getDatabase() {
@@ -80,6 +158,230 @@ public class ImportTask extends AsyncTask<ImportRequest, Integer, Boolean>
     }
   }
 
+  /**
+   * Imports a data file into an existing table in batches. Plain csv files that create a table
+   * or carry metadata columns are left to CsvUtil. Compressed and columnar files can only be
+   * imported this way; their row ids and metadata columns are kept, and rows already in the
+   * table are updated, see {@link RowUpsertSink}.
+   *
+   * @param request the import request
+   * @return whether the import was successful, or null if the request is a plain csv import that
+   * should go through CsvUtil instead
+   */
+  private Boolean importBatched(ImportRequest request) {
+    final String tableId = request.getTableId();
+    final ExportFormat format = request.getFormat();
+    String fileQualifier = request.getFileQualifier();
+    File file = new File(ODKFileUtils.getAssetsCsvFolder(appName),
+        tableId + (fileQualifier == null ? "" : "." + fileQualifier) + format.getExtension());
+    if (!file.exists()) {
+      if (format == ExportFormat.CSV) {
+        return null;
+      }
+      WebLogger.getLogger(appName).e(TAG, "Unable to find " + file.getPath());
+      return false;
+    }
+    final UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    InputStream in = null;
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      List<String> tableIds = dbInterface.getAllTableIds(appName, db);
+      if (!tableIds.contains(tableId)) {
+        if (format == ExportFormat.CSV) {
+          return null;
+        }
+        WebLogger.getLogger(appName)
+            .e(TAG, "Import the definition csv for " + tableId + " before its data");
+        return false;
+      }
+      final OrderedColumns orderedDefns = dbInterface.getUserDefinedColumns(appName, db, tableId);
+      final Set<String> elementKeys = new HashSet<>(orderedDefns.getRetentionColumnNames());
+      in = new BufferedInputStream(new FileInputStream(file));
+      RowBatchSource source;
+      final int total;
+      if (format == ExportFormat.CSV) {
+        CsvBatchImporter importer = new CsvBatchImporter(
+            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        if (!importer.headerMatches(elementKeys)) {
+          return null;
+        }
+        source = importer;
+        total = Math.max(countLines(file) - 1, 0);
+      } else {
+        source = openSource(in, format);
+        total = 0;
+      }
+      if (source.getHeader() == null) {
+        WebLogger.getLogger(appName).e(TAG, file.getPath() + " is empty");
+        return false;
+      }
+      final int batchSize = CsvBatchImporter.batchSizeFor(source.getHeader().length);
+      WebLogger.getLogger(appName).i(TAG,
+          "importing " + format + " file into " + tableId + " in batches of " + batchSize);
+      source.importRows(new RowUpsertSink(appName, dbInterface, db, tableId, orderedDefns,
+          dbInterface.getAdminColumns()), batchSize, new RowBatchSource.BatchListener() {
+            @Override
+            public void batchComplete(int rowsImported, int batchRows, long elapsedMillis) {
+              WebLogger.getLogger(appName).i(TAG,
+                  "inserted batch of " + batchRows + " rows in " + elapsedMillis + "ms");
+              updateProgressDetail(rowsImported, Math.max(total, rowsImported));
+            }
+          });
+      importComplete(true);
+      return true;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to access database");
+      return false;
+    } catch (ActionNotAuthorizedException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Not authorized to change rows of " + tableId);
+      return false;
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to read " + file.getPath());
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+          WebLogger.getLogger(appName).e(TAG, "Unable to close database");
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a compressed or columnar data file for import
+   *
+   * @param in     the contents of the file
+   * @param format the format of the file, either CSV_GZIP or COLUMNAR
+   * @return the rows of the file
+   * @throws IOException if the file couldn't be read
+   */
+  static RowBatchSource openSource(InputStream in, ExportFormat format) throws IOException {
+    if (format == ExportFormat.COLUMNAR) {
+      return new ColumnarTableCodec.Reader(in);
+    }
+    return new CsvBatchImporter(new BufferedReader(
+        new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Merges a delta file written by TableDeltaExporter into an existing table. Upserted rows are
+   * inserted or updated and deleted rows are removed if they are still here, except for local
+   * rows changed since the last import into the table, see {@link DeltaMergeSink}. Applying the
+   * same delta twice leaves the table unchanged.
+   *
+   * @param request the import request
+   * @return whether the merge was successful
+   */
+  private Boolean importDelta(ImportRequest request) {
+    final String tableId = request.getTableId();
+    String fileQualifier = request.getFileQualifier();
+    File file = new File(ODKFileUtils.getAssetsCsvFolder(appName),
+        tableId + (fileQualifier == null ? "" : "." + fileQualifier) + ".delta.csv");
+    final UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    InputStream in = null;
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      if (!dbInterface.getAllTableIds(appName, db).contains(tableId)) {
+        WebLogger.getLogger(appName)
+            .e(TAG, "Import the definition csv for " + tableId + " before merging a delta");
+        return false;
+      }
+      OrderedColumns orderedDefns = dbInterface.getUserDefinedColumns(appName, db, tableId);
+      in = new BufferedInputStream(new FileInputStream(file));
+      CsvBatchImporter importer = new CsvBatchImporter(
+          new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+      String[] header = importer.getHeader();
+      if (header == null || !TableDeltaExporter.OP_COLUMN.equals(header[0])) {
+        WebLogger.getLogger(appName).e(TAG, file.getPath() + " is not a delta file");
+        return false;
+      }
+      final int total = Math.max(countLines(file) - 1, 0);
+      DeltaMergeSink sink = new DeltaMergeSink(appName, dbInterface, db, tableId, orderedDefns,
+          TableDeltaExporter.getLastImport(appName, dbInterface, db, tableId));
+      importer.importRows(sink, CsvBatchImporter.batchSizeFor(header.length),
+          new RowBatchSource.BatchListener() {
+            @Override
+            public void batchComplete(int rowsImported, int batchRows, long elapsedMillis) {
+              updateProgressDetail(rowsImported, Math.max(total, rowsImported));
+            }
+          });
+      WebLogger.getLogger(appName).i(TAG,
+          "merged delta into " + tableId + ", kept " + sink.getKept() + " rows changed here");
+      importComplete(true);
+      return true;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to access database");
+      return false;
+    } catch (ActionNotAuthorizedException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Not authorized to change rows of " + tableId);
+      return false;
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to read " + file.getPath());
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+          WebLogger.getLogger(appName).e(TAG, "Unable to close database");
+        }
+      }
+    }
+  }
+
+  /**
+   * Counts the newlines in a file, used to estimate the number of rows for the progress dialog.
+   * Quoted values that span lines make this an overestimate, hence "about" in the dialog.
+   *
+   * @param file the file to count
+   * @return the number of lines in the file
+   * @throws IOException if the file couldn't be read
+   */
+  private static int countLines(File file) throws IOException {
+    InputStream is = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[8192];
+      int lines = 0;
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        for (int i = 0; i < read; i++) {
+          if (buffer[i] == '\n') {
+            lines++;
+          }
+        }
+      }
+      return lines;
+    } finally {
+      is.close();
+    }
+  }
+
   /**
    * called when the import is complete, records the result in probleImportingKVSEntries
    *
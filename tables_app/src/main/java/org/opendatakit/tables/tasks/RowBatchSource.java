@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.exception.ActionNotAuthorizedException;
+import org.opendatakit.exception.ServicesAvailabilityException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An import file that can hand its rows to the database in batches, whatever format it is in
+ */
+public interface RowBatchSource {
+
+  /**
+   * Receives one batch of rows at a time. Each row maps column names to their values, with
+   * empty cells mapped to null.
+   */
+  interface BatchSink {
+    void insertBatch(List<Map<String, String>> rows)
+        throws ServicesAvailabilityException, ActionNotAuthorizedException;
+  }
+
+  /**
+   * Told about every batch once the sink has accepted it
+   */
+  interface BatchListener {
+    /**
+     * @param rowsImported  total number of rows imported so far
+     * @param batchRows     the number of rows in the batch that just finished
+     * @param elapsedMillis how long the sink took to insert the batch
+     */
+    void batchComplete(int rowsImported, int batchRows, long elapsedMillis);
+  }
+
+  /**
+   * Reads the header if it hasn't been read yet
+   *
+   * @return the column names in the file, or null if the file is empty
+   * @throws IOException if the file couldn't be read
+   */
+  String[] getHeader() throws IOException;
+
+  /**
+   * Reads the remaining rows of the file and passes them to the sink in batches
+   *
+   * @param sink      where to put the rows
+   * @param batchSize how many rows to give the sink at once, if the format lets us choose
+   * @param listener  told after every batch, may be null
+   * @return the number of rows imported
+   * @throws IOException                   if the file couldn't be read
+   * @throws ServicesAvailabilityException if the database is unavailable
+   * @throws ActionNotAuthorizedException  if the user isn't allowed to insert rows
+   */
+  int importRows(BatchSink sink, int batchSize, BatchListener listener)
+      throws IOException, ServicesAvailabilityException, ActionNotAuthorizedException;
+}
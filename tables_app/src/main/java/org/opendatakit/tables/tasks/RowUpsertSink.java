@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.content.ContentValues;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ActionNotAuthorizedException;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.provider.DataTableColumns;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Writes the rows of an imported file to a table. The user defined columns and the metadata
+ * columns a data file carries, see {@link TableCsvExporter#getExportColumns}, are copied. A row
+ * whose id is already in the table is updated, any other row is inserted, so importing the same
+ * file again leaves the table as it was.
+ * <p>
+ * UserDbInterface has no call that writes several rows at once, so every row costs a
+ * getRowsWithId call and an insertRowWithId or updateRowWithId call however the rows are
+ * batched; what batching saves is the progress updates, which ImportTask makes once per batch.
+ */
+class RowUpsertSink implements RowBatchSource.BatchSink {
+
+  // the app name
+  private final String appName;
+  // the database to write to
+  private final UserDbInterface dbInterface;
+  // an open handle
+  private final DbHandle db;
+  // the table to import into
+  private final String tableId;
+  private final OrderedColumns orderedDefns;
+  // the columns copied from the file, all but the row id
+  private final Set<String> columns;
+
+  /**
+   * simple constructor that stores its arguments
+   *
+   * @param appName      the app name
+   * @param dbInterface  the database to write to
+   * @param db           an open handle
+   * @param tableId      the table to import into
+   * @param orderedDefns the table's columns
+   * @param adminColumns the metadata columns, as the database lists them
+   */
+  RowUpsertSink(String appName, UserDbInterface dbInterface, DbHandle db, String tableId,
+      OrderedColumns orderedDefns, String[] adminColumns) {
+    this.appName = appName;
+    this.dbInterface = dbInterface;
+    this.db = db;
+    this.tableId = tableId;
+    this.orderedDefns = orderedDefns;
+    this.columns = new HashSet<>(TableCsvExporter.getExportColumns(orderedDefns, adminColumns));
+    this.columns.remove(DataTableColumns.ID);
+  }
+
+  @Override
+  public void insertBatch(List<Map<String, String>> rows)
+      throws ServicesAvailabilityException, ActionNotAuthorizedException {
+    for (Map<String, String> row : rows) {
+      ContentValues cv = new ContentValues();
+      for (Map.Entry<String, String> entry : row.entrySet()) {
+        if (!columns.contains(entry.getKey())) {
+          continue;
+        }
+        if (entry.getValue() == null) {
+          cv.putNull(entry.getKey());
+        } else {
+          cv.put(entry.getKey(), entry.getValue());
+        }
+      }
+      String rowId = row.get(DataTableColumns.ID);
+      if (rowId == null) {
+        // a row without an id can't be in the table yet
+        dbInterface.insertRowWithId(appName, db, tableId, orderedDefns, cv,
+            "uuid:" + UUID.randomUUID().toString());
+      } else if (dbInterface.getRowsWithId(appName, db, tableId, orderedDefns, rowId)
+          .getNumberOfRows() != 0) {
+        dbInterface.updateRowWithId(appName, db, tableId, orderedDefns, cv, rowId);
+      } else {
+        dbInterface.insertRowWithId(appName, db, tableId, orderedDefns, cv, rowId);
+      }
+    }
+  }
+}
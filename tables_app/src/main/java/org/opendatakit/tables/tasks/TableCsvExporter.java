@@ -0,0 +1,519 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.aggregate.odktables.rest.RFC4180CsvWriter;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.ColumnDefinition;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.utils.DbSessionManager;
+import org.opendatakit.utilities.ODKFileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a table to csv files in the output csv folder: the data file, the definition file and
+ * the properties file, in the same places CsvUtil puts them. The data file may instead be gzip
+ * compressed or written in the binary format of ColumnarTableCodec, see ExportFormat.
+ * <p>
+ * Rows are read a page at a time using keyset paging on _id, so only one page is ever held in
+ * memory no matter how big the table is. CsvUtil.exportSeparable pulls the whole table into a
+ * single UserTable, which runs out of memory on big tables.
+ */
+public class TableCsvExporter {
+
+  // Used for logging
+  private static final String TAG = TableCsvExporter.class.getSimpleName();
+
+  /**
+   * How many rows to request from the database at once
+   */
+  static final int PAGE_SIZE = 1000;
+  // size of the character buffer in front of the file channel
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Told after every page has been written
+   */
+  public interface ProgressListener {
+    /**
+     * @param tableId the table being exported
+     * @param rows    the number of rows written so far
+     * @param total   the number of rows in the table
+     */
+    void rowsWritten(String tableId, int rows, int total);
+  }
+
+  /**
+   * Where the rows of a table come from. The first column must be the row id, which is what
+   * pages are keyed on.
+   */
+  public interface PageSource {
+    /**
+     * @return the names of the columns in the order they are returned by getPage
+     * @throws ServicesAvailabilityException if the database is unavailable
+     */
+    List<String> getColumns() throws ServicesAvailabilityException;
+
+    /**
+     * @return the number of rows, only used for progress reporting
+     * @throws ServicesAvailabilityException if the database is unavailable
+     */
+    int countRows() throws ServicesAvailabilityException;
+
+    /**
+     * @param afterRowId the id of the last row of the previous page, or null for the first page
+     * @param limit      the most rows to return
+     * @return the next rows in row id order, fewer than limit only on the last page. A row id
+     * that appears more than once (a row in conflict) may straddle two pages, so the page
+     * starts with any rows of afterRowId that weren't on the previous page
+     * @throws ServicesAvailabilityException if the database is unavailable
+     */
+    List<String[]> getPage(String afterRowId, int limit) throws ServicesAvailabilityException;
+  }
+
+  /**
+   * What happened when a single table was exported
+   */
+  public static class Summary {
+    // the id of the exported table
+    public final String tableId;
+    // the number of rows written
+    public final int rows;
+    // the size of the csv file
+    public final long bytes;
+    // how long the export took
+    public final long millis;
+    // whether the export finished
+    public final boolean success;
+
+    Summary(String tableId, int rows, long bytes, long millis, boolean success) {
+      this.tableId = tableId;
+      this.rows = rows;
+      this.bytes = bytes;
+      this.millis = millis;
+      this.success = success;
+    }
+  }
+
+  // the app name
+  private final String appName;
+  // the database to read from
+  private final UserDbInterface dbInterface;
+
+  /**
+   * simple constructor that stores its arguments
+   *
+   * @param appName     the app name
+   * @param dbInterface the database to read from
+   */
+  public TableCsvExporter(String appName, UserDbInterface dbInterface) {
+    this.appName = appName;
+    this.dbInterface = dbInterface;
+  }
+
+  /**
+   * Where the data file for a table is written, next to the definition and properties files
+   *
+   * @param appName       the app name
+   * @param tableId       the table id
+   * @param fileQualifier optional qualifier for the filename, may be null or empty
+   * @param format        the format of the data file
+   * @return the data file
+   */
+  public static File getOutputFile(String appName, String tableId, String fileQualifier,
+      ExportFormat format) {
+    String name = tableId;
+    if (fileQualifier != null && !fileQualifier.isEmpty()) {
+      name += "." + fileQualifier;
+    }
+    return new File(ODKFileUtils.getOutputTableCsvFile(appName, tableId, fileQualifier),
+        name + format.getExtension());
+  }
+
+  /**
+   * Exports a table. Opens its own database handle, so several tables may be exported at once
+   * from different threads.
+   *
+   * @param tableId       the table to export
+   * @param fileQualifier optional qualifier for the filename
+   * @param format        the format of the data file
+   * @param listener      told after every page, may be null
+   * @return a summary of the export
+   */
+  public Summary export(String tableId, String fileQualifier, ExportFormat format,
+      ProgressListener listener) {
+    long start = System.currentTimeMillis();
+    File file = getOutputFile(appName, tableId, fileQualifier, format);
+    int rows = 0;
+    boolean success = false;
+    if (fileQualifier != null && (fileQualifier.contains("/") || fileQualifier
+        .contains(File.separator))) {
+      WebLogger.getLogger(appName).e(TAG, "Invalid file qualifier " + fileQualifier);
+      return new Summary(tableId, 0, 0, 0, false);
+    }
+    DbHandle db = null;
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      OrderedColumns orderedDefns = dbInterface.getUserDefinedColumns(appName, db, tableId);
+      writeDefinition(orderedDefns, new File(
+          ODKFileUtils.getOutputTableDefinitionCsvFile(appName, tableId, fileQualifier)));
+      writeProperties(db, tableId, new File(
+          ODKFileUtils.getOutputTablePropertiesCsvFile(appName, tableId, fileQualifier)));
+      rows = writeRows(openPageSource(db, tableId, orderedDefns, null, new String[0]), tableId,
+          file, format, listener);
+      success = true;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to access database while exporting " + tableId);
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to write csv files for " + tableId);
+    } finally {
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+          WebLogger.getLogger(appName).e(TAG, "Unable to close database");
+        }
+      }
+    }
+    return new Summary(tableId, rows, file.length(), System.currentTimeMillis() - start, success);
+  }
+
+  /**
+   * Writes every row from the source to the file, one page at a time
+   *
+   * @param source   where the rows come from
+   * @param tableId  the table id, passed to the listener
+   * @param file     the file to write
+   * @param format   the format to write the file in
+   * @param listener told after every page, may be null
+   * @return the number of rows written
+   * @throws IOException                   if the file couldn't be written
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  public static int writeRows(PageSource source, String tableId, File file, ExportFormat format,
+      ProgressListener listener) throws IOException, ServicesAvailabilityException {
+    List<String> columns = source.getColumns();
+    int total = source.countRows();
+    int rows = 0;
+    PageWriter writer = openPageWriter(file, format);
+    try {
+      writer.writeHeader(columns);
+      String lastRowId = null;
+      List<String[]> page;
+      do {
+        page = source.getPage(lastRowId, PAGE_SIZE);
+        writer.writePage(page);
+        if (!page.isEmpty()) {
+          lastRowId = page.get(page.size() - 1)[0];
+        }
+        rows += page.size();
+        if (listener != null) {
+          listener.rowsWritten(tableId, rows, Math.max(total, rows));
+        }
+      } while (page.size() == PAGE_SIZE);
+    } finally {
+      writer.close();
+    }
+    return rows;
+  }
+
+  /**
+   * Writes the header and pages of a data file in one of the export formats
+   */
+  private interface PageWriter {
+    void writeHeader(List<String> columns) throws IOException;
+
+    void writePage(List<String[]> page) throws IOException;
+
+    void close() throws IOException;
+  }
+
+  /**
+   * Opens a writer for the data file in the requested format
+   */
+  private static PageWriter openPageWriter(File file, ExportFormat format) throws IOException {
+    if (format == ExportFormat.COLUMNAR) {
+      final ColumnarTableCodec.Writer writer = new ColumnarTableCodec.Writer(
+          new BufferedOutputStream(Channels.newOutputStream(openChannel(file)),
+              WRITE_BUFFER_SIZE));
+      return new PageWriter() {
+        @Override
+        public void writeHeader(List<String> columns) throws IOException {
+          writer.writeHeader(columns);
+        }
+
+        @Override
+        public void writePage(List<String[]> page) throws IOException {
+          writer.writeBlock(page);
+        }
+
+        @Override
+        public void close() throws IOException {
+          writer.close();
+        }
+      };
+    }
+    final RFC4180CsvWriter cw;
+    if (format == ExportFormat.CSV_GZIP) {
+      cw = new RFC4180CsvWriter(new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Channels.newOutputStream(openChannel(file)), WRITE_BUFFER_SIZE),
+          StandardCharsets.UTF_8), WRITE_BUFFER_SIZE));
+    } else {
+      cw = openWriter(file);
+    }
+    return new PageWriter() {
+      @Override
+      public void writeHeader(List<String> columns) throws IOException {
+        cw.writeNext(columns.toArray(new String[columns.size()]));
+      }
+
+      @Override
+      public void writePage(List<String[]> page) throws IOException {
+        for (String[] line : page) {
+          cw.writeNext(line);
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          cw.flush();
+        } finally {
+          cw.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Opens a csv writer that goes through a large character buffer straight to the file's channel
+   */
+  static RFC4180CsvWriter openWriter(File file) throws IOException {
+    return new RFC4180CsvWriter(new BufferedWriter(
+        Channels.newWriter(openChannel(file), StandardCharsets.UTF_8.newEncoder(), -1),
+        WRITE_BUFFER_SIZE));
+  }
+
+  /**
+   * Creates the file's directory if needed and opens a channel to write the file
+   */
+  private static FileChannel openChannel(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent.getPath());
+    }
+    return new FileOutputStream(file).getChannel();
+  }
+
+  /**
+   * Writes the column definitions in the format CsvUtil reads on import
+   */
+  private static void writeDefinition(OrderedColumns orderedDefns, File file) throws IOException {
+    RFC4180CsvWriter cw = openWriter(file);
+    try {
+      cw.writeNext(new String[] { "_element_key", "_element_name", "_element_type",
+          "_list_child_element_keys" });
+      for (ColumnDefinition cd : orderedDefns.getColumnDefinitions()) {
+        cw.writeNext(new String[] { cd.getElementKey(), cd.getElementName(), cd.getElementType(),
+            cd.getListChildElementKeys() });
+      }
+      cw.flush();
+    } finally {
+      cw.close();
+    }
+  }
+
+  /**
+   * Writes the table's key value store entries in the format CsvUtil reads on import
+   */
+  private void writeProperties(DbHandle db, String tableId, File file)
+      throws IOException, ServicesAvailabilityException {
+    List<KeyValueStoreEntry> entries = dbInterface
+        .getTableMetadata(appName, db, tableId, null, null, null, null).getEntries();
+    RFC4180CsvWriter cw = openWriter(file);
+    try {
+      cw.writeNext(new String[] { "_partition", "_aspect", "_key", "_type", "_value" });
+      for (KeyValueStoreEntry entry : entries) {
+        if (TableDeltaExporter.isDeviceOnlyEntry(entry)) {
+          // these describe exports from and imports into this device, meaningless elsewhere
+          continue;
+        }
+        cw.writeNext(
+            new String[] { entry.partition, entry.aspect, entry.key, entry.type, entry.value });
+      }
+      cw.flush();
+    } finally {
+      cw.close();
+    }
+  }
+
+  /**
+   * The columns written to a data file: the row id, the user defined columns and the metadata
+   * columns that CsvUtil understands on import. Sync state and conflict type are local to this
+   * device and are left out.
+   *
+   * @param orderedDefns the table's user defined columns
+   * @return the column names, row id first
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  List<String> getExportColumns(OrderedColumns orderedDefns)
+      throws ServicesAvailabilityException {
+    return getExportColumns(orderedDefns, dbInterface.getAdminColumns());
+  }
+
+  /**
+   * The columns written to a data file, and read back from one by ImportTask
+   *
+   * @param orderedDefns the table's user defined columns
+   * @param adminColumns the metadata columns, as the database lists them
+   * @return the column names, row id first
+   */
+  static List<String> getExportColumns(OrderedColumns orderedDefns, String[] adminColumns) {
+    List<String> columns = new ArrayList<>();
+    columns.add(DataTableColumns.ID);
+    columns.addAll(orderedDefns.getRetentionColumnNames());
+    for (String adminColumn : adminColumns) {
+      if (!adminColumn.equals(DataTableColumns.ID) && !adminColumn
+          .equals(DataTableColumns.SYNC_STATE) && !adminColumn
+          .equals(DataTableColumns.CONFLICT_TYPE)) {
+        columns.add(adminColumn);
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Reads the rows of a table from ODK Services a page at a time, in the columns of a data file
+   *
+   * @param db            an open handle
+   * @param tableId       the table to read
+   * @param orderedDefns  the table's user defined columns
+   * @param selection     which rows to read, or null for all of them
+   * @param selectionArgs the arguments of the selection
+   * @return the source of the pages
+   */
+  PageSource openPageSource(DbHandle db, String tableId, OrderedColumns orderedDefns,
+      String selection, String[] selectionArgs) {
+    return new DatabasePageSource(db, tableId, orderedDefns, selection, selectionArgs);
+  }
+
+  /**
+   * Reads pages of a table from ODK Services. A row in conflict has two versions with the same
+   * row id, told apart by their conflict type, so pages are ordered by both. Each page starts
+   * from the last row id of the previous one again, and drops the versions of it that were
+   * already returned.
+   */
+  private class DatabasePageSource implements PageSource {
+    private final DbHandle db;
+    private final String tableId;
+    private final OrderedColumns orderedDefns;
+    // which rows to read, or null for all of them, and its arguments
+    private final String selection;
+    private final String[] selectionArgs;
+    private List<String> columns = null;
+    // the id of the last row returned, and how many versions of it have been returned
+    private String lastRowId = null;
+    private int lastRowIdCount = 0;
+
+    DatabasePageSource(DbHandle db, String tableId, OrderedColumns orderedDefns,
+        String selection, String[] selectionArgs) {
+      this.db = db;
+      this.tableId = tableId;
+      this.orderedDefns = orderedDefns;
+      this.selection = selection;
+      this.selectionArgs = selectionArgs;
+    }
+
+    @Override
+    public List<String> getColumns() throws ServicesAvailabilityException {
+      if (columns == null) {
+        columns = getExportColumns(orderedDefns);
+      }
+      return columns;
+    }
+
+    @Override
+    public int countRows() throws ServicesAvailabilityException {
+      BaseTable result = dbInterface.arbitrarySqlQuery(appName, db, tableId,
+          "SELECT COUNT(*) AS row_count FROM " + tableId, new BindArgs(new String[0]), 1, 0);
+      if (result.getNumberOfRows() == 0) {
+        return 0;
+      }
+      String count = result.getRowAtIndex(0).getDataByKey("row_count");
+      return count == null ? 0 : Integer.parseInt(count);
+    }
+
+    @Override
+    public List<String[]> getPage(String afterRowId, int limit)
+        throws ServicesAvailabilityException {
+      List<String> cols = getColumns();
+      int skip = afterRowId != null && afterRowId.equals(lastRowId) ? lastRowIdCount : 0;
+      String where = selection;
+      List<String> args = new ArrayList<>(Arrays.asList(selectionArgs));
+      if (afterRowId != null) {
+        where = (where == null ? "" : "(" + where + ") AND ") + DataTableColumns.ID + " >= ?";
+        args.add(afterRowId);
+      }
+      UserTable page = dbInterface.simpleQuery(appName, db, tableId, orderedDefns, where,
+          new BindArgs(args.toArray(new String[args.size()])), null, null,
+          new String[] { DataTableColumns.ID, DataTableColumns.CONFLICT_TYPE },
+          new String[] { "ASC", "ASC" }, limit + skip, 0);
+      List<String[]> lines = new ArrayList<>(page.getNumberOfRows());
+      for (int i = skip; i < page.getNumberOfRows(); i++) {
+        Row row = page.getRowAtIndex(i);
+        String[] line = new String[cols.size()];
+        for (int j = 0; j < line.length; j++) {
+          line[j] = row.getDataByKey(cols.get(j));
+        }
+        lines.add(line);
+      }
+      for (String[] line : lines) {
+        if (line[0] != null && line[0].equals(lastRowId)) {
+          lastRowIdCount++;
+        } else {
+          lastRowId = line[0];
+          lastRowIdCount = 1;
+        }
+      }
+      return lines;
+    }
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.RFC4180CsvWriter;
+import org.opendatakit.aggregate.odktables.rest.SyncState;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.KeyValueStoreUtils;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.utils.DbSessionManager;
+import org.opendatakit.utilities.ODKFileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports only what changed in a table since the last delta export from this device.
+ * <p>
+ * The delta file is a csv file named tableId[.qualifier].delta.csv whose first column,
+ * {@link #OP_COLUMN}, says whether the row should be upserted or deleted. The remaining columns
+ * are the same as in a full export.
+ * <ul>
+ * <li>Changed rows are the ones whose _savepoint_timestamp is after the checkpoint stored in the
+ * table's key value store. The checkpoint moves to the time the export started, so rows saved
+ * while an export is running are picked up by the next one.</li>
+ * <li>Deletions are found by comparing the sorted list of row ids from the previous export with
+ * the current one. Both lists are walked in _id order, so memory stays bounded.</li>
+ * </ul>
+ * Deltas are applied with the merge mode of ImportTask, see {@link DeltaMergeSink}. Every import
+ * into a table records its time next to the checkpoint, so a merge can tell the rows changed on
+ * this device since the last import from the ones it can overwrite.
+ */
+public class TableDeltaExporter {
+
+  // Used for logging
+  private static final String TAG = TableDeltaExporter.class.getSimpleName();
+
+  /**
+   * The name of the column that says what to do with each row of a delta file
+   */
+  public static final String OP_COLUMN = "_delta_op";
+  /**
+   * The row should be inserted, or updated if it already exists
+   */
+  public static final String OP_UPSERT = "upsert";
+  /**
+   * The row should be deleted if it exists
+   */
+  public static final String OP_DELETE = "delete";
+
+  // where the checkpoint and the time of the last import live in the key value store
+  private static final String KVS_PARTITION = "Tables";
+  private static final String KVS_ASPECT = "deltaExport";
+  private static final String KVS_KEY_CHECKPOINT = "checkpoint";
+  private static final String KVS_IMPORT_ASPECT = "deltaImport";
+  private static final String KVS_KEY_LAST_IMPORT = "lastImport";
+
+  // the app name
+  private final String appName;
+  // the database to read from
+  private final UserDbInterface dbInterface;
+  // used for the export columns and writers
+  private final TableCsvExporter exporter;
+
+  /**
+   * simple constructor that stores its arguments
+   *
+   * @param appName     the app name
+   * @param dbInterface the database to read from
+   */
+  public TableDeltaExporter(String appName, UserDbInterface dbInterface) {
+    this.appName = appName;
+    this.dbInterface = dbInterface;
+    this.exporter = new TableCsvExporter(appName, dbInterface);
+  }
+
+  /**
+   * Whether a key value store entry is the delta export checkpoint or the time of the last
+   * import, which describe this device and should not be copied to other devices
+   *
+   * @param entry a key value store entry
+   * @return true if it's one of them
+   */
+  public static boolean isDeviceOnlyEntry(KeyValueStoreEntry entry) {
+    return KVS_PARTITION.equals(entry.partition) && (
+        KVS_ASPECT.equals(entry.aspect) && KVS_KEY_CHECKPOINT.equals(entry.key)
+            || KVS_IMPORT_ASPECT.equals(entry.aspect) && KVS_KEY_LAST_IMPORT.equals(entry.key));
+  }
+
+  /**
+   * Reads when rows were last imported into a table on this device
+   *
+   * @param appName     the app name
+   * @param dbInterface the database
+   * @param db          an open handle
+   * @param tableId     the table id
+   * @return the time, in the format of _savepoint_timestamp, or null if no import was recorded
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  static String getLastImport(String appName, UserDbInterface dbInterface, DbHandle db,
+      String tableId) throws ServicesAvailabilityException {
+    return getEntry(appName, dbInterface, db, tableId, KVS_IMPORT_ASPECT, KVS_KEY_LAST_IMPORT);
+  }
+
+  /**
+   * Records that rows were imported into a table. Rows the import saved have a
+   * _savepoint_timestamp no later than this, so one with a later timestamp was changed on this
+   * device since.
+   *
+   * @param appName     the app name
+   * @param dbInterface the database
+   * @param db          an open handle
+   * @param tableId     the table id
+   * @param time        the time the import finished, in the format of _savepoint_timestamp
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  static void recordImport(String appName, UserDbInterface dbInterface, DbHandle db,
+      String tableId, String time) throws ServicesAvailabilityException {
+    dbInterface.replaceTableMetadata(appName, db, KeyValueStoreUtils
+        .buildEntry(tableId, KVS_PARTITION, KVS_IMPORT_ASPECT, KVS_KEY_LAST_IMPORT,
+            ElementDataType.string, time));
+  }
+
+  /**
+   * Where the delta file for a table is written
+   *
+   * @param appName       the app name
+   * @param tableId       the table id
+   * @param fileQualifier optional qualifier for the filename, may be null or empty
+   * @return the delta file
+   */
+  public static File getOutputFile(String appName, String tableId, String fileQualifier) {
+    String name = tableId;
+    if (fileQualifier != null && !fileQualifier.isEmpty()) {
+      name += "." + fileQualifier;
+    }
+    return new File(ODKFileUtils.getOutputTableCsvFile(appName, tableId, fileQualifier),
+        name + ".delta.csv");
+  }
+
+  /**
+   * The sorted row ids seen by the last delta export of a table
+   */
+  private File getSnapshotFile(String tableId) {
+    return new File(new File(ODKFileUtils.getOutputCsvFolder(appName), ".delta"),
+        tableId + ".ids");
+  }
+
+  /**
+   * Writes the delta file for a table and moves its checkpoint forward
+   *
+   * @param tableId       the table to export
+   * @param fileQualifier optional qualifier for the filename
+   * @param listener      told after every page, may be null
+   * @return a summary of the export, where rows counts both upserts and deletions
+   */
+  public TableCsvExporter.Summary export(String tableId, String fileQualifier,
+      TableCsvExporter.ProgressListener listener) {
+    long start = System.currentTimeMillis();
+    File file = getOutputFile(appName, tableId, fileQualifier);
+    File snapshot = getSnapshotFile(tableId);
+    File newSnapshot = new File(snapshot.getPath() + ".new");
+    int rows = 0;
+    boolean success = false;
+    if (fileQualifier != null && (fileQualifier.contains("/") || fileQualifier
+        .contains(File.separator))) {
+      WebLogger.getLogger(appName).e(TAG, "Invalid file qualifier " + fileQualifier);
+      return new TableCsvExporter.Summary(tableId, 0, 0, 0, false);
+    }
+    DbHandle db = null;
+    RFC4180CsvWriter cw = null;
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      OrderedColumns orderedDefns = dbInterface.getUserDefinedColumns(appName, db, tableId);
+      List<String> columns = exporter.getExportColumns(orderedDefns);
+      String checkpoint = getEntry(appName, dbInterface, db, tableId, KVS_ASPECT,
+          KVS_KEY_CHECKPOINT);
+      String exportStart = TableConstants.nanoSecondsFromMillis(start);
+
+      cw = TableCsvExporter.openWriter(file);
+      String[] line = new String[columns.size() + 1];
+      line[0] = OP_COLUMN;
+      for (int i = 0; i < columns.size(); i++) {
+        line[i + 1] = columns.get(i);
+      }
+      cw.writeNext(line);
+
+      rows += writeChangedRows(cw, db, tableId, orderedDefns, columns, checkpoint, exportStart,
+          listener);
+      rows += writeDeletedRows(cw, db, tableId, columns.size(), snapshot, newSnapshot);
+      cw.flush();
+      cw.close();
+      cw = null;
+
+      if (snapshot.exists() && !snapshot.delete()) {
+        throw new IOException("Unable to replace " + snapshot.getPath());
+      }
+      if (!newSnapshot.renameTo(snapshot)) {
+        throw new IOException("Unable to replace " + snapshot.getPath());
+      }
+      dbInterface.replaceTableMetadata(appName, db, KeyValueStoreUtils
+          .buildEntry(tableId, KVS_PARTITION, KVS_ASPECT, KVS_KEY_CHECKPOINT,
+              ElementDataType.string, exportStart));
+      success = true;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to access database while exporting " + tableId);
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to write delta for " + tableId);
+    } finally {
+      if (cw != null) {
+        try {
+          cw.close();
+        } catch (IOException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+      if (newSnapshot.exists() && !newSnapshot.delete()) {
+        WebLogger.getLogger(appName).w(TAG, "Unable to delete " + newSnapshot.getPath());
+      }
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+          WebLogger.getLogger(appName).e(TAG, "Unable to close database");
+        }
+      }
+    }
+    return new TableCsvExporter.Summary(tableId, rows, file.length(),
+        System.currentTimeMillis() - start, success);
+  }
+
+  /**
+   * Reads one of the string entries of the table kept under {@link #KVS_PARTITION}
+   *
+   * @return the value, or null if there is no such entry
+   */
+  private static String getEntry(String appName, UserDbInterface dbInterface, DbHandle db,
+      String tableId, String aspect, String key) throws ServicesAvailabilityException {
+    List<KeyValueStoreEntry> entries = dbInterface
+        .getTableMetadata(appName, db, tableId, KVS_PARTITION, aspect, key, null).getEntries();
+    if (entries.size() != 1) {
+      return null;
+    }
+    return KeyValueStoreUtils.getString(entries.get(0));
+  }
+
+  /**
+   * Writes an upsert line for every row saved after the checkpoint and no later than the start
+   * of this export, reading them a page at a time the way a full export does
+   */
+  private int writeChangedRows(RFC4180CsvWriter cw, DbHandle db, String tableId,
+      OrderedColumns orderedDefns, List<String> columns, String checkpoint, String exportStart,
+      TableCsvExporter.ProgressListener listener)
+      throws IOException, ServicesAvailabilityException {
+    StringBuilder where = new StringBuilder();
+    List<String> args = new ArrayList<>();
+    where.append(DataTableColumns.SAVEPOINT_TIMESTAMP).append(" <= ? AND ")
+        .append(DataTableColumns.SYNC_STATE).append(" != ?");
+    args.add(exportStart);
+    args.add(SyncState.deleted.name());
+    if (checkpoint != null) {
+      where.append(" AND ").append(DataTableColumns.SAVEPOINT_TIMESTAMP).append(" > ?");
+      args.add(checkpoint);
+    }
+
+    // a row in conflict has two versions with the same id, which may straddle a page boundary
+    TableCsvExporter.PageSource source = exporter.openPageSource(db, tableId, orderedDefns,
+        where.toString(), args.toArray(new String[args.size()]));
+    int rows = 0;
+    String[] line = new String[columns.size() + 1];
+    line[0] = OP_UPSERT;
+    String lastRowId = null;
+    List<String[]> page;
+    do {
+      page = source.getPage(lastRowId, TableCsvExporter.PAGE_SIZE);
+      for (String[] values : page) {
+        System.arraycopy(values, 0, line, 1, values.length);
+        cw.writeNext(line);
+        lastRowId = values[0];
+      }
+      rows += page.size();
+      if (listener != null) {
+        listener.rowsWritten(tableId, rows, rows);
+      }
+    } while (page.size() == TableCsvExporter.PAGE_SIZE);
+    return rows;
+  }
+
+  /**
+   * Walks the previous snapshot of row ids and the current row ids side by side, both sorted,
+   * writing a delete line for every id that has gone and saving the current ids as the new
+   * snapshot. Rows waiting to be deleted by the next sync count as gone.
+   */
+  private int writeDeletedRows(RFC4180CsvWriter cw, DbHandle db, String tableId, int columnCount,
+      File snapshot, File newSnapshot) throws IOException, ServicesAvailabilityException {
+    File parent = newSnapshot.getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent.getPath());
+    }
+    BufferedReader previous = null;
+    BufferedWriter current = null;
+    int deleted = 0;
+    try {
+      if (snapshot.exists()) {
+        previous = new BufferedReader(
+            new InputStreamReader(new FileInputStream(snapshot), StandardCharsets.UTF_8));
+      }
+      current = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(newSnapshot), StandardCharsets.UTF_8));
+      String[] line = new String[columnCount + 1];
+      line[0] = OP_DELETE;
+      String oldId = previous == null ? null : previous.readLine();
+      String lastRowId = null;
+      List<String> ids;
+      do {
+        ids = getLiveRowIds(db, tableId, lastRowId);
+        for (String id : ids) {
+          while (oldId != null && oldId.compareTo(id) < 0) {
+            line[1] = oldId;
+            cw.writeNext(line);
+            deleted++;
+            oldId = previous.readLine();
+          }
+          // snapshots written before ids were made distinct may list an id more than once
+          while (oldId != null && oldId.equals(id)) {
+            oldId = previous.readLine();
+          }
+          current.write(id);
+          current.newLine();
+          lastRowId = id;
+        }
+      } while (ids.size() == TableCsvExporter.PAGE_SIZE);
+      while (oldId != null) {
+        line[1] = oldId;
+        cw.writeNext(line);
+        deleted++;
+        oldId = previous.readLine();
+      }
+    } finally {
+      if (previous != null) {
+        previous.close();
+      }
+      if (current != null) {
+        current.close();
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Reads the next page of ids of rows that aren't waiting to be deleted, in _id order. A row in
+   * conflict has two versions with the same id, which is listed once.
+   */
+  private List<String> getLiveRowIds(DbHandle db, String tableId, String afterRowId)
+      throws ServicesAvailabilityException {
+    String sql = "SELECT DISTINCT " + DataTableColumns.ID + " FROM " + tableId + " WHERE "
+        + DataTableColumns.SYNC_STATE + " != ?" + (afterRowId == null ?
+        "" :
+        " AND " + DataTableColumns.ID + " > ?") + " ORDER BY " + DataTableColumns.ID + " ASC";
+    BindArgs bindArgs = new BindArgs(afterRowId == null ?
+        new String[] { SyncState.deleted.name() } :
+        new String[] { SyncState.deleted.name(), afterRowId });
+    BaseTable result = dbInterface
+        .arbitrarySqlQuery(appName, db, tableId, sql, bindArgs, TableCsvExporter.PAGE_SIZE, 0);
+    List<String> ids = new ArrayList<>(result.getNumberOfRows());
+    for (int i = 0; i < result.getNumberOfRows(); i++) {
+      ids.add(result.getRowAtIndex(i).getDataByKey(DataTableColumns.ID));
+    }
+    return ids;
+  }
+}
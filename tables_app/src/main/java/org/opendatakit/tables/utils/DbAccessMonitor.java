@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import android.os.Looper;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.logging.WebLogger;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Watches the calls the app makes into the database service, to find the ones made on the UI
+ * thread before they show up as ANRs. While it is enabled, which it is in debug builds,
+ * Tables.getDatabase hands out a proxy that times every call and records the thread it was made
+ * on, the size of its result and the method in Tables that made it.
+ * <p>
+ * The calls are added up per call site, see {@link #getReport}, which PerfMetricsActivity shows.
+ * The first UI thread call from each call site is logged. A test can set a budget with
+ * {@link #setMainThreadBudget}; a UI thread call taking longer than that then throws an
+ * AssertionError in the caller, failing the test.
+ */
+public final class DbAccessMonitor {
+
+  private static final String TAG = DbAccessMonitor.class.getSimpleName();
+
+  /**
+   * The prefix of the PerfMetrics histograms of each UserDbInterface method
+   */
+  public static final String CALL = "db.";
+  /**
+   * The PerfMetrics counter of calls made on the UI thread
+   */
+  public static final String MAIN_THREAD_CALLS = "db.mainThread";
+
+  // the classes between the caller and the database, skipped when looking for the call site
+  private static final String[] SKIPPED_CLASSES = { DbAccessMonitor.class.getName(),
+      DbSessionManager.class.getName(), "org.opendatakit.tables.application.Tables" };
+  private static final String TABLES_PACKAGE = "org.opendatakit.tables.";
+
+  private static volatile boolean enabled = false;
+  // a UI thread call taking longer than this fails, or -1 for no budget
+  private static volatile long mainThreadBudgetMillis = -1;
+
+  // the stats of each call site, guarded by itself
+  private static final Map<String, CallSite> callSites = new HashMap<>();
+  // the last interface wrapped and its proxy, so the same one is handed out every time, guarded
+  // by the class
+  private static UserDbInterface lastDelegate = null;
+  private static UserDbInterface lastProxy = null;
+
+  /**
+   * The calls made from one place in the app
+   */
+  public static final class CallSite {
+    private final String site;
+    private int calls = 0;
+    private int mainThreadCalls = 0;
+    private long totalNanos = 0;
+    private long mainThreadNanos = 0;
+    private long maxMainThreadNanos = 0;
+    private long resultSize = 0;
+
+    CallSite(String site) {
+      this.site = site;
+    }
+
+    /**
+     * @return the method and line that made the calls
+     */
+    public String getSite() {
+      return site;
+    }
+
+    public synchronized int getCalls() {
+      return calls;
+    }
+
+    public synchronized int getMainThreadCalls() {
+      return mainThreadCalls;
+    }
+
+    public synchronized long getMainThreadMillis() {
+      return mainThreadNanos / 1000000L;
+    }
+
+    public synchronized long getMaxMainThreadMillis() {
+      return maxMainThreadNanos / 1000000L;
+    }
+
+    synchronized boolean record(boolean mainThread, long nanos, long size) {
+      calls++;
+      totalNanos += nanos;
+      if (size > 0) {
+        resultSize += size;
+      }
+      if (!mainThread) {
+        return false;
+      }
+      mainThreadCalls++;
+      mainThreadNanos += nanos;
+      maxMainThreadNanos = Math.max(maxMainThreadNanos, nanos);
+      return mainThreadCalls == 1;
+    }
+
+    synchronized String format() {
+      return String.format(Locale.US, "%6d %6d %9.1f %9.1f %9.1f %9d  %s", calls,
+          mainThreadCalls, totalNanos / 1e6, mainThreadNanos / 1e6, maxMainThreadNanos / 1e6,
+          resultSize, site);
+    }
+  }
+
+  /**
+   * Do not instantiate this class
+   */
+  private DbAccessMonitor() {
+  }
+
+  /**
+   * @param enable whether Tables.getDatabase should hand out the watched interface
+   */
+  public static void setEnabled(boolean enable) {
+    enabled = enable;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Makes a UI thread call that takes longer than the budget throw an AssertionError, for tests
+   *
+   * @param millis the longest a UI thread call may take, or -1 for no limit
+   */
+  public static void setMainThreadBudget(long millis) {
+    mainThreadBudgetMillis = millis;
+  }
+
+  /**
+   * @param dbInterface the interface to the database service, may be null
+   * @return an interface that records the calls and passes them on, the same one for the same
+   * dbInterface, or dbInterface itself if the monitor is off
+   */
+  public static UserDbInterface wrap(final UserDbInterface dbInterface) {
+    // called for every getDatabase, so the usual case of the monitor being off takes no lock
+    if (!enabled || dbInterface == null) {
+      return dbInterface;
+    }
+    synchronized (DbAccessMonitor.class) {
+      if (dbInterface != lastDelegate) {
+        lastDelegate = dbInterface;
+        lastProxy = (UserDbInterface) Proxy
+            .newProxyInstance(UserDbInterface.class.getClassLoader(),
+                new Class<?>[] { UserDbInterface.class }, new InvocationHandler() {
+                  @Override
+                  public Object invoke(Object proxy, Method method, Object[] args)
+                      throws Throwable {
+                    return call(dbInterface, method, args);
+                  }
+                });
+      }
+      return lastProxy;
+    }
+  }
+
+  /**
+   * @return the call sites, the ones that spent the most time on the UI thread first
+   */
+  public static List<CallSite> getCallSites() {
+    List<CallSite> sites;
+    synchronized (callSites) {
+      sites = new ArrayList<>(callSites.values());
+    }
+    Collections.sort(sites, new Comparator<CallSite>() {
+      @Override
+      public int compare(CallSite lhs, CallSite rhs) {
+        long lhsMillis = lhs.getMainThreadMillis();
+        long rhsMillis = rhs.getMainThreadMillis();
+        if (lhsMillis != rhsMillis) {
+          return lhsMillis > rhsMillis ? -1 : 1;
+        }
+        return rhs.getMainThreadCalls() - lhs.getMainThreadCalls();
+      }
+    });
+    return sites;
+  }
+
+  /**
+   * @return a table of the call sites, or an empty string if no calls were recorded
+   */
+  public static String getReport() {
+    List<CallSite> sites = getCallSites();
+    if (sites.isEmpty()) {
+      return "";
+    }
+    StringBuilder report = new StringBuilder();
+    report.append("database calls by call site, UI thread time first\n");
+    report.append(String.format(Locale.US, "%6s %6s %9s %9s %9s %9s  %s\n", "calls", "ui",
+        "total ms", "ui ms", "ui max ms", "size", "call site"));
+    for (CallSite site : sites) {
+      report.append(site.format()).append('\n');
+    }
+    return report.toString();
+  }
+
+  /**
+   * Forgets every call recorded
+   */
+  public static void reset() {
+    synchronized (callSites) {
+      callSites.clear();
+    }
+  }
+
+  private static Object call(UserDbInterface dbInterface, Method method, Object[] args)
+      throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return invoke(dbInterface, method, args);
+    }
+    boolean mainThread = isMainThread();
+    long timer = PerfMetrics.startTimer();
+    long start = System.nanoTime();
+    Object result = invoke(dbInterface, method, args);
+    long nanos = System.nanoTime() - start;
+    PerfMetrics.stopTimer(CALL + method.getName(), timer);
+
+    String site = getCallSite();
+    CallSite callSite;
+    synchronized (callSites) {
+      callSite = callSites.get(site);
+      if (callSite == null) {
+        callSite = new CallSite(site);
+        callSites.put(site, callSite);
+      }
+    }
+    boolean first = callSite.record(mainThread, nanos, getSize(result));
+    if (!mainThread) {
+      return result;
+    }
+    PerfMetrics.increment(MAIN_THREAD_CALLS, 1);
+    if (first && args != null && args.length > 0 && args[0] instanceof String) {
+      // the first argument of the calls that take one is the app name
+      WebLogger.getLogger((String) args[0])
+          .w(TAG, "database call on the UI thread: " + method.getName() + " from " + site);
+    }
+    long budget = mainThreadBudgetMillis;
+    if (budget >= 0 && nanos > budget * 1000000L) {
+      throw new AssertionError(
+          method.getName() + " took " + nanos / 1000000L + " ms on the UI thread, over the "
+              + budget + " ms budget, from " + site);
+    }
+    return result;
+  }
+
+  private static Object invoke(UserDbInterface dbInterface, Method method, Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(dbInterface, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static boolean isMainThread() {
+    Looper mainLooper = Looper.getMainLooper();
+    return mainLooper != null && mainLooper.getThread() == Thread.currentThread();
+  }
+
+  /**
+   * @return the first method in Tables on the stack, outside of the classes between it and the
+   * database
+   */
+  private static String getCallSite() {
+    StackTraceElement[] stack = new Throwable().getStackTrace();
+    for (StackTraceElement element : stack) {
+      String className = element.getClassName();
+      if (!className.startsWith(TABLES_PACKAGE)) {
+        continue;
+      }
+      boolean skipped = false;
+      for (String skippedClass : SKIPPED_CLASSES) {
+        if (className.startsWith(skippedClass)) {
+          skipped = true;
+          break;
+        }
+      }
+      if (!skipped) {
+        return element.toString();
+      }
+    }
+    return "unknown";
+  }
+
+  /**
+   * @return the number of rows, entries or characters in the result, or -1 if it has no size
+   */
+  private static long getSize(Object result) {
+    if (result instanceof UserTable) {
+      return ((UserTable) result).getNumberOfRows();
+    } else if (result instanceof BaseTable) {
+      return ((BaseTable) result).getNumberOfRows();
+    } else if (result instanceof Collection) {
+      return ((Collection<?>) result).size();
+    } else if (result instanceof Map) {
+      return ((Map<?, ?>) result).size();
+    } else if (result instanceof String) {
+      return ((String) result).length();
+    } else if (result != null && result.getClass().isArray()) {
+      return Array.getLength(result);
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.application.Tables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Shares database handles between the many small operations of the app. Opening and closing a
+ * handle are each a call into the database service, and setting up a screen used to do that a
+ * few dozen times.
+ * <p>
+ * Use {@link #openDatabase} and {@link #closeDatabase} in place of the ones on the
+ * {@link UserDbInterface}, in the same try/finally. Calls on the same thread for the same app get
+ * the same handle, which is only closed when the last of them closes it. An activity or a
+ * background job that makes many calls holds a scope with {@link #beginScope} for as long as it
+ * runs, and the handle stays open between the calls until it ends the scope.
+ * <p>
+ * Handles are only shared on one thread, so a background job never uses the handle the UI thread
+ * is using. A handle opened on the UI thread and not closed before the UI thread goes back to its
+ * message loop is reported as leaked, and so is any handle still open when its scope ends. A
+ * handle held for longer than {@link #LONG_HELD_MILLIS} is reported when it is closed. How many
+ * handles were opened, reused and leaked is counted in {@link PerfMetrics}. The reports only name
+ * the method that opened the handle while the {@link DbAccessMonitor} is enabled.
+ */
+public final class DbSessionManager {
+
+  private static final String TAG = DbSessionManager.class.getSimpleName();
+
+  /**
+   * An operation holding a handle for longer than this is logged
+   */
+  public static final long LONG_HELD_MILLIS = 5000;
+
+  /**
+   * The handles opened on the database service
+   */
+  public static final String OPENED = "db.handles.opened";
+  /**
+   * The handles shared with an operation instead of opening another one
+   */
+  public static final String REUSED = "db.handles.reused";
+  /**
+   * The handles that weren't closed by the operation that opened them
+   */
+  public static final String LEAKED = "db.handles.leaked";
+
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // the open sessions, by app name and thread, guarded by itself
+  private static final Map<String, Session> sessions = new HashMap<>();
+  // the handles closed on behalf of operations reported as leaked, so that closing them again
+  // later is ignored, guarded by sessions
+  private static final Set<DbHandle> leakedHandles = Collections
+      .newSetFromMap(new WeakHashMap<DbHandle, Boolean>());
+
+  /**
+   * A handle shared by the operations of one thread for one app
+   */
+  private static final class Session {
+    final String appName;
+    final String key;
+    // null until an operation needs it
+    DbHandle handle;
+    // the connection to the database service the handle was opened on
+    UserDbInterface dbInterface;
+    // the activities and jobs keeping the handle open
+    final List<String> scopes = new ArrayList<>();
+    // the operations using the handle now, innermost last
+    final List<Operation> operations = new ArrayList<>();
+
+    Session(String appName, String key) {
+      this.appName = appName;
+      this.key = key;
+    }
+  }
+
+  /**
+   * An operation that opened a handle and hasn't closed it yet
+   */
+  private static final class Operation {
+    // the method that opened it, for the reports, or null if it wasn't looked up
+    final String caller;
+    final long opened = SystemClock.elapsedRealtime();
+
+    Operation(String caller) {
+      this.caller = caller;
+    }
+  }
+
+  /**
+   * Do not instantiate this class
+   */
+  private DbSessionManager() {
+  }
+
+  /**
+   * Keeps the handle of the current thread open between operations until {@link #endScope} is
+   * called with the same owner on the same thread. The handle is only opened when an operation
+   * needs it.
+   *
+   * @param appName the app name
+   * @param owner   the activity or job, for the reports
+   */
+  public static void beginScope(String appName, String owner) {
+    synchronized (sessions) {
+      getSession(appName, true).scopes.add(owner);
+    }
+  }
+
+  /**
+   * Ends a scope started with {@link #beginScope}, closing the handle if nothing else holds it
+   *
+   * @param appName the app name
+   * @param owner   the activity or job that started the scope
+   */
+  public static void endScope(String appName, String owner) {
+    DbHandle toClose = null;
+    synchronized (sessions) {
+      Session session = getSession(appName, false);
+      if (session == null || !session.scopes.remove(owner)) {
+        return;
+      }
+      boolean leaked = session.scopes.isEmpty() && !session.operations.isEmpty();
+      if (leaked) {
+        // the operations of a scope have finished when it ends
+        for (Operation operation : session.operations) {
+          reportLeak(session, operation);
+        }
+        session.operations.clear();
+      }
+      if (session.scopes.isEmpty()) {
+        sessions.remove(session.key);
+        toClose = session.handle;
+        if (toClose != null && leaked) {
+          leakedHandles.add(toClose);
+        }
+      }
+    }
+    close(appName, toClose);
+  }
+
+  /**
+   * Gets a handle for an operation, the one the current thread already has open for the app if
+   * there is one. Every call must be matched by a {@link #closeDatabase}.
+   *
+   * @param appName the app name
+   * @return the handle
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  public static DbHandle openDatabase(String appName) throws ServicesAvailabilityException {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    final Operation operation = new Operation(DbAccessMonitor.isEnabled() ? getCaller() : null);
+    DbHandle handle = getOpenHandle(appName, dbInterface, operation);
+    if (handle == null) {
+      // opening is a call into the database service, the other threads' sessions don't wait
+      DbHandle opened;
+      try {
+        opened = dbInterface.openDatabase(appName);
+      } catch (ServicesAvailabilityException e) {
+        synchronized (sessions) {
+          Session session = getSession(appName, false);
+          if (session != null && session.scopes.isEmpty() && session.operations.isEmpty()) {
+            sessions.remove(session.key);
+          }
+        }
+        throw e;
+      }
+      handle = installHandle(appName, dbInterface, opened, operation);
+      if (handle != opened) {
+        // the session got a handle while this one was being opened
+        close(appName, opened);
+      }
+    }
+    if (Looper.myLooper() == Looper.getMainLooper()) {
+      final Session session;
+      synchronized (sessions) {
+        session = getSession(appName, false);
+      }
+      // everything the UI thread opens is closed before it handles the next message
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (sessions) {
+            if (session != null && session.operations.remove(operation)) {
+              reportLeak(session, operation);
+              if (closeIfUnused(session)) {
+                leakedHandles.add(session.handle);
+              }
+            }
+          }
+        }
+      });
+    }
+    return handle;
+  }
+
+  /**
+   * Adds an operation to the session of the current thread if it already has a handle open on
+   * dbInterface
+   *
+   * @return the handle, or null if one has to be opened
+   */
+  private static DbHandle getOpenHandle(String appName, UserDbInterface dbInterface,
+      Operation operation) {
+    synchronized (sessions) {
+      Session session = getSession(appName, true);
+      if (session.dbInterface != dbInterface) {
+        // services was reconnected, the old handle went with the old connection
+        session.handle = null;
+        session.dbInterface = null;
+        session.operations.clear();
+      }
+      if (session.handle == null) {
+        return null;
+      }
+      PerfMetrics.increment(REUSED, 1);
+      session.operations.add(operation);
+      return session.handle;
+    }
+  }
+
+  /**
+   * Makes a newly opened handle the one of the current thread's session and adds an operation to
+   * it, unless the session already has a handle on dbInterface
+   *
+   * @return the handle of the session, opened if it is a different one
+   */
+  private static DbHandle installHandle(String appName, UserDbInterface dbInterface,
+      DbHandle opened, Operation operation) {
+    synchronized (sessions) {
+      Session session = getSession(appName, true);
+      if (session.handle != null && session.dbInterface == dbInterface) {
+        PerfMetrics.increment(REUSED, 1);
+      } else {
+        if (session.dbInterface != dbInterface) {
+          session.operations.clear();
+        }
+        session.handle = opened;
+        session.dbInterface = dbInterface;
+        PerfMetrics.increment(OPENED, 1);
+      }
+      session.operations.add(operation);
+      return session.handle;
+    }
+  }
+
+  /**
+   * Ends an operation started with {@link #openDatabase}, closing the handle if nothing else on
+   * this thread holds it. A handle that didn't come from openDatabase is closed straight away.
+   *
+   * @param appName the app name
+   * @param db      the handle openDatabase returned
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  public static void closeDatabase(String appName, DbHandle db)
+      throws ServicesAvailabilityException {
+    Session session;
+    synchronized (sessions) {
+      if (leakedHandles.contains(db)) {
+        // closed when its operation was reported as leaked
+        return;
+      }
+      session = getSession(appName, false);
+      if (session != null && session.handle == db) {
+        if (session.operations.isEmpty()) {
+          // it was already reported as leaked
+          return;
+        }
+        Operation operation = session.operations.remove(session.operations.size() - 1);
+        long held = SystemClock.elapsedRealtime() - operation.opened;
+        if (held > LONG_HELD_MILLIS) {
+          WebLogger.getLogger(appName)
+              .w(TAG, "database handle held for " + held + " ms by " + getName(operation));
+        }
+        if (!session.scopes.isEmpty() || !session.operations.isEmpty()) {
+          return;
+        }
+        sessions.remove(session.key);
+      }
+    }
+    Tables.getInstance().getDatabase().closeDatabase(appName, db);
+  }
+
+  /**
+   * Forgets every handle, for when the database service goes away and takes them with it. The
+   * scopes stay, and open a new handle when it is next needed.
+   */
+  public static void databaseUnavailable() {
+    synchronized (sessions) {
+      Iterator<Session> iterator = sessions.values().iterator();
+      while (iterator.hasNext()) {
+        Session session = iterator.next();
+        session.handle = null;
+        session.dbInterface = null;
+        session.operations.clear();
+        if (session.scopes.isEmpty()) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Must be called while holding the sessions lock
+   */
+  private static Session getSession(String appName, boolean create) {
+    String key = appName + '\n' + Thread.currentThread().getId();
+    Session session = sessions.get(key);
+    if (session == null && create) {
+      session = new Session(appName, key);
+      sessions.put(key, session);
+    }
+    return session;
+  }
+
+  /**
+   * Closes the handle of a session nothing holds any more, must be called while holding the
+   * sessions lock
+   *
+   * @return whether the handle was closed
+   */
+  private static boolean closeIfUnused(Session session) {
+    if (!session.scopes.isEmpty() || !session.operations.isEmpty()
+        || sessions.get(session.key) != session) {
+      return false;
+    }
+    sessions.remove(session.key);
+    close(session.appName, session.handle);
+    return session.handle != null;
+  }
+
+  private static void close(String appName, DbHandle handle) {
+    if (handle == null) {
+      return;
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    if (dbInterface == null) {
+      return;
+    }
+    try {
+      dbInterface.closeDatabase(appName, handle);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).e(TAG, "error while closing database");
+      WebLogger.getLogger(appName).printStackTrace(e);
+    }
+  }
+
+  private static void reportLeak(Session session, Operation operation) {
+    PerfMetrics.increment(LEAKED, 1);
+    WebLogger.getLogger(session.appName)
+        .e(TAG, "database handle opened by " + getName(operation) + " was never closed");
+  }
+
+  private static String getName(Operation operation) {
+    return operation.caller != null ? operation.caller : "an operation";
+  }
+
+  /**
+   * @return the method that called openDatabase
+   */
+  private static String getCaller() {
+    StackTraceElement[] stack = new Throwable().getStackTrace();
+    // 0 is getCaller, 1 is openDatabase
+    return stack.length > 2 ? stack[2].toString() : "unknown";
+  }
+}
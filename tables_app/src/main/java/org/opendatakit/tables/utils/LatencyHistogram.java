@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock free histogram of durations in nanoseconds, in the style of HdrHistogram.
+ * Each power of two is split into {@link #SUB_BUCKETS} linear buckets, so every recorded value
+ * lands in a bucket no more than 12.5% wider than the value itself, from one nanosecond up to
+ * hundreds of years. Recording is a handful of atomic increments and never allocates.
+ */
+public final class LatencyHistogram {
+
+  // linear buckets per power of two, must be a power of two
+  private static final int SUB_BUCKETS = 8;
+  private static final int SUB_BUCKET_BITS = 3;
+  // enough buckets for any positive long
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one duration
+   *
+   * @param nanos the duration, negative values are counted as zero
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax;
+    while ((currentMax = max.get()) < value) {
+      if (max.compareAndSet(currentMax, value)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the number of durations recorded
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the mean of the recorded durations in nanoseconds, or 0 if there are none
+   */
+  public long getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  /**
+   * @return the longest recorded duration in nanoseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * The duration that the given fraction of recorded durations were no longer than, to within
+   * the width of a bucket
+   *
+   * @param fraction between 0 and 1, 0.99 for the 99th percentile
+   * @return the upper end of the bucket holding that percentile, never more than the maximum
+   */
+  public long getPercentile(double fraction) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(fraction * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(max.get(), upperBoundOf(i));
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets every recorded duration. Durations recorded while this runs may be partly kept.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int msb = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    long lower = (long) (SUB_BUCKETS + sub) << (msb - SUB_BUCKET_BITS);
+    long width = 1L << (msb - SUB_BUCKET_BITS);
+    long upper = lower + width - 1;
+    // the top bucket runs past Long.MAX_VALUE
+    return upper < lower ? Long.MAX_VALUE : upper;
+  }
+}
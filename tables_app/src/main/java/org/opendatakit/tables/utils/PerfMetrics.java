@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.utilities.ODKFileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process wide registry of named counters and latency histograms, for measuring Tables in the
+ * field. Recording is off by default; while it's off a timer costs one volatile read and
+ * nothing is stored.
+ * <p>
+ * Typical use:
+ * <pre>
+ * long timer = PerfMetrics.startTimer();
+ * try {
+ *   ...
+ * } finally {
+ *   PerfMetrics.stopTimer(PerfMetrics.GET_USER_TABLE, timer);
+ * }
+ * </pre>
+ * The current values can be seen on PerfMetricsActivity, and while recording is on they are
+ * also appended to output/metrics/tables_metrics.txt in the app folder every minute.
+ */
+public final class PerfMetrics {
+
+  private static final String TAG = PerfMetrics.class.getSimpleName();
+
+  /**
+   * TableDisplayActivity.getUserTable querying the database
+   */
+  public static final String GET_USER_TABLE = "getUserTable";
+  /**
+   * TabularView.onDraw
+   */
+  public static final String TABULAR_VIEW_DRAW = "TabularView.onDraw";
+  /**
+   * TableDataExecutorProcessor.extendQueryMetadata, the color rules for a web view query
+   */
+  public static final String EXTEND_QUERY_METADATA = "extendQueryMetadata";
+  /**
+   * TableMapInnerFragment.setMarkers
+   */
+  public static final String SET_MARKERS = "setMarkers";
+  /**
+   * ImportTask, the whole import
+   */
+  public static final String IMPORT = "ImportTask";
+  /**
+   * ExportTask, the whole export
+   */
+  public static final String EXPORT = "ExportTask";
+  /**
+   * Prefix of the calls across the bridges to javascript: odkTables, and the data bridge's
+   * signalResponseAvailable and getResponseJSON
+   */
+  public static final String JS_BRIDGE = "js.";
+  /**
+   * Rows written by ExportTask
+   */
+  public static final String EXPORT_ROWS = "ExportTask.rows";
+  /**
+   * ImportTask runs that succeeded
+   */
+  public static final String IMPORT_SUCCEEDED = "ImportTask.succeeded";
+  /**
+   * Responses to requests a page cancelled, answered with an error in place of their data
+   */
+  public static final String CANCELLED_RESPONSES = "responses.cancelled";
+  /**
+   * Re-encoding responses for pages that asked for the compact encoding
+   */
+  public static final String COMPACT_RESPONSES = "responses.compact";
+
+  // how often the values are appended to the metrics file while recording
+  private static final long DUMP_PERIOD_SECONDS = 60;
+
+  private static volatile boolean enabled = false;
+  private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<>();
+  private static final ScheduledExecutorService dumper = Executors
+      .newSingleThreadScheduledExecutor();
+  // the scheduled dump, guarded by the class
+  private static ScheduledFuture<?> scheduledDump = null;
+
+  /**
+   * Do not instantiate this class
+   */
+  private PerfMetrics() {
+  }
+
+  /**
+   * @return whether metrics are being recorded
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Turns recording on or off, and with it the periodic dump to the app's output folder
+   *
+   * @param appName the app whose output folder the dump goes in
+   * @param enable  whether to record
+   */
+  public static synchronized void setEnabled(final String appName, boolean enable) {
+    enabled = enable;
+    if (scheduledDump != null) {
+      scheduledDump.cancel(false);
+      scheduledDump = null;
+    }
+    if (enable) {
+      scheduledDump = dumper.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          writeDump(appName);
+        }
+      }, DUMP_PERIOD_SECONDS, DUMP_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Starts timing something
+   *
+   * @return a token to pass to stopTimer, 0 if recording is off
+   */
+  public static long startTimer() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records the time since startTimer in the named histogram
+   *
+   * @param name  the name of the histogram
+   * @param start the token from startTimer
+   */
+  public static void stopTimer(String name, long start) {
+    if (start != 0 && enabled) {
+      histogram(name).record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Adds to the named counter
+   *
+   * @param name  the name of the counter
+   * @param delta how much to add
+   */
+  public static void increment(String name, long delta) {
+    if (enabled) {
+      counter(name).addAndGet(delta);
+    }
+  }
+
+  /**
+   * The named histogram, created if it doesn't exist yet
+   *
+   * @param name the name of the histogram
+   * @return the histogram
+   */
+  public static LatencyHistogram histogram(String name) {
+    LatencyHistogram histogram = histograms.get(name);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = histograms.putIfAbsent(name, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * The named counter, created if it doesn't exist yet
+   */
+  private static AtomicLong counter(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(name, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Zeroes every counter and histogram
+   */
+  public static void reset() {
+    for (AtomicLong counter : counters.values()) {
+      counter.set(0);
+    }
+    for (LatencyHistogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Describes every counter and histogram, one per line, sorted by name. Histograms show the
+   * count, mean, median, 90th and 99th percentiles and the maximum in milliseconds.
+   *
+   * @return the description
+   */
+  public static String dump() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, AtomicLong> counter : new TreeMap<>(counters).entrySet()) {
+      sb.append(counter.getKey()).append(": ").append(counter.getValue().get()).append('\n');
+    }
+    for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      sb.append(entry.getKey()).append(": n=").append(histogram.getCount()).append(" mean=")
+          .append(millis(histogram.getMean())).append(" p50=")
+          .append(millis(histogram.getPercentile(0.5))).append(" p90=")
+          .append(millis(histogram.getPercentile(0.9))).append(" p99=")
+          .append(millis(histogram.getPercentile(0.99))).append(" max=")
+          .append(millis(histogram.getMax())).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The file the periodic dump is appended to
+   *
+   * @param appName the app name
+   * @return output/metrics/tables_metrics.txt in the app folder
+   */
+  public static File getDumpFile(String appName) {
+    File outputFolder = new File(ODKFileUtils.getOutputCsvFolder(appName)).getParentFile();
+    return new File(new File(outputFolder, "metrics"), "tables_metrics.txt");
+  }
+
+  /**
+   * Appends the current values to the dump file, headed by the time
+   *
+   * @param appName the app name
+   * @return whether the file was written
+   */
+  public static boolean writeDump(String appName) {
+    File file = getDumpFile(appName);
+    File parent = file.getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      WebLogger.getLogger(appName).e(TAG, "Unable to create " + parent.getPath());
+      return false;
+    }
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+      writer.write("# " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US)
+          .format(new Date()) + "\n");
+      writer.write(dump());
+      return true;
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to write " + file.getPath());
+      return false;
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.US, "%.3fms", nanos / 1e6);
+  }
+}
@@ -81,11 +81,11 @@ public final class PreferenceUtil {
     Integer result = null;
     DbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
+      db = DbSessionManager.openDatabase(appName);
       result = ColumnUtil.get().getColumnWidth(Tables.getInstance().getDatabase(), appName, db, tableId, elementKey);
     } finally {
       if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
+        DbSessionManager.closeDatabase(appName, db);
       }
     }
     return result;
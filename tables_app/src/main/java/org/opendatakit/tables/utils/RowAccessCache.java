@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.application.Tables;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The effective access of rows (the _effective_access column services adds to every row, "r",
+ * "rw", "rwd" and so on), kept per app, table, row and user so that a detail view can decide
+ * whether to offer editing without querying the row on the UI thread.
+ * <p>
+ * Entries come from the rows a table display has already loaded, see {@link #remember}, and
+ * otherwise from a query on just the row's access columns. The user's name and roles are part of
+ * every entry, so switching users or roles never reuses another user's access. Everything of an
+ * app, or of a table, is dropped with {@link #invalidate} after a sync or an edit.
+ */
+public final class RowAccessCache {
+
+  private static final String TAG = RowAccessCache.class.getSimpleName();
+
+  // the most rows remembered, least recently used ones are dropped first
+  private static final int MAX_ROWS = 10000;
+
+  /**
+   * Told on the UI thread when the access of a row is known
+   */
+  public interface Callback {
+    /**
+     * @param effectiveAccess the effective access of the row, or null if it couldn't be read
+     */
+    void onAccessLoaded(String effectiveAccess);
+  }
+
+  // lookups and background passes run one at a time, in the order they were asked for
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // the effective access of each row, by key, least recently used first
+  private static final LinkedHashMap<Key, String> cache = new LinkedHashMap<Key, String>(256,
+      0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+      return size() > MAX_ROWS;
+    }
+  };
+  // bumped by every invalidate so that rows read before it aren't put in the cache after it
+  private static final AtomicInteger generation = new AtomicInteger();
+
+  /**
+   * Do not instantiate this class
+   */
+  private RowAccessCache() {
+  }
+
+  /**
+   * Forgets the access of rows, after a sync or anything else that may have changed who can do
+   * what to them
+   *
+   * @param appName the app name
+   * @param tableId the table whose rows may have changed, or null if any table may have changed
+   */
+  public static void invalidate(String appName, String tableId) {
+    synchronized (cache) {
+      generation.incrementAndGet();
+      Iterator<Key> keys = cache.keySet().iterator();
+      while (keys.hasNext()) {
+        Key key = keys.next();
+        if (key.appName.equals(appName) && (tableId == null || key.tableId.equals(tableId))) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Remembers the access of the rows a table display loaded anyway, in the background, so that a
+   * detail view opened from it finds its row in the cache
+   *
+   * @param appName   the app name
+   * @param tableId   the table the rows are from
+   * @param userTable the rows
+   */
+  public static void remember(final String appName, final String tableId,
+      final UserTable userTable) {
+    if (userTable == null) {
+      return;
+    }
+    final int started = generation.get();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (Tables.getInstance().getDatabase() == null) {
+            return;
+          }
+          String user = getUser(appName);
+          synchronized (cache) {
+            if (started != generation.get()) {
+              // the rows were loaded before something changed
+              return;
+            }
+            for (int i = 0; i < userTable.getNumberOfRows(); i++) {
+              Row row = userTable.getRowAtIndex(i);
+              String access = row.getDataByKey(DataTableColumns.EFFECTIVE_ACCESS);
+              if (access != null) {
+                cache.put(new Key(appName, tableId, row.getDataByKey(DataTableColumns.ID), user),
+                    access);
+              }
+            }
+          }
+        } catch (ServicesAvailabilityException e) {
+          // the detail view reads its row itself then
+          WebLogger.getLogger(appName).printStackTrace(e);
+        } catch (RuntimeException e) {
+          // the rows don't have the access column
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Looks up the access of a row in the background, reading it if it isn't cached, and hands it
+   * to the callback on the UI thread
+   *
+   * @param appName  the app name
+   * @param tableId  the table the row is in
+   * @param rowId    the row's id
+   * @param callback told the row's access
+   */
+  public static void load(final String appName, final String tableId, final String rowId,
+      final Callback callback) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final String access = getAccess(appName, tableId, rowId);
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            callback.onAccessLoaded(access);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * @return the access of the row, from the cache or read from the database, or null if it
+   * couldn't be read
+   */
+  private static String getAccess(String appName, String tableId, String rowId) {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    if (dbInterface == null || tableId == null || rowId == null) {
+      return null;
+    }
+    int started = generation.get();
+    DbHandle db = null;
+    try {
+      Key key = new Key(appName, tableId, rowId, getUser(appName));
+      synchronized (cache) {
+        String access = cache.get(key);
+        if (access != null) {
+          return access;
+        }
+      }
+      db = DbSessionManager.openDatabase(appName);
+      // services works out _effective_access from these, the rest of the row isn't needed
+      // we know it's safe to dump the table id in there because we got it from the activity
+      BaseTable result = dbInterface.arbitrarySqlQuery(appName, db, tableId,
+          "SELECT " + DataTableColumns.ID + ", " + DataTableColumns.ROW_OWNER + ", "
+              + DataTableColumns.DEFAULT_ACCESS + ", " + DataTableColumns.GROUP_READ_ONLY + ", "
+              + DataTableColumns.GROUP_MODIFY + ", " + DataTableColumns.GROUP_PRIVILEGED + ", "
+              + DataTableColumns.SYNC_STATE + ", " + DataTableColumns.SAVEPOINT_TYPE + " FROM "
+              + tableId + " WHERE " + DataTableColumns.ID + " = ?",
+          new BindArgs(new String[] { rowId }), 1, 0);
+      if (result.getNumberOfRows() == 0) {
+        return null;
+      }
+      String access = result.getRowAtIndex(0).getDataByKey(DataTableColumns.EFFECTIVE_ACCESS);
+      if (access != null) {
+        synchronized (cache) {
+          if (started == generation.get()) {
+            cache.put(key, access);
+          }
+        }
+      }
+      return access;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).e(TAG, "error while reading the access of a row");
+      WebLogger.getLogger(appName).printStackTrace(e);
+      return null;
+    } catch (RuntimeException e) {
+      // the row or the column isn't there
+      WebLogger.getLogger(appName).printStackTrace(e);
+      return null;
+    } finally {
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).e(TAG, "error while closing database");
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the active user and their roles, which together decide the access to a row
+   */
+  private static String getUser(String appName) throws ServicesAvailabilityException {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    return dbInterface.getActiveUser(appName) + "\n" + dbInterface.getRolesList(appName);
+  }
+
+  /**
+   * A row as seen by a user
+   */
+  private static final class Key {
+    final String appName;
+    final String tableId;
+    final String rowId;
+    final String user;
+
+    Key(String appName, String tableId, String rowId, String user) {
+      this.appName = appName;
+      this.tableId = tableId;
+      this.rowId = rowId;
+      this.user = user;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = appName.hashCode();
+      result = 31 * result + tableId.hashCode();
+      result = 31 * result + (rowId == null ? 0 : rowId.hashCode());
+      result = 31 * result + (user == null ? 0 : user.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      Key other = (Key) obj;
+      return appName.equals(other.appName) && tableId.equals(other.tableId) && (rowId == null ?
+          other.rowId == null :
+          rowId.equals(other.rowId)) && (user == null ? other.user == null :
+          user.equals(other.user));
+    }
+  }
+}
@@ -375,7 +375,7 @@ public final class SurveyUtil {
       String formId;
       DbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
+        db = DbSessionManager.openDatabase(appName);
         List<KeyValueStoreEntry> kvsList = Tables.getInstance().getDatabase().getTableMetadata(appName, db, tableId,
             LocalKeyValueStoreConstants.DefaultSurveyForm.PARTITION,
             LocalKeyValueStoreConstants.DefaultSurveyForm.ASPECT,
@@ -387,7 +387,7 @@ public final class SurveyUtil {
         }
       } finally {
         if (db != null) {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
+          DbSessionManager.closeDatabase(appName, db);
         }
       }
       if (formId == null) {
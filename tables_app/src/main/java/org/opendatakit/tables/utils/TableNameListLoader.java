@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
+import org.opendatakit.data.utilities.TableUtil;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.application.StartupTrace;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.utilities.LocalizationUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the list of tables, their localized display names and their stats off the UI thread and
+ * keeps the last list for each app, so the table list can be drawn straight away and only redrawn
+ * when a table was added or removed, a display name changed or the stats of a table changed.
+ * <p>
+ * A load costs at most three calls into the database service however many tables there are: one
+ * for the table ids, one for the raw display names of every table and one for the stats of the
+ * tables that changed, see {@link TableStatsCache}.
+ */
+public final class TableNameListLoader {
+
+  private static final String TAG = TableNameListLoader.class.getSimpleName();
+
+  /**
+   * Told on the UI thread when a load finishes
+   */
+  public interface Callback {
+    /**
+     * @param tableNameStructs the tables, in the order the database service returned them
+     * @param changed          false if the list is the same as the cached one
+     */
+    void onTableListLoaded(List<TableNameStruct> tableNameStructs, boolean changed);
+  }
+
+  // loads run one at a time, in the order they were asked for
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // the last list and what it was built from, by app name
+  private static final Map<String, Snapshot> cache = new HashMap<>();
+  // the last load each caller asked for, so a result the same caller overtook is dropped. Weak,
+  // so callers that are gone are forgotten. Guarded by itself
+  private static final Map<Object, Integer> latestLoads = new WeakHashMap<>();
+  // numbers the load requests
+  private static int loadCount = 0;
+
+  /**
+   * Do not instantiate this class
+   */
+  private TableNameListLoader() {
+  }
+
+  /**
+   * The list from the last load for this app
+   *
+   * @param appName the app name
+   * @return the cached list, or null if the tables haven't been loaded yet
+   */
+  public static List<TableNameStruct> getCached(String appName) {
+    synchronized (cache) {
+      Snapshot snapshot = cache.get(appName);
+      return snapshot == null ? null : snapshot.tableNameStructs;
+    }
+  }
+
+  /**
+   * Forgets the cached list, for when the app knows the tables changed
+   *
+   * @param appName the app name
+   */
+  public static void invalidate(String appName) {
+    synchronized (cache) {
+      cache.remove(appName);
+    }
+  }
+
+  /**
+   * Loads the tables in the background and hands them to the callback on the UI thread. If the
+   * same caller asks for a later load before this one finishes, the callback isn't called; loads
+   * asked for by other callers don't affect it.
+   *
+   * @param appName  the app name
+   * @param locale   the user selected default locale used to localize display names
+   * @param caller   who is asking, usually the fragment showing the list
+   * @param callback told when the list is ready
+   */
+  public static void load(final String appName, final String locale, final Object caller,
+      final Callback callback) {
+    final int requested;
+    synchronized (latestLoads) {
+      requested = ++loadCount;
+      latestLoads.put(caller, requested);
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Snapshot previous;
+        synchronized (cache) {
+          previous = cache.get(appName);
+        }
+        Snapshot loaded = loadSnapshot(appName, locale, previous);
+        final boolean changed = previous == null || loaded != previous;
+        final List<TableNameStruct> result;
+        if (loaded == null) {
+          synchronized (cache) {
+            cache.remove(appName);
+          }
+          result = Collections.emptyList();
+        } else {
+          synchronized (cache) {
+            cache.put(appName, loaded);
+          }
+          result = loaded.tableNameStructs;
+        }
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (isLatestLoad(caller, requested)) {
+              callback.onTableListLoaded(result, changed);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * @param caller    who asked for the load
+   * @param requested the number of the load
+   * @return whether it's the last load the caller asked for
+   */
+  private static boolean isLatestLoad(Object caller, int requested) {
+    synchronized (latestLoads) {
+      Integer latest = latestLoads.get(caller);
+      return latest != null && latest == requested;
+    }
+  }
+
+  /**
+   * Starts loading the tables in the background so that the next {@link #load} finds them in
+   * the cache. Used while the app starts, before the table list exists.
+   *
+   * @param appName the app name
+   * @param locale  the user selected default locale used to localize display names
+   */
+  public static void prefetch(final String appName, final String locale) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Snapshot previous;
+        synchronized (cache) {
+          previous = cache.get(appName);
+        }
+        Snapshot loaded = loadSnapshot(appName, locale, previous);
+        if (loaded != null) {
+          synchronized (cache) {
+            cache.put(appName, loaded);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads the table ids, raw display names and stats, and only localizes display names again if
+   * they differ from the previous snapshot
+   *
+   * @return the new snapshot, previous if nothing changed, or null if the database is unavailable
+   */
+  private static Snapshot loadSnapshot(String appName, String locale, Snapshot previous) {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    if (dbInterface == null) {
+      return null;
+    }
+    DbHandle db = null;
+    StartupTrace.begin(StartupTrace.TABLE_LIST_LOAD);
+    try {
+      db = DbSessionManager.openDatabase(appName);
+      List<String> tableIds = dbInterface.getAllTableIds(appName, db);
+      // a null table id reads the display names of every table in one call
+      List<KeyValueStoreEntry> entries = dbInterface
+          .getTableMetadata(appName, db, null, KeyValueStoreConstants.PARTITION_TABLE,
+              KeyValueStoreConstants.ASPECT_DEFAULT, KeyValueStoreConstants.TABLE_DISPLAY_NAME,
+              null).getEntries();
+      Map<String, String> rawDisplayNames = new HashMap<>();
+      for (KeyValueStoreEntry entry : entries) {
+        rawDisplayNames.put(entry.tableId, entry.value);
+      }
+      for (String tableId : tableIds) {
+        if (!rawDisplayNames.containsKey(tableId)) {
+          rawDisplayNames
+              .put(tableId, TableUtil.get().getRawDisplayName(dbInterface, appName, db, tableId));
+        }
+      }
+
+      Map<String, TableStatsCache.Stats> stats = TableStatsCache
+          .getStats(dbInterface, appName, db, tableIds);
+
+      if (previous != null && previous.matches(tableIds, rawDisplayNames, locale, stats)) {
+        return previous;
+      }
+      List<TableNameStruct> tableNameStructs = new ArrayList<>(tableIds.size());
+      for (String tableId : tableIds) {
+        String localizedDisplayName;
+        if (previous != null && previous.rawDisplayNames.containsKey(tableId) && previous
+            .matches(rawDisplayNames.get(tableId), tableId, locale)) {
+          // only the stats changed
+          localizedDisplayName = previous.localizedDisplayNames.get(tableId);
+        } else {
+          localizedDisplayName = LocalizationUtils
+              .getLocalizedDisplayName(appName, tableId, locale, rawDisplayNames.get(tableId));
+        }
+        tableNameStructs
+            .add(new TableNameStruct(tableId, localizedDisplayName, stats.get(tableId)));
+      }
+      WebLogger.getLogger(appName).i(TAG, "got tableId list of size: " + tableIds.size());
+      return new Snapshot(tableIds, rawDisplayNames, locale, stats,
+          Collections.unmodifiableList(tableNameStructs));
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).e(TAG, "error while fetching tableId list");
+      WebLogger.getLogger(appName).printStackTrace(e);
+      return null;
+    } finally {
+      StartupTrace.end(StartupTrace.TABLE_LIST_LOAD);
+      if (db != null) {
+        try {
+          DbSessionManager.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).e(TAG, "error while closing database");
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * A loaded list and the inputs it was built from
+   */
+  private static final class Snapshot {
+    final List<String> tableIds;
+    final Map<String, String> rawDisplayNames;
+    final String locale;
+    final Map<String, TableStatsCache.Stats> stats;
+    final List<TableNameStruct> tableNameStructs;
+    final Map<String, String> localizedDisplayNames = new HashMap<>();
+
+    Snapshot(List<String> tableIds, Map<String, String> rawDisplayNames, String locale,
+        Map<String, TableStatsCache.Stats> stats, List<TableNameStruct> tableNameStructs) {
+      this.tableIds = tableIds;
+      this.rawDisplayNames = rawDisplayNames;
+      this.locale = locale;
+      this.stats = stats;
+      this.tableNameStructs = tableNameStructs;
+      for (TableNameStruct tableNameStruct : tableNameStructs) {
+        localizedDisplayNames
+            .put(tableNameStruct.getTableId(), tableNameStruct.getLocalizedDisplayName());
+      }
+    }
+
+    boolean matches(List<String> tableIds, Map<String, String> rawDisplayNames, String locale,
+        Map<String, TableStatsCache.Stats> stats) {
+      return this.tableIds.equals(tableIds) && this.rawDisplayNames.equals(rawDisplayNames)
+          && sameLocale(locale) && this.stats.equals(stats);
+    }
+
+    boolean matches(String rawDisplayName, String tableId, String locale) {
+      String previous = rawDisplayNames.get(tableId);
+      return sameLocale(locale) && (previous == null ?
+          rawDisplayName == null :
+          previous.equals(rawDisplayName));
+    }
+
+    private boolean sameLocale(String locale) {
+      return this.locale == null ? locale == null : this.locale.equals(locale);
+    }
+  }
+}
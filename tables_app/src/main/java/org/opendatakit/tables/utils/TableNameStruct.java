@@ -24,6 +24,7 @@ public class TableNameStruct {
 
   private String mTableId;
   private String mLocalizedDisplayName;
+  private TableStatsCache.Stats mStats;
 
   /**
    * Initializes
@@ -32,8 +33,21 @@ public class TableNameStruct {
    * @param localizedDisplayName stored
    */
   public TableNameStruct(String tableId, String localizedDisplayName) {
+    this(tableId, localizedDisplayName, null);
+  }
+
+  /**
+   * Initializes
+   *
+   * @param tableId              stored
+   * @param localizedDisplayName stored
+   * @param stats                stored, may be null if the stats aren't known yet
+   */
+  public TableNameStruct(String tableId, String localizedDisplayName,
+      TableStatsCache.Stats stats) {
     this.mTableId = tableId;
     this.mLocalizedDisplayName = localizedDisplayName;
+    this.mStats = stats;
   }
 
   public String getTableId() {
@@ -44,6 +58,10 @@ public class TableNameStruct {
     return this.mLocalizedDisplayName;
   }
 
+  public TableStatsCache.Stats getStats() {
+    return this.mStats;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -51,6 +69,7 @@ public class TableNameStruct {
     result =
         prime * result + (mLocalizedDisplayName == null ? 0 : mLocalizedDisplayName.hashCode());
     result = prime * result + (mTableId == null ? 0 : mTableId.hashCode());
+    result = prime * result + (mStats == null ? 0 : mStats.hashCode());
     return result;
   }
 
@@ -73,13 +92,18 @@ public class TableNameStruct {
         return false;
     } else if (!mTableId.equals(other.mTableId))
       return false;
+    if (mStats == null) {
+      if (other.mStats != null)
+        return false;
+    } else if (!mStats.equals(other.mStats))
+      return false;
     return true;
   }
 
   @Override
   public String toString() {
     return "TableNameStruct [mTableId=" + mTableId + ", mLocalizedDisplayName="
-        + mLocalizedDisplayName + "]";
+        + mLocalizedDisplayName + ", mStats=" + mStats + "]";
   }
 
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import org.opendatakit.aggregate.odktables.rest.SyncState;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.provider.DataTableColumns;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Row counts, rows waiting to be synced and last modified times for the tables in the table
+ * list.
+ * <p>
+ * Every table has a change marker that is bumped when something may have changed its rows (a
+ * sync, an import, a survey edit). Stats are only read again for tables whose marker moved
+ * since they were last read, and all of those tables are read with a single query.
+ */
+public final class TableStatsCache {
+
+  // SQLite refuses compound selects of more than 500 terms, so stay well below that
+  private static final int TABLES_PER_QUERY = 100;
+
+  private static final String TABLE_ID = "table_id";
+  private static final String ROW_COUNT = "row_count";
+  private static final String PENDING_SYNC = "pending_sync";
+  private static final String LAST_MODIFIED = "last_modified";
+
+  /**
+   * The stats of one table
+   */
+  public static final class Stats {
+    // the number of rows that aren't waiting to be deleted
+    private final int rowCount;
+    // the number of rows that aren't in the synced state
+    private final int pendingSyncCount;
+    // the newest _savepoint_timestamp in the table, or null if it has no rows
+    private final String lastModified;
+
+    Stats(int rowCount, int pendingSyncCount, String lastModified) {
+      this.rowCount = rowCount;
+      this.pendingSyncCount = pendingSyncCount;
+      this.lastModified = lastModified;
+    }
+
+    public int getRowCount() {
+      return rowCount;
+    }
+
+    public int getPendingSyncCount() {
+      return pendingSyncCount;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = rowCount;
+      result = 31 * result + pendingSyncCount;
+      result = 31 * result + (lastModified == null ? 0 : lastModified.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      Stats other = (Stats) obj;
+      return rowCount == other.rowCount && pendingSyncCount == other.pendingSyncCount && (
+          lastModified == null ? other.lastModified == null :
+              lastModified.equals(other.lastModified));
+    }
+
+    @Override
+    public String toString() {
+      return "Stats [rowCount=" + rowCount + ", pendingSyncCount=" + pendingSyncCount
+          + ", lastModified=" + lastModified + "]";
+    }
+  }
+
+  // the current change marker of each table, by app name then table id
+  private static final Map<String, Map<String, Integer>> markers = new HashMap<>();
+  // bumped to invalidate every table of an app at once, by app name
+  private static final Map<String, Integer> appMarkers = new HashMap<>();
+  // the stats read for each table and the marker they were read at, by app name then table id
+  private static final Map<String, Map<String, CachedStats>> cache = new HashMap<>();
+
+  /**
+   * Do not instantiate this class
+   */
+  private TableStatsCache() {
+  }
+
+  /**
+   * Says that the rows of a table may have changed, so its stats are read again on the next
+   * refresh
+   *
+   * @param appName the app name
+   * @param tableId the table that changed, or null if any table may have changed
+   */
+  public static synchronized void markChanged(String appName, String tableId) {
+    if (tableId == null) {
+      Integer marker = appMarkers.get(appName);
+      appMarkers.put(appName, marker == null ? 1 : marker + 1);
+      return;
+    }
+    Map<String, Integer> appTables = markers.get(appName);
+    if (appTables == null) {
+      appTables = new HashMap<>();
+      markers.put(appName, appTables);
+    }
+    Integer marker = appTables.get(tableId);
+    appTables.put(tableId, marker == null ? 1 : marker + 1);
+  }
+
+  /**
+   * Gets the stats of the given tables, reading only the ones that are missing or whose change
+   * marker moved. Must not be called on the UI thread.
+   *
+   * @param dbInterface the database to read from
+   * @param appName     the app name
+   * @param db          an open database handle
+   * @param tableIds    the tables to get stats for
+   * @return the stats of each table, by table id
+   * @throws ServicesAvailabilityException if the database is unavailable
+   */
+  public static Map<String, Stats> getStats(UserDbInterface dbInterface, String appName,
+      DbHandle db, List<String> tableIds) throws ServicesAvailabilityException {
+    Map<String, Stats> stats = new HashMap<>();
+    Map<String, Long> staleMarkers = new HashMap<>();
+    synchronized (TableStatsCache.class) {
+      Map<String, CachedStats> appCache = cache.get(appName);
+      for (String tableId : tableIds) {
+        long marker = currentMarker(appName, tableId);
+        CachedStats cached = appCache == null ? null : appCache.get(tableId);
+        if (cached != null && cached.marker == marker) {
+          stats.put(tableId, cached.stats);
+        } else {
+          staleMarkers.put(tableId, marker);
+        }
+      }
+    }
+    if (staleMarkers.isEmpty()) {
+      return stats;
+    }
+
+    List<String> stale = new ArrayList<>(staleMarkers.keySet());
+    Map<String, Stats> read = new HashMap<>();
+    for (int i = 0; i < stale.size(); i += TABLES_PER_QUERY) {
+      readStats(dbInterface, appName, db,
+          stale.subList(i, Math.min(stale.size(), i + TABLES_PER_QUERY)), read);
+    }
+    synchronized (TableStatsCache.class) {
+      Map<String, CachedStats> appCache = cache.get(appName);
+      if (appCache == null) {
+        appCache = new HashMap<>();
+        cache.put(appName, appCache);
+      }
+      for (Map.Entry<String, Stats> entry : read.entrySet()) {
+        // stamped with the marker from before the read, so a change during the read still
+        // makes the next refresh read the table again
+        appCache.put(entry.getKey(),
+            new CachedStats(staleMarkers.get(entry.getKey()), entry.getValue()));
+      }
+      appCache.keySet().retainAll(tableIds);
+    }
+    stats.putAll(read);
+    return stats;
+  }
+
+  /**
+   * Must be called while holding the class lock
+   */
+  private static long currentMarker(String appName, String tableId) {
+    Integer appMarker = appMarkers.get(appName);
+    Map<String, Integer> appTables = markers.get(appName);
+    Integer marker = appTables == null ? null : appTables.get(tableId);
+    return ((long) (appMarker == null ? 0 : appMarker) << 32) | (marker == null ? 0 : marker);
+  }
+
+  /**
+   * Reads the stats of several tables with one query, a union of one aggregate select per table
+   */
+  private static void readStats(UserDbInterface dbInterface, String appName, DbHandle db,
+      List<String> tableIds, Map<String, Stats> stats) throws ServicesAvailabilityException {
+    StringBuilder sql = new StringBuilder();
+    Object[] args = new Object[tableIds.size() * 3];
+    for (int i = 0; i < tableIds.size(); i++) {
+      if (i != 0) {
+        sql.append(" UNION ALL ");
+      }
+      sql.append("SELECT ? AS ").append(TABLE_ID).append(", SUM(CASE WHEN ")
+          .append(DataTableColumns.SYNC_STATE).append(" != ? THEN 1 ELSE 0 END) AS ")
+          .append(ROW_COUNT).append(", SUM(CASE WHEN ").append(DataTableColumns.SYNC_STATE)
+          .append(" != ? THEN 1 ELSE 0 END) AS ").append(PENDING_SYNC).append(", MAX(")
+          .append(DataTableColumns.SAVEPOINT_TIMESTAMP).append(") AS ").append(LAST_MODIFIED)
+          .append(" FROM \"").append(tableIds.get(i)).append("\"");
+      args[i * 3] = tableIds.get(i);
+      args[i * 3 + 1] = SyncState.deleted.name();
+      args[i * 3 + 2] = SyncState.synced.name();
+    }
+    // the query has to name a table, any of the ones it reads will do
+    BaseTable result = dbInterface
+        .arbitrarySqlQuery(appName, db, tableIds.get(0), sql.toString(), new BindArgs(args),
+            null, null);
+    for (int i = 0; i < result.getNumberOfRows(); i++) {
+      Row row = result.getRowAtIndex(i);
+      stats.put(row.getDataByKey(TABLE_ID),
+          new Stats(parseCount(row.getDataByKey(ROW_COUNT)),
+              parseCount(row.getDataByKey(PENDING_SYNC)), row.getDataByKey(LAST_MODIFIED)));
+    }
+  }
+
+  /**
+   * SUM over an empty table is null
+   */
+  private static int parseCount(String value) {
+    return value == null ? 0 : Integer.parseInt(value);
+  }
+
+  /**
+   * Stats and the change marker they were read at
+   */
+  private static final class CachedStats {
+    final long marker;
+    final Stats stats;
+
+    CachedStats(long marker, Stats stats) {
+      this.marker = marker;
+      this.stats = stats;
+    }
+  }
+}
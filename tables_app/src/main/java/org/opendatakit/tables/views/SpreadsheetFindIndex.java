@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * A prefix index of the text the spreadsheet displays, for finding cells as the user types.
+ * <p>
+ * The rows of each column are kept sorted by their lower cased text, so the cells that start
+ * with what has been typed so far are one run of each column, found with two binary searches
+ * however many rows there are. The text itself isn't kept, the few cells the searches compare
+ * against are fetched again, so the index costs one int per cell.
+ * <p>
+ * Cells are numbered row by row, cell = row * numberOfColumns + column, so the matches come out
+ * in the order the user reads the table.
+ */
+public final class SpreadsheetFindIndex {
+
+  /**
+   * Where the index gets the text of a cell from. It is called from whatever thread builds or
+   * searches the index.
+   */
+  public interface CellText {
+    /**
+     * @param row    the index of the row
+     * @param column the index of the column
+     * @return the text displayed in the cell, may be null
+     */
+    String getText(int row, int column);
+  }
+
+  private final CellText cells;
+  private final int numberOfRows;
+  private final int numberOfColumns;
+  private final Locale locale;
+  // the rows of each column, ordered by their lower cased text
+  private final int[][] sortedRows;
+
+  /**
+   * Builds the index, which fetches the text of every cell once, so don't call it on the ui
+   * thread for a big table
+   *
+   * @param cells           the text of the cells
+   * @param numberOfRows    the number of rows
+   * @param numberOfColumns the number of columns
+   * @param locale          the locale to lower case the text in
+   */
+  public SpreadsheetFindIndex(CellText cells, int numberOfRows, int numberOfColumns,
+      Locale locale) {
+    this.cells = cells;
+    this.numberOfRows = numberOfRows;
+    this.numberOfColumns = numberOfColumns;
+    this.locale = locale;
+    this.sortedRows = new int[numberOfColumns][];
+    // reused for each column, only one column's text is held at a time
+    String[] keys = new String[numberOfRows];
+    int[] scratch = new int[numberOfRows];
+    for (int column = 0; column < numberOfColumns; column++) {
+      int[] rows = new int[numberOfRows];
+      for (int row = 0; row < numberOfRows; row++) {
+        keys[row] = key(row, column);
+        rows[row] = row;
+      }
+      sort(rows, scratch, keys, 0, numberOfRows);
+      sortedRows[column] = rows;
+    }
+  }
+
+  /**
+   * @return the number of rows in the index
+   */
+  public int getNumberOfRows() {
+    return numberOfRows;
+  }
+
+  /**
+   * @return the number of columns in the index
+   */
+  public int getNumberOfColumns() {
+    return numberOfColumns;
+  }
+
+  /**
+   * @param cell a cell found by {@link #find(String)}
+   * @return the row it is in
+   */
+  public int getRow(int cell) {
+    return cell / numberOfColumns;
+  }
+
+  /**
+   * @param cell a cell found by {@link #find(String)}
+   * @return the column it is in
+   */
+  public int getColumn(int cell) {
+    return cell % numberOfColumns;
+  }
+
+  /**
+   * Finds the cells whose text starts with the query, ignoring case
+   *
+   * @param query what the user typed
+   * @return the matching cells, empty if the query is
+   */
+  public Matches find(String query) {
+    BitSet found = new BitSet(numberOfRows * numberOfColumns);
+    int count = 0;
+    if (query == null || query.isEmpty() || numberOfRows == 0) {
+      return new Matches(found, count);
+    }
+    String prefix = query.toLowerCase(locale);
+    for (int column = 0; column < numberOfColumns; column++) {
+      int[] rows = sortedRows[column];
+      int start = firstNotBefore(rows, column, prefix);
+      int end = firstAfterPrefix(rows, column, prefix, start);
+      for (int i = start; i < end; i++) {
+        found.set(rows[i] * numberOfColumns + column);
+      }
+      count += end - start;
+    }
+    return new Matches(found, count);
+  }
+
+  private String key(int row, int column) {
+    String text = cells.getText(row, column);
+    return text == null ? "" : text.toLowerCase(locale);
+  }
+
+  /**
+   * @return the first position in the column whose text isn't ordered before the prefix
+   */
+  private int firstNotBefore(int[] rows, int column, String prefix) {
+    int low = 0;
+    int high = rows.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (key(rows[middle], column).compareTo(prefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the first position from start on whose text doesn't start with the prefix. Every
+   * text that starts with the prefix is ordered right after the prefix itself, so from start on
+   * the ones that do all come before the ones that don't.
+   */
+  private int firstAfterPrefix(int[] rows, int column, String prefix, int start) {
+    int low = start;
+    int high = rows.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (key(rows[middle], column).startsWith(prefix)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * A merge sort of rows[from, to) by their keys. Stable, so rows with the same text stay in
+   * row order.
+   */
+  private static void sort(int[] rows, int[] scratch, String[] keys, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    sort(rows, scratch, keys, from, middle);
+    sort(rows, scratch, keys, middle, to);
+    if (keys[rows[middle - 1]].compareTo(keys[rows[middle]]) <= 0) {
+      // already in order
+      return;
+    }
+    System.arraycopy(rows, from, scratch, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle
+          && keys[scratch[left]].compareTo(keys[scratch[right]]) <= 0)) {
+        rows[i] = scratch[left++];
+      } else {
+        rows[i] = scratch[right++];
+      }
+    }
+  }
+
+  /**
+   * The cells found by one search, walked in reading order
+   */
+  public static final class Matches {
+
+    private final BitSet cells;
+    private final int count;
+
+    private Matches(BitSet cells, int count) {
+      this.cells = cells;
+      this.count = count;
+    }
+
+    /**
+     * @return how many cells matched
+     */
+    public int size() {
+      return count;
+    }
+
+    /**
+     * @param cell a cell
+     * @return whether it matched
+     */
+    public boolean contains(int cell) {
+      return cell >= 0 && cells.get(cell);
+    }
+
+    /**
+     * @param cell a cell, or -1 to start from the top
+     * @return the first match after the cell, wrapping around to the top, or -1 if there are none
+     */
+    public int next(int cell) {
+      int next = cells.nextSetBit(cell + 1);
+      return next >= 0 ? next : cells.nextSetBit(0);
+    }
+
+    /**
+     * @param cell a cell
+     * @return the last match before the cell, wrapping around to the bottom, or -1 if there are
+     * none
+     */
+    public int previous(int cell) {
+      int previous = cell > 0 ? cells.previousSetBit(cell - 1) : -1;
+      return previous >= 0 ? previous : cells.previousSetBit(cells.length() - 1);
+    }
+
+    /**
+     * @param cell a match
+     * @return how many matches come before it
+     */
+    public int indexOf(int cell) {
+      return cell <= 0 ? 0 : cells.get(0, cell).cardinality();
+    }
+  }
+}
@@ -51,6 +51,15 @@ public class SpreadsheetProps implements Parcelable {
   private String sortOrder;
   private String frozen;
   private String[] groupBy;
+  /**
+   * The part of the table that was on screen when the spreadsheet was last paused, so it can be
+   * scrolled back to after a rotation or coming back from another activity. Kept as rows and
+   * columns plus how far into them the screen starts, so it survives a change of screen size.
+   */
+  private int firstVisibleRow = 0;
+  private int firstVisibleRowOffset = 0;
+  private int firstVisibleColumn = 0;
+  private int firstVisibleColumnOffset = 0;
   /**
    * the activity to put the properties into in order to update the parent about changes to the
    * four sql properties
@@ -85,6 +94,10 @@ public class SpreadsheetProps implements Parcelable {
     deleteDialogOpen = bools[2];
     lastDataCellMenued = readCellInfo(in);
     lastHeaderCellMenued = readCellInfo(in);
+    firstVisibleRow = in.readInt();
+    firstVisibleRowOffset = in.readInt();
+    firstVisibleColumn = in.readInt();
+    firstVisibleColumnOffset = in.readInt();
   }
 
   /**
@@ -164,6 +177,10 @@ public class SpreadsheetProps implements Parcelable {
     dest.writeBooleanArray(new boolean[] { dataMenuOpen, headerMenuOpen, deleteDialogOpen });
     writeCellInfo(dest, lastDataCellMenued);
     writeCellInfo(dest, lastHeaderCellMenued);
+    dest.writeInt(firstVisibleRow);
+    dest.writeInt(firstVisibleRowOffset);
+    dest.writeInt(firstVisibleColumn);
+    dest.writeInt(firstVisibleColumnOffset);
   }
 
   public String getSort() {
@@ -202,6 +219,48 @@ public class SpreadsheetProps implements Parcelable {
     updateParent();
   }
 
+  public int getFirstVisibleRow() {
+    return firstVisibleRow;
+  }
+
+  public int getFirstVisibleRowOffset() {
+    return firstVisibleRowOffset;
+  }
+
+  public int getFirstVisibleColumn() {
+    return firstVisibleColumn;
+  }
+
+  public int getFirstVisibleColumnOffset() {
+    return firstVisibleColumnOffset;
+  }
+
+  /**
+   * Remembers the part of the table on screen. Unlike the sql properties this doesn't update the
+   * calling activity's result; its rows are different, so it keeps its own viewport.
+   *
+   * @param row          the first row any part of which is on screen
+   * @param rowOffset    how many pixels of that row are scrolled off the top
+   * @param column       the first column any part of which is on screen
+   * @param columnOffset how many pixels of that column are scrolled off the left
+   */
+  public void setViewport(int row, int rowOffset, int column, int columnOffset) {
+    firstVisibleRow = row;
+    firstVisibleRowOffset = rowOffset;
+    firstVisibleColumn = column;
+    firstVisibleColumnOffset = columnOffset;
+  }
+
+  /**
+   * Copies the part of the table on screen from other props
+   *
+   * @param other the props to copy from
+   */
+  public void setViewport(SpreadsheetProps other) {
+    setViewport(other.firstVisibleRow, other.firstVisibleRowOffset, other.firstVisibleColumn,
+        other.firstVisibleColumnOffset);
+  }
+
   /**
    * Puts props in the result so the calling intent will know about any changes made to the sql
    * properties. For example, if you open a collection view, freeze a column and reverse the sort
@@ -31,9 +31,11 @@ import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.activities.ISpreadsheetFragmentContainer;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.AbsTableDisplayFragment;
+import org.opendatakit.tables.utils.DbSessionManager;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -80,7 +82,7 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
     ArrayList<String> colOrder;
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(frag.getAppName());
+      db = DbSessionManager.openDatabase(frag.getAppName());
       userTable = getUserTable();
       if (this.props != null) {
         indexColumnElementKey = this.props.getFrozen();
@@ -112,7 +114,7 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
       }
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(frag.getAppName(), db);
+        DbSessionManager.closeDatabase(frag.getAppName(), db);
       }
     }
   }
@@ -180,6 +182,28 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
     return userTable;
   }
 
+  /**
+   * Indexes the text of every cell the way the spreadsheet displays it, by row and spreadsheet
+   * column. This reads the whole table, so it should be called off the ui thread.
+   *
+   * @param locale the locale the user types their searches in
+   * @return the index, over no rows if the table hasn't been loaded
+   */
+  public SpreadsheetFindIndex buildFindIndex(Locale locale) {
+    final UserTable table = getCachedUserTable();
+    final ColumnDefinition[] columns = new ColumnDefinition[getNumberOfDisplayColumns()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getColumnByIndex(i);
+    }
+    return new SpreadsheetFindIndex(new SpreadsheetFindIndex.CellText() {
+      @Override
+      public String getText(int row, int column) {
+        return table.getDisplayTextOfData(row, columns[column].getType(),
+            columns[column].getElementKey());
+      }
+    }, table == null ? 0 : table.getNumberOfRows(), columns.length, locale);
+  }
+
   // Whether or not we have a frozen column...
 
   String getIndexedColumnElementKey() {
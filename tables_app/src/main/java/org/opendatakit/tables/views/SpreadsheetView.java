@@ -20,6 +20,7 @@ import android.view.ContextMenu;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
 import android.widget.ScrollView;
@@ -34,6 +35,7 @@ import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.DbSessionManager;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -126,7 +128,7 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     UserDbInterface dbInterface = Tables.getInstance().getDatabase();
     DbHandle db = null;
     try {
-      db = dbInterface.openDatabase(appName);
+      db = DbSessionManager.openDatabase(appName);
       String[] adminColumns = dbInterface.getAdminColumns();
       for (ColumnDefinition cd : table.getColumnDefinitions().getColumnDefinitions()) {
         mElementKeyToColorRuleGroup.put(cd.getElementKey(),
@@ -141,7 +143,7 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
           .getSpreadsheetViewFontSize(getContext(), dbInterface, appName, db, table.getTableId());
     } finally {
       if (db != null) {
-        dbInterface.closeDatabase(appName, db);
+        DbSessionManager.closeDatabase(appName, db);
       }
     }
 
@@ -157,6 +159,97 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     mainHeader.setOnTouchListener(mainHeaderCellClickListener);
   }
 
+  /**
+   * Records the part of the table that is on screen in the props
+   *
+   * @param props where to record it
+   */
+  public void saveViewport(SpreadsheetProps props) {
+    int y = Math.max(0, getMainScrollY());
+    int x = Math.max(0, getMainScrollX());
+    int rowPitch = mainData.getRowPitch();
+    int column = mainData.getColumnCount() == 0 ? 0 : mainData.getColumnAt(x);
+    int columnOffset = mainData.getColumnCount() == 0 ? 0 : x - mainData.getColumnLeft(column);
+    props.setViewport(y / rowPitch, y % rowPitch, column, columnOffset);
+  }
+
+  /**
+   * Scrolls to the part of the table recorded in the props. The scroll views can't scroll until
+   * they have been laid out, so this waits for the first draw and replaces it, and the table is
+   * never drawn at the top first.
+   *
+   * @param props where it was recorded
+   */
+  public void restoreViewport(SpreadsheetProps props) {
+    if (props.getFirstVisibleRow() == 0 && props.getFirstVisibleRowOffset() == 0
+        && props.getFirstVisibleColumn() == 0 && props.getFirstVisibleColumnOffset() == 0) {
+      return;
+    }
+    int row = Math.min(props.getFirstVisibleRow(), Math.max(0, table.getNumberOfRows() - 1));
+    final int y = row * mainData.getRowPitch() + props.getFirstVisibleRowOffset();
+    int column = Math.min(props.getFirstVisibleColumn(), mainData.getColumnCount() - 1);
+    final int x = column < 0 ? 0 : mainData.getColumnLeft(column) + props
+        .getFirstVisibleColumnOffset();
+    getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+      @Override
+      public boolean onPreDraw() {
+        getViewTreeObserver().removeOnPreDrawListener(this);
+        mainScroll.scrollTo(mainScroll.getScrollX(), y);
+        dataStatusScroll.scrollTo(dataStatusScroll.getScrollX(), y);
+        if (indexScroll != null) {
+          indexScroll.scrollTo(indexScroll.getScrollX(), y);
+        }
+        wrapScroll.scrollTo(x, wrapScroll.getScrollY());
+        // skip this frame, the next one is drawn at the restored position
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Scrolls a cell into view and highlights it, as though the user had tapped it. The row is
+   * brought to the middle of the screen and the table only scrolls sideways if the column isn't
+   * already on screen.
+   *
+   * @param row    the index of the row
+   * @param column the spreadsheet index of the column
+   */
+  public void showCell(int row, int column) {
+    String elementKey = table.getColumnByIndex(column).getElementKey();
+    int mainColumn = mainData.getColumnOf(elementKey);
+    CellInfo cellId;
+    if (mainColumn < 0) {
+      // the frozen column
+      cellId = new CellInfo(elementKey, 0, row);
+      mainData.highlight(null);
+      indexData.highlight(cellId);
+    } else {
+      cellId = new CellInfo(elementKey, mainColumn, row);
+      if (table.isIndexed()) {
+        indexData.highlight(null);
+      }
+      mainData.highlight(cellId);
+      int left = mainData.getColumnLeft(mainColumn);
+      int right = mainColumn + 1 < mainData.getColumnCount() ?
+          mainData.getColumnLeft(mainColumn + 1) :
+          mainData.getTableWidth();
+      int x = wrapScroll.getScrollX();
+      if (left < x || right > x + wrapScroll.getWidth()) {
+        wrapScroll.scrollTo(left, wrapScroll.getScrollY());
+      }
+    }
+    lastLastHighlightedCellId = lastHighlightedCellId;
+    lastHighlightedCellId = cellId;
+
+    int rowPitch = mainData.getRowPitch();
+    int y = Math.max(0, row * rowPitch - (mainScroll.getHeight() - rowPitch) / 2);
+    mainScroll.scrollTo(mainScroll.getScrollX(), y);
+    dataStatusScroll.scrollTo(dataStatusScroll.getScrollX(), y);
+    if (indexScroll != null) {
+      indexScroll.scrollTo(indexScroll.getScrollX(), y);
+    }
+  }
+
   /**
    * Called when the user double taps or long taps a data cell, picks the view to open a context
    * menu on and passes that through to the controller
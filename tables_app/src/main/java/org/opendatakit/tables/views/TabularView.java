@@ -31,6 +31,7 @@ import org.opendatakit.database.data.ColumnDefinition;
 import org.opendatakit.database.data.Row;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.utils.PerfMetrics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -385,6 +386,46 @@ final class TabularView extends View {
     return totalWidth;
   }
 
+  /**
+   * @return the height of a row plus its border
+   */
+  int getRowPitch() {
+    return rowHeight + BORDER_WIDTH;
+  }
+
+  /**
+   * @return the number of columns this view draws
+   */
+  int getColumnCount() {
+    return spans.length;
+  }
+
+  /**
+   * The column any part of which is at a horizontal position
+   *
+   * @param x the horizontal position, not negative
+   * @return the index of the column
+   */
+  int getColumnAt(int x) {
+    return getLeftmostColumnBasedOnXScroll(x);
+  }
+
+  /**
+   * @param column the index of a column
+   * @return the horizontal position of its left edge, including the border
+   */
+  int getColumnLeft(int column) {
+    return spans[column];
+  }
+
+  /**
+   * @param elementKey the element key of a column
+   * @return the index of the column in this view, or -1 if this view doesn't draw it
+   */
+  int getColumnOf(String elementKey) {
+    return mElementKeys.indexOf(elementKey);
+  }
+
   public CellInfo getCellInfo(int x, int y) {
     int row = y / (rowHeight + BORDER_WIDTH);
     int col = -1;
@@ -417,6 +458,15 @@ final class TabularView extends View {
 
   @Override
   public void onDraw(Canvas canvas) {
+    long timer = PerfMetrics.startTimer();
+    try {
+      drawTable(canvas);
+    } finally {
+      PerfMetrics.stopTimer(PerfMetrics.TABULAR_VIEW_DRAW, timer);
+    }
+  }
+
+  private void drawTable(Canvas canvas) {
     // We don't want to do anything if we're not responsible for drawing any
     // of the rows or columns.
     if (mNumberOfRows == 0 || mElementKeys.isEmpty()) {
@@ -574,12 +624,10 @@ final class TabularView extends View {
     } else {
       // Otherwise, we need to compute the value.
       // First let's get the row.
-      topmost = yScroll / (BORDER_WIDTH + rowHeight);
-      bottommost = (yScroll + metrics.heightPixels) / (BORDER_WIDTH + rowHeight);
-      if (bottommost >= this.mNumberOfRows) {
-        bottommost = this.mNumberOfRows - 1; // don't want to go beyond the last
-        // row
-      }
+      topmost = VisibleRange.topmostRow(yScroll, BORDER_WIDTH + rowHeight);
+      // don't want to go beyond the last row
+      bottommost = VisibleRange.bottommostRow(yScroll, metrics.heightPixels,
+          BORDER_WIDTH + rowHeight, this.mNumberOfRows);
     }
     topmostBorder = topmost * (BORDER_WIDTH + rowHeight);
     topTopmost = topmostBorder + BORDER_WIDTH;
@@ -732,25 +780,7 @@ final class TabularView extends View {
    * xScroll int.
    */
   private int getLeftmostColumnBasedOnXScroll(int xScroll) {
-    int bsResult; // will hold the binary search result.
-    bsResult = Arrays.binarySearch(this.spans, xScroll);
-    // now we need to do some checking. If we've found an exact match, we know
-    // that we can just return it.
-    if (bsResult >= 0) {
-      return bsResult;
-    } else {
-      // we need to do a calculation.
-      // in case of a miss binary search return (-insertionPoint - 1).
-      int col = (bsResult + 1) * -1;
-      col -= 1; // to set it correctly.
-      // however, we need to do another check. it is possible that we will have
-      // added a new element to the array. Let's do this check.
-      if (col >= xs.length) {
-        return col - 1;
-      } else {
-        return col;
-      }
-    }
+    return VisibleRange.columnAt(this.spans, xs.length, xScroll);
   }
 
   private void drawCell(Canvas canvas, int x, int y, String datum, int backgroundColor,
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.Arrays;
+
+/**
+ * The math TabularView uses to work out which rows and columns are on screen for a scroll
+ * position. Kept free of android classes so it can be benchmarked on a plain JVM.
+ */
+final class VisibleRange {
+
+  /**
+   * Do not instantiate this class
+   */
+  private VisibleRange() {
+  }
+
+  /**
+   * The first row any part of which is on screen
+   *
+   * @param yScroll  the vertical scroll, not negative
+   * @param rowPitch the height of a row plus its border
+   * @return the index of the row
+   */
+  static int topmostRow(int yScroll, int rowPitch) {
+    return yScroll / rowPitch;
+  }
+
+  /**
+   * The last row any part of which is on screen
+   *
+   * @param yScroll      the vertical scroll, not negative
+   * @param screenHeight the height of the screen
+   * @param rowPitch     the height of a row plus its border
+   * @param numberOfRows the number of rows in the view
+   * @return the index of the row, never past the last row
+   */
+  static int bottommostRow(int yScroll, int screenHeight, int rowPitch, int numberOfRows) {
+    return Math.min((yScroll + screenHeight) / rowPitch, numberOfRows - 1);
+  }
+
+  /**
+   * The column any part of which is at a horizontal position
+   *
+   * @param spans       the left edge of each column, in order, starting with 0
+   * @param columnCount the number of columns
+   * @param x           the horizontal position, not negative
+   * @return the index of the column
+   */
+  static int columnAt(int[] spans, int columnCount, int x) {
+    int bsResult = Arrays.binarySearch(spans, x);
+    // If we've found an exact match, we know that we can just return it.
+    if (bsResult >= 0) {
+      return bsResult;
+    }
+    // in case of a miss binary search return (-insertionPoint - 1).
+    int col = (bsResult + 1) * -1;
+    col -= 1; // to set it correctly.
+    // it is possible that we will have added a new element to the array.
+    if (col >= columnCount) {
+      return col - 1;
+    }
+    return col;
+  }
+}
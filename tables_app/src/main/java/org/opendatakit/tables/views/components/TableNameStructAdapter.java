@@ -16,17 +16,22 @@
 package org.opendatakit.tables.views.components;
 
 import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.utils.TableNameStruct;
+import org.opendatakit.tables.utils.TableStatsCache;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * An adapter for displaying TableProperties.
@@ -53,6 +58,52 @@ public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
     this.addAll(values);
   }
 
+  /**
+   * Brings the adapter in line with a new list by removing, inserting and replacing only the
+   * entries that differ, like DiffUtil does for a RecyclerView, and notifies the list once at
+   * the end. Unchanged entries keep their position, so the list doesn't jump.
+   *
+   * @param values the new list
+   * @return the number of entries removed, inserted or replaced
+   */
+  public int update(List<TableNameStruct> values) {
+    setNotifyOnChange(false);
+    int changes = 0;
+    Set<String> tableIds = new HashSet<>();
+    for (TableNameStruct value : values) {
+      tableIds.add(value.getTableId());
+    }
+    // drop the tables that are gone
+    for (int i = getCount() - 1; i >= 0; i--) {
+      TableNameStruct item = getItem(i);
+      if (item == null || !tableIds.contains(item.getTableId())) {
+        remove(item);
+        changes++;
+      }
+    }
+    // walk the new list, moving, replacing or inserting entries where they differ
+    for (int i = 0; i < values.size(); i++) {
+      TableNameStruct value = values.get(i);
+      if (i < getCount() && value.equals(getItem(i))) {
+        continue;
+      }
+      for (int j = i; j < getCount(); j++) {
+        TableNameStruct item = getItem(j);
+        if (item != null && item.getTableId().equals(value.getTableId())) {
+          remove(item);
+          break;
+        }
+      }
+      insert(value, i);
+      changes++;
+    }
+    if (changes != 0) {
+      notifyDataSetChanged();
+    }
+    setNotifyOnChange(true);
+    return changes;
+  }
+
   @NonNull
   @Override
   public View getView(int position, android.view.View convertView,
@@ -72,6 +123,14 @@ public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
     }
 
     textView.setText(nameStruct.getLocalizedDisplayName());
+    TextView summaryView = (TextView) view.findViewById(R.id.row_item_text_summary);
+    TableStatsCache.Stats stats = nameStruct.getStats();
+    if (stats == null) {
+      summaryView.setVisibility(View.GONE);
+    } else {
+      summaryView.setVisibility(View.VISIBLE);
+      summaryView.setText(getStatsSummary(stats));
+    }
     ImageView imageView = (ImageView) view.findViewById(R.id.row_item_icon);
     imageView.setOnClickListener(new View.OnClickListener() {
 
@@ -85,4 +144,22 @@ public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
     return view;
   }
 
+  /**
+   * Describes the stats of a table in one line, like "12 rows, 3 pending sync, modified 5
+   * minutes ago"
+   *
+   * @param stats the stats of the table
+   * @return the summary shown under the table name
+   */
+  private String getStatsSummary(TableStatsCache.Stats stats) {
+    if (stats.getLastModified() == null) {
+      return getContext().getString(R.string.table_stats_summary_empty, stats.getRowCount(),
+          stats.getPendingSyncCount());
+    }
+    CharSequence modified = DateUtils
+        .getRelativeTimeSpanString(TableConstants.milliSecondsFromNanos(stats.getLastModified()));
+    return getContext()
+        .getString(R.string.table_stats_summary, stats.getRowCount(), stats.getPendingSyncCount(),
+            modified);
+  }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.net.http.SslError;
+import android.os.Build;
+import android.os.Message;
+import android.view.KeyEvent;
+import android.webkit.HttpAuthHandler;
+import android.webkit.SslErrorHandler;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+/**
+ * Wraps the client ODKWebView sets on itself. Everything is passed through to it, except that the
+ * app's html, javascript and css files it doesn't handle itself are served from the
+ * {@link WebAssetCache}, and that the events and encoding a page asked for are forgotten when
+ * the next page starts loading.
+ */
+class CachingWebViewClient extends WebViewClient {
+
+  private final WebViewClient client;
+
+  /**
+   * @param client the client to pass everything through to
+   */
+  CachingWebViewClient(WebViewClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+    WebResourceResponse response = client.shouldInterceptRequest(view, url);
+    return response != null ? response : WebAssetCache.getResponse(url);
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  @Override
+  public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+    WebResourceResponse response = client.shouldInterceptRequest(view, request);
+    if (response != null || !"GET".equals(request.getMethod())) {
+      return response;
+    }
+    return WebAssetCache.getResponse(request.getUrl().toString());
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public boolean shouldOverrideUrlLoading(WebView view, String url) {
+    return client.shouldOverrideUrlLoading(view, url);
+  }
+
+  @TargetApi(Build.VERSION_CODES.N)
+  @Override
+  public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+    return client.shouldOverrideUrlLoading(view, request);
+  }
+
+  /**
+   * Whatever started the load, a reloadPage or the page navigating by itself, the new page has
+   * to ask for its events and response encoding again
+   */
+  @Override
+  public void onPageStarted(WebView view, String url, Bitmap favicon) {
+    if (view instanceof OdkTablesWebView) {
+      ((OdkTablesWebView) view).resetPageSession();
+    }
+    client.onPageStarted(view, url, favicon);
+  }
+
+  @Override
+  public void onPageFinished(WebView view, String url) {
+    client.onPageFinished(view, url);
+  }
+
+  @Override
+  public void onLoadResource(WebView view, String url) {
+    client.onLoadResource(view, url);
+  }
+
+  @TargetApi(Build.VERSION_CODES.M)
+  @Override
+  public void onPageCommitVisible(WebView view, String url) {
+    client.onPageCommitVisible(view, url);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void onReceivedError(WebView view, int errorCode, String description,
+      String failingUrl) {
+    client.onReceivedError(view, errorCode, description, failingUrl);
+  }
+
+  @TargetApi(Build.VERSION_CODES.M)
+  @Override
+  public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+    client.onReceivedError(view, request, error);
+  }
+
+  @TargetApi(Build.VERSION_CODES.M)
+  @Override
+  public void onReceivedHttpError(WebView view, WebResourceRequest request,
+      WebResourceResponse errorResponse) {
+    client.onReceivedHttpError(view, request, errorResponse);
+  }
+
+  @Override
+  public void onFormResubmission(WebView view, Message dontResend, Message resend) {
+    client.onFormResubmission(view, dontResend, resend);
+  }
+
+  @Override
+  public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+    client.doUpdateVisitedHistory(view, url, isReload);
+  }
+
+  @Override
+  public void onReceivedSslError(WebView view, SslErrorHandler handler, SslError error) {
+    client.onReceivedSslError(view, handler, error);
+  }
+
+  @Override
+  public void onReceivedHttpAuthRequest(WebView view, HttpAuthHandler handler, String host,
+      String realm) {
+    client.onReceivedHttpAuthRequest(view, handler, host, realm);
+  }
+
+  @Override
+  public boolean shouldOverrideKeyEvent(WebView view, KeyEvent event) {
+    return client.shouldOverrideKeyEvent(view, event);
+  }
+
+  @Override
+  public void onUnhandledKeyEvent(WebView view, KeyEvent event) {
+    client.onUnhandledKeyEvent(view, event);
+  }
+
+  @Override
+  public void onScaleChanged(WebView view, float oldScale, float newScale) {
+    client.onScaleChanged(view, oldScale, newScale);
+  }
+
+  @Override
+  public void onReceivedLoginRequest(WebView view, String realm, String account, String args) {
+    client.onReceivedLoginRequest(view, realm, account, args);
+  }
+}
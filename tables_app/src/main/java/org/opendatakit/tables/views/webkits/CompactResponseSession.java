@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Re-encodes the executor's responses for a page that asked for the compact encoding with
+ * odkTablesIf.setCompactResponses, for as long as the page is loaded. A response
+ * <pre>
+ * {"callbackJSON": ..., "data": [[row 0], [row 1], ...], "metadata": {...}}
+ * </pre>
+ * becomes
+ * <pre>
+ * {"encoding": "compact", "metadataVersion": "...", "callbackJSON": ..., "rowCount": n,
+ *  "columns": [column 0, column 1, ...], "metadata": {...}}
+ * </pre>
+ * Each column is either the array of its values, or, when it's text that repeats a lot,
+ * {"dictionary": [the distinct values], "codes": [the index of each row's value, -1 for null]}.
+ * <p>
+ * The metadataVersion is taken from the parts of the metadata that only change with the table's
+ * definition, see {@link #STATIC_METADATA}. Those are only included until a response with the
+ * same version has been fetched by the page, after that the page looks them up by the version.
+ * The rest of the metadata, the color rules of the rows for example, differs from query to
+ * query and is always included. Responses without data, errors for example, are passed through
+ * unchanged.
+ * <p>
+ * This is not a speedup for large lists. Re-encoding costs about as much as parsing the response,
+ * and when most of the text is distinct the compact response is only 10-15% smaller, so a list
+ * of thousands of rows reaches the page later than it would as plain JSON. What it saves is the
+ * static metadata on the repeated queries of a table, which is most of a single row response.
+ * WebBridgeBenchmark reports the time from the executor's response to the page having parsed
+ * it, both ways.
+ */
+public final class CompactResponseSession {
+
+  /**
+   * What compact responses start with
+   */
+  public static final String PREFIX = "{\"encoding\":\"compact\",\"metadataVersion\":\"";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // the length of the metadata versions, hex SHA-1s
+  private static final int VERSION_LENGTH = 40;
+  /**
+   * The fields of the metadata the metadataVersion is taken from, and that are left out once the
+   * page has them
+   */
+  static final Set<String> STATIC_METADATA = new HashSet<>(Arrays.asList("tableId", "schemaETag",
+      "elementKeyMap", "orderedColumns", "keyValueStoreList", "dataTableModel"));
+
+  private final JsonFactory factory;
+  // the versions of the static metadata the page has been sent
+  private final Set<String> fetchedVersions = new HashSet<>();
+
+  /**
+   * @param factory reads the responses and writes the compact ones
+   */
+  public CompactResponseSession(JsonFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * @param responseJSON a response of the executor
+   * @return the compact response, or the response itself if it has no data or its data isn't a
+   * table of values
+   * @throws IOException if the response isn't valid JSON
+   */
+  public String encode(String responseJSON) throws IOException {
+    Map<String, String> otherFields = new HashMap<>();
+    List<String> fieldOrder = new ArrayList<>();
+    List<Column> columns = null;
+    int rowCount = 0;
+    // the metadata's fields, the static ones sorted by name so the version doesn't depend on
+    // their order
+    Map<String, String> staticMetadata = null;
+    Map<String, String> otherMetadata = null;
+
+    JsonParser parser = factory.createParser(responseJSON);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return responseJSON;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        if ("data".equals(name)) {
+          columns = new ArrayList<>();
+          rowCount = readColumns(parser, responseJSON, columns);
+          if (rowCount < 0) {
+            return responseJSON;
+          }
+        } else if ("metadata".equals(name)
+            && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+          staticMetadata = new TreeMap<>();
+          otherMetadata = new LinkedHashMap<>();
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            (STATIC_METADATA.contains(field) ? staticMetadata : otherMetadata)
+                .put(field, copy(parser, responseJSON));
+          }
+        } else {
+          fieldOrder.add(name);
+          otherFields.put(name, copy(parser, responseJSON));
+        }
+      }
+    } finally {
+      parser.close();
+    }
+    if (columns == null) {
+      return responseJSON;
+    }
+
+    String version = staticMetadata == null || staticMetadata.isEmpty() ? "" :
+        getVersion(staticMetadata);
+    boolean fetched;
+    synchronized (fetchedVersions) {
+      fetched = fetchedVersions.contains(version);
+    }
+
+    StringWriter out = new StringWriter(responseJSON.length() / 2);
+    JsonGenerator generator = factory.createGenerator(out);
+    try {
+      generator.writeStartObject();
+      generator.writeStringField("encoding", "compact");
+      generator.writeStringField("metadataVersion", version);
+      for (String name : fieldOrder) {
+        generator.writeFieldName(name);
+        generator.writeRawValue(otherFields.get(name));
+      }
+      generator.writeNumberField("rowCount", rowCount);
+      generator.writeArrayFieldStart("columns");
+      for (Column column : columns) {
+        writeColumn(generator, responseJSON, column, rowCount);
+      }
+      generator.writeEndArray();
+      if (otherMetadata != null) {
+        generator.writeObjectFieldStart("metadata");
+        writeFields(generator, otherMetadata);
+        if (!fetched) {
+          writeFields(generator, staticMetadata);
+        }
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+    } finally {
+      generator.close();
+    }
+    return out.toString();
+  }
+
+  /**
+   * Call it with every response the page fetches, so that later responses can leave out
+   * metadata it has already been sent
+   *
+   * @param responseJSON a response, compact or not
+   */
+  public void fetched(String responseJSON) {
+    if (responseJSON == null || !responseJSON.startsWith(PREFIX)
+        || responseJSON.length() <= PREFIX.length() + VERSION_LENGTH
+        || responseJSON.charAt(PREFIX.length() + VERSION_LENGTH) != '"') {
+      // not compact, or without metadata
+      return;
+    }
+    String version = responseJSON.substring(PREFIX.length(), PREFIX.length() + VERSION_LENGTH);
+    synchronized (fetchedVersions) {
+      fetchedVersions.add(version);
+    }
+  }
+
+  /**
+   * Reads the rows of the data into columns. The values aren't decoded, each is kept as where
+   * it is in json, so it is written back exactly as it was.
+   *
+   * @return the number of rows, or -1 if the data isn't an array of equally long arrays of
+   * values
+   */
+  private static int readColumns(JsonParser parser, String json, List<Column> columns)
+      throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return -1;
+    }
+    int rowCount = 0;
+    int width = -1;
+    JsonToken token;
+    while ((token = parser.nextToken()) == JsonToken.START_ARRAY) {
+      int column = 0;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        if (token.isStructStart()) {
+          // an object or an array in a cell, not a table
+          return -1;
+        }
+        if (rowCount == 0) {
+          columns.add(new Column());
+        } else if (column >= width) {
+          return -1;
+        }
+        columns.get(column).add(parser, json);
+        column++;
+      }
+      if (rowCount == 0) {
+        width = column;
+      } else if (column != width) {
+        return -1;
+      }
+      rowCount++;
+    }
+    return token == JsonToken.END_ARRAY ? rowCount : -1;
+  }
+
+  /**
+   * Writes a column as a dictionary and codes if it is all text and repeats enough for that to
+   * be smaller, and as the array of its values otherwise
+   */
+  private static void writeColumn(JsonGenerator generator, String json, Column column,
+      int rowCount) throws IOException {
+    Map<String, Integer> codes = new HashMap<>();
+    List<String> dictionary = new ArrayList<>();
+    int[] rowCodes = null;
+    if (column.text && rowCount > 1) {
+      rowCodes = new int[rowCount];
+      for (int i = 0; i < rowCount; i++) {
+        if (column.starts[i] < 0) {
+          rowCodes[i] = -1;
+          continue;
+        }
+        // the value as it is written, quotes and escapes included
+        String value = json.substring(column.starts[i], column.ends[i]);
+        Integer code = codes.get(value);
+        if (code == null) {
+          code = dictionary.size();
+          if (2 * (code + 1) > rowCount) {
+            // mostly distinct, a dictionary would only add to it
+            rowCodes = null;
+            break;
+          }
+          codes.put(value, code);
+          dictionary.add(value);
+        }
+        rowCodes[i] = code;
+      }
+    }
+
+    if (rowCodes != null) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("dictionary");
+      for (String value : dictionary) {
+        generator.writeRawValue(value);
+      }
+      generator.writeEndArray();
+      generator.writeArrayFieldStart("codes");
+      for (int code : rowCodes) {
+        generator.writeNumber(code);
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+      return;
+    }
+
+    generator.writeStartArray();
+    for (int i = 0; i < rowCount; i++) {
+      if (column.starts[i] < 0) {
+        generator.writeNull();
+      } else {
+        generator.writeRawValue(json, column.starts[i], column.ends[i] - column.starts[i]);
+      }
+    }
+    generator.writeEndArray();
+  }
+
+  /**
+   * Writes fields whose values are already JSON
+   */
+  private static void writeFields(JsonGenerator generator, Map<String, String> fields)
+      throws IOException {
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      generator.writeFieldName(field.getKey());
+      generator.writeRawValue(field.getValue());
+    }
+  }
+
+  /**
+   * @param parser a parser of json, on the first token of a value
+   * @param json   what the parser reads
+   * @return the JSON of the value, cut out of json as it is, which is then skipped
+   */
+  private static String copy(JsonParser parser, String json) throws IOException {
+    int start = (int) parser.getTokenLocation().getCharOffset();
+    if (parser.getCurrentToken().isStructStart()) {
+      parser.skipChildren();
+    } else {
+      // reads the rest of a string, the parser only does that when asked for it
+      parser.getTextLength();
+    }
+    return json.substring(start, (int) parser.getCurrentLocation().getCharOffset());
+  }
+
+  /**
+   * @param fields the static fields of the metadata of a response, by name
+   * @return the version they are referred to by, the hex SHA-1 of their JSON
+   */
+  private static String getVersion(Map<String, String> fields) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // every java platform has SHA-1
+      throw new IllegalStateException(e);
+    }
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      digest.update(field.getKey().getBytes(UTF_8));
+      digest.update((byte) ':');
+      digest.update(field.getValue().getBytes(UTF_8));
+      digest.update((byte) ',');
+    }
+    byte[] hash = digest.digest();
+    StringBuilder version = new StringBuilder(VERSION_LENGTH);
+    for (byte b : hash) {
+      version.append(Character.forDigit((b >> 4) & 0xF, 16));
+      version.append(Character.forDigit(b & 0xF, 16));
+    }
+    return version.toString();
+  }
+
+  /**
+   * A column of the data, each value as where it is in the response
+   */
+  private static final class Column {
+    // where each value starts and ends, -1 for a null
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int size = 0;
+    // whether all the values are text or null
+    boolean text = true;
+
+    /**
+     * Adds the value the parser is on
+     */
+    void add(JsonParser parser, String json) throws IOException {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      JsonToken token = parser.getCurrentToken();
+      if (token == JsonToken.VALUE_NULL) {
+        starts[size] = -1;
+        ends[size] = -1;
+      } else {
+        if (token == JsonToken.VALUE_STRING) {
+          // reads the rest of the string, the parser only does that when asked for it
+          parser.getTextLength();
+        } else {
+          text = false;
+        }
+        starts[size] = (int) parser.getTokenLocation().getCharOffset();
+        ends[size] = (int) parser.getCurrentLocation().getCharOffset();
+      }
+      size++;
+    }
+  }
+}
@@ -19,13 +19,22 @@ package org.opendatakit.tables.views.webkits;
 import android.content.Context;
 import android.os.Bundle;
 import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.activities.AbsBaseWebActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.data.ViewFragmentType;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.views.ODKWebView;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * TODO what does this class do?
@@ -37,8 +46,16 @@ class OdkTables {
    */
   @SuppressWarnings("unused")
   private static final String TAG = OdkTables.class.getSimpleName();
+  // the events tables sends to pages that ask for them
+  private static final List<String> EVENTS = Arrays
+      .asList(OdkTablesWebView.EVENT_DATABASE_AVAILABLE,
+          OdkTablesWebView.EVENT_SELECTED_INDEX_CHANGED);
   private Context mActivity;
   private WeakReference<ODKWebView> mWebView;
+  // the events the page showing now has asked for, set from the javascript thread
+  private final Set<String> mHandledEvents = Collections.synchronizedSet(new HashSet<String>());
+  // encodes the responses of a page that asked for the compact encoding, null otherwise
+  private volatile CompactResponseSession mCompactResponses = null;
 
   /**
    * Constructs
@@ -55,6 +72,80 @@ class OdkTables {
     return mWebView.get() == null || mWebView.get().isInactive();
   }
 
+  /**
+   * Remembers that the page showing now handles an event instead of being reloaded
+   *
+   * @param eventName the event the page handles
+   * @return false if tables never sends that event
+   */
+  boolean registerEventHandler(String eventName) {
+    if (!EVENTS.contains(eventName)) {
+      return false;
+    }
+    mHandledEvents.add(eventName);
+    return true;
+  }
+
+  /**
+   * @param eventName an event
+   * @return whether the page showing now has asked for the event
+   */
+  boolean handlesEvent(String eventName) {
+    return mHandledEvents.contains(eventName);
+  }
+
+  /**
+   * Turns the compact encoding of the page's responses on or off
+   *
+   * @param compact whether the page wants its responses in the compact encoding
+   */
+  void setCompactResponses(boolean compact) {
+    mCompactResponses = compact ?
+        new CompactResponseSession(ODKFileUtils.mapper.getFactory()) :
+        null;
+  }
+
+  /**
+   * @return what encodes the page's responses, or null if the page wants plain JSON
+   */
+  CompactResponseSession getCompactResponses() {
+    return mCompactResponses;
+  }
+
+  /**
+   * Forgets the events and the encoding the page asked for, call it when the page goes away
+   */
+  void resetPageSession() {
+    mHandledEvents.clear();
+    mCompactResponses = null;
+  }
+
+  /**
+   * Cancels requests the page has superseded, see {@link AbsBaseWebActivity#cancelRequests}
+   *
+   * @param callbackJSONsJSON JSON.stringify of an array of the callbackJSON of the requests
+   * @return false if the array couldn't be read or the activity doesn't queue responses
+   */
+  boolean cancelRequests(String callbackJSONsJSON) {
+    ODKWebView webView = mWebView.get();
+    if (webView == null || !(mActivity instanceof AbsBaseWebActivity)) {
+      return false;
+    }
+    AbsBaseWebActivity activity = (AbsBaseWebActivity) mActivity;
+    String[] callbackJSONs;
+    try {
+      callbackJSONs = ODKFileUtils.mapper.readValue(callbackJSONsJSON, String[].class);
+    } catch (IOException e) {
+      WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
+      return false;
+    }
+    if (callbackJSONs == null) {
+      return false;
+    }
+    activity.cancelRequests(Arrays.asList(callbackJSONs), webView.getContainerFragmentID());
+    return true;
+  }
+
   OdkTablesIf getJavascriptInterfaceWithWeakReference() {
     return new OdkTablesIf(this);
   }
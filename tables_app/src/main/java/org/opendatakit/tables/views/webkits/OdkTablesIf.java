@@ -16,6 +16,8 @@
 
 package org.opendatakit.tables.views.webkits;
 
+import org.opendatakit.tables.utils.PerfMetrics;
+
 import java.lang.ref.WeakReference;
 
 /**
@@ -61,9 +63,11 @@ class OdkTablesIf {
       String relativePath) {
     if (isInactive())
       return false;
+    long timer = PerfMetrics.startTimer();
     weakControl.get()
         .helperSetSubListView(tableId, relativePath, whereClause, sqlSelectionArgsJSON, null, null,
             null, null);
+    PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "setSubListView", timer);
     return true;
   }
 
@@ -84,8 +88,75 @@ class OdkTablesIf {
       String sqlSelectionArgsJSON, String relativePath) {
     if (isInactive())
       return false;
+    long timer = PerfMetrics.startTimer();
     weakControl.get()
         .helperSetSubListView(tableId, relativePath, sqlCommand, sqlSelectionArgsJSON);
+    PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "setSubListViewArbitraryQuery", timer);
+    return true;
+  }
+
+  /**
+   * Asks for an event to be sent to the page where the page would otherwise be reloaded. The
+   * events are dispatched on the window as odktables:&lt;eventName&gt; CustomEvents, and the page
+   * should re-issue whatever queries it needs when it gets one.
+   * <ul>
+   * <li>databaseAvailable: the database came back after the services reconnected or the
+   * activity was resumed</li>
+   * <li>selectedIndexChanged: a marker was selected on the map, event.detail.index is the
+   * index of its row, or -1 if none is selected</li>
+   * </ul>
+   * Pages that don't ask are reloaded as before. The request lasts until the page is reloaded.
+   *
+   * @param eventName the name of the event, without the odktables: prefix
+   * @return true if tables sends that event
+   */
+  @android.webkit.JavascriptInterface
+  public boolean registerEventHandler(String eventName) {
+    if (isInactive())
+      return false;
+    long timer = PerfMetrics.startTimer();
+    boolean registered = weakControl.get().registerEventHandler(eventName);
+    PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "registerEventHandler", timer);
+    return registered;
+  }
+
+  /**
+   * Cancels requests the page no longer wants the data of, because it has issued a query that
+   * supersedes them, while the user types into a filter for example. Their callbacks are still
+   * called, but with the error "cancelled" in place of the data, so the page doesn't wait for
+   * them or parse results it would throw away.
+   *
+   * @param callbackJSONsJSON JSON.stringify of an array of the callbackJSON strings the
+   *                          requests were issued with
+   * @return true if the requests were cancelled
+   */
+  @android.webkit.JavascriptInterface
+  public boolean cancelRequests(String callbackJSONsJSON) {
+    if (isInactive())
+      return false;
+    long timer = PerfMetrics.startTimer();
+    boolean cancelled = weakControl.get().cancelRequests(callbackJSONsJSON);
+    PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "cancelRequests", timer);
+    return cancelled;
+  }
+
+  /**
+   * Asks for the results of the page's queries in the compact encoding described in
+   * {@link CompactResponseSession}: the rows as columns, repeated text as a dictionary and
+   * codes, and the parts of the metadata that come from the table's definition only until the
+   * page has them. Responses in it have "encoding": "compact". It lasts until the page is
+   * reloaded. It makes the responses smaller, it doesn't make them faster to build.
+   *
+   * @param compact true for the compact encoding, false for plain JSON
+   * @return true if the encoding was changed
+   */
+  @android.webkit.JavascriptInterface
+  public boolean setCompactResponses(boolean compact) {
+    if (isInactive())
+      return false;
+    long timer = PerfMetrics.startTimer();
+    weakControl.get().setCompactResponses(compact);
+    PerfMetrics.stopTimer(PerfMetrics.JS_BRIDGE + "setCompactResponses", timer);
     return true;
   }
 }
@@ -2,11 +2,16 @@ package org.opendatakit.tables.views.webkits;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.os.Build;
 import android.util.AttributeSet;
+import android.webkit.WebViewClient;
 import org.opendatakit.tables.activities.IOdkTablesActivity;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.views.ODKWebView;
 
+import java.util.Map;
+
 /**
  * @author mitchellsundt@gmail.com
  */
@@ -14,6 +19,18 @@ public class OdkTablesWebView extends ODKWebView {
    // Used for logging
    private static final String TAG = OdkTablesWebView.class.getSimpleName();
 
+   /**
+    * Sent in place of a reload when the database becomes available again
+    */
+   public static final String EVENT_DATABASE_AVAILABLE = "databaseAvailable";
+   /**
+    * Sent in place of a reload when the selected marker of a map changes, with the index of its
+    * row, or -1, in the detail
+    */
+   public static final String EVENT_SELECTED_INDEX_CHANGED = "selectedIndexChanged";
+   // the prefix of the names of the events on the window
+   private static final String EVENT_PREFIX = "odktables:";
+
    /**
     * IGNORE THE WARNINGS
     * This has to be a class property, or it will get garbage collected while the javascript is
@@ -46,6 +63,78 @@ public class OdkTablesWebView extends ODKWebView {
           Constants.JavaScriptHandles.ODK_TABLES_IF);
    }
 
+   /**
+    * ODKWebView sets its client while it is being constructed, it is wrapped so that the app's
+    * html, javascript and css files come out of the {@link WebAssetCache}
+    *
+    * @param client the client to wrap
+    */
+   @Override public void setWebViewClient(WebViewClient client) {
+      super.setWebViewClient(client == null || client instanceof CachingWebViewClient ?
+          client :
+          new CachingWebViewClient(client));
+   }
+
+   /**
+    * @param eventName one of the EVENT_ names
+    * @return whether the page showing now has asked for the event with
+    * odkTablesIf.registerEventHandler, and can be sent it instead of being reloaded
+    */
+   public boolean handlesEvent(String eventName) {
+      return tables.handlesEvent(eventName);
+   }
+
+   /**
+    * Sends an event to the page, if it has asked for it, by dispatching a CustomEvent named
+    * odktables:eventName on its window
+    *
+    * @param eventName one of the EVENT_ names
+    * @param detail    what the event's detail is set to, as JSON, or null for an empty object
+    * @return true if the event was sent, false if the page has to be reloaded instead
+    */
+   public boolean dispatchEvent(String eventName, Map<String, Object> detail) {
+      if (!handlesEvent(eventName)) {
+         return false;
+      }
+      String detailJSON;
+      try {
+         detailJSON = detail == null ? "{}" : ODKFileUtils.mapper.writeValueAsString(detail);
+      } catch (Exception e) {
+         log.printStackTrace(e);
+         log.e(TAG, "dispatchEvent: unable to serialize the detail of " + eventName);
+         return false;
+      }
+      final String script = "window.dispatchEvent(new CustomEvent('" + EVENT_PREFIX + eventName
+          + "', {detail: " + detailJSON + "}));";
+      log.d(TAG, "dispatchEvent: " + eventName + " " + detailJSON);
+      post(new Runnable() {
+         @Override public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+               evaluateJavascript(script, null);
+            } else {
+               loadUrl("javascript:" + script);
+            }
+         }
+      });
+      return true;
+   }
+
+   /**
+    * @return what encodes the responses of the page showing now, or null if it asked for plain
+    * JSON
+    */
+   public CompactResponseSession getCompactResponses() {
+      return tables.getCompactResponses();
+   }
+
+   /**
+    * Forgets the events and the response encoding the page asked for, when it is unloaded, see
+    * {@link CachingWebViewClient#onPageStarted}
+    */
+   void resetPageSession() {
+      tables.resetPageSession();
+   }
+
    @Override public boolean hasPageFramework() {
       return false;
    }
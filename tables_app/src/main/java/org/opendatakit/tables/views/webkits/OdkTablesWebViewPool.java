@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.View;
+import android.view.ViewGroup;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.R;
+import org.opendatakit.tables.activities.IOdkTablesActivity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out OdkTablesWebViews to the web fragments of one activity and takes them back when the
+ * fragments' views are destroyed, so that the fragments that replace them, after a refresh or
+ * when the database comes back, don't construct a new web view and inject a new OdkTables
+ * interface each time. One spare view is built while the ui thread is idle, so the second web
+ * view of a detail with list view or of a switch to another web view type is ready when needed.
+ * <p>
+ * A pool belongs to the activity its views were constructed with. ODKWebView binds its own
+ * javascript interfaces to that activity when it is constructed, so the views can't move to
+ * another activity, and the pool must be destroyed with its activity.
+ * <p>
+ * An idle view keeps the page it showed. A fragment that shows the same page gets that view back
+ * with the page still loaded, and its own container fragment id, so a page that asked for
+ * databaseAvailable events is sent one instead of being loaded again. Any other fragment gets a
+ * view that is blanked and marked to be reloaded, and loads its page when the database is
+ * available, as it did with a new view. Pages that don't ask for the event are reloaded by
+ * ODKWebView as before, the pool only saves constructing their view.
+ * <p>
+ * While a view is idle its container fragment id is {@link #IDLE_FRAGMENT_ID}, and the activity
+ * drops the responses to requests its page makes then, so they can't reach the page of the
+ * fragment that is shown.
+ */
+public final class OdkTablesWebViewPool {
+
+  private static final String TAG = OdkTablesWebViewPool.class.getSimpleName();
+
+  // the most idle views kept, enough for both panes of a detail with list view
+  private static final int MAX_IDLE_VIEWS = 2;
+  // what a view that is handed to another page is blanked with first
+  private static final String BLANK_PAGE = "about:blank";
+
+  /**
+   * The container fragment id of the views sitting idle in a pool
+   */
+  public static final String IDLE_FRAGMENT_ID = "pooledIdleWebView";
+
+  private final Activity activity;
+  private final List<OdkTablesWebView> idleViews = new ArrayList<>();
+  // whether a spare view is waiting for the ui thread to be idle to be built
+  private boolean warming = false;
+  private boolean destroyed = false;
+
+  /**
+   * @param activity the activity the views will be shown in, must be an IOdkTablesActivity
+   */
+  public OdkTablesWebViewPool(Activity activity) {
+    if (!(activity instanceof IOdkTablesActivity)) {
+      throw new IllegalArgumentException("OdkTablesWebViews need an IOdkTablesActivity");
+    }
+    this.activity = activity;
+  }
+
+  /**
+   * Takes the idle view showing the given page if there is one, with the page still loaded.
+   * Otherwise takes another idle view, blanked and marked to load its page on the next
+   * reloadPage, or constructs one if there isn't any. The view is hidden, has the id R.id.webkit
+   * and the given container fragment id.
+   *
+   * @param url                 the page the fragment will show, as getUrlBaseLocation gives it,
+   *                            or null if it isn't known
+   * @param containerFragmentID the fragment's container fragment id, or null
+   * @return a view that isn't in any layout
+   */
+  public OdkTablesWebView acquire(String url, String containerFragmentID) {
+    OdkTablesWebView view = takeIdleView(url);
+    if (view != null) {
+      WebLogger.getLogger(getAppName()).d(TAG, "acquire: page kept loaded for " + url);
+    } else if (idleViews.isEmpty()) {
+      view = newView();
+    } else {
+      view = idleViews.remove(idleViews.size() - 1);
+      if (view.getLoadPageUrl() != null) {
+        // unload the other page, so it can't make requests once it is shown
+        view.stopLoading();
+        view.resetPageSession();
+        view.loadUrl(BLANK_PAGE);
+        // it still remembers the url of the page it showed before it was blanked
+        view.setForceLoadDuringReload();
+      }
+      WebLogger.getLogger(getAppName()).d(TAG, "acquire: reusing an idle web view");
+    }
+    view.setContainerFragmentID(containerFragmentID);
+    view.setVisibility(View.GONE);
+    prewarm();
+    return view;
+  }
+
+  /**
+   * Takes back a view whose fragment is done with it. It is taken out of its layout and keeps
+   * its page, under {@link #IDLE_FRAGMENT_ID}, until a fragment showing the same page acquires
+   * it. Views beyond what the pool keeps are destroyed, the one idle the longest first.
+   *
+   * @param view a view from {@link #acquire}
+   */
+  public void release(OdkTablesWebView view) {
+    if (view.getParent() instanceof ViewGroup) {
+      ((ViewGroup) view.getParent()).removeView(view);
+    }
+    if (destroyed) {
+      view.destroy();
+      return;
+    }
+    if (idleViews.size() >= MAX_IDLE_VIEWS) {
+      idleViews.remove(0).destroy();
+    }
+    view.setContainerFragmentID(IDLE_FRAGMENT_ID);
+    view.onPause();
+    idleViews.add(view);
+  }
+
+  /**
+   * @param url a page, or null
+   * @return the idle view showing the page, taken out of the pool, or null if there isn't one
+   */
+  private OdkTablesWebView takeIdleView(String url) {
+    if (url == null) {
+      return null;
+    }
+    for (int i = idleViews.size() - 1; i >= 0; i--) {
+      if (url.equals(idleViews.get(i).getLoadPageUrl())) {
+        return idleViews.remove(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Destroys the idle views. Views released after this are destroyed too. Call it when the
+   * activity is destroyed.
+   */
+  public void destroy() {
+    destroyed = true;
+    for (OdkTablesWebView view : idleViews) {
+      view.destroy();
+    }
+    idleViews.clear();
+  }
+
+  /**
+   * Builds a spare view the next time the ui thread is idle, unless there is one already or the
+   * pool is full of views keeping their pages
+   */
+  private void prewarm() {
+    if (warming || destroyed || hasBlankView() || idleViews.size() >= MAX_IDLE_VIEWS) {
+      return;
+    }
+    warming = true;
+    Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+      @Override
+      public boolean queueIdle() {
+        warming = false;
+        if (!destroyed && !hasBlankView() && idleViews.size() < MAX_IDLE_VIEWS && !activity
+            .isFinishing()) {
+          OdkTablesWebView view = newView();
+          view.setContainerFragmentID(IDLE_FRAGMENT_ID);
+          view.onPause();
+          idleViews.add(view);
+        }
+        // only once
+        return false;
+      }
+    });
+  }
+
+  /**
+   * @return whether an idle view hasn't loaded any page yet
+   */
+  private boolean hasBlankView() {
+    for (OdkTablesWebView view : idleViews) {
+      if (view.getLoadPageUrl() == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return a new view, set up the way web_view_container.xml sets up its web view
+   */
+  private OdkTablesWebView newView() {
+    OdkTablesWebView view = new OdkTablesWebView(activity, null);
+    view.setId(R.id.webkit);
+    view.setBackgroundColor(Color.BLACK);
+    return view;
+  }
+
+  private String getAppName() {
+    return ((IOdkTablesActivity) activity).getAppName();
+  }
+}
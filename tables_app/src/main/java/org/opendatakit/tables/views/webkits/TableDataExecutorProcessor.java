@@ -28,6 +28,7 @@ import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.IOdkTablesActivity;
+import org.opendatakit.tables.utils.PerfMetrics;
 import org.opendatakit.views.ExecutorContext;
 import org.opendatakit.views.ExecutorProcessor;
 
@@ -108,6 +109,7 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
   protected void extendQueryMetadata(UserDbInterface dbInterface, DbHandle db,
       List<KeyValueStoreEntry> entries, UserTable userTable, Map<String, Object> metadata) {
     // TODO: construct color rule data here...
+    long timer = PerfMetrics.startTimer();
     String[] adminCols = ADMIN_COLUMNS.toArray(new String[ADMIN_COLUMNS.size()]);
 
     Collection<RowColorObject> rowColors = new ArrayList<>();
@@ -151,6 +153,7 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
     metadata.put(ROW_COLORS, rowColors);
     metadata.put(STATUS_COLORS, statusColors);
     metadata.put(COLUMN_COLORS, colColors);
+    PerfMetrics.stopTimer(PerfMetrics.EXTEND_QUERY_METADATA, timer);
 
     if (mActivity != null) {
       Integer indexOfSelectedItem = mActivity.getIndexOfSelectedItem();
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.utilities.ODKFileUtils;
+import org.opendatakit.webkitserver.utilities.UrlUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the html, javascript and css files of the apps in memory, so that web views load them
+ * without going through the web server and external storage each time. The framework files every
+ * page includes are read once instead of once per fragment and per reloadPage.
+ * <p>
+ * Entries are checked against the file's last modified time and length whenever they're used,
+ * so an edited file is read again. The least recently used files are dropped once the cache
+ * holds more than {@link #MAX_BYTES}, and files bigger than {@link #MAX_FILE_BYTES} aren't
+ * cached at all.
+ */
+public final class WebAssetCache {
+
+  private static final String TAG = WebAssetCache.class.getSimpleName();
+
+  // what the cache holds at most, a few copies of the framework and the table's view files
+  private static final long MAX_BYTES = 8L * 1024 * 1024;
+  // bigger files are left to the web server
+  private static final long MAX_FILE_BYTES = 1024 * 1024;
+
+  // the files served, by extension, and what they're served as
+  private static final Map<String, String> MIME_TYPES = new LinkedHashMap<>();
+
+  static {
+    MIME_TYPES.put("html", "text/html");
+    MIME_TYPES.put("htm", "text/html");
+    MIME_TYPES.put("js", "application/javascript");
+    MIME_TYPES.put("css", "text/css");
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // the files a page pulls in, from <script src="..."> and <link href="...">
+  private static final Pattern REFERENCE = Pattern
+      .compile("<(?:script|link)\\b[^>]*?\\b(?:src|href)\\s*=\\s*[\"']([^\"'?#]+)",
+          Pattern.CASE_INSENSITIVE);
+
+  // one thread, preloading is never urgent
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+  // the cached files by path, least recently used first
+  private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f,
+      true);
+  private static long totalBytes = 0;
+
+  /**
+   * A cached file and what it looked like on disk when it was read
+   */
+  private static final class Entry {
+    final byte[] data;
+    final long lastModified;
+
+    Entry(byte[] data, long lastModified) {
+      this.data = data;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Do not instantiate this class
+   */
+  private WebAssetCache() {
+  }
+
+  /**
+   * Serves a request for one of the app's html, javascript or css files from the cache, reading
+   * the file into it if it isn't there or has changed
+   *
+   * @param url the url the web view asked for
+   * @return the file, or null to let the web server handle the request
+   */
+  static WebResourceResponse getResponse(String url) {
+    File file = getFile(url);
+    if (file == null) {
+      return null;
+    }
+    byte[] data = get(file);
+    if (data == null) {
+      return null;
+    }
+    String mimeType = MIME_TYPES.get(getExtension(file.getName()));
+    return new WebResourceResponse(mimeType, "UTF-8", new ByteArrayInputStream(data));
+  }
+
+  /**
+   * Reads the view files of a table, and the files they pull in, into the cache in the
+   * background
+   *
+   * @param appName   the app name
+   * @param fileNames the view files, relative to the app folder, any of which may be null
+   */
+  public static void preload(final String appName, final Collection<String> fileNames) {
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          File appFolder = new File(ODKFileUtils.getAppFolder(appName));
+          Set<File> seen = new HashSet<>();
+          for (String fileName : fileNames) {
+            if (fileName != null) {
+              preload(appFolder, new File(appFolder, fileName), seen);
+            }
+          }
+        } catch (RuntimeException e) {
+          // preloading only saves time later, the pages still load without it
+          WebLogger.getLogger(appName).printStackTrace(e);
+          WebLogger.getLogger(appName).e(TAG, "Unable to preload web assets: " + e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads a file into the cache and, if it's a page, the files it pulls in
+   */
+  private static void preload(File appFolder, File file, Set<File> seen) {
+    if (!seen.add(file) || !MIME_TYPES.containsKey(getExtension(file.getName()))) {
+      return;
+    }
+    byte[] data = get(file);
+    if (data == null || !MIME_TYPES.get(getExtension(file.getName())).equals("text/html")) {
+      return;
+    }
+    Matcher matcher = REFERENCE.matcher(new String(data, UTF_8));
+    while (matcher.find()) {
+      String reference = matcher.group(1).trim();
+      if (reference.isEmpty() || reference.contains(":") || reference.startsWith("//")) {
+        // on another server, or a data: or javascript: url
+        continue;
+      }
+      File referenced;
+      if (reference.startsWith("/")) {
+        // relative to the web server, so it starts with the app name
+        String path = reference.substring(1);
+        int slash = path.indexOf('/');
+        if (slash < 0 || !path.substring(0, slash).equals(appFolder.getName())) {
+          continue;
+        }
+        referenced = new File(appFolder, path.substring(slash + 1));
+      } else {
+        try {
+          // resolved as a url would be, so ../ is taken out and the path matches the request's
+          referenced = new File(file.getParentFile().toURI().resolve(reference));
+        } catch (IllegalArgumentException e) {
+          // not a valid relative url, the page can't load it either
+          continue;
+        }
+      }
+      preload(appFolder, referenced, seen);
+    }
+  }
+
+  /**
+   * @param url a url the web view asked for
+   * @return the file of one of the app's html, javascript or css files the url is for, or null
+   * if it's for anything else
+   */
+  private static File getFile(String url) {
+    String base = UrlUtils.getWebViewContentUri().toString();
+    if (!base.endsWith("/")) {
+      base = base + "/";
+    }
+    if (url == null || !url.startsWith(base)) {
+      return null;
+    }
+    String path = Uri.parse(url).getPath();
+    String basePath = Uri.parse(base).getPath();
+    if (path == null || basePath == null || !path.startsWith(basePath)) {
+      return null;
+    }
+    path = path.substring(basePath.length());
+    int slash = path.indexOf('/');
+    if (slash <= 0) {
+      return null;
+    }
+    String appName = path.substring(0, slash);
+    path = path.substring(slash + 1);
+    for (String segment : path.split("/")) {
+      if (segment.equals("..")) {
+        return null;
+      }
+    }
+    if (!MIME_TYPES.containsKey(getExtension(path))) {
+      return null;
+    }
+    return new File(ODKFileUtils.getAppFolder(appName), path);
+  }
+
+  /**
+   * @param file a file
+   * @return its contents, from the cache if they haven't changed, or null if it can't be read or
+   * is too big to cache
+   */
+  private static byte[] get(File file) {
+    String key = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.lastModified == lastModified
+          && entry.data.length == length) {
+        return entry.data;
+      }
+    }
+    if (lastModified == 0 || length > MAX_FILE_BYTES) {
+      // not there, or left to the web server
+      return null;
+    }
+    byte[] data;
+    try {
+      data = read(file, (int) length);
+    } catch (IOException e) {
+      return null;
+    }
+    synchronized (entries) {
+      Entry old = entries.put(key, new Entry(data, lastModified));
+      if (old != null) {
+        totalBytes -= old.data.length;
+      }
+      totalBytes += data.length;
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (totalBytes > MAX_BYTES && eldest.hasNext()) {
+        totalBytes -= eldest.next().data.length;
+        eldest.remove();
+      }
+    }
+    return data;
+  }
+
+  private static byte[] read(File file, int length) throws IOException {
+    byte[] data = new byte[length];
+    InputStream in = new FileInputStream(file);
+    try {
+      int offset = 0;
+      while (offset < length) {
+        int read = in.read(data, offset, length - offset);
+        if (read < 0) {
+          throw new IOException("File shrank while being read: " + file.getPath());
+        }
+        offset += read;
+      }
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+
+  private static String getExtension(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot < 0 ? "" : path.substring(dot + 1).toLowerCase(Locale.US);
+  }
+}
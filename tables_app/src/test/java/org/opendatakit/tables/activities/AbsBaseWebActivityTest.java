@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.activities;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that AbsBaseWebActivity finds the callbackJSON of a response, which it uses to replace
+ * the responses to cancelled requests, wherever the field is and whatever the data holds
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class AbsBaseWebActivityTest {
+
+  @Test
+  public void findsTheCallbackAfterTheData() {
+    assertEquals("{\"id\":7}", AbsBaseWebActivity.getCallbackJSON(
+        "{\"data\":[[\"a\",1,null],[\"b\",2.5,true]],\"metadata\":{\"limit\":2},"
+            + "\"callbackJSON\":\"{\\\"id\\\":7}\"}"));
+  }
+
+  @Test
+  public void findsTheCallbackOfACompactResponse() {
+    assertEquals("cb-3", AbsBaseWebActivity.getCallbackJSON(
+        "{\"encoding\":\"compact\",\"metadataVersion\":\"\",\"callbackJSON\":\"cb-3\","
+            + "\"rowCount\":0,\"columns\":[]}"));
+  }
+
+  @Test
+  public void ignoresCallbackFieldsInsideTheDataAndMetadata() {
+    assertEquals("outer", AbsBaseWebActivity.getCallbackJSON(
+        "{\"metadata\":{\"callbackJSON\":\"inner\",\"list\":[{\"callbackJSON\":\"deeper\"}]},"
+            + "\"data\":[[\"callbackJSON\"]],\"callbackJSON\":\"outer\"}"));
+  }
+
+  @Test
+  public void ignoresQuotesAndBracketsInsideStrings() {
+    assertEquals("real", AbsBaseWebActivity.getCallbackJSON(
+        "{\"data\":[[\"}]\\\",\\\"callbackJSON\\\":\\\"fake\",\"[{\\\\\"]],"
+            + " \"callbackJSON\" : \"real\"}"));
+  }
+
+  @Test
+  public void returnsNullWithoutAStringCallback() {
+    assertNull(AbsBaseWebActivity.getCallbackJSON("{\"data\":[[1]]}"));
+    assertNull(AbsBaseWebActivity.getCallbackJSON("{\"callbackJSON\":null,\"data\":[]}"));
+    assertNull(AbsBaseWebActivity.getCallbackJSON("{\"data\":[\"unterminated"));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.activities;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.tables.activities.ResponseScheduler.Priority;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which responses ResponseScheduler holds back, and the order it lets them through in
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class ResponseSchedulerTest {
+
+  // the web views, each with its own queue
+  private static final String DETAIL = "detail";
+  private static final String SUBLIST = "sublist";
+  private static final String OTHER = "other";
+  // the responses let through, in order
+  private final List<String> delivered = new ArrayList<>();
+  // the web views that are gone
+  private final Set<String> detached = new HashSet<>();
+  private ResponseScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    scheduler = new ResponseScheduler(new ResponseScheduler.Queue() {
+      @Override
+      public void queueResponse(String responseJSON, String fragmentID) {
+        delivered.add(responseJSON);
+      }
+
+      @Override
+      public boolean isAttached(String fragmentID) {
+        return !detached.contains(fragmentID);
+      }
+    });
+  }
+
+  @Test
+  public void letsResponsesThroughWhenNothingIsOutstanding() {
+    scheduler.add("bulk", SUBLIST, SUBLIST, Priority.BULK);
+
+    assertEquals(Collections.singletonList("bulk"), delivered);
+  }
+
+  @Test
+  public void holdsLowerPrioritiesUntilTheRowIsFetched() {
+    scheduler.add("row", DETAIL, DETAIL, Priority.ROW);
+    scheduler.add("bulk", SUBLIST, SUBLIST, Priority.BULK);
+    assertEquals(Collections.singletonList("row"), delivered);
+
+    scheduler.fetched(DETAIL);
+
+    assertEquals(Arrays.asList("row", "bulk"), delivered);
+  }
+
+  @Test
+  public void neverHoldsAWebViewBehindItself() {
+    scheduler.add("first", DETAIL, DETAIL, Priority.ROW);
+    scheduler.add("second", DETAIL, DETAIL, Priority.BULK);
+
+    assertEquals(Arrays.asList("first", "second"), delivered);
+  }
+
+  @Test
+  public void keepsTheOrderOfAWebViewsResponses() {
+    scheduler.add("row", DETAIL, DETAIL, Priority.ROW);
+    scheduler.add("bulk", SUBLIST, SUBLIST, Priority.BULK);
+    // a row for the sublist, which comes after its held bulk response
+    scheduler.add("sublist row", SUBLIST, SUBLIST, Priority.ROW);
+    assertEquals(Collections.singletonList("row"), delivered);
+
+    scheduler.fetched(DETAIL);
+
+    assertEquals(Arrays.asList("row", "bulk", "sublist row"), delivered);
+  }
+
+  @Test
+  public void holdsForAsLongAsTheRowIsPending() {
+    scheduler.add("row", DETAIL, DETAIL, Priority.ROW);
+    scheduler.add("bulk", SUBLIST, SUBLIST, Priority.BULK);
+
+    // the detail page is slow to fetch its row, however long that takes the bulk response waits
+    ShadowLooper.idleMainLooper(10 * ResponseScheduler.RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+    scheduler.fetched(OTHER);
+    assertEquals(Collections.singletonList("row"), delivered);
+
+    scheduler.fetched(DETAIL);
+
+    assertEquals(Arrays.asList("row", "bulk"), delivered);
+  }
+
+  @Test
+  public void releasesResponsesOnceTheWebViewOfTheRowIsGone() {
+    scheduler.add("row", DETAIL, DETAIL, Priority.ROW);
+    scheduler.add("bulk", SUBLIST, SUBLIST, Priority.BULK);
+
+    // the detail page is closed before it fetches its row
+    detached.add(DETAIL);
+    ShadowLooper.idleMainLooper(ResponseScheduler.RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+
+    assertEquals(Arrays.asList("row", "bulk"), delivered);
+  }
+
+  @Test
+  public void keepsTheOrderOfAWebViewsResponsesOnceTheWebViewOfTheRowIsGone() {
+    scheduler.add("row", DETAIL, DETAIL, Priority.ROW);
+    scheduler.add("bulk", SUBLIST, SUBLIST, Priority.BULK);
+    scheduler.add("sublist row", SUBLIST, SUBLIST, Priority.ROW);
+
+    // the row still goes after the bulk response before it
+    detached.add(DETAIL);
+    scheduler.fetched(OTHER);
+
+    assertEquals(Arrays.asList("row", "bulk", "sublist row"), delivered);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.application;
+
+import android.os.Environment;
+import android.os.Looper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how StartupPipeline tells MainActivity about the directory check of its app. The checks
+ * are remembered for the whole process, so every test uses an app name of its own.
+ * <p>
+ * The main looper is paused so what the check posts to it waits until the test runs it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class StartupPipelineTest {
+
+  // how long to wait for the background thread
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  private String appName;
+
+  @Before
+  public void setUp() {
+    appName = "startup-" + UUID.randomUUID().toString();
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+    ShadowLooper.pauseMainLooper();
+  }
+
+  @Test
+  public void tellsTheListenerOnTheMainThreadOnceTheCheckFinishes() throws Exception {
+    RecordingListener listener = new RecordingListener();
+    StartupPipeline.whenDirectoriesReady(appName, listener);
+    listener.await();
+
+    assertEquals(1, listener.ready);
+    assertNull(listener.failure);
+    assertSame(Looper.getMainLooper().getThread(), listener.thread);
+  }
+
+  @Test
+  public void tellsAListenerStraightAwayOnceTheCheckFinished() throws Exception {
+    RecordingListener first = new RecordingListener();
+    StartupPipeline.whenDirectoriesReady(appName, first);
+    first.await();
+
+    RecordingListener second = new RecordingListener();
+    StartupPipeline.whenDirectoriesReady(appName, second);
+
+    // without running anything posted to the main thread
+    assertEquals(1, second.ready);
+    assertEquals(1, first.ready);
+  }
+
+  @Test
+  public void tellsEveryListenerThatWaitedForTheSameCheck() throws Exception {
+    StartupPipeline.checkDirectories(appName);
+    RecordingListener first = new RecordingListener();
+    RecordingListener second = new RecordingListener();
+    StartupPipeline.whenDirectoriesReady(appName, first);
+    StartupPipeline.whenDirectoriesReady(appName, second);
+    first.await();
+    second.await();
+
+    assertEquals(1, first.ready);
+    assertEquals(1, second.ready);
+  }
+
+  @Test
+  public void reportsAFailedCheckAndTriesAgainNextTime() throws Exception {
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_UNMOUNTED);
+    RecordingListener failed = new RecordingListener();
+    StartupPipeline.whenDirectoriesReady(appName, failed);
+    failed.await();
+
+    assertEquals(0, failed.ready);
+    assertNotNull(failed.failure);
+
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+    RecordingListener retried = new RecordingListener();
+    StartupPipeline.whenDirectoriesReady(appName, retried);
+    retried.await();
+
+    assertEquals(1, retried.ready);
+    assertNull(retried.failure);
+  }
+
+  /**
+   * Remembers what it was told and on which thread
+   */
+  private static final class RecordingListener implements StartupPipeline.DirectoryCheckListener {
+    int ready = 0;
+    RuntimeException failure;
+    Thread thread;
+
+    @Override
+    public void directoriesReady() {
+      ready++;
+      thread = Thread.currentThread();
+    }
+
+    @Override
+    public void directoriesUnavailable(RuntimeException e) {
+      failure = e;
+      thread = Thread.currentThread();
+    }
+
+    /**
+     * Runs what was posted to the main thread until the listener is told
+     */
+    void await() throws InterruptedException {
+      long until = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (thread == null && System.currentTimeMillis() < until) {
+        ShadowLooper.runUiThreadTasks();
+        if (thread == null) {
+          Thread.sleep(10);
+        }
+      }
+      assertTrue("the listener wasn't told", thread != null);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.application;
+
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.tables.utils.DbAccessMonitor;
+
+/**
+ * The application Robolectric runs the jvm tests in, in place of Tables because of its name.
+ * Tests can give it a database to hand out, since ODK Services can't be bound to here.
+ * <p>
+ * Typical use:
+ * <pre>
+ * ((TestTables) RuntimeEnvironment.application).setDatabase(dbInterface);
+ * </pre>
+ */
+public class TestTables extends Tables {
+
+  // what getDatabase returns, null to go to ODK Services as Tables does
+  private UserDbInterface database = null;
+
+  /**
+   * @param dbInterface what getDatabase should return, or null for ODK Services
+   */
+  public void setDatabase(UserDbInterface dbInterface) {
+    this.database = dbInterface;
+  }
+
+  @Override
+  protected void initCrashReporting() {
+    // there is no Crashlytics to report to from the jvm tests
+  }
+
+  @Override
+  public UserDbInterface getDatabase() {
+    UserDbInterface dbInterface = database;
+    return dbInterface == null ? super.getDatabase() : DbAccessMonitor.wrap(dbInterface);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.data.utilities.TableUtil;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.tables.application.TestTables;
+import org.opendatakit.tables.utils.DbSessionManager;
+import org.opendatakit.testutils.SyntheticTable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Takes prefetches of a table held by a mock database, checking that one still running is
+ * handed over once it finishes rather than dropped. Prefetches are kept for the whole process,
+ * so every test uses an app name of its own.
+ * <p>
+ * The main looper is paused so what the prefetcher posts to it waits until the test runs it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TablePrefetcherTest {
+
+  // how long to wait for the background thread
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  private String appName;
+  private SyntheticTable table;
+  private TableUtil originalTableUtil;
+  // the prefetch waits for this before reading the columns
+  private CountDownLatch release;
+  // counted down once the prefetch started reading
+  private CountDownLatch started;
+
+  @Before
+  public void setUp() throws Exception {
+    appName = "prefetch-" + UUID.randomUUID().toString();
+    table = new SyntheticTable(10, 3);
+    release = new CountDownLatch(1);
+    started = new CountDownLatch(1);
+
+    UserDbInterface dbInterface = mock(UserDbInterface.class);
+    doReturn(new DbHandle("prefetch")).when(dbInterface).openDatabase(anyString());
+    doAnswer(new Answer<OrderedColumns>() {
+      @Override
+      public OrderedColumns answer(InvocationOnMock invocation) throws Exception {
+        started.countDown();
+        assertTrue(release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        return table.getColumnDefinitions();
+      }
+    }).when(dbInterface).getUserDefinedColumns(anyString(), any(DbHandle.class), anyString());
+    doReturn(table.getUserTable()).when(dbInterface)
+        .simpleQuery(anyString(), any(DbHandle.class), anyString(), any(OrderedColumns.class),
+            any(), any(), any(), any(), any(), any(), any(), any());
+    ((TestTables) RuntimeEnvironment.application).setDatabase(dbInterface);
+
+    // no view types, sort or group by stored for the table, so it opens in a spreadsheet
+    originalTableUtil = TableUtil.get();
+    TableUtil.set(mock(TableUtil.class));
+    ShadowLooper.pauseMainLooper();
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    TableUtil.set(originalTableUtil);
+    DbSessionManager.databaseUnavailable();
+    ((TestTables) RuntimeEnvironment.application).setDatabase(null);
+  }
+
+  @Test
+  public void nothingToTakeIsToldStraightAway() {
+    RecordingCallback callback = new RecordingCallback();
+    TablePrefetcher.take(appName, SyntheticTable.TABLE_ID, callback);
+
+    assertTrue(callback.called);
+    assertNull(callback.result);
+  }
+
+  @Test
+  public void handsOverAPrefetchThatWasStillRunning() throws Exception {
+    TablePrefetcher.prefetch(appName, SyntheticTable.TABLE_ID);
+    assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+    RecordingCallback callback = new RecordingCallback();
+    TablePrefetcher.take(appName, SyntheticTable.TABLE_ID, callback);
+    ShadowLooper.runUiThreadTasks();
+    assertFalse(callback.called);
+
+    release.countDown();
+    callback.await();
+
+    assertNotNull(callback.result);
+    assertSame(table.getColumnDefinitions(), callback.result.columnDefinitions);
+    // ten rows fit on a screen, so they were read too
+    assertNotNull(callback.result.userTable);
+  }
+
+  @Test
+  public void aPrefetchIsTakenOnce() throws Exception {
+    release.countDown();
+    TablePrefetcher.prefetch(appName, SyntheticTable.TABLE_ID);
+    RecordingCallback first = new RecordingCallback();
+    TablePrefetcher.take(appName, SyntheticTable.TABLE_ID, first);
+    first.await();
+
+    RecordingCallback second = new RecordingCallback();
+    TablePrefetcher.take(appName, SyntheticTable.TABLE_ID, second);
+
+    assertTrue(second.called);
+    assertNull(second.result);
+  }
+
+  /**
+   * Remembers what the prefetcher handed over
+   */
+  private static final class RecordingCallback implements TablePrefetcher.Callback {
+    boolean called = false;
+    TablePrefetcher.Result result;
+
+    @Override
+    public void onPrefetchTaken(TablePrefetcher.Result result) {
+      this.called = true;
+      this.result = result;
+    }
+
+    /**
+     * Runs what was posted to the UI thread until the prefetcher calls back
+     */
+    void await() throws InterruptedException {
+      long until = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (!called && System.currentTimeMillis() < until) {
+        ShadowLooper.runUiThreadTasks();
+        if (!called) {
+          Thread.sleep(10);
+        }
+      }
+      assertTrue("the prefetcher didn't call back", called);
+    }
+  }
+}
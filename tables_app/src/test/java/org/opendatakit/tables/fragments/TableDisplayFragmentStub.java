@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.fragments;
+
+import org.opendatakit.application.CommonApplication;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.tables.application.Tables;
+
+/**
+ * A table display fragment that isn't attached to a TableDisplayActivity. It hands out the table
+ * it was given, so views that take a fragment can be built without starting an activity.
+ */
+public class TableDisplayFragmentStub extends AbsTableDisplayFragment {
+
+  private final String appName;
+  private final String tableId;
+  private final OrderedColumns columnDefinitions;
+  private final UserTable userTable;
+
+  public TableDisplayFragmentStub(String appName, String tableId,
+      OrderedColumns columnDefinitions, UserTable userTable) {
+    this.appName = appName;
+    this.tableId = tableId;
+    this.columnDefinitions = columnDefinitions;
+    this.userTable = userTable;
+  }
+
+  @Override
+  public String getAppName() {
+    return appName;
+  }
+
+  @Override
+  public String getTableId() {
+    return tableId;
+  }
+
+  @Override
+  public OrderedColumns getColumnDefinitions() {
+    return columnDefinitions;
+  }
+
+  @Override
+  public UserTable getUserTable() {
+    return userTable;
+  }
+
+  @Override
+  public CommonApplication getCommonApplication() {
+    return Tables.getInstance();
+  }
+
+  @Override
+  public void databaseAvailable() {
+  }
+
+  @Override
+  public void databaseUnavailable() {
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.content.ContentValues;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.testutils.Benchmark;
+import org.opendatakit.testutils.BenchmarkReports;
+import org.opendatakit.testutils.SyntheticTable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Imports a generated 100k row csv through CsvBatchImporter and the sink ImportTask uses,
+ * {@link RowUpsertSink}, into a mocked UserDbInterface, once a row at a time and once in the
+ * batches ImportTask picks. The mock counts the service calls and charges each one about the
+ * cost of a binder transaction; the listener counts the progress updates and charges each one
+ * the cost of posting it to the dialog.
+ * <p>
+ * The call counts are checked: every row is a getRowsWithId and an insertRowWithId call however
+ * it is batched, and batching only cuts the progress updates to one per batch. The throughput
+ * of both is reported, and only meaningful relative to each other. The report is printed and
+ * written to build/reports/benchmarks/csv-import.txt.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Category(Benchmark.class)
+@Config(sdk = 25)
+public class CsvBatchImporterBenchmark {
+
+  private static final String APP_NAME = "default";
+  private static final String TABLE_ID = "import";
+  private static final int NUM_ROWS = 100000;
+  private static final int NUM_COLUMNS = 12;
+  // cost of a single call into the service, roughly a binder transaction
+  private static final long PER_CALL_NANOS = 50000L;
+  // cost of posting a progress update to the dialog
+  private static final long PER_PROGRESS_NANOS = 20000L;
+
+  private static String csv;
+
+  private UserDbInterface dbInterface;
+  private DbHandle db;
+  private OrderedColumns orderedDefns;
+  // what the last import cost
+  private int serviceCalls;
+  private int progressUpdates;
+
+  @BeforeClass
+  public static void generateCsv() {
+    StringBuilder sb = new StringBuilder(NUM_ROWS * NUM_COLUMNS * 8);
+    sb.append(DataTableColumns.ID);
+    for (int c = 0; c < NUM_COLUMNS; c++) {
+      sb.append(",col").append(c);
+    }
+    sb.append('\n');
+    for (int r = 0; r < NUM_ROWS; r++) {
+      sb.append("uuid:").append(r);
+      for (int c = 0; c < NUM_COLUMNS; c++) {
+        sb.append(',').append(r * 31 + c);
+      }
+      sb.append('\n');
+    }
+    csv = sb.toString();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    List<Column> columns = new ArrayList<>();
+    for (int c = 0; c < NUM_COLUMNS; c++) {
+      columns.add(new Column("col" + c, "col" + c, ElementDataType.integer.name(), "[]"));
+    }
+    orderedDefns = new OrderedColumns(APP_NAME, TABLE_ID, columns);
+    db = new DbHandle("import");
+    // stub only, so the mock doesn't hold on to every call it was made
+    dbInterface = mock(UserDbInterface.class, withSettings().stubOnly());
+    // none of the rows are in the table yet
+    final UserTable noRows = mock(UserTable.class);
+    doReturn(0).when(noRows).getNumberOfRows();
+    doAnswer(new Answer<UserTable>() {
+      @Override
+      public UserTable answer(InvocationOnMock invocation) {
+        serviceCalls++;
+        spin(PER_CALL_NANOS);
+        return noRows;
+      }
+    }).when(dbInterface).getRowsWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), anyString());
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        serviceCalls++;
+        spin(PER_CALL_NANOS);
+        return null;
+      }
+    }).when(dbInterface).insertRowWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), any(ContentValues.class), anyString());
+  }
+
+  @Test
+  public void compareRowAndBatchInserts() throws Exception {
+    int batchSize = CsvBatchImporter.batchSizeFor(NUM_COLUMNS + 1);
+
+    long perRow = timeImport(1);
+    assertEquals(2 * NUM_ROWS, serviceCalls);
+    assertEquals(NUM_ROWS, progressUpdates);
+    int perRowProgress = progressUpdates;
+
+    long batched = timeImport(batchSize);
+    assertEquals(2 * NUM_ROWS, serviceCalls);
+    assertEquals((NUM_ROWS + batchSize - 1) / batchSize, progressUpdates);
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.US, "csv import, %d rows, %d columns\n", NUM_ROWS,
+        NUM_COLUMNS));
+    report.append(String.format(Locale.US,
+        "per-row:         %8d rows/s, %d service calls, %d progress updates\n",
+        rowsPerSecond(perRow), 2 * NUM_ROWS, perRowProgress));
+    report.append(String.format(Locale.US,
+        "batches of %3d:  %8d rows/s, %d service calls, %d progress updates\n", batchSize,
+        rowsPerSecond(batched), serviceCalls, progressUpdates));
+    BenchmarkReports.write("csv-import.txt", report.toString());
+  }
+
+  /**
+   * @return how long importing the csv in batches of the given size took, in nanoseconds
+   */
+  private long timeImport(int batchSize) throws Exception {
+    serviceCalls = 0;
+    progressUpdates = 0;
+    CsvBatchImporter importer = new CsvBatchImporter(new StringReader(csv));
+    RowUpsertSink sink = new RowUpsertSink(APP_NAME, dbInterface, db, TABLE_ID, orderedDefns,
+        SyntheticTable.getAdminColumns());
+    long start = System.nanoTime();
+    int imported = importer.importRows(sink, batchSize, new RowBatchSource.BatchListener() {
+      @Override
+      public void batchComplete(int rowsImported, int batchRows, long elapsedMillis) {
+        progressUpdates++;
+        spin(PER_PROGRESS_NANOS);
+      }
+    });
+    long elapsed = System.nanoTime() - start;
+    assertEquals(NUM_ROWS, imported);
+    return elapsed;
+  }
+
+  private static long rowsPerSecond(long nanos) {
+    return NUM_ROWS * 1000000000L / Math.max(1L, nanos);
+  }
+
+  private static void spin(long nanos) {
+    long until = System.nanoTime() + nanos;
+    while (System.nanoTime() < until) {
+      // spin, modelling the cost of crossing into the service or the ui
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.content.ContentValues;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.provider.DataTableColumns;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks which rows of a delta DeltaMergeSink applies and which local rows it keeps
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DeltaMergeSinkTest {
+
+  private static final String APP_NAME = "default";
+  private static final String TABLE_ID = "delta";
+  private static final String ROW_ID = "uuid:1";
+  private static final String COLUMN = "name";
+
+  // when the last import finished, and times before and after it
+  private static final String LAST_IMPORT = TableConstants.nanoSecondsFromMillis(2000000L);
+  private static final String BEFORE_IMPORT = TableConstants.nanoSecondsFromMillis(1000000L);
+  private static final String AFTER_IMPORT = TableConstants.nanoSecondsFromMillis(3000000L);
+
+  private UserDbInterface dbInterface;
+  private DbHandle db;
+  private OrderedColumns orderedDefns;
+
+  @Before
+  public void setUp() {
+    dbInterface = mock(UserDbInterface.class);
+    db = new DbHandle("delta");
+    List<Column> columns = new ArrayList<>();
+    columns.add(new Column(COLUMN, COLUMN, ElementDataType.string.name(), "[]"));
+    orderedDefns = new OrderedColumns(APP_NAME, TABLE_ID, columns);
+  }
+
+  @Test
+  public void insertsNewRows() throws Exception {
+    givenLocalRow(null);
+    DeltaMergeSink sink = merge(LAST_IMPORT, upsert("new value"));
+
+    ArgumentCaptor<ContentValues> values = ArgumentCaptor.forClass(ContentValues.class);
+    verify(dbInterface).insertRowWithId(eq(APP_NAME), eq(db), eq(TABLE_ID), eq(orderedDefns),
+        values.capture(), eq(ROW_ID));
+    assertEquals("new value", values.getValue().getAsString(COLUMN));
+    assertEquals(0, sink.getKept());
+  }
+
+  @Test
+  public void updatesRowsNotChangedSinceTheLastImport() throws Exception {
+    // the local row was saved by the last import, later than the source's edit it carries
+    givenLocalRow(BEFORE_IMPORT);
+    Map<String, String> row = upsert("edited at the source");
+    row.put(DataTableColumns.SAVEPOINT_TIMESTAMP, TableConstants.nanoSecondsFromMillis(500L));
+    DeltaMergeSink sink = merge(LAST_IMPORT, row);
+
+    ArgumentCaptor<ContentValues> values = ArgumentCaptor.forClass(ContentValues.class);
+    verify(dbInterface).updateRowWithId(eq(APP_NAME), eq(db), eq(TABLE_ID), eq(orderedDefns),
+        values.capture(), eq(ROW_ID));
+    assertEquals("edited at the source", values.getValue().getAsString(COLUMN));
+    assertEquals(0, sink.getKept());
+  }
+
+  @Test
+  public void keepsRowsChangedSinceTheLastImport() throws Exception {
+    givenLocalRow(AFTER_IMPORT);
+    DeltaMergeSink sink = merge(LAST_IMPORT, upsert("edited at the source"));
+
+    verify(dbInterface, never()).updateRowWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), any(ContentValues.class), anyString());
+    assertEquals(1, sink.getKept());
+  }
+
+  @Test
+  public void deletesRowsNotChangedSinceTheLastImport() throws Exception {
+    givenLocalRow(BEFORE_IMPORT);
+    DeltaMergeSink sink = merge(LAST_IMPORT, delete());
+
+    verify(dbInterface).deleteRowWithId(APP_NAME, db, TABLE_ID, orderedDefns, ROW_ID);
+    assertEquals(0, sink.getKept());
+  }
+
+  @Test
+  public void keepsDeletedRowsChangedSinceTheLastImport() throws Exception {
+    givenLocalRow(AFTER_IMPORT);
+    DeltaMergeSink sink = merge(LAST_IMPORT, delete());
+
+    verify(dbInterface, never()).deleteRowWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), anyString());
+    assertEquals(1, sink.getKept());
+  }
+
+  @Test
+  public void ignoresDeletesOfMissingRows() throws Exception {
+    givenLocalRow(null);
+    merge(LAST_IMPORT, delete());
+
+    verify(dbInterface, never()).deleteRowWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), anyString());
+  }
+
+  @Test
+  public void appliesEveryRowWithoutARecordedImport() throws Exception {
+    givenLocalRow(AFTER_IMPORT);
+    DeltaMergeSink sink = merge(null, upsert("edited at the source"));
+
+    verify(dbInterface).updateRowWithId(eq(APP_NAME), eq(db), eq(TABLE_ID), eq(orderedDefns),
+        any(ContentValues.class), eq(ROW_ID));
+    assertEquals(0, sink.getKept());
+  }
+
+  /**
+   * Makes the table hold ROW_ID, saved at the given time, or not hold it if savepoint is null
+   */
+  private void givenLocalRow(String savepoint) throws Exception {
+    UserTable existing = mock(UserTable.class);
+    if (savepoint == null) {
+      doReturn(0).when(existing).getNumberOfRows();
+    } else {
+      Row row = mock(Row.class);
+      doReturn(savepoint).when(row).getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP);
+      doReturn(1).when(existing).getNumberOfRows();
+      doReturn(row).when(existing).getRowAtIndex(0);
+    }
+    doReturn(existing).when(dbInterface)
+        .getRowsWithId(APP_NAME, db, TABLE_ID, orderedDefns, ROW_ID);
+  }
+
+  private DeltaMergeSink merge(String lastImport, Map<String, String> row) throws Exception {
+    DeltaMergeSink sink = new DeltaMergeSink(APP_NAME, dbInterface, db, TABLE_ID, orderedDefns,
+        lastImport);
+    sink.insertBatch(Collections.singletonList(row));
+    return sink;
+  }
+
+  private static Map<String, String> upsert(String value) {
+    Map<String, String> row = new HashMap<>();
+    row.put(TableDeltaExporter.OP_COLUMN, TableDeltaExporter.OP_UPSERT);
+    row.put(DataTableColumns.ID, ROW_ID);
+    row.put(COLUMN, value);
+    return row;
+  }
+
+  private static Map<String, String> delete() {
+    Map<String, String> row = new HashMap<>();
+    row.put(TableDeltaExporter.OP_COLUMN, TableDeltaExporter.OP_DELETE);
+    row.put(DataTableColumns.ID, ROW_ID);
+    row.put(COLUMN, null);
+    return row;
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.content.ContentValues;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.testutils.SyntheticTable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Exports a table in the compressed and columnar formats and imports the file the way ImportTask
+ * does, through {@link RowUpsertSink}, into a stand-in for the database service that keeps the
+ * rows it is given. Every value, the metadata columns included, has to come back byte for byte,
+ * and importing the same file a second time has to update the rows rather than fail on them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class ExportImportRoundTripTest {
+
+  private static final String APP_NAME = "default";
+  private static final String TABLE_ID = "roundtrip";
+  // more than one page, so several blocks are written
+  private static final int NUM_ROWS = TableCsvExporter.PAGE_SIZE * 2 + 17;
+
+  private OrderedColumns orderedDefns;
+  private String[] adminColumns;
+  // the columns of the data file, row id first
+  private List<String> columns;
+  // the rows of the exported table, in row id order
+  private List<String[]> rows;
+  private File file;
+
+  private UserDbInterface dbInterface;
+  private DbHandle db;
+  // the rows the stand-in database holds, by row id, each by column
+  private final Map<String, Map<String, String>> stored = new HashMap<>();
+  private int inserts = 0;
+  private int updates = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    List<Column> userColumns = new ArrayList<>();
+    userColumns.add(new Column("count", "count", ElementDataType.integer.name(), "[]"));
+    userColumns.add(new Column("weight", "weight", ElementDataType.number.name(), "[]"));
+    userColumns.add(new Column("note", "note", ElementDataType.string.name(), "[]"));
+    orderedDefns = new OrderedColumns(APP_NAME, TABLE_ID, userColumns);
+    adminColumns = SyntheticTable.getAdminColumns();
+    columns = TableCsvExporter.getExportColumns(orderedDefns, adminColumns);
+    rows = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      rows.add(row(i));
+    }
+    file = File.createTempFile("roundtrip", null);
+    db = new DbHandle("roundtrip");
+    installDatabase();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void columnarRoundTripsThroughTheDatabase() throws Exception {
+    roundTrip(ExportFormat.COLUMNAR);
+  }
+
+  @Test
+  public void gzipRoundTripsThroughTheDatabase() throws Exception {
+    roundTrip(ExportFormat.CSV_GZIP);
+  }
+
+  /**
+   * Exports the table in the format, imports it twice and checks what the database holds
+   */
+  private void roundTrip(ExportFormat format) throws Exception {
+    assertEquals(NUM_ROWS, TableCsvExporter.writeRows(new ListPageSource(), TABLE_ID, file,
+        format, null));
+
+    assertEquals(NUM_ROWS, importFile(format));
+    assertEquals(NUM_ROWS, inserts);
+    assertEquals(0, updates);
+    assertStoredRowsEqual();
+
+    // a repeated transfer of the same file
+    assertEquals(NUM_ROWS, importFile(format));
+    assertEquals(NUM_ROWS, inserts);
+    assertEquals(NUM_ROWS, updates);
+    assertStoredRowsEqual();
+  }
+
+  /**
+   * Imports the data file the way ImportTask imports a compressed or columnar file
+   *
+   * @return the number of rows imported
+   */
+  private int importFile(ExportFormat format) throws Exception {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      RowBatchSource source = ImportTask.openSource(in, format);
+      assertArrayEquals(columns.toArray(), source.getHeader());
+      return source.importRows(
+          new RowUpsertSink(APP_NAME, dbInterface, db, TABLE_ID, orderedDefns, adminColumns),
+          CsvBatchImporter.batchSizeFor(columns.size()), null);
+    } finally {
+      in.close();
+    }
+  }
+
+  private void assertStoredRowsEqual() {
+    assertEquals(NUM_ROWS, stored.size());
+    for (String[] row : rows) {
+      Map<String, String> values = stored.get(row[0]);
+      assertTrue("missing " + row[0], values != null);
+      for (int j = 1; j < row.length; j++) {
+        String value = values.get(columns.get(j));
+        if (row[j] == null) {
+          assertNull(columns.get(j), value);
+        } else {
+          // compare the bytes, not just equals, to prove nothing was normalized
+          assertArrayEquals(columns.get(j), row[j].getBytes(StandardCharsets.UTF_8),
+              value.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return row i of the table, its values in the order of the data file's columns
+   */
+  private String[] row(int i) {
+    Map<String, String> values = new HashMap<>();
+    values.put(DataTableColumns.ID, String.format(Locale.US, "uuid:%08d", i));
+    values.put("count", i % 11 == 0 ? null : Integer.toString(i * 37 - 5000));
+    values.put("weight", Double.toString(i / 3.0));
+    values.put("note", i % 3 == 0 ? "ünïcødé, \"quoted\"\nvalue" : "pending");
+    values.put(DataTableColumns.ROW_ETAG, "etag-" + i);
+    values.put(DataTableColumns.DEFAULT_ACCESS, i % 2 == 0 ? "FULL" : "READ_ONLY");
+    values.put(DataTableColumns.ROW_OWNER, "mailto:owner" + (i % 4) + "@example.org");
+    values.put(DataTableColumns.GROUP_READ_ONLY, i % 5 == 0 ? "GROUP_READERS" : null);
+    values.put(DataTableColumns.GROUP_MODIFY, null);
+    values.put(DataTableColumns.GROUP_PRIVILEGED, i % 7 == 0 ? "GROUP_ADMINS" : null);
+    values.put(DataTableColumns.FORM_ID, "household");
+    values.put(DataTableColumns.LOCALE, "en_US");
+    values.put(DataTableColumns.SAVEPOINT_TYPE, i % 9 == 0 ? "INCOMPLETE" : "COMPLETE");
+    values.put(DataTableColumns.SAVEPOINT_TIMESTAMP,
+        TableConstants.nanoSecondsFromMillis(1520000000000L + i * 1000L));
+    values.put(DataTableColumns.SAVEPOINT_CREATOR, "mailto:collector@example.org");
+    String[] row = new String[columns.size()];
+    for (int j = 0; j < row.length; j++) {
+      assertTrue(columns.get(j), values.containsKey(columns.get(j)));
+      row[j] = values.get(columns.get(j));
+    }
+    return row;
+  }
+
+  /**
+   * Makes dbInterface a stand-in for the database service that keeps the rows it is given in
+   * stored. Like the service, it refuses to insert a row whose id is already in the table, and
+   * to update one that isn't.
+   */
+  private void installDatabase() throws Exception {
+    dbInterface = mock(UserDbInterface.class);
+    final UserTable present = mock(UserTable.class);
+    doReturn(1).when(present).getNumberOfRows();
+    final UserTable absent = mock(UserTable.class);
+    doReturn(0).when(absent).getNumberOfRows();
+    doAnswer(new Answer<UserTable>() {
+      @Override
+      public UserTable answer(InvocationOnMock invocation) {
+        return stored.containsKey(invocation.<String>getArgument(4)) ? present : absent;
+      }
+    }).when(dbInterface).getRowsWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), anyString());
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        String rowId = invocation.getArgument(5);
+        if (stored.containsKey(rowId)) {
+          throw new IllegalStateException(rowId + " is already in the table");
+        }
+        stored.put(rowId, toMap(invocation.<ContentValues>getArgument(4)));
+        inserts++;
+        return null;
+      }
+    }).when(dbInterface).insertRowWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), any(ContentValues.class), anyString());
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        String rowId = invocation.getArgument(5);
+        if (!stored.containsKey(rowId)) {
+          throw new IllegalStateException(rowId + " is not in the table");
+        }
+        stored.get(rowId).putAll(toMap(invocation.<ContentValues>getArgument(4)));
+        updates++;
+        return null;
+      }
+    }).when(dbInterface).updateRowWithId(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), any(ContentValues.class), anyString());
+  }
+
+  private static Map<String, String> toMap(ContentValues cv) {
+    Map<String, String> values = new HashMap<>();
+    for (String key : cv.keySet()) {
+      values.put(key, cv.getAsString(key));
+    }
+    return values;
+  }
+
+  /**
+   * Hands out the table's rows a page at a time, as TableCsvExporter's own source does
+   */
+  private class ListPageSource implements TableCsvExporter.PageSource {
+    @Override
+    public List<String> getColumns() {
+      return columns;
+    }
+
+    @Override
+    public int countRows() {
+      return rows.size();
+    }
+
+    @Override
+    public List<String[]> getPage(String afterRowId, int limit) {
+      int first = afterRowId == null ? 0 : Integer.parseInt(afterRowId.substring(5)) + 1;
+      return new ArrayList<>(rows.subList(first, Math.min(rows.size(), first + limit)));
+    }
+  }
+}
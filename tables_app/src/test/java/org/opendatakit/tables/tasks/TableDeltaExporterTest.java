@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import android.os.Environment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.RFC4180CsvReader;
+import org.opendatakit.aggregate.odktables.rest.TableConstants;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.TableMetaDataEntries;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.KeyValueStoreUtils;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.application.TestTables;
+import org.opendatakit.utilities.ODKFileUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs delta exports of a table held by a mock database, checking the delta file and the
+ * checkpoint they leave behind
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TableDeltaExporterTest {
+
+  private static final String APP_NAME = "default";
+  private static final String TABLE_ID = "delta";
+  private static final String COLUMN = "name";
+  private static final String SAVEPOINT = TableConstants.nanoSecondsFromMillis(1000000L);
+
+  private UserDbInterface dbInterface;
+  private DbHandle db;
+  // the rows saved since the checkpoint, as _id, name, _savepoint_timestamp, sorted the way the
+  // query for changed rows sorts them
+  private List<String[]> changedRows;
+  // the ids of the rows in the table, sorted
+  private List<String> liveRowIds;
+  // the table's key value store, by aspect and key
+  private Map<String, String> keyValueStore;
+  // the selection of every query for changed rows
+  private List<String> selections;
+  // the sql of every query for the ids of the rows in the table
+  private List<String> liveRowIdsQueries;
+
+  @Before
+  public void setUp() throws Exception {
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+    changedRows = new ArrayList<>();
+    liveRowIds = new ArrayList<>();
+    keyValueStore = new HashMap<>();
+    selections = new ArrayList<>();
+    liveRowIdsQueries = new ArrayList<>();
+
+    List<Column> columns = new ArrayList<>();
+    columns.add(new Column(COLUMN, COLUMN, ElementDataType.string.name(), "[]"));
+    OrderedColumns orderedDefns = new OrderedColumns(APP_NAME, TABLE_ID, columns);
+
+    db = new DbHandle("delta");
+    dbInterface = mock(UserDbInterface.class);
+    doReturn(db).when(dbInterface).openDatabase(anyString());
+    doReturn(new String[] { DataTableColumns.ID, DataTableColumns.SAVEPOINT_TIMESTAMP,
+        DataTableColumns.SYNC_STATE }).when(dbInterface).getAdminColumns();
+    doReturn(orderedDefns).when(dbInterface)
+        .getUserDefinedColumns(anyString(), any(DbHandle.class), anyString());
+    doAnswer(new Answer<TableMetaDataEntries>() {
+      @Override
+      public TableMetaDataEntries answer(InvocationOnMock invocation) {
+        String value = keyValueStore
+            .get(invocation.getArgument(4) + "/" + invocation.getArgument(5));
+        List<KeyValueStoreEntry> entries = new ArrayList<>();
+        if (value != null) {
+          entries.add(KeyValueStoreUtils
+              .buildEntry(TABLE_ID, invocation.<String>getArgument(3),
+                  invocation.<String>getArgument(4), invocation.<String>getArgument(5),
+                  ElementDataType.string, value));
+        }
+        TableMetaDataEntries metadata = mock(TableMetaDataEntries.class);
+        doReturn(entries).when(metadata).getEntries();
+        return metadata;
+      }
+    }).when(dbInterface).getTableMetadata(anyString(), any(DbHandle.class), anyString(),
+        anyString(), anyString(), anyString(), any());
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        KeyValueStoreEntry entry = invocation.getArgument(2);
+        keyValueStore.put(entry.aspect + "/" + entry.key, entry.value);
+        return null;
+      }
+    }).when(dbInterface)
+        .replaceTableMetadata(anyString(), any(DbHandle.class), any(KeyValueStoreEntry.class));
+    doAnswer(new Answer<UserTable>() {
+      @Override
+      public UserTable answer(InvocationOnMock invocation) throws Exception {
+        String selection = invocation.getArgument(4);
+        selections.add(selection);
+        // a page after the first starts from the last row id of the one before
+        String afterRowId = null;
+        if (selection.endsWith(DataTableColumns.ID + " >= ?")) {
+          Object[] args = ODKFileUtils.mapper
+              .readValue(invocation.<BindArgs>getArgument(5).asJSON(), Object[].class);
+          afterRowId = (String) args[args.length - 1];
+        }
+        return changedRowsTable(afterRowId, invocation.<Integer>getArgument(10));
+      }
+    }).when(dbInterface).simpleQuery(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), anyString(), any(BindArgs.class), any(), any(), any(), any(),
+        any(), any());
+    doAnswer(new Answer<BaseTable>() {
+      @Override
+      public BaseTable answer(InvocationOnMock invocation) {
+        liveRowIdsQueries.add(invocation.<String>getArgument(3));
+        return liveRowIdsTable();
+      }
+    }).when(dbInterface).arbitrarySqlQuery(anyString(), any(DbHandle.class), anyString(),
+        anyString(), any(BindArgs.class), anyInt(), anyInt());
+    ((TestTables) RuntimeEnvironment.application).setDatabase(dbInterface);
+  }
+
+  @After
+  public void tearDown() {
+    ((TestTables) RuntimeEnvironment.application).setDatabase(null);
+  }
+
+  @Test
+  public void firstExportWritesEveryRow() throws Exception {
+    changedRows.add(new String[] { "uuid:1", "one", SAVEPOINT });
+    changedRows.add(new String[] { "uuid:2", "two", SAVEPOINT });
+    liveRowIds.addAll(Arrays.asList("uuid:1", "uuid:2"));
+
+    TableCsvExporter.Summary summary = export();
+
+    assertTrue(summary.success);
+    assertEquals(2, summary.rows);
+    List<String[]> lines = readDelta();
+    assertEquals(3, lines.size());
+    assertArrayEquals(new String[] { TableDeltaExporter.OP_COLUMN, DataTableColumns.ID, COLUMN,
+        DataTableColumns.SAVEPOINT_TIMESTAMP }, lines.get(0));
+    assertArrayEquals(
+        new String[] { TableDeltaExporter.OP_UPSERT, "uuid:1", "one", SAVEPOINT },
+        lines.get(1));
+    assertArrayEquals(
+        new String[] { TableDeltaExporter.OP_UPSERT, "uuid:2", "two", SAVEPOINT },
+        lines.get(2));
+    assertFalse("the first export has no checkpoint to start from",
+        selections.get(0).contains(DataTableColumns.SAVEPOINT_TIMESTAMP + " > ?"));
+    assertNotNull(keyValueStore.get("deltaExport/checkpoint"));
+  }
+
+  @Test
+  public void nextExportWritesOnlyChangesSinceTheCheckpoint() throws Exception {
+    changedRows.add(new String[] { "uuid:1", "one", SAVEPOINT });
+    changedRows.add(new String[] { "uuid:2", "two", SAVEPOINT });
+    liveRowIds.addAll(Arrays.asList("uuid:1", "uuid:2"));
+    export();
+
+    changedRows.clear();
+    changedRows.add(new String[] { "uuid:1", "uno", SAVEPOINT });
+    liveRowIds.remove("uuid:2");
+    TableCsvExporter.Summary summary = export();
+
+    assertTrue(summary.success);
+    assertEquals(2, summary.rows);
+    assertTrue("the next export starts from the checkpoint",
+        selections.get(1).contains(DataTableColumns.SAVEPOINT_TIMESTAMP + " > ?"));
+    List<String[]> lines = readDelta();
+    assertEquals(3, lines.size());
+    assertArrayEquals(
+        new String[] { TableDeltaExporter.OP_UPSERT, "uuid:1", "uno", SAVEPOINT },
+        lines.get(1));
+    assertEquals(TableDeltaExporter.OP_DELETE, lines.get(2)[0]);
+    assertEquals("uuid:2", lines.get(2)[1]);
+  }
+
+  @Test
+  public void keepsBothVersionsOfARowInConflictAcrossAPageBoundary() throws Exception {
+    int pageSize = TableCsvExporter.PAGE_SIZE;
+    for (int i = 0; i < pageSize - 1; i++) {
+      changedRows.add(new String[] { rowId(i), "row " + i, SAVEPOINT });
+    }
+    // the last row of the first page, and the first of the second
+    changedRows.add(new String[] { rowId(pageSize - 1), "local version", SAVEPOINT });
+    changedRows.add(new String[] { rowId(pageSize - 1), "server version", SAVEPOINT });
+    changedRows.add(new String[] { rowId(pageSize), "after the conflict", SAVEPOINT });
+    for (String[] row : changedRows) {
+      if (!liveRowIds.contains(row[0])) {
+        liveRowIds.add(row[0]);
+      }
+    }
+
+    TableCsvExporter.Summary summary = export();
+
+    assertTrue(summary.success);
+    assertEquals(pageSize + 2, summary.rows);
+    List<String[]> lines = readDelta();
+    assertEquals(pageSize + 3, lines.size());
+    for (int i = 0; i < changedRows.size(); i++) {
+      assertArrayEquals(new String[] { TableDeltaExporter.OP_UPSERT, changedRows.get(i)[0],
+          changedRows.get(i)[1], SAVEPOINT }, lines.get(i + 1));
+    }
+  }
+
+  @Test
+  public void listsTheIdOfARowInConflictOnce() throws Exception {
+    export();
+
+    assertEquals(1, liveRowIdsQueries.size());
+    assertTrue(liveRowIdsQueries.get(0),
+        liveRowIdsQueries.get(0).startsWith("SELECT DISTINCT " + DataTableColumns.ID + " "));
+  }
+
+  @Test
+  public void doesNotDeleteRowsListedTwiceInAnOldSnapshot() throws Exception {
+    // a snapshot written while a row was in conflict, before ids were listed once
+    File snapshot = new File(new File(ODKFileUtils.getOutputCsvFolder(APP_NAME), ".delta"),
+        TABLE_ID + ".ids");
+    assertTrue(snapshot.getParentFile().isDirectory() || snapshot.getParentFile().mkdirs());
+    Writer writer = new OutputStreamWriter(new FileOutputStream(snapshot),
+        StandardCharsets.UTF_8);
+    try {
+      writer.write("uuid:1\nuuid:1\nuuid:2\n");
+    } finally {
+      writer.close();
+    }
+    liveRowIds.addAll(Arrays.asList("uuid:1", "uuid:2"));
+
+    TableCsvExporter.Summary summary = export();
+
+    assertTrue(summary.success);
+    assertEquals(0, summary.rows);
+    assertEquals(1, readDelta().size());
+  }
+
+  @Test
+  public void recordedImportIsReadBack() throws Exception {
+    assertNull(TableDeltaExporter.getLastImport(APP_NAME, dbInterface, db, TABLE_ID));
+    TableDeltaExporter.recordImport(APP_NAME, dbInterface, db, TABLE_ID, SAVEPOINT);
+    assertEquals(SAVEPOINT,
+        TableDeltaExporter.getLastImport(APP_NAME, dbInterface, db, TABLE_ID));
+  }
+
+  @Test
+  public void onlyTheCheckpointAndLastImportAreDeviceOnly() {
+    assertTrue(TableDeltaExporter.isDeviceOnlyEntry(KeyValueStoreUtils
+        .buildEntry(TABLE_ID, "Tables", "deltaExport", "checkpoint", ElementDataType.string,
+            SAVEPOINT)));
+    assertTrue(TableDeltaExporter.isDeviceOnlyEntry(KeyValueStoreUtils
+        .buildEntry(TABLE_ID, "Tables", "deltaImport", "lastImport", ElementDataType.string,
+            SAVEPOINT)));
+    assertFalse(TableDeltaExporter.isDeviceOnlyEntry(KeyValueStoreUtils
+        .buildEntry(TABLE_ID, "Tables", "deltaImport", "checkpoint", ElementDataType.string,
+            SAVEPOINT)));
+    assertFalse(TableDeltaExporter.isDeviceOnlyEntry(KeyValueStoreUtils
+        .buildEntry(TABLE_ID, "Table", "deltaExport", "checkpoint", ElementDataType.string,
+            SAVEPOINT)));
+  }
+
+  private TableCsvExporter.Summary export() {
+    return new TableDeltaExporter(APP_NAME, dbInterface).export(TABLE_ID, null, null);
+  }
+
+  private List<String[]> readDelta() throws Exception {
+    File file = TableDeltaExporter.getOutputFile(APP_NAME, TABLE_ID, null);
+    RFC4180CsvReader reader = new RFC4180CsvReader(
+        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      List<String[]> lines = new ArrayList<>();
+      String[] line;
+      while ((line = reader.readNext()) != null) {
+        lines.add(line);
+      }
+      return lines;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static String rowId(int i) {
+    return String.format(Locale.US, "uuid:%05d", i);
+  }
+
+  /**
+   * @return the changed rows whose id is afterRowId or later, at most limit of them
+   */
+  private UserTable changedRowsTable(String afterRowId, Integer limit) {
+    final List<String[]> rows = new ArrayList<>();
+    for (String[] row : changedRows) {
+      if ((limit == null || rows.size() < limit) && (afterRowId == null
+          || row[0].compareTo(afterRowId) >= 0)) {
+        rows.add(row);
+      }
+    }
+    final List<String> keys = Arrays
+        .asList(DataTableColumns.ID, COLUMN, DataTableColumns.SAVEPOINT_TIMESTAMP);
+    UserTable table = mock(UserTable.class);
+    doReturn(rows.size()).when(table).getNumberOfRows();
+    for (int i = 0; i < rows.size(); i++) {
+      final String[] values = rows.get(i);
+      Row row = mock(Row.class);
+      doAnswer(new Answer<String>() {
+        @Override
+        public String answer(InvocationOnMock invocation) {
+          int index = keys.indexOf(invocation.<String>getArgument(0));
+          return index < 0 ? null : values[index];
+        }
+      }).when(row).getDataByKey(anyString());
+      doReturn(row).when(table).getRowAtIndex(i);
+    }
+    return table;
+  }
+
+  private BaseTable liveRowIdsTable() {
+    BaseTable table = mock(BaseTable.class);
+    doReturn(liveRowIds.size()).when(table).getNumberOfRows();
+    for (int i = 0; i < liveRowIds.size(); i++) {
+      Row row = mock(Row.class);
+      doReturn(liveRowIds.get(i)).when(row).getDataByKey(DataTableColumns.ID);
+      doReturn(row).when(table).getRowAtIndex(i);
+    }
+    return table;
+  }
+}
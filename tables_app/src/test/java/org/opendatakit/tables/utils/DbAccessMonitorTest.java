@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks what DbAccessMonitor hands out, and that a UI thread call over the budget fails
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DbAccessMonitorTest {
+
+  private static final String APP_NAME = "default";
+  // how long the database takes to open, and a budget well under it
+  private static final long OPEN_MILLIS = 50;
+  private static final long BUDGET_MILLIS = 10;
+
+  private UserDbInterface dbInterface;
+  private DbHandle handle;
+  private boolean wasEnabled;
+
+  @Before
+  public void setUp() throws Exception {
+    wasEnabled = DbAccessMonitor.isEnabled();
+    dbInterface = mock(UserDbInterface.class);
+    handle = new DbHandle("monitored");
+    doAnswer(new Answer<DbHandle>() {
+      @Override
+      public DbHandle answer(InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(OPEN_MILLIS);
+        return handle;
+      }
+    }).when(dbInterface).openDatabase(APP_NAME);
+  }
+
+  @After
+  public void tearDown() {
+    DbAccessMonitor.setMainThreadBudget(-1);
+    DbAccessMonitor.setEnabled(wasEnabled);
+    DbAccessMonitor.reset();
+  }
+
+  @Test
+  public void handsOutTheInterfaceItselfWhenDisabled() {
+    DbAccessMonitor.setEnabled(false);
+
+    assertSame(dbInterface, DbAccessMonitor.wrap(dbInterface));
+  }
+
+  @Test
+  public void handsOutTheSameProxyForTheSameInterface() {
+    DbAccessMonitor.setEnabled(true);
+
+    UserDbInterface wrapped = DbAccessMonitor.wrap(dbInterface);
+
+    assertNotSame(dbInterface, wrapped);
+    assertSame(wrapped, DbAccessMonitor.wrap(dbInterface));
+  }
+
+  @Test
+  public void recordsTheCallSite() throws Exception {
+    DbAccessMonitor.setEnabled(true);
+    DbAccessMonitor.reset();
+
+    DbAccessMonitor.wrap(dbInterface).openDatabase(APP_NAME);
+
+    assertEquals(1, DbAccessMonitor.getCallSites().size());
+    DbAccessMonitor.CallSite site = DbAccessMonitor.getCallSites().get(0);
+    assertEquals(1, site.getCalls());
+    // Robolectric runs the tests on the UI thread
+    assertEquals(1, site.getMainThreadCalls());
+  }
+
+  @Test
+  public void failsUiThreadCallsOverTheBudget() throws Exception {
+    DbAccessMonitor.setEnabled(true);
+    DbAccessMonitor.setMainThreadBudget(BUDGET_MILLIS);
+
+    try {
+      DbAccessMonitor.wrap(dbInterface).openDatabase(APP_NAME);
+      fail("a " + OPEN_MILLIS + " ms call on the UI thread passed a " + BUDGET_MILLIS
+          + " ms budget");
+    } catch (AssertionError e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("openDatabase took "));
+    }
+  }
+
+  @Test
+  public void allowsUiThreadCallsWithinTheBudget() throws Exception {
+    DbAccessMonitor.setEnabled(true);
+    DbAccessMonitor.setMainThreadBudget(OPEN_MILLIS * 100);
+
+    assertSame(handle, DbAccessMonitor.wrap(dbInterface).openDatabase(APP_NAME));
+  }
+
+  @Test
+  public void allowsBackgroundCallsOverTheBudget() throws Exception {
+    DbAccessMonitor.setEnabled(true);
+    DbAccessMonitor.setMainThreadBudget(BUDGET_MILLIS);
+    final UserDbInterface wrapped = DbAccessMonitor.wrap(dbInterface);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      DbHandle opened = executor.submit(new Callable<DbHandle>() {
+        @Override
+        public DbHandle call() throws Exception {
+          return wrapped.openDatabase(APP_NAME);
+        }
+      }).get();
+      assertSame(handle, opened);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
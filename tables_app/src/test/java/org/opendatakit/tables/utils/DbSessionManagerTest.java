@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.tables.application.TestTables;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks when DbSessionManager opens, shares and closes handles, and how it handles the
+ * operations that never close theirs.
+ * <p>
+ * Robolectric runs the tests on the UI thread and runs what is posted to it straight away, so the
+ * main looper is paused to keep the leak sweep from running before the test closes its handles.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class DbSessionManagerTest {
+
+  private static final String APP_NAME = "default";
+  private static final String OWNER = "owner";
+
+  private UserDbInterface dbInterface;
+  private DbHandle first;
+  private DbHandle second;
+
+  @Before
+  public void setUp() throws Exception {
+    dbInterface = mock(UserDbInterface.class);
+    first = newHandle();
+    second = newHandle();
+    doReturn(first).doReturn(second).when(dbInterface).openDatabase(APP_NAME);
+    ((TestTables) RuntimeEnvironment.application).setDatabase(dbInterface);
+    ShadowLooper.pauseMainLooper();
+  }
+
+  @After
+  public void tearDown() {
+    DbSessionManager.databaseUnavailable();
+    ((TestTables) RuntimeEnvironment.application).setDatabase(null);
+  }
+
+  @Test
+  public void sharesOneHandleBetweenNestedOperations() throws Exception {
+    DbHandle outer = DbSessionManager.openDatabase(APP_NAME);
+    DbHandle inner = DbSessionManager.openDatabase(APP_NAME);
+    assertSame(outer, inner);
+
+    DbSessionManager.closeDatabase(APP_NAME, inner);
+    verify(dbInterface, never()).closeDatabase(anyString(), any(DbHandle.class));
+    DbSessionManager.closeDatabase(APP_NAME, outer);
+
+    verify(dbInterface, times(1)).openDatabase(APP_NAME);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+  }
+
+  @Test
+  public void opensANewHandleOnceTheLastOperationClosed() throws Exception {
+    DbSessionManager.closeDatabase(APP_NAME, DbSessionManager.openDatabase(APP_NAME));
+    DbHandle db = DbSessionManager.openDatabase(APP_NAME);
+    DbSessionManager.closeDatabase(APP_NAME, db);
+
+    assertSame(second, db);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, second);
+  }
+
+  @Test
+  public void scopeKeepsTheHandleOpenBetweenOperations() throws Exception {
+    DbSessionManager.beginScope(APP_NAME, OWNER);
+    DbSessionManager.closeDatabase(APP_NAME, DbSessionManager.openDatabase(APP_NAME));
+    DbSessionManager.closeDatabase(APP_NAME, DbSessionManager.openDatabase(APP_NAME));
+    verify(dbInterface, times(1)).openDatabase(APP_NAME);
+    verify(dbInterface, never()).closeDatabase(anyString(), any(DbHandle.class));
+
+    DbSessionManager.endScope(APP_NAME, OWNER);
+
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+  }
+
+  @Test
+  public void endingAScopeClosesTheHandleOfOperationsLeftOpenOnce() throws Exception {
+    DbSessionManager.beginScope(APP_NAME, OWNER);
+    DbHandle db = DbSessionManager.openDatabase(APP_NAME);
+
+    DbSessionManager.endScope(APP_NAME, OWNER);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+
+    // the operation closes it after all
+    DbSessionManager.closeDatabase(APP_NAME, db);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+  }
+
+  @Test
+  public void sweepClosesHandlesTheUiThreadLeftOpenOnce() throws Exception {
+    DbHandle db = DbSessionManager.openDatabase(APP_NAME);
+    verify(dbInterface, never()).closeDatabase(anyString(), any(DbHandle.class));
+
+    // the UI thread goes back to its message loop
+    ShadowLooper.runUiThreadTasks();
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+
+    // the operation closes it after all, the handle isn't closed again
+    DbSessionManager.closeDatabase(APP_NAME, db);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+  }
+
+  @Test
+  public void sweepLeavesClosedOperationsAlone() throws Exception {
+    DbSessionManager.closeDatabase(APP_NAME, DbSessionManager.openDatabase(APP_NAME));
+
+    ShadowLooper.runUiThreadTasks();
+
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+  }
+
+  @Test
+  public void sweepLeavesTheHandleOfAScopeOpen() throws Exception {
+    DbSessionManager.beginScope(APP_NAME, OWNER);
+    DbSessionManager.openDatabase(APP_NAME);
+
+    ShadowLooper.runUiThreadTasks();
+    verify(dbInterface, never()).closeDatabase(anyString(), any(DbHandle.class));
+
+    DbSessionManager.endScope(APP_NAME, OWNER);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, first);
+  }
+
+  @Test
+  public void threadsDontShareHandles() throws Exception {
+    DbHandle uiHandle = DbSessionManager.openDatabase(APP_NAME);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      DbHandle backgroundHandle = executor.submit(new Callable<DbHandle>() {
+        @Override
+        public DbHandle call() throws Exception {
+          DbHandle db = DbSessionManager.openDatabase(APP_NAME);
+          DbSessionManager.closeDatabase(APP_NAME, db);
+          return db;
+        }
+      }).get();
+      assertNotSame(uiHandle, backgroundHandle);
+      verify(dbInterface, times(1)).closeDatabase(APP_NAME, backgroundHandle);
+    } finally {
+      executor.shutdown();
+    }
+    DbSessionManager.closeDatabase(APP_NAME, uiHandle);
+
+    verify(dbInterface, times(2)).openDatabase(APP_NAME);
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, uiHandle);
+  }
+
+  @Test
+  public void closesHandlesItDidntOpenStraightAway() throws Exception {
+    DbHandle other = newHandle();
+
+    DbSessionManager.closeDatabase(APP_NAME, other);
+
+    verify(dbInterface, never()).openDatabase(anyString());
+    verify(dbInterface, times(1)).closeDatabase(APP_NAME, other);
+  }
+
+  /**
+   * @return a handle unlike any other, as the database service hands out
+   */
+  private static DbHandle newHandle() {
+    return new DbHandle(UUID.randomUUID().toString());
+  }
+}
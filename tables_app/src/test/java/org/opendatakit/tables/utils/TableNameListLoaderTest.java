@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.TableMetaDataEntries;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.KeyValueStoreUtils;
+import org.opendatakit.tables.application.TestTables;
+import org.opendatakit.utilities.ODKFileUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Loads the table list from a mock database, checking what is cached and which callbacks are
+ * told. The cache is shared by the whole process, so every test uses an app name of its own.
+ * <p>
+ * The main looper is paused so the results the loader posts wait until the test runs them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TableNameListLoaderTest {
+
+  // how long to wait for the background thread
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  private String appName;
+  private UserDbInterface dbInterface;
+  // the tables the database holds
+  private List<String> tableIds;
+  // the row count the database reports for every table
+  private String rowCount;
+
+  @Before
+  public void setUp() throws Exception {
+    appName = "list-" + UUID.randomUUID().toString();
+    tableIds = new ArrayList<>(Arrays.asList("households", "visits"));
+    rowCount = "5";
+
+    dbInterface = mock(UserDbInterface.class);
+    doReturn(new DbHandle("list")).when(dbInterface).openDatabase(anyString());
+    doAnswer(new Answer<List<String>>() {
+      @Override
+      public List<String> answer(InvocationOnMock invocation) {
+        return new ArrayList<>(tableIds);
+      }
+    }).when(dbInterface).getAllTableIds(anyString(), any(DbHandle.class));
+    doAnswer(new Answer<TableMetaDataEntries>() {
+      @Override
+      public TableMetaDataEntries answer(InvocationOnMock invocation) {
+        List<KeyValueStoreEntry> entries = new ArrayList<>();
+        for (String tableId : tableIds) {
+          entries.add(KeyValueStoreUtils
+              .buildEntry(tableId, KeyValueStoreConstants.PARTITION_TABLE,
+                  KeyValueStoreConstants.ASPECT_DEFAULT,
+                  KeyValueStoreConstants.TABLE_DISPLAY_NAME, ElementDataType.object,
+                  "\"" + tableId + "\""));
+        }
+        TableMetaDataEntries metadata = mock(TableMetaDataEntries.class);
+        doReturn(entries).when(metadata).getEntries();
+        return metadata;
+      }
+    }).when(dbInterface).getTableMetadata(anyString(), any(DbHandle.class), any(), any(), any(),
+        any(), any());
+    doAnswer(new Answer<BaseTable>() {
+      @Override
+      public BaseTable answer(InvocationOnMock invocation) throws Exception {
+        Object[] args = ODKFileUtils.mapper
+            .readValue(invocation.<BindArgs>getArgument(4).asJSON(), Object[].class);
+        BaseTable result = mock(BaseTable.class);
+        doReturn(args.length / 3).when(result).getNumberOfRows();
+        for (int i = 0; i < args.length / 3; i++) {
+          Row row = mock(Row.class);
+          doReturn(args[i * 3]).when(row).getDataByKey("table_id");
+          doReturn(rowCount).when(row).getDataByKey("row_count");
+          doReturn("0").when(row).getDataByKey("pending_sync");
+          doReturn(row).when(result).getRowAtIndex(i);
+        }
+        return result;
+      }
+    }).when(dbInterface).arbitrarySqlQuery(anyString(), any(DbHandle.class), anyString(),
+        anyString(), any(BindArgs.class), any(), any());
+
+    ((TestTables) RuntimeEnvironment.application).setDatabase(dbInterface);
+    ShadowLooper.pauseMainLooper();
+  }
+
+  @After
+  public void tearDown() {
+    DbSessionManager.databaseUnavailable();
+    ((TestTables) RuntimeEnvironment.application).setDatabase(null);
+  }
+
+  @Test
+  public void cachesTheLoadedList() throws Exception {
+    assertNull(TableNameListLoader.getCached(appName));
+
+    RecordingCallback callback = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, callback);
+    callback.await();
+
+    assertTrue(callback.changed);
+    assertEquals(2, callback.tableNameStructs.size());
+    assertEquals("households", callback.tableNameStructs.get(0).getTableId());
+    assertSame(callback.tableNameStructs, TableNameListLoader.getCached(appName));
+
+    TableNameListLoader.invalidate(appName);
+    assertNull(TableNameListLoader.getCached(appName));
+  }
+
+  @Test
+  public void keepsTheListWhenNothingChanged() throws Exception {
+    RecordingCallback first = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, first);
+    first.await();
+
+    RecordingCallback second = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, second);
+    second.await();
+
+    assertFalse(second.changed);
+    assertSame(first.tableNameStructs, second.tableNameStructs);
+  }
+
+  @Test
+  public void buildsANewListWhenATableIsAdded() throws Exception {
+    RecordingCallback first = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, first);
+    first.await();
+
+    tableIds.add("people");
+    RecordingCallback second = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, second);
+    second.await();
+
+    assertTrue(second.changed);
+    assertEquals(3, second.tableNameStructs.size());
+  }
+
+  @Test
+  public void buildsANewListWhenTheStatsOfATableChanged() throws Exception {
+    RecordingCallback first = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, first);
+    first.await();
+
+    rowCount = "6";
+    TableStatsCache.markChanged(appName, "visits");
+    RecordingCallback second = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, second);
+    second.await();
+
+    assertTrue(second.changed);
+    assertEquals(6, second.tableNameStructs.get(1).getStats().getRowCount());
+    assertEquals(5, second.tableNameStructs.get(0).getStats().getRowCount());
+  }
+
+  @Test
+  public void dropsALoadTheSameCallerOvertook() throws Exception {
+    RecordingCallback stale = new RecordingCallback();
+    RecordingCallback latest = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, stale);
+    TableNameListLoader.load(appName, null, this, latest);
+    latest.await();
+
+    // the stale result was posted before the latest one, so it has been run by now
+    assertFalse(stale.called);
+  }
+
+  @Test
+  public void tellsEveryCallerAboutItsOwnLoad() throws Exception {
+    RecordingCallback list = new RecordingCallback();
+    RecordingCallback other = new RecordingCallback();
+    TableNameListLoader.load(appName, null, this, list);
+    TableNameListLoader.load(appName, null, new Object(), other);
+    other.await();
+    list.await();
+
+    assertTrue(list.called);
+    assertTrue(other.called);
+  }
+
+  /**
+   * Remembers what the loader told it
+   */
+  private static final class RecordingCallback implements TableNameListLoader.Callback {
+    boolean called = false;
+    List<TableNameStruct> tableNameStructs;
+    boolean changed;
+
+    @Override
+    public void onTableListLoaded(List<TableNameStruct> tableNameStructs, boolean changed) {
+      this.called = true;
+      this.tableNameStructs = tableNameStructs;
+      this.changed = changed;
+    }
+
+    /**
+     * Runs what was posted to the UI thread until the loader calls back
+     */
+    void await() throws InterruptedException {
+      long until = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (!called && System.currentTimeMillis() < until) {
+        ShadowLooper.runUiThreadTasks();
+        if (!called) {
+          Thread.sleep(10);
+        }
+      }
+      assertTrue("the loader didn't call back", called);
+      assertNotNull(tableNameStructs);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.utilities.ODKFileUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks which tables TableStatsCache reads the stats of again, and that it reads them with one
+ * query. The cache is shared by the whole process, so every test uses an app name of its own.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class TableStatsCacheTest {
+
+  private static final List<String> TABLE_IDS = Arrays.asList("households", "visits", "people");
+
+  private String appName;
+  private UserDbInterface dbInterface;
+  private DbHandle db;
+  // the stats the database holds, as row count, pending sync count and last modified
+  private Map<String, String[]> tableStats;
+  // the tables each query read, in the order of the queries
+  private List<List<String>> queries;
+
+  @Before
+  public void setUp() throws Exception {
+    appName = "stats-" + UUID.randomUUID().toString();
+    db = new DbHandle("stats");
+    tableStats = new HashMap<>();
+    for (String tableId : TABLE_IDS) {
+      tableStats.put(tableId, new String[] { "10", "2", "2018-03-01T00:00:00.000000000" });
+    }
+    queries = new ArrayList<>();
+    dbInterface = mock(UserDbInterface.class);
+    doAnswer(new Answer<BaseTable>() {
+      @Override
+      public BaseTable answer(InvocationOnMock invocation) throws Exception {
+        Object[] args = ODKFileUtils.mapper
+            .readValue(invocation.<BindArgs>getArgument(4).asJSON(), Object[].class);
+        List<String> read = new ArrayList<>();
+        // each table binds its id and then the two sync states
+        for (int i = 0; i < args.length; i += 3) {
+          read.add((String) args[i]);
+        }
+        queries.add(read);
+        return statsTable(read);
+      }
+    }).when(dbInterface).arbitrarySqlQuery(anyString(), any(DbHandle.class), anyString(),
+        anyString(), any(BindArgs.class), any(), any());
+  }
+
+  @Test
+  public void readsEveryTableWithOneQuery() throws Exception {
+    Map<String, TableStatsCache.Stats> stats = getStats();
+
+    assertEquals(1, queries.size());
+    assertEquals(TABLE_IDS.size(), queries.get(0).size());
+    assertEquals(10, stats.get("visits").getRowCount());
+    assertEquals(2, stats.get("visits").getPendingSyncCount());
+    assertEquals("2018-03-01T00:00:00.000000000", stats.get("visits").getLastModified());
+  }
+
+  @Test
+  public void doesNotReadTablesThatDidNotChange() throws Exception {
+    Map<String, TableStatsCache.Stats> first = getStats();
+    Map<String, TableStatsCache.Stats> second = getStats();
+
+    assertEquals(1, queries.size());
+    assertEquals(first, second);
+  }
+
+  @Test
+  public void readsOnlyTheTableThatChanged() throws Exception {
+    getStats();
+    tableStats.put("visits", new String[] { "11", "3", "2018-03-02T00:00:00.000000000" });
+    TableStatsCache.markChanged(appName, "visits");
+
+    Map<String, TableStatsCache.Stats> stats = getStats();
+
+    assertEquals(2, queries.size());
+    assertEquals(Collections.singletonList("visits"), queries.get(1));
+    assertEquals(11, stats.get("visits").getRowCount());
+    assertEquals(10, stats.get("households").getRowCount());
+  }
+
+  @Test
+  public void readsEveryTableAfterTheAppChanged() throws Exception {
+    getStats();
+    TableStatsCache.markChanged(appName, null);
+
+    getStats();
+
+    assertEquals(2, queries.size());
+    assertEquals(TABLE_IDS.size(), queries.get(1).size());
+  }
+
+  @Test
+  public void changesInOtherAppsAreIgnored() throws Exception {
+    getStats();
+    TableStatsCache.markChanged(appName + "-other", null);
+    TableStatsCache.markChanged(appName + "-other", "visits");
+
+    getStats();
+
+    assertEquals(1, queries.size());
+  }
+
+  @Test
+  public void anEmptyTableCountsNoRows() throws Exception {
+    // SUM and MAX over no rows are null
+    tableStats.put("people", new String[] { null, null, null });
+
+    TableStatsCache.Stats stats = getStats().get("people");
+
+    assertEquals(0, stats.getRowCount());
+    assertEquals(0, stats.getPendingSyncCount());
+    assertNull(stats.getLastModified());
+  }
+
+  private Map<String, TableStatsCache.Stats> getStats() throws Exception {
+    return TableStatsCache.getStats(dbInterface, appName, db, TABLE_IDS);
+  }
+
+  /**
+   * @return the result of the stats query for the given tables
+   */
+  private BaseTable statsTable(List<String> tableIds) {
+    BaseTable result = mock(BaseTable.class);
+    doReturn(tableIds.size()).when(result).getNumberOfRows();
+    for (int i = 0; i < tableIds.size(); i++) {
+      String[] values = tableStats.get(tableIds.get(i));
+      Row row = mock(Row.class);
+      doReturn(tableIds.get(i)).when(row).getDataByKey("table_id");
+      doReturn(values[0]).when(row).getDataByKey("row_count");
+      doReturn(values[1]).when(row).getDataByKey("pending_sync");
+      doReturn(values[2]).when(row).getDataByKey("last_modified");
+      doReturn(row).when(result).getRowAtIndex(i);
+    }
+    return result;
+  }
+}
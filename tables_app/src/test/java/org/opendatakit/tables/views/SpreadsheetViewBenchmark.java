@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Environment;
+import android.util.DisplayMetrics;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.HorizontalScrollView;
+import android.widget.ScrollView;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.opendatakit.tables.fragments.TableDisplayFragmentStub;
+import org.opendatakit.tables.utils.LatencyHistogram;
+import org.opendatakit.testutils.Benchmark;
+import org.opendatakit.testutils.BenchmarkReports;
+import org.opendatakit.testutils.SyntheticTable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Builds a SpreadsheetView over a made up table of 100,000 rows and 50 columns, replays a
+ * scripted drag, fling and pan over it and reports how long construction took, how long each
+ * frame's TabularView.onDraw calls took and how much each frame allocated. The report is printed
+ * and written to build/reports/benchmarks/spreadsheet-view.txt.
+ * <p>
+ * The test fails when a budget is exceeded: construction over 5 seconds, a 90th percentile frame
+ * over 33ms (two frames at 60fps) or frames allocating more than 256KB on average. Change them
+ * with -Dspreadsheet.constructionBudgetMillis, -Dspreadsheet.frameBudgetMillis and
+ * -Dspreadsheet.frameAllocationBudgetBytes.
+ * <p>
+ * The table is held in the library's UserTable and Row, as a query would return it, but
+ * Robolectric's canvas records draw calls rather than rasterizing, so the numbers are only
+ * comparable with other runs of this test, not with a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Category(Benchmark.class)
+@Config(sdk = 25, qualifiers = "w360dp-h640dp-xhdpi")
+public class SpreadsheetViewBenchmark {
+
+  private static final int ROWS = 100000;
+  private static final int COLUMNS = 50;
+  // frames replayed before measuring, so the jit and the caches are warm
+  private static final int WARMUP_PASSES = 2;
+
+  private static final long CONSTRUCTION_BUDGET_MILLIS = Long
+      .getLong("spreadsheet.constructionBudgetMillis", 5000);
+  private static final long FRAME_BUDGET_MILLIS = Long
+      .getLong("spreadsheet.frameBudgetMillis", 33);
+  private static final long FRAME_ALLOCATION_BUDGET_BYTES = Long
+      .getLong("spreadsheet.frameAllocationBudgetBytes", 256L * 1024);
+
+  private SyntheticTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+    table = new SyntheticTable(ROWS, COLUMNS);
+    table.install();
+  }
+
+  @After
+  public void tearDown() {
+    table.uninstall();
+  }
+
+  @Test
+  public void scrollAndFling() throws Exception {
+    Context context = RuntimeEnvironment.application;
+    DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+    TableDisplayFragmentStub fragment = new TableDisplayFragmentStub(SyntheticTable.APP_NAME,
+        SyntheticTable.TABLE_ID, table.getColumnDefinitions(), table.getUserTable());
+
+    long start = System.nanoTime();
+    SpreadsheetView view = new SpreadsheetView(context, mock(SpreadsheetView.Controller.class),
+        new SpreadsheetUserTable(fragment));
+    view.measure(View.MeasureSpec.makeMeasureSpec(metrics.widthPixels, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(metrics.heightPixels, View.MeasureSpec.EXACTLY));
+    view.layout(0, 0, metrics.widthPixels, metrics.heightPixels);
+    long constructionNanos = System.nanoTime() - start;
+
+    List<TabularView> tabularViews = new ArrayList<>();
+    List<ScrollView> verticalScrolls = new ArrayList<>();
+    List<HorizontalScrollView> horizontalScrolls = new ArrayList<>();
+    collect(view, TabularView.class, tabularViews);
+    collect(view, ScrollView.class, verticalScrolls);
+    collect(view, HorizontalScrollView.class, horizontalScrolls);
+    assertTrue("no TabularView in the SpreadsheetView", !tabularViews.isEmpty());
+
+    int contentHeight = 0;
+    for (ScrollView scroll : verticalScrolls) {
+      contentHeight = Math.max(contentHeight, scroll.getChildAt(0).getHeight());
+    }
+    List<int[]> frames = scrollScript(contentHeight);
+    Bitmap bitmap = Bitmap
+        .createBitmap(metrics.widthPixels, metrics.heightPixels, Bitmap.Config.ARGB_8888);
+
+    for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+      for (int[] frame : frames) {
+        scrollTo(verticalScrolls, horizontalScrolls, frame[0], frame[1]);
+        drawFrame(tabularViews, new Canvas(bitmap));
+      }
+    }
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    boolean countAllocations = threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    long threadId = Thread.currentThread().getId();
+    LatencyHistogram frameTimes = new LatencyHistogram();
+    long totalAllocated = 0;
+    long maxAllocated = 0;
+    for (int[] frame : frames) {
+      scrollTo(verticalScrolls, horizontalScrolls, frame[0], frame[1]);
+      Canvas canvas = new Canvas(bitmap);
+      long allocatedBefore = countAllocations ?
+          ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId) : 0;
+      long frameStart = System.nanoTime();
+      drawFrame(tabularViews, canvas);
+      frameTimes.record(System.nanoTime() - frameStart);
+      if (countAllocations) {
+        long allocated = ((com.sun.management.ThreadMXBean) threads)
+            .getThreadAllocatedBytes(threadId) - allocatedBefore;
+        totalAllocated += allocated;
+        maxAllocated = Math.max(maxAllocated, allocated);
+      }
+    }
+    long meanAllocated = totalAllocated / frames.size();
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.US, "table: %d rows x %d columns, screen %dx%d\n", ROWS,
+        COLUMNS, metrics.widthPixels, metrics.heightPixels));
+    report.append(String.format(Locale.US, "construction: %.1fms\n", constructionNanos / 1e6));
+    String frameName = String
+        .format(Locale.US, "frames: %d of %d TabularViews", frames.size(), tabularViews.size());
+    report.append(BenchmarkReports.describe(frameName, frameTimes));
+    if (countAllocations) {
+      report.append(String.format(Locale.US, "allocations per frame: mean=%d bytes max=%d bytes\n",
+          meanAllocated, maxAllocated));
+    } else {
+      report.append("allocations per frame: not supported by this jvm\n");
+    }
+    BenchmarkReports.write("spreadsheet-view.txt", report.toString());
+
+    assertTrue("construction took longer than " + CONSTRUCTION_BUDGET_MILLIS + "ms\n" + report,
+        constructionNanos / 1000000 <= CONSTRUCTION_BUDGET_MILLIS);
+    assertTrue("90th percentile frame took longer than " + FRAME_BUDGET_MILLIS + "ms\n" + report,
+        frameTimes.getPercentile(0.9) / 1000000 <= FRAME_BUDGET_MILLIS);
+    assertTrue("frames allocated more than " + FRAME_ALLOCATION_BUDGET_BYTES + " bytes\n" + report,
+        meanAllocated <= FRAME_ALLOCATION_BUDGET_BYTES);
+  }
+
+  /**
+   * The scroll position of each frame at 60fps: a slow drag down, a fling down, a pan to the
+   * right, a fling back up, then a jump to the middle of the table, as when dragging the scroll
+   * bar, and a drag from there.
+   *
+   * @param contentHeight the height of the scrolled data
+   * @return x and y of each frame
+   */
+  private static List<int[]> scrollScript(int contentHeight) {
+    List<int[]> frames = new ArrayList<>();
+    int x = 0;
+    int y = 0;
+    for (int i = 0; i < 60; i++) {
+      y += 8;
+      frames.add(new int[] { x, y });
+    }
+    for (double velocity = 300; velocity >= 1; velocity *= 0.96) {
+      y += (int) velocity;
+      frames.add(new int[] { x, y });
+    }
+    for (int i = 0; i < 40; i++) {
+      x += 30;
+      frames.add(new int[] { x, y });
+    }
+    for (double velocity = 400; velocity >= 1 && y > 0; velocity *= 0.95) {
+      y = Math.max(0, y - (int) velocity);
+      frames.add(new int[] { x, y });
+    }
+    y = contentHeight / 2;
+    for (int i = 0; i < 30; i++) {
+      y += 8;
+      frames.add(new int[] { x, y });
+    }
+    return frames;
+  }
+
+  private static void scrollTo(List<ScrollView> verticalScrolls,
+      List<HorizontalScrollView> horizontalScrolls, int x, int y) {
+    for (ScrollView scroll : verticalScrolls) {
+      scroll.scrollTo(0, y);
+    }
+    for (HorizontalScrollView scroll : horizontalScrolls) {
+      scroll.scrollTo(x, 0);
+    }
+  }
+
+  private static void drawFrame(List<TabularView> tabularViews, Canvas canvas) {
+    for (TabularView tabularView : tabularViews) {
+      tabularView.draw(canvas);
+    }
+  }
+
+  private static <T extends View> void collect(View view, Class<T> type, List<T> found) {
+    if (type.isInstance(view)) {
+      found.add(type.cast(view));
+    }
+    if (view instanceof ViewGroup) {
+      ViewGroup group = (ViewGroup) view;
+      for (int i = 0; i < group.getChildCount(); i++) {
+        collect(group.getChildAt(i), type, found);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks that a page starting to load forgets what the page before it asked for
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class CachingWebViewClientTest {
+
+  private static final String URL = "file:///sdcard/opendatakit/default/config/tables/list.html";
+
+  @Test
+  public void forgetsThePreviousPageWhenAPageStarts() {
+    WebViewClient client = mock(WebViewClient.class);
+    OdkTablesWebView view = mock(OdkTablesWebView.class);
+
+    new CachingWebViewClient(client).onPageStarted(view, URL, null);
+
+    // before the wrapped client runs, so nothing it triggers sees the old page's registrations
+    InOrder order = inOrder(view, client);
+    order.verify(view).resetPageSession();
+    order.verify(client).onPageStarted(view, URL, null);
+  }
+
+  @Test
+  public void passesOtherViewsThrough() {
+    WebViewClient client = mock(WebViewClient.class);
+    WebView view = mock(WebView.class);
+
+    new CachingWebViewClient(client).onPageStarted(view, URL, null);
+
+    verify(client).onPageStarted(view, URL, null);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.utilities.ODKFileUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compact encoding CompactResponseSession turns responses into: the columns, the
+ * dictionaries and their codes, and which parts of the metadata are left out once the page has
+ * fetched them
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 25)
+public class CompactResponseSessionTest {
+
+  // the parts of the metadata that only change with the table's definition
+  private static final String STATIC_METADATA = "\"tableId\":\"plots\",\"elementKeyMap\":"
+      + "{\"crop\":0,\"yield\":1},\"keyValueStoreList\":[{\"partition\":\"Table\","
+      + "\"aspect\":\"default\",\"key\":\"displayName\",\"type\":\"object\","
+      + "\"value\":\"\\\"Plots\\\"\"}]";
+
+  private CompactResponseSession session;
+
+  @Before
+  public void setUp() {
+    session = new CompactResponseSession(ODKFileUtils.mapper.getFactory());
+  }
+
+  @Test
+  public void encodesRepeatedTextAsADictionaryAndCodes() throws IOException {
+    JsonNode compact = encode(response("cb",
+        "[[\"maize\",1],[\"beans\",2],[\"maize\",3],[null,4],[\"maize\",5]]",
+        "\"rowColors\":[]"));
+
+    assertEquals("compact", compact.get("encoding").asText());
+    assertEquals(5, compact.get("rowCount").asInt());
+    assertEquals(2, compact.get("columns").size());
+    JsonNode crop = compact.get("columns").get(0);
+    assertEquals(ODKFileUtils.mapper.readTree("[\"maize\",\"beans\"]"), crop.get("dictionary"));
+    // a null is -1
+    assertEquals(ODKFileUtils.mapper.readTree("[0,1,0,-1,0]"), crop.get("codes"));
+    assertEquals(ODKFileUtils.mapper.readTree("[1,2,3,4,5]"), compact.get("columns").get(1));
+  }
+
+  @Test
+  public void keepsMostlyDistinctTextAndNullsAsAnArray() throws IOException {
+    JsonNode compact = encode(response("cb",
+        "[[\"uuid:1\",null],[\"uuid:2\",null],[null,null],[\"uuid:4\",null]]", ""));
+
+    assertEquals(ODKFileUtils.mapper.readTree("[\"uuid:1\",\"uuid:2\",null,\"uuid:4\"]"),
+        compact.get("columns").get(0));
+    // nothing but nulls is a dictionary without entries
+    assertEquals(ODKFileUtils.mapper.readTree("{\"dictionary\":[],\"codes\":[-1,-1,-1,-1]}"),
+        compact.get("columns").get(1));
+  }
+
+  @Test
+  public void writesValuesBackExactlyAsTheyWere() throws IOException {
+    String compact = session.encode(response("cb",
+        "[[\"a \\\"quoted\\\" \\u00e9\",1.50,1E+3,true],[\"a \\\"quoted\\\" \\u00e9\",-0,2,false],"
+            + "[\"a \\\"quoted\\\" \\u00e9\",7,3,null]]", ""));
+
+    assertTrue(compact, compact.contains(
+        "{\"dictionary\":[\"a \\\"quoted\\\" \\u00e9\"],\"codes\":[0,0,0]}"));
+    assertTrue(compact, compact.contains("[1.50,-0,7]"));
+    assertTrue(compact, compact.contains("[1E+3,2,3]"));
+    assertTrue(compact, compact.contains("[true,false,null]"));
+  }
+
+  @Test
+  public void encodesDataWithoutRows() throws IOException {
+    JsonNode compact = encode(response("cb", "[]", ""));
+
+    assertEquals(0, compact.get("rowCount").asInt());
+    assertEquals(0, compact.get("columns").size());
+    assertEquals("cb", compact.get("callbackJSON").asText());
+    assertTrue(compact.get("metadata").has("elementKeyMap"));
+  }
+
+  @Test
+  public void passesThroughResponsesWithoutATable() throws IOException {
+    String error = "{\"callbackJSON\":\"cb\",\"error\":\"no such table\"}";
+    assertEquals(error, session.encode(error));
+
+    String nested = "{\"callbackJSON\":\"cb\",\"data\":[[{\"a\":1}]]}";
+    assertEquals(nested, session.encode(nested));
+
+    String ragged = "{\"callbackJSON\":\"cb\",\"data\":[[1,2],[3]]}";
+    assertEquals(ragged, session.encode(ragged));
+  }
+
+  @Test
+  public void includesTheMetadataUntilThePageFetchesIt() throws IOException {
+    String first = session.encode(response("cb1", "[[\"a\"]]", "\"rowColors\":[]"));
+    String second = session.encode(response("cb2", "[[\"b\"]]", "\"rowColors\":[]"));
+
+    JsonNode metadata = ODKFileUtils.mapper.readTree(second).get("metadata");
+    assertTrue(metadata.has("elementKeyMap"));
+    assertTrue(metadata.has("keyValueStoreList"));
+    assertEquals(version(first), version(second));
+  }
+
+  @Test
+  public void leavesOutTheStaticMetadataOnceFetched() throws IOException {
+    String first = session.encode(response("cb1", "[[\"a\"]]",
+        "\"rowColors\":[{\"rowId\":\"uuid:1\",\"index\":0}]"));
+    session.fetched(first);
+    // the same table, with a row color the first response didn't have
+    String second = session.encode(response("cb2", "[[\"b\"],[\"c\"]]",
+        "\"rowColors\":[{\"rowId\":\"uuid:3\",\"index\":1}]"));
+
+    assertEquals(version(first), version(second));
+    JsonNode metadata = ODKFileUtils.mapper.readTree(second).get("metadata");
+    assertFalse(metadata.has("tableId"));
+    assertFalse(metadata.has("elementKeyMap"));
+    assertFalse(metadata.has("keyValueStoreList"));
+    // what differs from query to query is always sent
+    assertEquals("uuid:3", metadata.get("rowColors").get(0).get("rowId").asText());
+  }
+
+  @Test
+  public void sendsChangedStaticMetadataAgain() throws IOException {
+    String first = session.encode(response("cb1", "[[\"a\"]]", ""));
+    session.fetched(first);
+    String changed = session.encode(response("cb2", "[[\"a\"]]", "").replace(
+        "\"\\\"Plots\\\"\"", "\"\\\"Field plots\\\"\""));
+
+    assertNotEquals(version(first), version(changed));
+    assertTrue(ODKFileUtils.mapper.readTree(changed).get("metadata").has("keyValueStoreList"));
+  }
+
+  @Test
+  public void ignoresFetchedResponsesThatArentCompact() throws IOException {
+    session.fetched("{\"callbackJSON\":\"cb\",\"error\":\"no such table\"}");
+    session.fetched(null);
+
+    JsonNode metadata = encode(response("cb", "[[\"a\"]]", "")).get("metadata");
+    assertTrue(metadata.has("elementKeyMap"));
+  }
+
+  /**
+   * @return a response of the executor to a query of the plots table
+   */
+  private static String response(String callbackJSON, String data, String otherMetadata) {
+    return "{\"callbackJSON\":\"" + callbackJSON + "\",\"data\":" + data + ",\"metadata\":{"
+        + STATIC_METADATA + (otherMetadata.isEmpty() ? "" : "," + otherMetadata) + "}}";
+  }
+
+  private JsonNode encode(String responseJSON) throws IOException {
+    String compact = session.encode(responseJSON);
+    assertTrue(compact, compact.startsWith(CompactResponseSession.PREFIX));
+    return ODKFileUtils.mapper.readTree(compact);
+  }
+
+  private static String version(String compact) throws IOException {
+    return ODKFileUtils.mapper.readTree(compact).get("metadataVersion").asText();
+  }
+}
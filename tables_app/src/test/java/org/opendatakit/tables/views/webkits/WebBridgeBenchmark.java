@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import android.os.Environment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.activities.AbsBaseWebActivity;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.LatencyHistogram;
+import org.opendatakit.testutils.Benchmark;
+import org.opendatakit.testutils.BenchmarkReports;
+import org.opendatakit.testutils.SyntheticTable;
+import org.opendatakit.utilities.ODKFileUtils;
+import org.opendatakit.views.ExecutorContext;
+import org.opendatakit.views.ODKWebView;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the java side of the web view pages: how long the list, detail and map list pages
+ * wait for their first data, what that data costs to build and how big it is, and the round
+ * trip of a response through signalResponseAvailable and getResponseJSON. The database is the
+ * in-process stand-in from SyntheticTable, so neither a device nor ODK Services is needed. The
+ * report is printed and written to build/reports/benchmarks/web-bridge.txt.
+ * <p>
+ * Robolectric's web view doesn't run javascript, so first paint can't be seen here. What is
+ * measured instead is everything between the page's first query and the moment its response
+ * has been handed to javascript, which is what the page is waiting on before it can paint:
+ * the query, TableDataExecutorProcessor's color rule metadata, encoding the response and the
+ * trip through the activity's response queue. The response is encoded the way the library's
+ * executor encodes it, rows as arrays of values plus the metadata map.
+ * <p>
+ * The same responses are also put through the compact encoding pages can ask for, see
+ * CompactResponseSession, for its size on a page's first query and on a repeat of it once the
+ * page has the static metadata, and for the time it takes to encode. How long each encoding
+ * takes to parse is measured with Jackson's tree parser, a stand-in for the page's JSON.parse.
+ * The "to page" lines compare the two end to end, from the executor's response to the page
+ * having parsed it: the plain JSON is only parsed, the compact encoding is encoded and then
+ * parsed. The handover in between costs the same either way and is left out.
+ * <p>
+ * The test fails when the 90th percentile time to first data of a page is over
+ * -Dwebview.firstDataBudgetMillis, loose by default.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Category(Benchmark.class)
+@Config(sdk = 25)
+public class WebBridgeBenchmark {
+
+  private static final int ROWS = 5000;
+  private static final int COLUMNS = 20;
+  private static final int WARMUP_ITERATIONS = 20;
+  private static final int ITERATIONS = 100;
+
+  private static final long FIRST_DATA_BUDGET_MILLIS = Long
+      .getLong("webview.firstDataBudgetMillis", 2000);
+
+  /**
+   * The pages measured, with the query each one issues first
+   */
+  private enum Page {
+    // a list view page asks for a screenful at a time
+    LIST(null, 200, null),
+    // a detail page asks for the one row it shows
+    DETAIL(Constants.FragmentTags.DETAIL_WITH_LIST_DETAIL, 1, null),
+    // the map list asks for every row, and gets told which one is selected on the map
+    MAP_LIST(Constants.FragmentTags.MAP_LIST, null, 0);
+
+    final String fragmentID;
+    final Integer limit;
+    final Integer indexOfSelectedItem;
+
+    Page(String fragmentID, Integer limit, Integer indexOfSelectedItem) {
+      this.fragmentID = fragmentID;
+      this.limit = limit;
+      this.indexOfSelectedItem = indexOfSelectedItem;
+    }
+  }
+
+  private SyntheticTable table;
+  private AbsBaseWebActivity activity;
+  // the response the web view's signal fetched, as the javascript would
+  private String fetchedResponse;
+  private long fetchedAt;
+
+  @Before
+  public void setUp() throws Exception {
+    ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+    table = new SyntheticTable(ROWS, COLUMNS);
+    table.install();
+
+    // the real response queues, with the parts that need a running activity stubbed out
+    activity = mock(AbsBaseWebActivity.class,
+        withSettings().useConstructor().defaultAnswer(CALLS_REAL_METHODS));
+    doReturn(SyntheticTable.APP_NAME).when(activity).getAppName();
+    doReturn(SyntheticTable.TABLE_ID).when(activity).getTableId();
+    for (final Page page : Page.values()) {
+      ODKWebView webView = mock(ODKWebView.class);
+      doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) {
+          fetchedResponse = activity.getResponseJSON(page.fragmentID);
+          fetchedAt = System.nanoTime();
+          return null;
+        }
+      }).when(webView).signalResponseAvailable();
+      doReturn(webView).when(activity).getWebKitView(page.fragmentID);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    table.uninstall();
+  }
+
+  @Test
+  public void firstDataAndRoundTrip() throws Exception {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.US, "table: %d rows x %d columns\n", ROWS, COLUMNS));
+    List<String> overBudget = new ArrayList<>();
+    for (Page page : Page.values()) {
+      Measurements measurements = new Measurements();
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        loadFirstData(page, new Measurements());
+      }
+      for (int i = 0; i < ITERATIONS; i++) {
+        loadFirstData(page, measurements);
+      }
+      report.append(page.name().toLowerCase(Locale.US)).append(": ")
+          .append(measurements.rows).append(" rows, ").append(measurements.payloadBytes)
+          .append(" bytes\n");
+      report.append(BenchmarkReports.describe("  first data", measurements.firstData));
+      report.append(BenchmarkReports.describe("  query", measurements.query));
+      report.append(BenchmarkReports.describe("  metadata", measurements.metadata));
+      report.append(BenchmarkReports.describe("  encode", measurements.encode));
+      report.append(BenchmarkReports.describe("  round trip", measurements.roundTrip));
+      report.append(BenchmarkReports.describe("  parse json", measurements.jsonParse));
+      report.append(String.format(Locale.US, "  compact: %d bytes, %d bytes repeated\n",
+          measurements.compactBytes, measurements.repeatBytes));
+      report.append(BenchmarkReports.describe("  compact encode", measurements.compactEncode));
+      report.append(BenchmarkReports.describe("  parse compact", measurements.compactParse));
+      report.append(BenchmarkReports.describe("  json to page", measurements.jsonParse));
+      report.append(BenchmarkReports.describe("  compact to page", measurements.compactToPage));
+      report.append(BenchmarkReports.describe("  repeat to page", measurements.repeatToPage));
+      if (measurements.firstData.getPercentile(0.9) / 1000000 > FIRST_DATA_BUDGET_MILLIS) {
+        overBudget.add(page.name());
+      }
+    }
+    BenchmarkReports.write("web-bridge.txt", report.toString());
+
+    assertTrue("time to first data over " + FIRST_DATA_BUDGET_MILLIS + "ms for " + overBudget
+        + "\n" + report, overBudget.isEmpty());
+  }
+
+  /**
+   * What one page does between asking for its data and javascript having the response
+   */
+  private void loadFirstData(Page page, Measurements measurements) throws Exception {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    doReturn(page.indexOfSelectedItem).when(activity).getIndexOfSelectedItem();
+    TableDataExecutorProcessor processor = new TableDataExecutorProcessor(
+        mock(ExecutorContext.class), activity);
+
+    long start = System.nanoTime();
+    DbHandle db = dbInterface.openDatabase(SyntheticTable.APP_NAME);
+    UserTable userTable;
+    try {
+      userTable = dbInterface.simpleQuery(SyntheticTable.APP_NAME, db, SyntheticTable.TABLE_ID,
+          table.getColumnDefinitions(), null, null, null, null, null, null, page.limit, 0);
+    } finally {
+      dbInterface.closeDatabase(SyntheticTable.APP_NAME, db);
+    }
+    long queried = System.nanoTime();
+
+    Map<String, Integer> elementKeyMap = new HashMap<>();
+    List<String> elementKeys = new ArrayList<>(table.getElementKeys());
+    elementKeys.add(DataTableColumns.ID);
+    elementKeys.add(DataTableColumns.SYNC_STATE);
+    elementKeys.add(DataTableColumns.SAVEPOINT_TYPE);
+    for (int i = 0; i < elementKeys.size(); i++) {
+      elementKeyMap.put(elementKeys.get(i), i);
+    }
+    Map<String, Object> metadata = new HashMap<>();
+    metadata.put("tableId", SyntheticTable.TABLE_ID);
+    metadata.put("elementKeyMap", elementKeyMap);
+    processor.extendQueryMetadata(dbInterface, null, new ArrayList<KeyValueStoreEntry>(),
+        userTable, metadata);
+    long extended = System.nanoTime();
+
+    List<List<String>> data = new ArrayList<>(userTable.getNumberOfRows());
+    for (int i = 0; i < userTable.getNumberOfRows(); i++) {
+      Row row = userTable.getRowAtIndex(i);
+      List<String> values = new ArrayList<>(elementKeys.size());
+      for (String elementKey : elementKeys) {
+        values.add(row.getDataByKey(elementKey));
+      }
+      data.add(values);
+    }
+    Map<String, Object> response = new HashMap<>();
+    response.put("callbackJSON", "{\"seq\":1}");
+    response.put("data", data);
+    response.put("metadata", metadata);
+    String responseJSON = ODKFileUtils.mapper.writeValueAsString(response);
+    long encoded = System.nanoTime();
+
+    fetchedResponse = null;
+    activity.signalResponseAvailable(responseJSON, page.fragmentID);
+    ShadowLooper.runUiThreadTasks();
+    assertEquals("the web view didn't get the response", responseJSON, fetchedResponse);
+
+    long compactStart = System.nanoTime();
+    CompactResponseSession session = new CompactResponseSession(
+        ODKFileUtils.mapper.getFactory());
+    String compactJSON = session.encode(responseJSON);
+    long compacted = System.nanoTime();
+    session.fetched(compactJSON);
+    long repeatStart = System.nanoTime();
+    String repeatJSON = session.encode(responseJSON);
+    long repeated = System.nanoTime();
+    ODKFileUtils.mapper.readTree(repeatJSON);
+    long repeatParsed = System.nanoTime();
+    ODKFileUtils.mapper.readTree(responseJSON);
+    long jsonParsed = System.nanoTime();
+    ODKFileUtils.mapper.readTree(compactJSON);
+    long compactParsed = System.nanoTime();
+
+    measurements.compactEncode.record(compacted - compactStart);
+    measurements.jsonParse.record(jsonParsed - repeatParsed);
+    measurements.compactParse.record(compactParsed - jsonParsed);
+    measurements.compactToPage.record(compacted - compactStart + compactParsed - jsonParsed);
+    measurements.repeatToPage.record(repeatParsed - repeatStart);
+    measurements.compactBytes = compactJSON.getBytes(StandardCharsets.UTF_8).length;
+    measurements.repeatBytes = repeatJSON.getBytes(StandardCharsets.UTF_8).length;
+
+    measurements.query.record(queried - start);
+    measurements.metadata.record(extended - queried);
+    measurements.encode.record(encoded - extended);
+    measurements.roundTrip.record(fetchedAt - encoded);
+    measurements.firstData.record(fetchedAt - start);
+    measurements.rows = userTable.getNumberOfRows();
+    measurements.payloadBytes = responseJSON.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  /**
+   * The timings of one page's iterations
+   */
+  private static final class Measurements {
+    final LatencyHistogram firstData = new LatencyHistogram();
+    final LatencyHistogram query = new LatencyHistogram();
+    final LatencyHistogram metadata = new LatencyHistogram();
+    final LatencyHistogram encode = new LatencyHistogram();
+    final LatencyHistogram roundTrip = new LatencyHistogram();
+    final LatencyHistogram jsonParse = new LatencyHistogram();
+    final LatencyHistogram compactEncode = new LatencyHistogram();
+    final LatencyHistogram compactParse = new LatencyHistogram();
+    final LatencyHistogram compactToPage = new LatencyHistogram();
+    final LatencyHistogram repeatToPage = new LatencyHistogram();
+    int rows = 0;
+    int payloadBytes = 0;
+    int compactBytes = 0;
+    int repeatBytes = 0;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.testutils;
+
+import org.opendatakit.tables.utils.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * What the benchmarks in the jvm tests share for reporting their results
+ */
+public final class BenchmarkReports {
+
+  // where the reports go, relative to the module the tests run in
+  private static final String REPORT_DIRECTORY = "build/reports/benchmarks";
+
+  /**
+   * Do not instantiate this class
+   */
+  private BenchmarkReports() {
+  }
+
+  /**
+   * One line summing up a histogram of latencies, in milliseconds
+   *
+   * @param name      what was measured
+   * @param histogram the latencies
+   * @return the line, newline included
+   */
+  public static String describe(String name, LatencyHistogram histogram) {
+    return String.format(Locale.US,
+        "%s: mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms\n", name,
+        histogram.getMean() / 1e6, histogram.getPercentile(0.5) / 1e6,
+        histogram.getPercentile(0.9) / 1e6, histogram.getPercentile(0.99) / 1e6,
+        histogram.getMax() / 1e6);
+  }
+
+  /**
+   * Prints a report and writes it to build/reports/benchmarks
+   *
+   * @param fileName the name of the report's file, e.g. web-bridge.txt
+   * @param report   the report
+   * @throws IOException if the report couldn't be written
+   */
+  public static void write(String fileName, String report) throws IOException {
+    System.out.print(report);
+    File file = new File(REPORT_DIRECTORY, fileName);
+    File parent = file.getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent.getPath());
+    }
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+    try {
+      writer.write(report);
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.testutils;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.SyncState;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.data.utilities.ColumnUtil;
+import org.opendatakit.data.utilities.TableUtil;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.Row;
+import org.opendatakit.database.data.TableMetaDataEntries;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.application.TestTables;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * A made up table of any size, held in the library's own UserTable and Row, with mocks of the
+ * database, TableUtil and ColumnUtil that describe it. Every row has its own id and its own
+ * array of values, but the values themselves come from a small pool of rows, so a table of a
+ * hundred thousand rows costs arrays and ids but not a hundred thousand rows of strings.
+ * <p>
+ * Typical use:
+ * <pre>
+ * SyntheticTable table = new SyntheticTable(100000, 50);
+ * table.install();
+ * try {
+ *   ...
+ * } finally {
+ *   table.uninstall();
+ * }
+ * </pre>
+ */
+public final class SyntheticTable {
+
+  public static final String APP_NAME = "default";
+  public static final String TABLE_ID = "synthetic";
+
+  // how many distinct rows of values there are, row i has those of row i % ROW_POOL_SIZE
+  private static final int ROW_POOL_SIZE = 1024;
+  // what ColumnUtil says every column's width is
+  private static final int COLUMN_WIDTH = 125;
+  // what TableUtil says the font size is
+  private static final int FONT_SIZE = 16;
+
+  private final int numberOfRows;
+  private final List<String> elementKeys;
+  private final OrderedColumns columnDefinitions;
+  // the admin columns, sorted, as the database lists them
+  private final String[] adminColumns;
+  // every column of a row, the user defined ones then the admin ones, and where each one is
+  private final String[] allElementKeys;
+  private final Map<String, Integer> elementKeyToIndex;
+  // the values of every row, by row then by the index in allElementKeys
+  private final String[][] rowData;
+  private final UserTable userTable;
+
+  // what install replaced, put back by uninstall
+  private TableUtil originalTableUtil = null;
+  private ColumnUtil originalColumnUtil = null;
+
+  /**
+   * Makes up a table with string, integer and number columns in turn
+   *
+   * @param numberOfRows    the number of rows
+   * @param numberOfColumns the number of user defined columns
+   */
+  public SyntheticTable(int numberOfRows, int numberOfColumns) {
+    this.numberOfRows = numberOfRows;
+    ElementDataType[] types = { ElementDataType.string, ElementDataType.integer,
+        ElementDataType.number };
+    elementKeys = new ArrayList<>();
+    List<Column> columns = new ArrayList<>();
+    for (int i = 0; i < numberOfColumns; i++) {
+      String elementKey = "column_" + i;
+      elementKeys.add(elementKey);
+      columns.add(new Column(elementKey, elementKey, types[i % types.length].name(), "[]"));
+    }
+    columnDefinitions = new OrderedColumns(APP_NAME, TABLE_ID, columns);
+
+    adminColumns = getAdminColumns();
+
+    allElementKeys = new String[numberOfColumns + adminColumns.length];
+    elementKeyToIndex = new HashMap<>();
+    for (int i = 0; i < allElementKeys.length; i++) {
+      allElementKeys[i] =
+          i < numberOfColumns ? elementKeys.get(i) : adminColumns[i - numberOfColumns];
+      elementKeyToIndex.put(allElementKeys[i], i);
+    }
+    int idIndex = elementKeyToIndex.get(DataTableColumns.ID);
+
+    String[][] pool = new String[Math.min(numberOfRows, ROW_POOL_SIZE)][];
+    for (int r = 0; r < pool.length; r++) {
+      String[] values = new String[allElementKeys.length];
+      for (int i = 0; i < numberOfColumns; i++) {
+        if (types[i % types.length] == ElementDataType.string) {
+          values[i] = "row " + r + " column " + i;
+        } else if (types[i % types.length] == ElementDataType.integer) {
+          values[i] = Integer.toString(r * numberOfColumns + i);
+        } else {
+          values[i] = Double.toString(r + i / 100.0);
+        }
+      }
+      values[elementKeyToIndex.get(DataTableColumns.SYNC_STATE)] = SyncState.synced.name();
+      values[elementKeyToIndex.get(DataTableColumns.SAVEPOINT_TYPE)] = "COMPLETE";
+      pool[r] = values;
+    }
+    rowData = new String[numberOfRows][];
+    for (int r = 0; r < numberOfRows; r++) {
+      rowData[r] = pool[r % pool.length].clone();
+      rowData[r][idIndex] = "uuid:synthetic-" + r;
+    }
+
+    userTable = buildUserTable(0, numberOfRows);
+  }
+
+  /**
+   * @return the admin columns, sorted, as the database lists them
+   */
+  public static String[] getAdminColumns() {
+    ArrayList<String> adminColumnsList = new ArrayList<>();
+    adminColumnsList.add(DataTableColumns.ID);
+    adminColumnsList.add(DataTableColumns.ROW_ETAG);
+    adminColumnsList.add(DataTableColumns.SYNC_STATE);
+    adminColumnsList.add(DataTableColumns.CONFLICT_TYPE);
+    adminColumnsList.add(DataTableColumns.DEFAULT_ACCESS);
+    adminColumnsList.add(DataTableColumns.ROW_OWNER);
+    adminColumnsList.add(DataTableColumns.GROUP_READ_ONLY);
+    adminColumnsList.add(DataTableColumns.GROUP_MODIFY);
+    adminColumnsList.add(DataTableColumns.GROUP_PRIVILEGED);
+    adminColumnsList.add(DataTableColumns.FORM_ID);
+    adminColumnsList.add(DataTableColumns.LOCALE);
+    adminColumnsList.add(DataTableColumns.SAVEPOINT_TYPE);
+    adminColumnsList.add(DataTableColumns.SAVEPOINT_TIMESTAMP);
+    adminColumnsList.add(DataTableColumns.SAVEPOINT_CREATOR);
+    Collections.sort(adminColumnsList);
+    return adminColumnsList.toArray(new String[adminColumnsList.size()]);
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int getNumberOfRows() {
+    return numberOfRows;
+  }
+
+  /**
+   * @return the user defined columns
+   */
+  public OrderedColumns getColumnDefinitions() {
+    return columnDefinitions;
+  }
+
+  /**
+   * @return every row of the table
+   */
+  public UserTable getUserTable() {
+    return userTable;
+  }
+
+  /**
+   * A window of the data, as a query with a limit and offset would return it
+   *
+   * @param offset the index of the first row
+   * @param limit  the most rows to return
+   * @return the rows from offset on
+   */
+  public UserTable getPage(int offset, int limit) {
+    int start = Math.min(Math.max(offset, 0), numberOfRows);
+    return buildUserTable(start, Math.min(limit, numberOfRows - start));
+  }
+
+  /**
+   * @return the element keys of the user defined columns, in order
+   */
+  public List<String> getElementKeys() {
+    return elementKeys;
+  }
+
+  private UserTable buildUserTable(int offset, int count) {
+    BaseTable baseTable = new BaseTable(null, allElementKeys, elementKeyToIndex, count);
+    for (int i = 0; i < count; i++) {
+      baseTable.addRow(new Row(rowData[offset + i], baseTable));
+    }
+    return new UserTable(baseTable, columnDefinitions, adminColumns);
+  }
+
+  /**
+   * Points the test application's getDatabase, TableUtil.get and ColumnUtil.get at mocks that
+   * describe this table: default widths, no index column, no color rules and no other metadata.
+   * Simple queries honour their limit and offset and ignore everything else.
+   *
+   * @throws ServicesAvailabilityException never, the mocks don't throw
+   */
+  public void install() throws ServicesAvailabilityException {
+    TableMetaDataEntries noMetadata = mock(TableMetaDataEntries.class);
+    doReturn(new ArrayList<KeyValueStoreEntry>()).when(noMetadata).getEntries();
+
+    UserDbInterface dbInterface = mock(UserDbInterface.class);
+    doReturn(new DbHandle("synthetic")).when(dbInterface).openDatabase(anyString());
+    doReturn(adminColumns).when(dbInterface).getAdminColumns();
+    doReturn(columnDefinitions).when(dbInterface)
+        .getUserDefinedColumns(anyString(), any(DbHandle.class), anyString());
+    doReturn(noMetadata).when(dbInterface)
+        .getTableMetadata(anyString(), any(DbHandle.class), anyString(), any(), any(), any(),
+            any());
+    doAnswer(new Answer<UserTable>() {
+      @Override
+      public UserTable answer(InvocationOnMock invocation) {
+        Integer limit = invocation.getArgument(10);
+        Integer offset = invocation.getArgument(11);
+        return getPage(offset == null ? 0 : offset, limit == null ? numberOfRows : limit);
+      }
+    }).when(dbInterface).simpleQuery(anyString(), any(DbHandle.class), anyString(),
+        any(OrderedColumns.class), any(), any(), any(), any(), any(), any(), any(), any());
+    ((TestTables) RuntimeEnvironment.application).setDatabase(dbInterface);
+
+    Map<String, Integer> widths = new HashMap<>();
+    for (String elementKey : elementKeys) {
+      widths.put(elementKey, COLUMN_WIDTH);
+    }
+    TableUtil tableUtil = mock(TableUtil.class);
+    doReturn(new ArrayList<>(elementKeys)).when(tableUtil)
+        .getColumnOrder(any(), anyString(), any(), anyString(), any());
+    doReturn(FONT_SIZE).when(tableUtil)
+        .getSpreadsheetViewFontSize(any(), any(), anyString(), any(), anyString());
+    ColumnUtil columnUtil = mock(ColumnUtil.class);
+    doReturn(widths).when(columnUtil).getColumnWidths(any(), anyString(), any(), anyString(),
+        any());
+    doAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) {
+        return invocation.<String>getArgument(5);
+      }
+    }).when(columnUtil).getLocalizedDisplayName(any(), any(), anyString(), any(), anyString(),
+        anyString());
+
+    originalTableUtil = TableUtil.get();
+    originalColumnUtil = ColumnUtil.get();
+    TableUtil.set(tableUtil);
+    ColumnUtil.set(columnUtil);
+  }
+
+  /**
+   * Puts back what install replaced
+   */
+  public void uninstall() {
+    ((TestTables) RuntimeEnvironment.application).setDatabase(null);
+    if (originalTableUtil != null) {
+      TableUtil.set(originalTableUtil);
+      ColumnUtil.set(originalColumnUtil);
+      originalTableUtil = null;
+      originalColumnUtil = null;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.benchmarks;
+
+import org.opendatakit.tables.logic.AverageAngle;
+import org.opendatakit.tables.utils.DistanceUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The location math behind the navigate screen: the Vincenty distance to the target for each
+ * location fix, and the circular mean that smooths compass readings
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeoBenchmark {
+
+  // a power of two so the index can wrap with a mask
+  private static final int POINTS = 1024;
+
+  private final double[] latitudes = new double[POINTS];
+  private final double[] longitudes = new double[POINTS];
+  private final double[] angles = new double[POINTS];
+  private AverageAngle averageAngle;
+  private int index = 0;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < POINTS; i++) {
+      // fixes within a few kilometres of the target, as when navigating to a row
+      latitudes[i] = 47.6 + random.nextDouble() * 0.05;
+      longitudes[i] = -122.3 + random.nextDouble() * 0.05;
+      angles[i] = (random.nextDouble() - 0.5) * 2 * Math.PI;
+    }
+    averageAngle = new AverageAngle(10);
+  }
+
+  @Benchmark
+  public double distance() {
+    int i = index++ & (POINTS - 1);
+    return DistanceUtil.getDistance(latitudes[i], longitudes[i], 47.62, -122.28);
+  }
+
+  @Benchmark
+  public double averageAngle() {
+    averageAngle.add(angles[index++ & (POINTS - 1)]);
+    return averageAngle.getAverage();
+  }
+}
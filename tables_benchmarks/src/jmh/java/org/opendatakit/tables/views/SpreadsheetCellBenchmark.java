@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first thing the spreadsheet does every frame: finding the visible rows and columns for a
+ * scroll position with VisibleRange, as TabularView.onDraw does for the main data view
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpreadsheetCellBenchmark {
+
+  private static final int BORDER_WIDTH = 1;
+  private static final int ROW_HEIGHT = 48;
+  private static final int SCREEN_WIDTH = 1080;
+  private static final int SCREEN_HEIGHT = 1920;
+  // a power of two so the index can wrap with a mask
+  private static final int SCROLL_POSITIONS = 256;
+
+  @Param({ "10000" })
+  public int rows;
+
+  @Param({ "40" })
+  public int columns;
+
+  private int[] xs;
+  private int[] spans;
+  private int[] columnWidths;
+  private final int[] xScrolls = new int[SCROLL_POSITIONS];
+  private final int[] yScrolls = new int[SCROLL_POSITIONS];
+  private int index = 0;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    columnWidths = new int[columns];
+    xs = new int[columns];
+    spans = new int[columns];
+    int x = BORDER_WIDTH;
+    for (int j = 0; j < columns; j++) {
+      columnWidths[j] = 60 + random.nextInt(240);
+      xs[j] = x;
+      spans[j] = x - BORDER_WIDTH;
+      x += columnWidths[j] + BORDER_WIDTH;
+    }
+    int totalWidth = x;
+    int maxY = rows * (ROW_HEIGHT + BORDER_WIDTH) - SCREEN_HEIGHT;
+    for (int i = 0; i < SCROLL_POSITIONS; i++) {
+      xScrolls[i] = random.nextInt(Math.max(1, totalWidth - SCREEN_WIDTH));
+      yScrolls[i] = random.nextInt(Math.max(1, maxY));
+    }
+  }
+
+  @Benchmark
+  public int visibleRange() {
+    int i = index++ & (SCROLL_POSITIONS - 1);
+    int rowPitch = ROW_HEIGHT + BORDER_WIDTH;
+    int topmost = VisibleRange.topmostRow(yScrolls[i], rowPitch);
+    int bottommost = VisibleRange.bottommostRow(yScrolls[i], SCREEN_HEIGHT, rowPitch, rows);
+    int leftmost = VisibleRange.columnAt(spans, xs.length, xScrolls[i]);
+    int rightmost = VisibleRange.columnAt(spans, xs.length, xScrolls[i] + SCREEN_WIDTH);
+    return topmost ^ (bottommost << 8) ^ (leftmost << 16) ^ (rightmost << 24);
+  }
+}
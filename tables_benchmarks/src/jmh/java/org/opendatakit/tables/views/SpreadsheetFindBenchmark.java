@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The spreadsheet's find bar: building the SpreadsheetFindIndex over a whole table, and the
+ * search run on every key press as a query is typed one letter at a time. The table's cells are
+ * made up: a row id, then columns cycling through text, integers and numbers, about one cell in
+ * twenty null.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpreadsheetFindBenchmark {
+
+  // what the user types, a letter at a time, a text query and then a number
+  private static final String[] KEY_PRESSES = { "v", "va", "val", "valu", "value", "value ",
+      "value 4", "value 42", "4", "42", "421" };
+
+  @Param({ "100000" })
+  public int rows;
+
+  @Param({ "20" })
+  public int columns;
+
+  private SpreadsheetFindIndex.CellText cells;
+  private SpreadsheetFindIndex index;
+  private int keyPress = 0;
+
+  @Setup
+  public void setUp() {
+    final String[][] table = buildCells(rows, columns, new Random(42));
+    cells = new SpreadsheetFindIndex.CellText() {
+      @Override
+      public String getText(int row, int column) {
+        return table[row][column];
+      }
+    };
+    index = new SpreadsheetFindIndex(cells, rows, columns, Locale.US);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public SpreadsheetFindIndex build() {
+    return new SpreadsheetFindIndex(cells, rows, columns, Locale.US);
+  }
+
+  @Benchmark
+  public int findAsYouType() {
+    SpreadsheetFindIndex.Matches matches = index.find(KEY_PRESSES[keyPress]);
+    keyPress = (keyPress + 1) % KEY_PRESSES.length;
+    // what the find bar does with the result: show the first match and say which of how many
+    int first = matches.next(-1);
+    return matches.size() + matches.indexOf(first);
+  }
+
+  private static String[][] buildCells(int rowCount, int columnCount, Random random) {
+    String[][] table = new String[rowCount][columnCount];
+    for (int i = 0; i < rowCount; i++) {
+      table[i][0] = "uuid:" + Long.toHexString(random.nextLong());
+      for (int j = 1; j < columnCount; j++) {
+        if (random.nextInt(20) == 0) {
+          continue;
+        }
+        switch (j % 3) {
+        case 0:
+          table[i][j] = "value " + random.nextInt(500);
+          break;
+        case 1:
+          table[i][j] = Integer.toString(random.nextInt(1000));
+          break;
+        default:
+          table[i][j] = Double.toString(random.nextDouble() * 1000);
+        }
+      }
+    }
+    return table;
+  }
+}